@@ -0,0 +1,95 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.SignedInfo.ContentType;
+
+/**
+ * Fixed inputs shared by the benchmarks. Everything is generated from a fixed seed
+ * and built without a KeyManager or ccnd so that the benchmarks run offline and
+ * measure the same work from one release to the next.
+ */
+public class BenchmarkData {
+
+	public static final long SEED = 0x6363e78L;
+	public static final int CONTENT_SIZE = 4096;
+	public static final String PREFIX = "ccnx:/parc.com/benchmark/data";
+
+	protected static KeyPair _keyPair = null;
+
+	/**
+	 * @return an RSA key pair, generated once per JVM
+	 */
+	public static synchronized KeyPair keyPair() throws Exception {
+		if (null == _keyPair) {
+			KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+			kpg.initialize(1024);
+			_keyPair = kpg.generateKeyPair();
+		}
+		return _keyPair;
+	}
+
+	public static PublisherPublicKeyDigest publisher() throws Exception {
+		return new PublisherPublicKeyDigest(keyPair().getPublic());
+	}
+
+	/**
+	 * Names of the form PREFIX/file<n>/<version>/<segment>, spread over a number of files
+	 * @param count number of names
+	 * @param files number of distinct files
+	 */
+	public static ContentName [] names(int count, int files) throws Exception {
+		ContentName prefix = ContentName.fromURI(PREFIX);
+		ContentName [] names = new ContentName[count];
+		for (int i = 0; i < count; i++) {
+			ContentName file = VersioningProfile.addVersion(new ContentName(prefix, "file" + (i % files)), 1000L + (i % files));
+			names[i] = SegmentationProfile.segmentName(file, i / files);
+		}
+		return names;
+	}
+
+	public static byte [] content(Random random, int size) {
+		byte [] content = new byte[size];
+		random.nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * Signed content objects for the given names
+	 */
+	public static ContentObject [] contentObjects(ContentName [] names) throws Exception {
+		Random random = new Random(SEED);
+		PublisherPublicKeyDigest publisher = publisher();
+		ContentObject [] objects = new ContentObject[names.length];
+		for (int i = 0; i < names.length; i++) {
+			objects[i] = new ContentObject(names[i], new SignedInfo(publisher, ContentType.DATA, null),
+					content(random, CONTENT_SIZE), keyPair().getPrivate());
+		}
+		return objects;
+	}
+}
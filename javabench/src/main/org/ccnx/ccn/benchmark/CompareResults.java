@@ -0,0 +1,153 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compare two sets of JMH results written with -rf csv, typically a baseline from
+ * javabench/baseline and a new run. Prints the change in score for each benchmark
+ * and parameter combination and exits with status 1 if any benchmark got slower by
+ * more than the threshold and by more than the combined measurement error. Every mode
+ * is checked: for avgt, sample and ss a higher score is slower, for thrpt a lower one.
+ * Results whose units differ from the baseline's are listed as new rather than compared.
+ *
+ * Usage: CompareResults baseline.csv new.csv [threshold-percent]
+ */
+public class CompareResults {
+
+	public static final double DEFAULT_THRESHOLD = 10.0;
+
+	static class Result {
+		String mode;
+		double score;
+		double error;
+		String unit;
+	}
+
+	public static void main(String [] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: CompareResults <baseline.csv> <new.csv> [threshold-percent]");
+			System.exit(2);
+		}
+		double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+		Map<String, Result> baseline = read(args[0]);
+		Map<String, Result> current = read(args[1]);
+
+		int regressions = 0;
+		System.out.println(String.format("%-70s %14s %14s %9s", "Benchmark", "Baseline", "New", "Change"));
+		for (Map.Entry<String, Result> entry : current.entrySet()) {
+			Result now = entry.getValue();
+			Result then = baseline.get(entry.getKey());
+			if (null == then || !then.unit.equals(now.unit)) {
+				System.out.println(String.format("%-70s %14s %14.3f %9s", entry.getKey(), "-", now.score, "new"));
+				continue;
+			}
+			double change = 100.0 * (now.score - then.score) / then.score;
+			// For throughput a higher score is better
+			double slower = now.mode.equals("thrpt") ? -change : change;
+			// Don't report differences within the measurement error
+			boolean significant = Math.abs(now.score - then.score) > (now.error + then.error);
+			String flag = "";
+			if (significant && slower > threshold) {
+				flag = " REGRESSION";
+				regressions++;
+			}
+			System.out.println(String.format("%-70s %14.3f %14.3f %+8.1f%%%s", entry.getKey(), then.score, now.score, change, flag));
+		}
+		for (String name : baseline.keySet()) {
+			if (!current.containsKey(name))
+				System.out.println(String.format("%-70s %14.3f %14s %9s", name, baseline.get(name).score, "-", "missing"));
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmarks slower by more than " + threshold + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read a JMH csv result file
+	 * @return results keyed by benchmark name and parameter values
+	 */
+	public static Map<String, Result> read(String file) throws IOException {
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			if (null == line)
+				return results;
+			ArrayList<String> header = split(line);
+			int benchmark = header.indexOf("Benchmark");
+			int mode = header.indexOf("Mode");
+			int score = header.indexOf("Score");
+			int error = header.indexOf("Score Error (99.9%)");
+			int unit = header.indexOf("Unit");
+			while (null != (line = reader.readLine())) {
+				if (line.trim().length() == 0)
+					continue;
+				ArrayList<String> fields = split(line);
+				StringBuilder key = new StringBuilder(fields.get(benchmark));
+				for (int i = 0; i < header.size(); i++) {
+					if (header.get(i).startsWith("Param: ") && i < fields.size() && fields.get(i).length() > 0)
+						key.append(':').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+				}
+				Result result = new Result();
+				result.mode = fields.get(mode);
+				result.score = Double.parseDouble(fields.get(score));
+				result.error = (error < 0 || fields.get(error).equals("NaN")) ? 0.0 : Double.parseDouble(fields.get(error));
+				result.unit = fields.get(unit);
+				results.put(key.toString(), result);
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Split a csv line, handling quoted fields
+	 */
+	protected static ArrayList<String> split(String line) {
+		ArrayList<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
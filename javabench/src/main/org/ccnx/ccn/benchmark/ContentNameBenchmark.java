@@ -0,0 +1,65 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.protocol.ContentName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentName parsing, comparison and hashing
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentNameBenchmark {
+
+	ContentName _name;
+	ContentName _sibling;
+	String _uri;
+
+	@Setup
+	public void setup() throws Exception {
+		ContentName [] names = BenchmarkData.names(2, 1);
+		_name = names[0];
+		_sibling = names[1];
+		_uri = _name.toURIString();
+	}
+
+	@Benchmark
+	public ContentName parse() throws Exception {
+		return ContentName.fromURI(_uri);
+	}
+
+	@Benchmark
+	public String toURI() {
+		return _name.toURIString();
+	}
+
+	@Benchmark
+	public int compare() {
+		return _name.compareTo(_sibling);
+	}
+
+	@Benchmark
+	public boolean isPrefixOf() {
+		return _sibling.parent().isPrefixOf(_name);
+	}
+
+	@Benchmark
+	public int hash() {
+		// Copy so that any cached hash code isn't what's being measured
+		return new ContentName(_name).hashCode();
+	}
+}
@@ -0,0 +1,91 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.ContentTree.ContentGetter;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentTree insert and get, with content held in memory
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentTreeBenchmark {
+
+	static class ObjectRef extends ContentRef {
+		final ContentObject _object;
+		ObjectRef(ContentObject object) { _object = object; }
+	}
+
+	static final ContentGetter GETTER = new ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return ((ObjectRef)ref)._object;
+		}
+	};
+
+	@Param({"1000", "20000"})
+	public int size;
+
+	ContentObject [] _objects;
+	Interest [] _exact;
+	Interest [] _latest;
+	ContentTree _tree;
+	int _next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		ContentName [] names = BenchmarkData.names(size, size / 100);
+		_objects = BenchmarkData.contentObjects(names);
+		_exact = new Interest[size];
+		_latest = new Interest[size];
+		for (int i = 0; i < size; i++) {
+			_exact[i] = new Interest(names[i]);
+			_latest[i] = Interest.last(names[i].parent().parent(), null, null);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void fill() {
+		_tree = new ContentTree();
+		for (ContentObject object : _objects)
+			_tree.insert(object, new ObjectRef(object), System.currentTimeMillis(), GETTER, null);
+	}
+
+	@Benchmark
+	public boolean insertDuplicate() {
+		_next = (_next + 1) % _objects.length;
+		return _tree.insert(_objects[_next], new ObjectRef(_objects[_next]), System.currentTimeMillis(), GETTER, null);
+	}
+
+	@Benchmark
+	public ContentObject getExact() {
+		_next = (_next + 1) % _exact.length;
+		return _tree.get(_exact[_next], GETTER);
+	}
+
+	@Benchmark
+	public ContentObject getLatest() {
+		_next = (_next + 1) % _latest.length;
+		return _tree.get(_latest[_next], GETTER);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.benchmark;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.protocol.ContentName;
+
+/**
+ * Measure the heap used by a repository ContentTree per name stored, which is not something
+ * JMH can do. Names are BenchmarkData names with a digest added, all sharing one ref so that
+ * only the tree itself is measured; the components are copied so that none are shared with
+ * names which are no longer in use. Run with a heap big enough for the names plus the tree,
+ * and no other activity in the JVM.
+ *
+ * Usage: ContentTreeFootprint [names]
+ */
+public class ContentTreeFootprint {
+
+	public static final int DEFAULT_NAMES = 1000000;
+
+	static final ContentRef REF = new ContentRef() {};
+
+	public static void main(String [] args) throws Exception {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NAMES;
+		long before = used();
+		ContentTree tree = new ContentTree();
+		ContentName [] names = BenchmarkData.names(count, Math.max(1, count / 1000));
+		long ts = System.currentTimeMillis();
+		ContentName last = null;
+		for (int i = 0; i < count; i++) {
+			byte [][] components = new byte[names[i].count() + 1][];
+			for (int j = 0; j < names[i].count(); j++)
+				components[j] = names[i].component(j).clone();
+			components[names[i].count()] = CCNDigestHelper.digest(Integer.toString(i).getBytes());
+			last = new ContentName(components);
+			tree.insert(last, REF, ts);
+			names[i] = null;
+		}
+		names = null;
+		long after = used();
+		if (null == tree.getRefs(last))
+			throw new IllegalStateException("Name missing from tree: " + last);
+		System.out.println(String.format("%d names: %d bytes, %.1f bytes per name", count, after - before,
+				(double)(after - before) / count));
+	}
+
+	static long used() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(100);
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
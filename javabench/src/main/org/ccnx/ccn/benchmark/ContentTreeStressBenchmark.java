@@ -0,0 +1,121 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.benchmark.ContentTreeBenchmark.ObjectRef;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentTree gets from several threads while another thread inserts and removes content
+ * under the same names, as when a repository is serving content while it is being written.
+ * Use -tg to change the number of reader and writer threads, for example -tg 7,1.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ContentTreeStressBenchmark {
+
+	@State(Scope.Thread)
+	public static class Position {
+		int _next = 0;
+
+		int next(int length) {
+			_next = (_next + 1) % length;
+			return _next;
+		}
+	}
+
+	@Param({"20000"})
+	public int size;
+
+	// Content which stays in the tree, and content which the writers add and remove. The
+	// names are interleaved, so the writers change the same nodes the readers are using.
+	ContentObject [] _objects;
+	ContentObject [] _changing;
+	ContentName [] _changingNames;
+	Interest [] _exact;
+	Interest [] _latest;
+	ContentTree _tree;
+
+	@Setup
+	public void setup() throws Exception {
+		ContentName [] names = BenchmarkData.names(2 * size, size / 50);
+		ContentObject [] objects = BenchmarkData.contentObjects(names);
+		_objects = new ContentObject[size];
+		_changing = new ContentObject[size];
+		_changingNames = new ContentName[size];
+		_exact = new Interest[size];
+		_latest = new Interest[size];
+		for (int i = 0; i < size; i++) {
+			_objects[i] = objects[2 * i];
+			_changing[i] = objects[2 * i + 1];
+			_changingNames[i] = _changing[i].fullName();
+			_exact[i] = new Interest(names[2 * i]);
+			_latest[i] = Interest.last(names[2 * i].parent().parent(), null, null);
+		}
+		_tree = new ContentTree();
+		for (ContentObject object : _objects)
+			_tree.insert(object, new ObjectRef(object), System.currentTimeMillis(), ContentTreeBenchmark.GETTER, null);
+	}
+
+	/**
+	 * Add the next changing content if it isn't in the tree, or remove it if it is
+	 */
+	boolean change(Position position) {
+		int i = position.next(_changing.length);
+		List<ContentRef> refs = _tree.getRefs(_changingNames[i]);
+		if (null == refs)
+			return _tree.insert(_changing[i], new ObjectRef(_changing[i]), System.currentTimeMillis(),
+					ContentTreeBenchmark.GETTER, null);
+		return _tree.remove(_changingNames[i], refs.get(0));
+	}
+
+	@Benchmark
+	@Group("exact")
+	@GroupThreads(3)
+	public ContentObject getExact(Position position) {
+		return _tree.get(_exact[position.next(_exact.length)], ContentTreeBenchmark.GETTER);
+	}
+
+	@Benchmark
+	@Group("exact")
+	@GroupThreads(1)
+	public boolean changeExact(Position position) {
+		return change(position);
+	}
+
+	@Benchmark
+	@Group("latest")
+	@GroupThreads(3)
+	public ContentObject getLatest(Position position) {
+		return _tree.get(_latest[position.next(_latest.length)], ContentTreeBenchmark.GETTER);
+	}
+
+	@Benchmark
+	@Group("latest")
+	@GroupThreads(1)
+	public boolean changeLatest(Position position) {
+		return change(position);
+	}
+}
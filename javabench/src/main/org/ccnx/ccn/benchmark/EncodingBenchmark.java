@@ -0,0 +1,72 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Exclude;
+import org.ccnx.ccn.protocol.Interest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BinaryXMLEncoder/BinaryXMLDecoder on ContentObjects and Interests
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+	ContentObject _object;
+	byte [] _encodedObject;
+	Interest _interest;
+	byte [] _encodedInterest;
+
+	@Setup
+	public void setup() throws Exception {
+		ContentName [] names = BenchmarkData.names(1, 1);
+		_object = BenchmarkData.contentObjects(names)[0];
+		_encodedObject = _object.encode(BinaryXMLCodec.CODEC_NAME);
+
+		_interest = Interest.last(names[0].parent(), null, null);
+		_interest.exclude(new Exclude(new byte [][]{"a".getBytes(), "b".getBytes(), "c".getBytes()}));
+		_interest.maxSuffixComponents(3);
+		_encodedInterest = _interest.encode(BinaryXMLCodec.CODEC_NAME);
+	}
+
+	@Benchmark
+	public byte [] encodeContentObject() throws Exception {
+		return _object.encode(BinaryXMLCodec.CODEC_NAME);
+	}
+
+	@Benchmark
+	public ContentObject decodeContentObject() throws Exception {
+		ContentObject co = new ContentObject();
+		co.decode(_encodedObject, BinaryXMLCodec.CODEC_NAME);
+		return co;
+	}
+
+	@Benchmark
+	public byte [] encodeInterest() throws Exception {
+		return _interest.encode(BinaryXMLCodec.CODEC_NAME);
+	}
+
+	@Benchmark
+	public Interest decodeInterest() throws Exception {
+		Interest interest = new Interest();
+		interest.decode(_encodedInterest, BinaryXMLCodec.CODEC_NAME);
+		return interest;
+	}
+}
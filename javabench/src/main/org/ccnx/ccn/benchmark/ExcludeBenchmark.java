@@ -0,0 +1,86 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.protocol.BloomFilter;
+import org.ccnx.ccn.protocol.Exclude;
+import org.ccnx.ccn.protocol.ExcludeComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exclude filter and BloomFilter matching
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings("deprecation")
+public class ExcludeBenchmark {
+
+	@Param({"10", "1000"})
+	public int size;
+
+	Exclude _exclude;
+	Exclude _bloomExclude;
+	BloomFilter _bloom;
+	byte [][] _probes;
+	int _next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		Random random = new Random(BenchmarkData.SEED);
+		byte [][] components = new byte[size][];
+		for (int i = 0; i < size; i++)
+			components[i] = DataUtils.unsignedLongToByteArray(2 * i + 1);
+		_exclude = new Exclude(components);
+
+		_bloom = new BloomFilter(size, BloomFilter.createSeed());
+		_bloom.insert(components);
+		ArrayList<Exclude.Element> elements = new ArrayList<Exclude.Element>();
+		elements.add(new ExcludeComponent(components[0]));
+		elements.add(_bloom);
+		_bloomExclude = new Exclude(elements);
+
+		_probes = new byte[1024][];
+		for (int i = 0; i < _probes.length; i++)
+			_probes[i] = DataUtils.unsignedLongToByteArray(random.nextInt(2 * size + 2));
+	}
+
+	@Benchmark
+	public boolean matchComponents() {
+		_next = (_next + 1) & (_probes.length - 1);
+		return _exclude.match(_probes[_next]);
+	}
+
+	@Benchmark
+	public boolean matchBloomExclude() {
+		_next = (_next + 1) & (_probes.length - 1);
+		return _bloomExclude.match(_probes[_next]);
+	}
+
+	@Benchmark
+	public boolean matchBloom() {
+		_next = (_next + 1) & (_probes.length - 1);
+		return _bloom.match(_probes[_next]);
+	}
+
+	@Benchmark
+	public boolean [] matchBloomBatch() {
+		return _bloom.match(_probes);
+	}
+}
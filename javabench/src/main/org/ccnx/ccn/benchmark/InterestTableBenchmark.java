@@ -0,0 +1,64 @@
+package org.ccnx.ccn.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.InterestTable;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InterestTable add and match with a table holding a number of outstanding interests
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterestTableBenchmark {
+
+	@Param({"100", "10000"})
+	public int size;
+
+	InterestTable<Integer> _table;
+	Interest [] _interests;
+	ContentObject [] _objects;
+	int _next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		ContentName [] names = BenchmarkData.names(size, size / 10);
+		_objects = BenchmarkData.contentObjects(names);
+		_interests = new Interest[size];
+		_table = new InterestTable<Integer>();
+		for (int i = 0; i < size; i++) {
+			_interests[i] = new Interest(names[i]);
+			_table.add(_interests[i], i);
+		}
+	}
+
+	@Benchmark
+	public Integer match() {
+		_next = (_next + 1) % _objects.length;
+		return _table.getValue(_objects[_next]);
+	}
+
+	@Benchmark
+	public Object addRemove() {
+		_next = (_next + 1) % _interests.length;
+		_table.add(_interests[_next], -1);
+		return _table.remove(_interests[_next], -1);
+	}
+}
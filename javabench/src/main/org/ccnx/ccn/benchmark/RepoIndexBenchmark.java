@@ -0,0 +1,179 @@
+package org.ccnx.ccn.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.LogFileFormat;
+import org.ccnx.ccn.impl.repo.LogIndexBuilder;
+import org.ccnx.ccn.impl.repo.ContentTree.ContentGetter;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rebuilding a repository index from log files: the serial decode and insert loop used by
+ * LogStructRepoStore against LogIndexBuilder with a number of threads, and the serial loop
+ * over log files in the format used before records had headers
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepoIndexBenchmark {
+
+	static class OffsetRef extends ContentRef {
+		final int _id;
+		final long _offset;
+		OffsetRef(int id, long offset) { _id = id; _offset = offset; }
+	}
+
+	static final LogIndexBuilder.RefFactory FACTORY = new LogIndexBuilder.RefFactory() {
+		public ContentRef ref(int id, long offset, byte [] record, PublisherPublicKeyDigest publisher) {
+			return new OffsetRef(id, offset);
+		}
+	};
+
+	// The tree only asks for content to check duplicates, and the logs have none
+	static final ContentGetter GETTER = new ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return null;
+		}
+	};
+
+	@Param({"1", "4"})
+	public int files;
+
+	@Param({"10000"})
+	public int recordsPerFile;
+
+	@Param({"2", "4", "8"})
+	public int threads;
+
+	File _dir;
+	TreeMap<Integer, File> _files = new TreeMap<Integer, File>();
+	TreeMap<Integer, File> _legacyFiles = new TreeMap<Integer, File>();
+
+	@Setup
+	public void setup() throws Exception {
+		_dir = File.createTempFile("repoindex", "");
+		_dir.delete();
+		_dir.mkdir();
+		// Names are spread across the files so that there are no duplicates
+		ContentName [] names = BenchmarkData.names(files * recordsPerFile, files * recordsPerFile / 100);
+		ContentObject [] objects = BenchmarkData.contentObjects(names);
+		for (int id = 1; id <= files; id++) {
+			File file = new File(_dir, "repoFile" + id);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			out.write(LogFileFormat.fileHeader());
+			for (int i = id - 1; i < objects.length; i += files) {
+				byte [] record = objects[i].encode();
+				out.write(LogFileFormat.recordHeader(record).array());
+				out.write(record);
+			}
+			out.close();
+			_files.put(id, file);
+			
+			File legacy = new File(_dir, "legacy" + id);
+			out = new BufferedOutputStream(new FileOutputStream(legacy));
+			for (int i = id - 1; i < objects.length; i += files)
+				objects[i].encode(out);
+			out.close();
+			_legacyFiles.put(id, legacy);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : _files.values())
+			file.delete();
+		for (File file : _legacyFiles.values())
+			file.delete();
+		_dir.delete();
+	}
+
+	@Benchmark
+	public ContentTree serial() throws Exception {
+		ContentTree tree = new ContentTree();
+		for (Map.Entry<Integer, File> entry : _files.entrySet()) {
+			File file = entry.getValue();
+			long ts = file.lastModified();
+			FileInputStream in = new FileInputStream(file);
+			LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), 0);
+			byte [] record;
+			while (null != (record = reader.next()))
+				tree.insert(ContentObject.fromWire(record), new OffsetRef(entry.getKey(), reader.recordOffset()), ts, GETTER, null);
+			in.close();
+		}
+		return tree;
+	}
+
+	@Benchmark
+	public ContentTree legacy() throws Exception {
+		ContentTree tree = new ContentTree();
+		for (Map.Entry<Integer, File> entry : _legacyFiles.entrySet()) {
+			File file = entry.getValue();
+			long length = file.length();
+			InputStream in = new BufferedInputStream(new FileInputStream(file), 8192);
+			CountingInputStream counter = new CountingInputStream(in);
+			while (counter.count() < length) {
+				long offset = counter.count();
+				ContentObject object = new ContentObject();
+				object.decode(counter);
+				tree.insert(object, new OffsetRef(entry.getKey(), offset), file.lastModified(), GETTER, null);
+			}
+			in.close();
+		}
+		return tree;
+	}
+
+	@Benchmark
+	public ContentTree parallel() throws Exception {
+		ContentTree tree = new ContentTree();
+		new LogIndexBuilder(tree, FACTORY, threads).build(_files, null);
+		return tree;
+	}
+
+	static class CountingInputStream extends java.io.FilterInputStream {
+		long _count = 0;
+		CountingInputStream(InputStream in) { super(in); }
+		long count() { return _count; }
+		@Override
+		public int read() throws java.io.IOException {
+			int b = super.read();
+			if (b >= 0)
+				_count++;
+			return b;
+		}
+		@Override
+		public int read(byte [] b, int off, int len) throws java.io.IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				_count += n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.ccnx.ccn.benchmark;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing and verification of single objects, and Merkle tree construction over a
+ * block of segments
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SigningBenchmark {
+
+	@Param({"16", "128"})
+	public int blockSize;
+
+	ContentObject [] _objects;
+	ContentObject _signed;
+	PrivateKey _privateKey;
+	PublicKey _publicKey;
+
+	@Setup
+	public void setup() throws Exception {
+		_privateKey = BenchmarkData.keyPair().getPrivate();
+		_publicKey = BenchmarkData.keyPair().getPublic();
+		_signed = BenchmarkData.contentObjects(BenchmarkData.names(1, 1))[0];
+		_objects = BenchmarkData.contentObjects(BenchmarkData.names(blockSize, 1));
+		// Leave the segments with Merkle path signatures for verifyMerkleSegment
+		new CCNMerkleTree(_objects, _privateKey);
+	}
+
+	@Benchmark
+	public ContentObject sign() throws Exception {
+		_signed.sign(_privateKey);
+		return _signed;
+	}
+
+	@Benchmark
+	public boolean verify() throws Exception {
+		return _signed.verify(_publicKey);
+	}
+
+	@Benchmark
+	public CCNMerkleTree merkleTree() throws Exception {
+		return new CCNMerkleTree(_objects, _privateKey);
+	}
+
+	@Benchmark
+	public boolean verifyMerkleSegment() throws Exception {
+		return _objects[blockSize / 2].verify(_publicKey);
+	}
+}
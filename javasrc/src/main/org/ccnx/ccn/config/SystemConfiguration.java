@@ -258,6 +258,278 @@ public class SystemConfiguration {
 	protected final static String DUMP_NETMANAGER_STATS_ENV_VAR = "CCNX_DUMP_NETMANAGER_STATS";
 	public static boolean DUMP_NETMANAGER_STATS = false;
 
+	/**
+	 * Size of the table used to intern decoded name components. 0 (the default)
+	 * disables interning.
+	 * @see org.ccnx.ccn.impl.support.ComponentInterner
+	 */
+	protected static final String NAME_INTERN_SIZE_PROPERTY = "org.ccnx.name.intern.size";
+	protected final static String NAME_INTERN_SIZE_ENV_VAR = "CCNX_NAME_INTERN_SIZE";
+	public final static int NAME_INTERN_SIZE_DEFAULT = 0;
+	public static int NAME_INTERN_SIZE = NAME_INTERN_SIZE_DEFAULT;
+
+	/**
+	 * Interval in seconds between checkpoints of the repository index. The index is also
+	 * checkpointed on shutdown. 0 turns off periodic checkpoints.
+	 */
+	protected static final String REPO_CHECKPOINT_INTERVAL_PROPERTY = "org.ccnx.repo.checkpoint.interval";
+	protected final static String REPO_CHECKPOINT_INTERVAL_ENV_VAR = "CCNX_REPO_CHECKPOINT_INTERVAL";
+	public final static int REPO_CHECKPOINT_INTERVAL_DEFAULT = 300;
+	public static int REPO_CHECKPOINT_INTERVAL = REPO_CHECKPOINT_INTERVAL_DEFAULT;
+
+	/**
+	 * Number of threads used to rebuild the repository index from the log files at startup.
+	 * 1 (the default) reads the files one after the other, 0 uses one thread per processor.
+	 * @see org.ccnx.ccn.impl.repo.LogIndexBuilder
+	 */
+	protected static final String REPO_INDEX_THREADS_PROPERTY = "org.ccnx.repo.index.threads";
+	protected final static String REPO_INDEX_THREADS_ENV_VAR = "CCNX_REPO_INDEX_THREADS";
+	public final static int REPO_INDEX_THREADS_DEFAULT = 1;
+	public static int REPO_INDEX_THREADS = REPO_INDEX_THREADS_DEFAULT;
+
+	/**
+	 * Should the repository index its content by digest and by publisher as well as by name.
+	 * Exact fetches by full name and interests restricted to a publisher are then answered
+	 * without walking the whole of the index under their prefix.
+	 * @see org.ccnx.ccn.impl.repo.ContentTree#setIndexed(boolean)
+	 */
+	protected static final String REPO_SECONDARY_INDEXES_PROPERTY = "org.ccnx.repo.index.secondary";
+	protected final static String REPO_SECONDARY_INDEXES_ENV_VAR = "CCNX_REPO_INDEX_SECONDARY";
+	public final static boolean REPO_SECONDARY_INDEXES_DEFAULT = false;
+	public static boolean REPO_SECONDARY_INDEXES = REPO_SECONDARY_INDEXES_DEFAULT;
+
+	/**
+	 * Number of threads decoding and saving each file imported into the repository. 0 (the
+	 * default) uses one thread per processor.
+	 * @see org.ccnx.ccn.impl.repo.BulkImporter
+	 */
+	protected static final String REPO_IMPORT_THREADS_PROPERTY = "org.ccnx.repo.import.threads";
+	protected final static String REPO_IMPORT_THREADS_ENV_VAR = "CCNX_REPO_IMPORT_THREADS";
+	public final static int REPO_IMPORT_THREADS_DEFAULT = 0;
+	public static int REPO_IMPORT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Size in bytes of the repository cache of recently read content. 0 turns the cache off.
+	 * @see org.ccnx.ccn.impl.repo.ContentCache
+	 */
+	protected static final String REPO_CACHE_SIZE_PROPERTY = "org.ccnx.repo.cache.size";
+	protected final static String REPO_CACHE_SIZE_ENV_VAR = "CCNX_REPO_CACHE_SIZE";
+	public final static long REPO_CACHE_SIZE_DEFAULT = 32 * 1024 * 1024;
+	public static long REPO_CACHE_SIZE = REPO_CACHE_SIZE_DEFAULT;
+
+	/**
+	 * Size in bytes of the memory tier of a tiered repository, which holds content just written
+	 * or read so that it is read again without going to disk.
+	 * @see org.ccnx.ccn.impl.repo.TieredRepoStore
+	 */
+	protected static final String REPO_MEMORY_TIER_SIZE_PROPERTY = "org.ccnx.repo.tier.size";
+	protected final static String REPO_MEMORY_TIER_SIZE_ENV_VAR = "CCNX_REPO_TIER_SIZE";
+	public final static long REPO_MEMORY_TIER_SIZE_DEFAULT = 64 * 1024 * 1024;
+	public static long REPO_MEMORY_TIER_SIZE = REPO_MEMORY_TIER_SIZE_DEFAULT;
+
+	/**
+	 * Time in milliseconds content stays in the memory tier of a tiered repository without
+	 * being read.
+	 * @see org.ccnx.ccn.impl.repo.TieredRepoStore
+	 */
+	protected static final String REPO_MEMORY_TIER_AGE_PROPERTY = "org.ccnx.repo.tier.age";
+	protected final static String REPO_MEMORY_TIER_AGE_ENV_VAR = "CCNX_REPO_TIER_AGE";
+	public final static long REPO_MEMORY_TIER_AGE_DEFAULT = 5 * 60 * 1000;
+	public static long REPO_MEMORY_TIER_AGE = REPO_MEMORY_TIER_AGE_DEFAULT;
+
+	/**
+	 * Number of prefixes the repository keeps signed name enumeration responses for, so they can
+	 * be sent again while the names under the prefix don't change. 0 turns the cache off.
+	 * @see org.ccnx.ccn.impl.repo.NameEnumerationCache
+	 */
+	protected static final String REPO_ENUMERATION_CACHE_PROPERTY = "org.ccnx.repo.enumeration.cache";
+	protected final static String REPO_ENUMERATION_CACHE_ENV_VAR = "CCNX_REPO_ENUMERATION_CACHE";
+	public final static int REPO_ENUMERATION_CACHE_DEFAULT = 1024;
+	public static int REPO_ENUMERATION_CACHE = REPO_ENUMERATION_CACHE_DEFAULT;
+
+	/**
+	 * Number of segments the repository reads ahead of a stream which is being read in order.
+	 * Read ahead content is held in the repository cache, so 0 or no cache turns it off.
+	 * @see org.ccnx.ccn.impl.repo.RepositoryInterestHandler
+	 */
+	protected static final String REPO_READ_AHEAD_PROPERTY = "org.ccnx.repo.readahead";
+	protected final static String REPO_READ_AHEAD_ENV_VAR = "CCNX_REPO_READ_AHEAD";
+	public final static int REPO_READ_AHEAD_DEFAULT = 16;
+	public static int REPO_READ_AHEAD = REPO_READ_AHEAD_DEFAULT;
+
+	/**
+	 * Number of threads the repository uses to answer interests for data, for write commands
+	 * and for name enumeration, and to read ahead of streams. Each kind of request has its own
+	 * threads and queue, so one kind can't hold up the others.
+	 * @see org.ccnx.ccn.impl.repo.RepositoryRequestScheduler
+	 */
+	protected static final String REPO_DATA_THREADS_PROPERTY = "org.ccnx.repo.threads.data";
+	protected final static String REPO_DATA_THREADS_ENV_VAR = "CCNX_REPO_DATA_THREADS";
+	public final static int REPO_DATA_THREADS_DEFAULT = 4;
+	public static int REPO_DATA_THREADS = REPO_DATA_THREADS_DEFAULT;
+	
+	protected static final String REPO_WRITE_THREADS_PROPERTY = "org.ccnx.repo.threads.write";
+	protected final static String REPO_WRITE_THREADS_ENV_VAR = "CCNX_REPO_WRITE_THREADS";
+	public final static int REPO_WRITE_THREADS_DEFAULT = 1;
+	public static int REPO_WRITE_THREADS = REPO_WRITE_THREADS_DEFAULT;
+	
+	protected static final String REPO_ENUM_THREADS_PROPERTY = "org.ccnx.repo.threads.enum";
+	protected final static String REPO_ENUM_THREADS_ENV_VAR = "CCNX_REPO_ENUM_THREADS";
+	public final static int REPO_ENUM_THREADS_DEFAULT = 1;
+	public static int REPO_ENUM_THREADS = REPO_ENUM_THREADS_DEFAULT;
+	
+	protected static final String REPO_READ_AHEAD_THREADS_PROPERTY = "org.ccnx.repo.threads.readahead";
+	protected final static String REPO_READ_AHEAD_THREADS_ENV_VAR = "CCNX_REPO_READ_AHEAD_THREADS";
+	public final static int REPO_READ_AHEAD_THREADS_DEFAULT = 2;
+	public static int REPO_READ_AHEAD_THREADS = REPO_READ_AHEAD_THREADS_DEFAULT;
+	
+	/**
+	 * Number of bulk imports the repository runs at once. Each import decodes its file with
+	 * REPO_IMPORT_THREADS threads; further imports wait for one to finish.
+	 */
+	protected static final String REPO_IMPORTS_PROPERTY = "org.ccnx.repo.imports";
+	protected final static String REPO_IMPORTS_ENV_VAR = "CCNX_REPO_IMPORTS";
+	public final static int REPO_IMPORTS_DEFAULT = 1;
+	public static int REPO_IMPORTS = REPO_IMPORTS_DEFAULT;
+	
+	/**
+	 * Maximum number of interests of each kind waiting for a repository thread. Further
+	 * interests are dropped until the queue has room.
+	 */
+	protected static final String REPO_REQUEST_QUEUE_PROPERTY = "org.ccnx.repo.queue";
+	protected final static String REPO_REQUEST_QUEUE_ENV_VAR = "CCNX_REPO_QUEUE";
+	public final static int REPO_REQUEST_QUEUE_DEFAULT = 1000;
+	public static int REPO_REQUEST_QUEUE = REPO_REQUEST_QUEUE_DEFAULT;
+
+	/**
+	 * When the repository forces content it has written to disk: "none" leaves it to the
+	 * operating system, "interval" forces it every REPO_SYNC_INTERVAL milliseconds, acknowledging
+	 * writes once they have been forced, and "batch" forces each batch of writes before they are
+	 * acknowledged.
+	 * @see org.ccnx.ccn.impl.repo.LogStructRepoStore.SyncPolicy
+	 */
+	protected static final String REPO_SYNC_POLICY_PROPERTY = "org.ccnx.repo.sync";
+	protected final static String REPO_SYNC_POLICY_ENV_VAR = "CCNX_REPO_SYNC";
+	public final static String REPO_SYNC_POLICY_DEFAULT = "none";
+	public static String REPO_SYNC_POLICY = REPO_SYNC_POLICY_DEFAULT;
+
+	/**
+	 * Milliseconds between forcing repository writes to disk when REPO_SYNC_POLICY is "interval".
+	 */
+	protected static final String REPO_SYNC_INTERVAL_PROPERTY = "org.ccnx.repo.sync.interval";
+	protected final static String REPO_SYNC_INTERVAL_ENV_VAR = "CCNX_REPO_SYNC_INTERVAL";
+	public final static int REPO_SYNC_INTERVAL_DEFAULT = 1000;
+	public static int REPO_SYNC_INTERVAL = REPO_SYNC_INTERVAL_DEFAULT;
+
+	/**
+	 * Largest window of segment interests the repository keeps outstanding while it reads a
+	 * stream being written to it. The window starts at PIPELINE_SIZE and adapts to the link.
+	 * @see org.ccnx.ccn.impl.repo.IngestWindow
+	 */
+	protected static final String REPO_WINDOW_MAX_PROPERTY = "org.ccnx.repo.window.max";
+	protected final static String REPO_WINDOW_MAX_ENV_VAR = "CCNX_REPO_WINDOW_MAX";
+	public final static int REPO_WINDOW_MAX_DEFAULT = 64;
+	public static int REPO_WINDOW_MAX = REPO_WINDOW_MAX_DEFAULT;
+
+	/**
+	 * Size in bytes at which the repository starts a new log file. Only files which are no
+	 * longer being written are compacted.
+	 */
+	protected static final String REPO_LOG_FILE_SIZE_PROPERTY = "org.ccnx.repo.log.size";
+	protected final static String REPO_LOG_FILE_SIZE_ENV_VAR = "CCNX_REPO_LOG_SIZE";
+	public final static long REPO_LOG_FILE_SIZE_DEFAULT = 64 * 1024 * 1024;
+	public static long REPO_LOG_FILE_SIZE = REPO_LOG_FILE_SIZE_DEFAULT;
+
+	/**
+	 * Comma separated list of directories, normally on other disks, to spread the repository's
+	 * log files over as well as the repository root. Every directory that has been used must
+	 * stay in the list or the content in it is lost.
+	 * @see org.ccnx.ccn.impl.repo.LogStructRepoStore
+	 */
+	protected static final String REPO_DIRECTORIES_PROPERTY = "org.ccnx.repo.directories";
+	protected final static String REPO_DIRECTORIES_ENV_VAR = "CCNX_REPO_DIRECTORIES";
+	public final static String REPO_DIRECTORIES_DEFAULT = "";
+	public static String REPO_DIRECTORIES = REPO_DIRECTORIES_DEFAULT;
+	
+	/**
+	 * How saved content is spread over the repository directories: "hash" keeps each stream in
+	 * one directory and "roundrobin" sends each batch of content to the next directory in turn.
+	 * @see org.ccnx.ccn.impl.repo.LogStructRepoStore.ShardPolicy
+	 */
+	protected static final String REPO_SHARD_POLICY_PROPERTY = "org.ccnx.repo.shard";
+	protected final static String REPO_SHARD_POLICY_ENV_VAR = "CCNX_REPO_SHARD";
+	public final static String REPO_SHARD_POLICY_DEFAULT = "hash";
+	public static String REPO_SHARD_POLICY = REPO_SHARD_POLICY_DEFAULT;
+	
+	/**
+	 * Comma separated list of prefixes under which the repository compresses content as it
+	 * writes it. Empty (the default) compresses nothing, "/" compresses everything.
+	 * @see org.ccnx.ccn.impl.repo.LogStructRepoStore
+	 */
+	protected static final String REPO_COMPRESS_PROPERTY = "org.ccnx.repo.compress";
+	protected final static String REPO_COMPRESS_ENV_VAR = "CCNX_REPO_COMPRESS";
+	public final static String REPO_COMPRESS_DEFAULT = "";
+	public static String REPO_COMPRESS = REPO_COMPRESS_DEFAULT;
+	
+	/**
+	 * Interval in seconds between passes of the repository log compactor. 0, the default,
+	 * turns compaction off: a pass deletes content for good, including the versions older
+	 * than a newest GONE version, so a repository has to opt in to it.
+	 * @see org.ccnx.ccn.impl.repo.LogCompactor
+	 */
+	protected static final String REPO_COMPACT_INTERVAL_PROPERTY = "org.ccnx.repo.compact.interval";
+	protected final static String REPO_COMPACT_INTERVAL_ENV_VAR = "CCNX_REPO_COMPACT_INTERVAL";
+	public final static int REPO_COMPACT_INTERVAL_DEFAULT = 0;
+	public static int REPO_COMPACT_INTERVAL = REPO_COMPACT_INTERVAL_DEFAULT;
+
+	/**
+	 * Percentage of a repository log file which must be reclaimable before it is rewritten.
+	 */
+	protected static final String REPO_COMPACT_GARBAGE_PROPERTY = "org.ccnx.repo.compact.garbage";
+	protected final static String REPO_COMPACT_GARBAGE_ENV_VAR = "CCNX_REPO_COMPACT_GARBAGE";
+	public final static int REPO_COMPACT_GARBAGE_DEFAULT = 30;
+	public static int REPO_COMPACT_GARBAGE = REPO_COMPACT_GARBAGE_DEFAULT;
+
+	/**
+	 * Bytes per second the repository log compactor may read and write. 0 means no limit.
+	 */
+	protected static final String REPO_COMPACT_RATE_PROPERTY = "org.ccnx.repo.compact.rate";
+	protected final static String REPO_COMPACT_RATE_ENV_VAR = "CCNX_REPO_COMPACT_RATE";
+	public final static long REPO_COMPACT_RATE_DEFAULT = 4 * 1024 * 1024;
+	public static long REPO_COMPACT_RATE = REPO_COMPACT_RATE_DEFAULT;
+
+	/**
+	 * Number of versions of each piece of versioned content the repository keeps when it
+	 * compacts its logs. 0 (the default) keeps them all.
+	 */
+	protected static final String REPO_KEEP_VERSIONS_PROPERTY = "org.ccnx.repo.keep.versions";
+	protected final static String REPO_KEEP_VERSIONS_ENV_VAR = "CCNX_REPO_KEEP_VERSIONS";
+	public final static int REPO_KEEP_VERSIONS_DEFAULT = 0;
+	public static int REPO_KEEP_VERSIONS = REPO_KEEP_VERSIONS_DEFAULT;
+
+	/**
+	 * How long content is kept in parts of the repository namespace, as a comma separated
+	 * list of prefix=seconds. Content is dropped when the log holding it is compacted once
+	 * it is older than the time for the longest matching prefix. Empty (the default) keeps
+	 * everything.
+	 */
+	protected static final String REPO_TTL_PROPERTY = "org.ccnx.repo.ttl";
+	protected final static String REPO_TTL_ENV_VAR = "CCNX_REPO_TTL";
+	public final static String REPO_TTL_DEFAULT = "";
+	public static String REPO_TTL = REPO_TTL_DEFAULT;
+
+	/**
+	 * Byte quotas for parts of the repository namespace, as a comma separated list of
+	 * prefix=bytes or prefix=bytes:eviction, where eviction is lru (the default), oldest or ttl.
+	 * Content is evicted from a namespace when it goes over its quota. Empty (the default) sets
+	 * no quotas.
+	 * @see org.ccnx.ccn.impl.repo.RepositoryQuotas
+	 */
+	protected static final String REPO_QUOTA_PROPERTY = "org.ccnx.repo.quota";
+	protected final static String REPO_QUOTA_ENV_VAR = "CCNX_REPO_QUOTA";
+	public final static String REPO_QUOTA_DEFAULT = "";
+	public static String REPO_QUOTA = REPO_QUOTA_DEFAULT;
+
 
 	/**
 	 * Settable system default timeout.
@@ -484,6 +756,131 @@ public class SystemConfiguration {
 		// Dump netmanager statistics if requested
 		DUMP_NETMANAGER_STATS = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(DUMP_NETMANAGER_STATS_PROPERTY, DUMP_NETMANAGER_STATS_ENV_VAR, Boolean.toString(DUMP_NETMANAGER_STATS)));
 	
+		// Allow name component interning
+		try {
+			NAME_INTERN_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(NAME_INTERN_SIZE_PROPERTY, NAME_INTERN_SIZE_ENV_VAR, Integer.toString(NAME_INTERN_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The name intern table size must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository index checkpoint interval
+		try {
+			REPO_CHECKPOINT_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_CHECKPOINT_INTERVAL_PROPERTY, REPO_CHECKPOINT_INTERVAL_ENV_VAR, Integer.toString(REPO_CHECKPOINT_INTERVAL_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository checkpoint interval must be an integer.");
+			throw e;
+		}
+
+		// Allow parallel repository index rebuild
+		try {
+			REPO_INDEX_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_INDEX_THREADS_PROPERTY, REPO_INDEX_THREADS_ENV_VAR, Integer.toString(REPO_INDEX_THREADS_DEFAULT)));
+			if (REPO_INDEX_THREADS <= 0)
+				REPO_INDEX_THREADS = Runtime.getRuntime().availableProcessors();
+		} catch (NumberFormatException e) {
+			System.err.println("The repository index thread count must be an integer.");
+			throw e;
+		}
+		REPO_SECONDARY_INDEXES = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(REPO_SECONDARY_INDEXES_PROPERTY, REPO_SECONDARY_INDEXES_ENV_VAR, Boolean.toString(REPO_SECONDARY_INDEXES_DEFAULT)));
+
+		// Allow override of the number of threads importing each file into the repository
+		try {
+			REPO_IMPORT_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_IMPORT_THREADS_PROPERTY, REPO_IMPORT_THREADS_ENV_VAR, Integer.toString(REPO_IMPORT_THREADS_DEFAULT)));
+			if (REPO_IMPORT_THREADS <= 0)
+				REPO_IMPORT_THREADS = Runtime.getRuntime().availableProcessors();
+		} catch (NumberFormatException e) {
+			System.err.println("The repository import thread count must be an integer.");
+			throw e;
+		}
+
+		// Allow override of the repository content cache size
+		try {
+			REPO_CACHE_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_CACHE_SIZE_PROPERTY, REPO_CACHE_SIZE_ENV_VAR, Long.toString(REPO_CACHE_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository cache size must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_MEMORY_TIER_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_MEMORY_TIER_SIZE_PROPERTY, REPO_MEMORY_TIER_SIZE_ENV_VAR, Long.toString(REPO_MEMORY_TIER_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository memory tier size must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_MEMORY_TIER_AGE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_MEMORY_TIER_AGE_PROPERTY, REPO_MEMORY_TIER_AGE_ENV_VAR, Long.toString(REPO_MEMORY_TIER_AGE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository memory tier age must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_ENUMERATION_CACHE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_ENUMERATION_CACHE_PROPERTY, REPO_ENUMERATION_CACHE_ENV_VAR, Integer.toString(REPO_ENUMERATION_CACHE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository name enumeration cache size must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_READ_AHEAD = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_READ_AHEAD_PROPERTY, REPO_READ_AHEAD_ENV_VAR, Integer.toString(REPO_READ_AHEAD_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository read ahead must be an integer.");
+			throw e;
+		}
+
+		// Allow override of the repository threads and queues
+		try {
+			REPO_DATA_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_DATA_THREADS_PROPERTY, REPO_DATA_THREADS_ENV_VAR, Integer.toString(REPO_DATA_THREADS_DEFAULT)));
+			REPO_WRITE_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_WRITE_THREADS_PROPERTY, REPO_WRITE_THREADS_ENV_VAR, Integer.toString(REPO_WRITE_THREADS_DEFAULT)));
+			REPO_ENUM_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_ENUM_THREADS_PROPERTY, REPO_ENUM_THREADS_ENV_VAR, Integer.toString(REPO_ENUM_THREADS_DEFAULT)));
+			REPO_READ_AHEAD_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_READ_AHEAD_THREADS_PROPERTY, REPO_READ_AHEAD_THREADS_ENV_VAR, Integer.toString(REPO_READ_AHEAD_THREADS_DEFAULT)));
+			REPO_IMPORTS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_IMPORTS_PROPERTY, REPO_IMPORTS_ENV_VAR, Integer.toString(REPO_IMPORTS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The number of repository threads must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_REQUEST_QUEUE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_REQUEST_QUEUE_PROPERTY, REPO_REQUEST_QUEUE_ENV_VAR, Integer.toString(REPO_REQUEST_QUEUE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository queue size must be an integer.");
+			throw e;
+		}
+
+		// Allow the repository log files to be spread over several directories
+		REPO_DIRECTORIES = retrievePropertyOrEnvironmentVariable(REPO_DIRECTORIES_PROPERTY, REPO_DIRECTORIES_ENV_VAR, REPO_DIRECTORIES_DEFAULT);
+		REPO_SHARD_POLICY = retrievePropertyOrEnvironmentVariable(REPO_SHARD_POLICY_PROPERTY, REPO_SHARD_POLICY_ENV_VAR, REPO_SHARD_POLICY_DEFAULT);
+
+		// Allow the repository to compress content
+		REPO_COMPRESS = retrievePropertyOrEnvironmentVariable(REPO_COMPRESS_PROPERTY, REPO_COMPRESS_ENV_VAR, REPO_COMPRESS_DEFAULT);
+
+		// Allow override of when repository writes are forced to disk
+		REPO_SYNC_POLICY = retrievePropertyOrEnvironmentVariable(REPO_SYNC_POLICY_PROPERTY, REPO_SYNC_POLICY_ENV_VAR, REPO_SYNC_POLICY_DEFAULT);
+		try {
+			REPO_SYNC_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_SYNC_INTERVAL_PROPERTY, REPO_SYNC_INTERVAL_ENV_VAR, Integer.toString(REPO_SYNC_INTERVAL_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository sync interval must be an integer.");
+			throw e;
+		}
+
+		// Allow override of the largest repository read window
+		try {
+			REPO_WINDOW_MAX = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_WINDOW_MAX_PROPERTY, REPO_WINDOW_MAX_ENV_VAR, Integer.toString(REPO_WINDOW_MAX_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository read window maximum must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository log file size and compaction
+		try {
+			REPO_LOG_FILE_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_LOG_FILE_SIZE_PROPERTY, REPO_LOG_FILE_SIZE_ENV_VAR, Long.toString(REPO_LOG_FILE_SIZE_DEFAULT)));
+			REPO_COMPACT_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_INTERVAL_PROPERTY, REPO_COMPACT_INTERVAL_ENV_VAR, Integer.toString(REPO_COMPACT_INTERVAL_DEFAULT)));
+			REPO_COMPACT_GARBAGE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_GARBAGE_PROPERTY, REPO_COMPACT_GARBAGE_ENV_VAR, Integer.toString(REPO_COMPACT_GARBAGE_DEFAULT)));
+			REPO_COMPACT_RATE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_RATE_PROPERTY, REPO_COMPACT_RATE_ENV_VAR, Long.toString(REPO_COMPACT_RATE_DEFAULT)));
+			REPO_KEEP_VERSIONS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_KEEP_VERSIONS_PROPERTY, REPO_KEEP_VERSIONS_ENV_VAR, Integer.toString(REPO_KEEP_VERSIONS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository log size, compaction settings and versions to keep must be integers.");
+			throw e;
+		}
+		REPO_TTL = retrievePropertyOrEnvironmentVariable(REPO_TTL_PROPERTY, REPO_TTL_ENV_VAR, REPO_TTL_DEFAULT);
+		REPO_QUOTA = retrievePropertyOrEnvironmentVariable(REPO_QUOTA_PROPERTY, REPO_QUOTA_ENV_VAR, REPO_QUOTA_DEFAULT);
+
 		// Allow override of block size
 		// TODO should we make sure its a reasonable number?
 		try {
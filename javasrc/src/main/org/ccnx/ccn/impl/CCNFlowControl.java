@@ -33,6 +33,7 @@ import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.InterestMatcher;
 import org.ccnx.ccn.protocol.MalformedContentNameStringException;
 
 
@@ -595,13 +596,15 @@ public class CCNFlowControl implements CCNInterestHandler {
 		ContentObject bestMatch = null;
 		if( Log.isLoggable(Log.FAC_IO, Level.FINEST))
 			Log.finest(Log.FAC_IO, "Looking for best match to {0} among {1} options.", interest, _holdingArea.size());
+		InterestMatcher matcher = interest.matcher();
+		boolean rightmost = null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT;
 		for ( java.util.Map.Entry<ContentName, ContentObject> entry :  _holdingArea.entrySet() ) {
 			ContentName name = entry.getKey();
 			ContentObject result = entry.getValue();
 
 			// We only have to do something unusual here if the caller is looking for CHILD_SELECTOR_RIGHT
-			if (null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT) {
-				if (interest.matches(result)) {
+			if (rightmost) {
+				if (matcher.matches(result)) {
 					if (bestMatch == null)
 						bestMatch = result;
 					if (name.compareTo(bestMatch.name()) > 0) {
@@ -609,7 +612,7 @@ public class CCNFlowControl implements CCNInterestHandler {
 					}
 				}
 			} else
-				if (interest.matches(result))
+				if (matcher.matches(result))
 					return result;
 		}
 		return bestMatch;
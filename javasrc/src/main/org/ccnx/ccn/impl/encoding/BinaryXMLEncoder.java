@@ -91,6 +91,19 @@ public class BinaryXMLEncoder extends GenericXMLEncoder implements XMLEncoder {
 		}
 	}
 	
+	/**
+	 * Write out data which is already ccnb encoded, such as a cached encoding of a
+	 * complete element.
+	 * @param encoded the encoded bytes
+	 */
+	public void writeEncoded(byte [] encoded) throws ContentEncodingException {
+		try {
+			_ostream.write(encoded);
+		} catch (IOException e) {
+			throw new ContentEncodingException(e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * Compact binary encoding of time, same as used for versions.
 	 * @see VersioningProfile
@@ -0,0 +1,196 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Imports a file of content into a LogStructRepoStore. The file may be a log file from another
+ * repository or just concatenated ContentObjects.
+ * 
+ * The file is read sequentially with large reads by the calling thread, which frames the
+ * records without decoding them and hands batches of them to a pool of worker threads. The
+ * workers decode each record, which checks it is a valid ContentObject, and save the batch
+ * with LogStructRepoStore.saveContent, which appends it to the active log of its shard in a
+ * group commit with whatever else is being saved and indexes it. When the workers fall behind
+ * the reader decodes a batch itself, which bounds the number of records held in memory.
+ * 
+ * Records which can't be decoded are skipped, and the import fails once the rest of the file has
+ * been imported. An unframed file can't be read past a damaged record, so the import stops there.
+ */
+public class BulkImporter {
+	
+	public static final int BATCH_RECORDS = LogIndexBuilder.BATCH_RECORDS;
+	public static final int READ_BUFFER_SIZE = 1024 * 1024;
+	
+	protected final LogStructRepoStore _store;
+	protected final int _threads;
+	
+	protected final AtomicLong _imported = new AtomicLong(0);
+	protected final AtomicLong _errors = new AtomicLong(0);
+	protected long _damaged = 0;
+	protected volatile RepositoryException _failure = null;
+	
+	/**
+	 * @param store the store to import into
+	 * @param threads number of threads decoding and saving records
+	 */
+	public BulkImporter(LogStructRepoStore store, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread: " + threads);
+		_store = store;
+		_threads = threads;
+	}
+	
+	/**
+	 * Import a file, waiting until all of it has been saved
+	 * 
+	 * @param file the file
+	 * @return the number of records imported
+	 * @throws RepositoryException if the file can't be read, some of it couldn't be decoded
+	 * 		or the content couldn't be saved
+	 */
+	public long importFile(File file) throws RepositoryException {
+		long start = System.currentTimeMillis();
+		boolean framed;
+		FileInputStream in;
+		try {
+			framed = LogFileFormat.isFramed(file);
+			in = new FileInputStream(file);
+		} catch (IOException e) {
+			throw new RepositoryException("Can't read import file " + file + ": " + e.getMessage());
+		}
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(_threads, _threads, 0, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(_threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			Batch batch = new Batch();
+			byte [] record;
+			if (framed) {
+				LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), 0, READ_BUFFER_SIZE);
+				while (null == _failure && null != (record = reader.next()))
+					batch = add(workers, batch, record);
+				_damaged = reader.damaged() + (reader.tornTail() ? 1 : 0);
+			} else {
+				BufferedInputStream records = new BufferedInputStream(in, READ_BUFFER_SIZE);
+				try {
+					while (null == _failure && null != (record = LogIndexBuilder.readRecord(records)))
+						batch = add(workers, batch, record);
+				} catch (IOException e) {
+					Log.warning(Log.FAC_REPO, "Stopped reading import file {0}: {1}", file, e.getMessage());
+					_damaged = 1;
+				}
+			}
+			if (batch.size() > 0)
+				workers.execute(batch);
+			workers.shutdown();
+			while (!workers.awaitTermination(LogIndexBuilder.PROGRESS_INTERVAL, TimeUnit.SECONDS)) {
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+					Log.info(Log.FAC_REPO, "Importing {0}: {1} records after {2} s", file, _imported.get(), 
+							(System.currentTimeMillis() - start) / 1000);
+				}
+			}
+		} catch (IOException e) {
+			throw new RepositoryException("Can't read import file " + file + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted importing " + file);
+		} finally {
+			workers.shutdownNow();
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+		
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Imported {0} records ({1} errors, {2} damaged areas) from {3} in {4} ms using {5} threads",
+					_imported.get(), _errors.get(), _damaged, file, System.currentTimeMillis() - start, _threads);
+		}
+		if (null != _failure)
+			throw _failure;
+		if (_errors.get() > 0 || _damaged > 0)
+			throw new RepositoryException("Damaged records in import file " + file.getName() + ": imported " + _imported.get() 
+					+ " records, skipped " + _errors.get() + " which couldn't be decoded and " + _damaged + " damaged areas");
+		return _imported.get();
+	}
+	
+	/**
+	 * @return number of records imported so far
+	 */
+	public long imported() {
+		return _imported.get();
+	}
+	
+	protected Batch add(ThreadPoolExecutor workers, Batch batch, byte [] record) {
+		batch.add(record);
+		if (batch.size() < BATCH_RECORDS)
+			return batch;
+		workers.execute(batch);
+		return new Batch();
+	}
+	
+	/**
+	 * Decodes and saves a batch of records
+	 */
+	protected class Batch implements Runnable {
+		protected final ArrayList<byte []> _records = new ArrayList<byte []>(BATCH_RECORDS);
+		
+		protected void add(byte [] record) {
+			_records.add(record);
+		}
+		
+		protected int size() {
+			return _records.size();
+		}
+		
+		public void run() {
+			if (null != _failure)
+				return;
+			ArrayList<ContentObject> content = new ArrayList<ContentObject>(_records.size());
+			for (byte [] record : _records) {
+				try {
+					content.add(ContentObject.fromWire(LogFileFormat.expand(record)));
+				} catch (ContentDecodingException e) {
+					if (_errors.incrementAndGet() == 1)
+						Log.warning(Log.FAC_REPO, "Can't decode imported record: {0}", e.getMessage());
+				}
+			}
+			if (content.isEmpty())
+				return;
+			try {
+				if (null == _store.saveContent(content))
+					throw new RepositoryException("Repository shut down during import");
+				_imported.addAndGet(content.size());
+			} catch (RepositoryException e) {
+				_failure = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,382 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * A cache of recently read repository content, bounded by the total size of the encoded
+ * content it holds. Entries are keyed by the ContentRef they were read from, so a ref always
+ * gets back the object stored at it. Objects are cached with their wire encoding (see
+ * ContentObject.fromWire()) so they can be sent again without being encoded.
+ * 
+ * The cache is split into segments, each with its own lock, LRU list and frequency sketch.
+ * When a segment is full a new entry is only admitted if it has been asked for more often
+ * than the entry it would evict (TinyLFU admission), so a one-off scan through the repository
+ * can't flush out content which is being read over and over. The frequency sketch is a
+ * count-min sketch with 4 bit counters which are halved periodically so that old popularity
+ * fades.
+ * 
+ * Part of the cache can be set aside for content read ahead of being asked for. Read ahead
+ * content is held in the order it was read and only offered to the main cache when it is
+ * asked for, so reading ahead through a large stream can't flush out popular content either.
+ * Read ahead content which is never asked for is dropped when it is the oldest.
+ */
+public class ContentCache {
+	
+	protected static final int SEGMENTS = 16;
+	
+	protected final Segment [] _segments;
+	protected final ReadAhead _readAhead;
+	protected final long _maxBytes;
+	protected CCNEnumStats<RepositoryServer.StatsEnum> _stats = null;
+	
+	/**
+	 * @param maxBytes maximum total encoded size of the cached content
+	 */
+	public ContentCache(long maxBytes) {
+		this(maxBytes, 0);
+	}
+	
+	/**
+	 * @param maxBytes maximum total encoded size of the cached content
+	 * @param readAheadBytes how much of maxBytes is for content read ahead, 0 for none
+	 */
+	public ContentCache(long maxBytes, long readAheadBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+		if (readAheadBytes < 0 || readAheadBytes >= maxBytes)
+			throw new IllegalArgumentException("Read ahead size must be less than the cache size: " + readAheadBytes);
+		_maxBytes = maxBytes;
+		_segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			_segments[i] = new Segment((maxBytes - readAheadBytes) / SEGMENTS);
+		_readAhead = (readAheadBytes > 0) ? new ReadAhead(readAheadBytes) : null;
+	}
+	
+	/**
+	 * Count hits, misses and evictions in a repository server's statistics
+	 * @param stats the statistics to count in, or null to stop counting
+	 */
+	public void setStats(CCNEnumStats<RepositoryServer.StatsEnum> stats) {
+		_stats = stats;
+	}
+	
+	/**
+	 * @param ref where the content is stored
+	 * @return the cached content, or null
+	 */
+	public ContentObject get(ContentRef ref) {
+		Segment segment = segment(ref);
+		ContentObject co = segment.get(ref);
+		RepositoryServer.StatsEnum result = RepositoryServer.StatsEnum.ContentCacheHits;
+		if (null == co) {
+			Entry entry = (null == _readAhead) ? null : _readAhead.take(ref);
+			if (null != entry) {
+				// It has been asked for now, so it has to compete with everything else
+				co = entry._content;
+				segment.put(ref, co, entry._size);
+				result = RepositoryServer.StatsEnum.ContentCacheReadAheadHits;
+			} else {
+				result = RepositoryServer.StatsEnum.ContentCacheMisses;
+			}
+		}
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment(result);
+		return co;
+	}
+	
+	/**
+	 * Check for content without counting it as a use
+	 * @param ref where the content is stored
+	 * @return true if the content is cached or has been read ahead
+	 */
+	public boolean contains(ContentRef ref) {
+		return segment(ref).contains(ref) || (null != _readAhead && _readAhead.contains(ref));
+	}
+	
+	/**
+	 * @return true if part of the cache is for content read ahead
+	 */
+	public boolean readsAhead() {
+		return null != _readAhead;
+	}
+	
+	/**
+	 * Add content which is expected to be asked for soon. Nothing is done if there's no
+	 * room set aside for content read ahead.
+	 * @param ref where the content is stored
+	 * @param co the content, which should have its wire encoding
+	 */
+	public void readAhead(ContentRef ref, ContentObject co) {
+		byte [] encoded = co.wireEncoding();
+		if (null == _readAhead || null == encoded || segment(ref).contains(ref))
+			return;
+		if (_readAhead.put(ref, co, encoded.length)) {
+			CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+			if (null != stats)
+				stats.increment(RepositoryServer.StatsEnum.ContentCacheReadAheads);
+		}
+	}
+	
+	/**
+	 * Offer content which was just read to the cache. It may not be admitted.
+	 * @param ref where the content is stored
+	 * @param co the content, which should have its wire encoding
+	 */
+	public void put(ContentRef ref, ContentObject co) {
+		byte [] encoded = co.wireEncoding();
+		if (null == encoded)
+			return;
+		segment(ref).put(ref, co, encoded.length);
+	}
+	
+	/**
+	 * Drop content from the cache
+	 * @param ref where the content was stored
+	 */
+	public void remove(ContentRef ref) {
+		segment(ref).remove(ref);
+		if (null != _readAhead)
+			_readAhead.take(ref);
+	}
+	
+	/**
+	 * @return total encoded size of the cached content
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : _segments) {
+			synchronized (segment) {
+				size += segment._bytes;
+			}
+		}
+		if (null != _readAhead) {
+			synchronized (_readAhead) {
+				size += _readAhead._bytes;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return the maximum total size of the cache
+	 */
+	public long maxSize() {
+		return _maxBytes;
+	}
+	
+	protected Segment segment(ContentRef ref) {
+		return _segments[(spread(System.identityHashCode(ref)) >>> 16) & (SEGMENTS - 1)];
+	}
+	
+	protected static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	protected void evicted() {
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment(RepositoryServer.StatsEnum.ContentCacheEvictions);
+	}
+	
+	protected void dropped() {
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment(RepositoryServer.StatsEnum.ContentCacheReadAheadsDropped);
+	}
+	
+	protected void rejected() {
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment(RepositoryServer.StatsEnum.ContentCacheRejections);
+	}
+	
+	protected static class Entry {
+		final ContentObject _content;
+		final int _size;
+		
+		Entry(ContentObject content, int size) {
+			_content = content;
+			_size = size;
+		}
+	}
+	
+	protected class Segment {
+		protected final long _maxBytes;
+		protected long _bytes = 0;
+		// In access order, so the first entry is the least recently used
+		protected final LinkedHashMap<ContentRef, Entry> _entries = new LinkedHashMap<ContentRef, Entry>(64, 0.75f, true);
+		protected final FrequencySketch _sketch;
+		
+		protected Segment(long maxBytes) {
+			_maxBytes = maxBytes;
+			// Size the sketch for segments full of typical 4K objects
+			_sketch = new FrequencySketch((int)Math.min(1 << 16, Math.max(64, maxBytes / 4096)));
+		}
+		
+		protected synchronized ContentObject get(ContentRef ref) {
+			_sketch.increment(ref);
+			Entry entry = _entries.get(ref);
+			return (null == entry) ? null : entry._content;
+		}
+		
+		protected synchronized void put(ContentRef ref, ContentObject co, int size) {
+			if (size > _maxBytes || _entries.containsKey(ref))
+				return;
+			int frequency = _sketch.frequency(ref);
+			// Check that there's room before evicting anything
+			long needed = _bytes + size - _maxBytes;
+			if (needed > 0) {
+				long freed = 0;
+				Iterator<Map.Entry<ContentRef, Entry>> it = _entries.entrySet().iterator();
+				while (freed < needed && it.hasNext()) {
+					Map.Entry<ContentRef, Entry> victim = it.next();
+					if (_sketch.frequency(victim.getKey()) >= frequency) {
+						rejected();
+						return;
+					}
+					freed += victim.getValue()._size;
+				}
+				while (_bytes + size > _maxBytes) {
+					it = _entries.entrySet().iterator();
+					Map.Entry<ContentRef, Entry> victim = it.next();
+					_bytes -= victim.getValue()._size;
+					it.remove();
+					evicted();
+				}
+			}
+			_entries.put(ref, new Entry(co, size));
+			_bytes += size;
+		}
+		
+		protected synchronized boolean contains(ContentRef ref) {
+			return _entries.containsKey(ref);
+		}
+		
+		protected synchronized void remove(ContentRef ref) {
+			Entry entry = _entries.remove(ref);
+			if (null != entry)
+				_bytes -= entry._size;
+		}
+	}
+	
+	/**
+	 * Content read ahead, oldest first
+	 */
+	protected class ReadAhead {
+		protected final long _maxBytes;
+		protected long _bytes = 0;
+		protected final LinkedHashMap<ContentRef, Entry> _entries = new LinkedHashMap<ContentRef, Entry>();
+		
+		protected ReadAhead(long maxBytes) {
+			_maxBytes = maxBytes;
+		}
+		
+		protected synchronized boolean contains(ContentRef ref) {
+			return _entries.containsKey(ref);
+		}
+		
+		protected synchronized boolean put(ContentRef ref, ContentObject co, int size) {
+			if (size > _maxBytes || _entries.containsKey(ref))
+				return false;
+			Iterator<Entry> it = _entries.values().iterator();
+			while (_bytes + size > _maxBytes) {
+				_bytes -= it.next()._size;
+				it.remove();
+				dropped();
+			}
+			_entries.put(ref, new Entry(co, size));
+			_bytes += size;
+			return true;
+		}
+		
+		protected synchronized Entry take(ContentRef ref) {
+			Entry entry = _entries.remove(ref);
+			if (null != entry)
+				_bytes -= entry._size;
+			return entry;
+		}
+	}
+	
+	/**
+	 * Approximate access counts, 4 bits per counter in 4 rows
+	 */
+	protected static class FrequencySketch {
+		protected static final int ROWS = 4;
+		protected static final int [] SEEDS = {0x97cb3127, 0xbd4f2e93, 0x2c1b3c6d, 0x5f356495};
+		protected final long [] _table;
+		protected final int _mask;
+		protected final int _sampleSize;
+		protected int _additions = 0;
+		
+		protected FrequencySketch(int width) {
+			int size = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+			_table = new long[size * ROWS / 16]; // 16 counters per long
+			_mask = size - 1;
+			_sampleSize = 10 * size;
+		}
+		
+		protected int index(int hash, int row) {
+			int h = spread(hash * SEEDS[row]);
+			return (row * (_mask + 1)) + (h & _mask);
+		}
+		
+		protected int frequency(Object key) {
+			int hash = System.identityHashCode(key);
+			int frequency = 15;
+			for (int row = 0; row < ROWS; row++) {
+				int i = index(hash, row);
+				int count = (int)((_table[i >>> 4] >>> ((i & 15) << 2)) & 0xf);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+		
+		protected void increment(Object key) {
+			int hash = System.identityHashCode(key);
+			boolean added = false;
+			for (int row = 0; row < ROWS; row++) {
+				int i = index(hash, row);
+				int shift = (i & 15) << 2;
+				if (((_table[i >>> 4] >>> shift) & 0xf) < 15) {
+					_table[i >>> 4] += (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++_additions >= _sampleSize)
+				age();
+		}
+		
+		/**
+		 * Halve all the counters
+		 */
+		protected void age() {
+			for (int i = 0; i < _table.length; i++)
+				_table[i] = (_table[i] >>> 1) & 0x7777777777777777L;
+			_additions /= 2;
+		}
+	}
+}
@@ -17,12 +17,32 @@
 
 package org.ccnx.ccn.impl.repo;
 
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+
 /**
  * ContentRef is what a ContentTree holds.  Users of ContentTree should extend
  * ContentRef to provide the fields they require
  * 
+ * A ContentRef may also record what is needed to match its content against an Interest.
+ * The digest of the content is the last component of its name in the tree, so with the
+ * publisher the tree can reject candidates without retrieving them.
+ * 
  * @see ContentTree
  */
 public abstract class ContentRef {
-	// no fields
+	
+	/**
+	 * @return the publisher of the content, or null if this ref doesn't record it. If
+	 * 		this is null the content must be retrieved to match it.
+	 */
+	public PublisherPublicKeyDigest publisher() {
+		return null;
+	}
+	
+	/**
+	 * @return the length of the stored content in bytes, or -1 if this ref doesn't record it
+	 */
+	public int length() {
+		return -1;
+	}
 }
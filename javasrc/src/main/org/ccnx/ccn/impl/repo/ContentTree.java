@@ -19,15 +19,20 @@ package org.ccnx.ccn.impl.repo;
 
 import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
+import org.ccnx.ccn.impl.support.ComponentInterner;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.profiles.SegmentationProfile;
@@ -38,6 +43,9 @@ import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Exclude;
 import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.InterestMatcher;
+import org.ccnx.ccn.protocol.PublisherID;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 
 /**
  * Creates a tree structure to track the data stored within a LogStructRepoStore RepositoryStore.
@@ -52,6 +60,27 @@ public class ContentTree {
 		public ContentObject get(ContentRef ref);
 	}
 	
+	/**
+	 * Reads and writes the store specific ContentRefs held by the tree when the
+	 * tree is saved to or loaded from a checkpoint
+	 */
+	public interface ContentRefSerializer {
+		public void write(ContentRef ref, DataOutputStream out) throws IOException;
+		public ContentRef read(DataInputStream in) throws IOException;
+	}
+	
+	/**
+	 * Called for each piece of content in the tree by visit
+	 */
+	public interface ContentVisitor {
+		/**
+		 * @param name the full name of the content including the digest
+		 * @param ref the content
+		 * @param ts when content was last added with the name less the digest
+		 */
+		public void visit(ContentName name, ContentRef ref, long ts);
+	}
+	
 	/**
 	 * TreeNode is the data structure representing one
 	 * node of a tree which may have children and/or content.
@@ -60,37 +89,194 @@ public class ContentTree {
 	 * same component (i.e. having same content digest at end
 	 * but presumably different publisher etc. that is not 
 	 * visible in this tree)
+	 * 
+	 * There is a node for every component of every name, so nodes are kept small: a single child
+	 * or ref is held directly rather than in a collection, more children are held in an array
+	 * sorted by component which is binary searched, and more refs in an exact size array. Most
+	 * nodes have one child, or are leaves with one ref.
+	 * 
+	 * Lookups don't lock nodes. The children and refs of a node are never changed in place where
+	 * a lookup could see them: a change publishes a new child view or ref array, so a lookup sees
+	 * either the old or the new state. Changes must be made with the node locked, which keeps
+	 * changes to the same node in order.
 	 */
-	public class TreeNode implements Comparable<TreeNode>{
+	public static class TreeNode implements Comparable<TreeNode>{
 		byte[] component; // name of this node in the tree, null for root only
-		// oneChild is special case when there is only 
-		// a single child (to save obj overhead).
-		// either oneChild or children should be null
-		TreeNode oneChild;
-		SortedMap<TreeNode, TreeNode> children;
-		// oneContent is special case when there is only 
-		// a single content object here (to save obj overhead).
-		// either oneContent or content should be null
-		ContentRef oneContent;
-		List<ContentRef> content;
-		long timestamp;
+		// A TreeNode if there is one child, or Children if there are more
+		volatile Object children;
+		// A ContentRef if there is one, or a ContentRef [] if there are more
+		volatile Object content;
+		volatile long timestamp;
 		boolean interestFlag = false;
 		boolean neSent = false;		// NE response sent since last insert
+		boolean removed = false;	// taken out of the tree, content can't be added here any more
+		// When the tree is indexed, the publishers of the content at and below this node, or
+		// ANY_PUBLISHER if some of it doesn't record its publisher. Publishers are not taken
+		// out when their content is removed, so this may include some with no content here.
+		volatile PublisherPublicKeyDigest [] publishers;
 		
 		public boolean compEquals(byte[] other) {
 			return DataUtils.compare(other, this.component) == 0;
 		}
+		
 		public TreeNode getChild(byte[] component) {
-			if (null != oneChild) {
-				if (oneChild.compEquals(component)) {
-					return oneChild;
+			Object current = children;
+			if (current instanceof TreeNode) {
+				TreeNode child = (TreeNode)current;
+				return child.compEquals(component) ? child : null;
+			}
+			if (null == current)
+				return null;
+			Children view = (Children)current;
+			int i = view.find(component);
+			return (i >= 0) ? view.nodes[i] : null;
+		}
+		
+		/**
+		 * @param child a child with a component which none of the existing children have
+		 */
+		protected void addChild(TreeNode child) {
+			Object current = children;
+			if (null == current) {
+				children = child;
+			} else if (current instanceof TreeNode) {
+				TreeNode first = (TreeNode)current;
+				children = (first.compareTo(child) < 0) 
+						? new Children(new TreeNode[]{first, child, null}, 2)
+						: new Children(new TreeNode[]{child, first, null}, 2);
+			} else {
+				Children view = (Children)current;
+				int count = view.count;
+				int i = -1 - view.find(child.component);
+				TreeNode [] array = view.nodes;
+				if (i == count && count < array.length) {
+					// Names are mostly added in order, so this is usually appending. No view
+					// includes the slot after the last child, so it can be filled in place.
+					array[i] = child;
+				} else {
+					TreeNode [] copy = new TreeNode[(count == array.length) ? count + (count >> 1) + 1 : array.length];
+					System.arraycopy(array, 0, copy, 0, i);
+					System.arraycopy(array, i, copy, i + 1, count - i);
+					copy[i] = child;
+					array = copy;
 				}
-			} else if (null != children) {
-				TreeNode child = new TreeNode();
-				child.component = component;
-				return children.get(child);
+				children = new Children(array, count + 1);
 			}
-			return null;
+		}
+		
+		protected boolean removeChild(TreeNode child) {
+			Object current = children;
+			if (current == child) {
+				children = null;
+				return true;
+			}
+			if (!(current instanceof Children))
+				return false;
+			Children view = (Children)current;
+			int i = view.find(child.component);
+			if (i < 0 || view.nodes[i] != child)
+				return false;
+			if (view.count == 2) {
+				children = view.nodes[1 - i];
+			} else {
+				TreeNode [] smaller = new TreeNode[view.count - 1];
+				System.arraycopy(view.nodes, 0, smaller, 0, i);
+				System.arraycopy(view.nodes, i + 1, smaller, i, view.count - i - 1);
+				children = new Children(smaller, smaller.length);
+			}
+			return true;
+		}
+		
+		/**
+		 * @return the children in component order, as they are now
+		 */
+		protected Children children() {
+			Object current = children;
+			if (null == current)
+				return NO_CHILDREN;
+			if (current instanceof TreeNode)
+				return new Children(new TreeNode[]{(TreeNode)current}, 1);
+			return (Children)current;
+		}
+		
+		protected boolean hasChildren() {
+			return null != children;
+		}
+		
+		protected boolean hasContent() {
+			return null != content;
+		}
+		
+		/**
+		 * @return a copy of the refs
+		 */
+		protected ContentRef [] refs() {
+			Object current = content;
+			if (null == current)
+				return NO_REFS;
+			if (current instanceof ContentRef)
+				return new ContentRef[]{(ContentRef)current};
+			return ((ContentRef [])current).clone();
+		}
+		
+		protected void addContent(ContentRef ref) {
+			Object current = content;
+			if (null == current) {
+				content = ref;
+			} else if (current instanceof ContentRef) {
+				content = new ContentRef[]{(ContentRef)current, ref};
+			} else {
+				ContentRef [] refs = (ContentRef [])current;
+				ContentRef [] larger = new ContentRef[refs.length + 1];
+				System.arraycopy(refs, 0, larger, 0, refs.length);
+				larger[refs.length] = ref;
+				content = larger;
+			}
+		}
+		
+		protected boolean removeContent(ContentRef ref) {
+			Object current = content;
+			if (current == ref) {
+				content = null;
+				return true;
+			}
+			if (!(current instanceof ContentRef []))
+				return false;
+			ContentRef [] refs = (ContentRef [])current;
+			for (int i = 0; i < refs.length; i++) {
+				if (refs[i] == ref) {
+					if (refs.length == 2) {
+						content = refs[1 - i];
+					} else {
+						ContentRef [] smaller = new ContentRef[refs.length - 1];
+						System.arraycopy(refs, 0, smaller, 0, i);
+						System.arraycopy(refs, i + 1, smaller, i, refs.length - i - 1);
+						content = smaller;
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		protected boolean replaceContent(ContentRef oldRef, ContentRef newRef) {
+			Object current = content;
+			if (current == oldRef) {
+				content = newRef;
+				return true;
+			}
+			if (!(current instanceof ContentRef []))
+				return false;
+			ContentRef [] refs = (ContentRef [])current;
+			for (int i = 0; i < refs.length; i++) {
+				if (refs[i] == oldRef) {
+					ContentRef [] copy = refs.clone();
+					copy[i] = newRef;
+					content = copy;
+					return true;
+				}
+			}
+			return false;
 		}
 		
 		public String toString(){
@@ -101,18 +287,18 @@ public class ContentTree {
 			else{
 				s = Component.printURI(component);				
 			}
-			if(oneChild!=null){
+			Object current = children;
+			if(current instanceof TreeNode){
 				//there is only one child
-				s+= " oneChild: "+Component.printURI(component);
+				s+= " oneChild: "+Component.printURI(((TreeNode)current).component);
 			}
-			else if(children!=null){
+			else if(current!=null){
 				s+= " children: ";
-				int i = 0;
-				for(TreeNode c: children.keySet()){
+				Children view = (Children)current;
+				for(int i = 0; i < view.count; i++){
 					//append each child to string
-					s+=" "+Component.printURI(c.component);
-					//s+=new String(t.component)+" ";
-					if (++i > 50) {
+					s+=" "+Component.printURI(view.nodes[i].component);
+					if (i >= 50) {
 						s+= "...";
 						break;
 					}
@@ -129,6 +315,102 @@ public class ContentTree {
 		}
 	}
 	
+	/**
+	 * A view of the children of a node in component order. A view never changes: the first
+	 * count nodes of its array are never modified, so it can be read without locking.
+	 * Adding a child after the last one fills the next slot of the array, if there is one,
+	 * and publishes a new view including it; any other change copies the array.
+	 */
+	protected static final class Children implements Iterable<TreeNode> {
+		protected final TreeNode [] nodes;
+		protected final int count;
+		
+		protected Children(TreeNode [] nodes, int count) {
+			this.nodes = nodes;
+			this.count = count;
+		}
+		
+		public int size() {
+			return count;
+		}
+		
+		public TreeNode get(int i) {
+			if (i >= count)
+				throw new IndexOutOfBoundsException(i + " >= " + count);
+			return nodes[i];
+		}
+		
+		/**
+		 * Binary search for a component
+		 * 
+		 * @return the index of the child, or if there isn't one, -1 - the index it would go at
+		 */
+		public int find(byte [] component) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int comp = DataUtils.compare(nodes[mid].component, component);
+				if (comp < 0)
+					low = mid + 1;
+				else if (comp > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -1 - low;
+		}
+		
+		public Iterator<TreeNode> iterator() {
+			return new ChildIterator(this, 0, false);
+		}
+	}
+	
+	protected static final Children NO_CHILDREN = new Children(new TreeNode[0], 0);
+	protected static final ContentRef [] NO_REFS = new ContentRef[0];
+	protected static final PublisherPublicKeyDigest [] ANY_PUBLISHER = new PublisherPublicKeyDigest[]{null};
+	
+	// Most subtrees have content from only one publisher, so nodes share the same array for it
+	protected static final ConcurrentHashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest []> _singlePublishers = 
+			new ConcurrentHashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest []>();
+	
+	/**
+	 * Key for the digest index: the digest component of the name of some content
+	 */
+	protected static final class Digest {
+		protected final byte [] digest;
+		protected final int hash;
+		
+		protected Digest(byte [] digest) {
+			this.digest = digest;
+			this.hash = Arrays.hashCode(digest);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Digest) && Arrays.equals(digest, ((Digest)obj).digest);
+		}
+	}
+	
+	/**
+	 * The node holding the content with some digest, with its full name so that a node with
+	 * the same digest but a different name isn't taken for it
+	 */
+	protected static final class DigestEntry {
+		protected final ContentName name;
+		protected final TreeNode node;
+		
+		protected DigestEntry(ContentName name, TreeNode node) {
+			this.name = name;
+			this.node = node;
+		}
+	}
+	
 	/**
 	 * Prescreen candidates against elements of an interest that we can so
 	 * we don't need to consider candidates that have no chance of matching.
@@ -175,11 +457,15 @@ public class ContentTree {
 	protected abstract class Search {
 		protected Interest _interest;
 		protected InterestPreScreener _ips;
-		protected SortedMap<TreeNode, TreeNode> _children = null;
+		// Publisher the interest requires, if the tree is indexed so subtrees without it can be skipped
+		protected byte [] _publisher = null;
 		
 		protected Search(Interest interest, InterestPreScreener ips) {
 			_interest = interest;
 			_ips = ips;
+			PublisherID publisher = interest.publisherID();
+			if (null != _digests && null != publisher && publisher.type() == PublisherID.PublisherType.KEY)
+				_publisher = publisher.id();
 		}
 		
 		/**
@@ -196,28 +482,23 @@ public class ContentTree {
 						int depth, boolean leftSearch) {
 			if( Log.isLoggable(Log.FAC_REPO, Level.FINE) )
 				Log.fine(Log.FAC_REPO, "Searching for: {0}", nodeName);
+			if (null != _publisher && !hasPublisher(node.publishers, _publisher))
+				return null;
 			int res = _ips.preScreen(node, depth);
 			if (res < 0)
 				return null;
 			if (res > 0) {
-				if (null != node.oneContent || null != node.content) {
+				if (node.hasContent()) {
 					ContentObject result = getContent(_interest, node, nodeName, getter);
 					if (null != result)
 						return result;
 				}
 			}
 		
-			synchronized(node) {
-				if (null != node.oneChild) {
-					_children = new TreeMap<TreeNode, TreeNode>(); // Don't bother with comparator, will only hold one element
-					_children.put(node.oneChild, node.oneChild);
-				} else {
-					_children = node.children;
-				}
-			}
-			if (null != _children) {
+			Children children = node.children();
+			if (children.size() > 0) {
 				byte[] interestComp = _interest.name().component(depth);
-				Iterator<TreeNode>it = initIterator(leftSearch, interestComp);
+				Iterator<TreeNode>it = initIterator(children, leftSearch, interestComp);
 				while(it.hasNext()) {
 					TreeNode child = it.next();
 					int comp = DataUtils.compare(child.component, interestComp);
@@ -237,11 +518,12 @@ public class ContentTree {
 		/**
 		 * Return an iterator through children at this level.
 		 * 
+		 * @param children the children in order
 		 * @param anyOK leftSearch only - if false must go "left by one" at this level
 		 * @param interestComp component to start search with
 		 * @return the iterator
 		 */
-		protected abstract Iterator<TreeNode> initIterator(boolean leftSearch, byte[] interestComp);
+		protected abstract Iterator<TreeNode> initIterator(Children children, boolean leftSearch, byte[] interestComp);
 		
 		/**
 		 * 
@@ -260,11 +542,11 @@ public class ContentTree {
 		}
 
 		@Override
-		protected Iterator<TreeNode> initIterator(boolean leftSearch, byte[] interestComp) {
-			TreeNode testNode = new TreeNode();
-			testNode.component = interestComp;
-			SortedMap<TreeNode, TreeNode> map = leftSearch || null == interestComp ? _children : _children.tailMap(testNode);
-			return map.keySet().iterator();
+		protected Iterator<TreeNode> initIterator(Children children, boolean leftSearch, byte[] interestComp) {
+			if (leftSearch || null == interestComp)
+				return new ChildIterator(children, 0, false);
+			int start = children.find(interestComp);
+			return new ChildIterator(children, (start < 0) ? -1 - start : start, false);
 		}
 
 		@Override
@@ -286,10 +568,8 @@ public class ContentTree {
 		}
 
 		@Override
-		protected Iterator<TreeNode> initIterator(boolean leftSearch, byte[] interestComp) {
-			if (leftSearch)
-				return _children.keySet().iterator();
-			return new RightIterator(_children);
+		protected Iterator<TreeNode> initIterator(Children children, boolean leftSearch, byte[] interestComp) {
+			return new ChildIterator(children, leftSearch ? 0 : children.size() - 1, !leftSearch);
 		}
 
 		@Override
@@ -300,22 +580,28 @@ public class ContentTree {
 	}
 	
 	/**
-	 * Create an iterator that goes backwards through the candidates for right search
+	 * Iterate forwards or, for right search, backwards through a view of the children of a node
 	 */
-	protected static class RightIterator implements Iterator<TreeNode> {
-		protected SortedMap<TreeNode, TreeNode> _map;
+	protected static class ChildIterator implements Iterator<TreeNode> {
+		protected Children _children;
+		protected int _next;
+		protected boolean _backwards;
 		
-		protected RightIterator(SortedMap<TreeNode, TreeNode> map) {
-			_map = map;
+		protected ChildIterator(Children children, int start, boolean backwards) {
+			_children = children;
+			_next = start;
+			_backwards = backwards;
 		}
 
 		public boolean hasNext() {
-			return _map.size() > 0;
+			return _next >= 0 && _next < _children.count;
 		}
 
 		public TreeNode next() {
-			TreeNode node = _map.lastKey();
-			_map = _map.subMap(_map.firstKey(), _map.lastKey());
+			if (!hasNext())
+				throw new NoSuchElementException();
+			TreeNode node = _children.nodes[_next];
+			_next += _backwards ? -1 : 1;
 			return node;
 		}
 
@@ -324,12 +610,142 @@ public class ContentTree {
 	}
 	
 	protected TreeNode _root;
+	protected NameEnumerationCache _enumerationCache = null;
+	// Content by digest, or null if the tree isn't indexed
+	protected volatile ConcurrentHashMap<Digest, DigestEntry> _digests = null;
 	
 	public ContentTree() {
 		_root = new TreeNode();
 		_root.component = null; // Only the root has a null value
 	}
 	
+	/**
+	 * Index the content in the tree by digest, so that interests for content by its full name
+	 * find it without walking the tree, and record the publishers of the content under each
+	 * node, so that searches for content from one publisher skip subtrees without any. The
+	 * indexes are kept up to date as content is added and removed, and are rebuilt from the
+	 * whole tree when it is read from a checkpoint. Should only be called before the tree
+	 * is in use.
+	 * 
+	 * @param indexed true to keep the indexes, false to drop them
+	 */
+	public void setIndexed(boolean indexed) {
+		if (!indexed) {
+			_digests = null;
+			return;
+		}
+		ConcurrentHashMap<Digest, DigestEntry> digests = new ConcurrentHashMap<Digest, DigestEntry>();
+		indexNode(_root, new ContentName(), digests);
+		_digests = digests;
+	}
+	
+	/**
+	 * @return true if the tree keeps indexes by digest and publisher
+	 */
+	public boolean isIndexed() {
+		return null != _digests;
+	}
+	
+	/**
+	 * Index a subtree
+	 * @return the publishers of the content in the subtree
+	 */
+	protected PublisherPublicKeyDigest [] indexNode(TreeNode node, ContentName name, ConcurrentHashMap<Digest, DigestEntry> digests) {
+		PublisherPublicKeyDigest [] publishers = null;
+		ContentRef [] refs = node.refs();
+		if (refs.length > 0) {
+			digests.put(new Digest(node.component), new DigestEntry(name, node));
+			for (ContentRef ref : refs)
+				publishers = addPublisher(publishers, ref.publisher());
+		}
+		for (TreeNode child : node.children()) {
+			PublisherPublicKeyDigest [] below = indexNode(child, new ContentName(name, child.component), digests);
+			if (below == ANY_PUBLISHER) {
+				publishers = ANY_PUBLISHER;
+			} else if (null != below) {
+				for (PublisherPublicKeyDigest publisher : below)
+					publishers = addPublisher(publishers, publisher);
+			}
+		}
+		node.publishers = publishers;
+		return publishers;
+	}
+	
+	/**
+	 * @param publishers publishers of some content, may be null if there are none
+	 * @param publisher publisher of more content, or null if it isn't known
+	 * @return publishers including publisher
+	 */
+	protected static PublisherPublicKeyDigest [] addPublisher(PublisherPublicKeyDigest [] publishers, PublisherPublicKeyDigest publisher) {
+		if (null == publisher)
+			return ANY_PUBLISHER;
+		if (publishers == ANY_PUBLISHER || hasPublisher(publishers, publisher.digest()))
+			return publishers;
+		if (null == publishers) {
+			PublisherPublicKeyDigest [] single = _singlePublishers.get(publisher);
+			if (null == single) {
+				single = new PublisherPublicKeyDigest[]{publisher};
+				PublisherPublicKeyDigest [] existing = _singlePublishers.putIfAbsent(publisher, single);
+				if (null != existing)
+					single = existing;
+			}
+			return single;
+		}
+		PublisherPublicKeyDigest [] larger = new PublisherPublicKeyDigest[publishers.length + 1];
+		System.arraycopy(publishers, 0, larger, 0, publishers.length);
+		larger[publishers.length] = publisher;
+		return larger;
+	}
+	
+	/**
+	 * @param publishers publishers of the content under a node
+	 * @param digest digest of a publisher's key
+	 * @return true if there may be content from the publisher under the node
+	 */
+	protected static boolean hasPublisher(PublisherPublicKeyDigest [] publishers, byte [] digest) {
+		if (null == publishers)
+			return false;
+		if (publishers == ANY_PUBLISHER)
+			return true;
+		for (PublisherPublicKeyDigest publisher : publishers) {
+			if (Arrays.equals(publisher.digest(), digest))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Record the publisher of new content on the nodes for its name, before the content is added
+	 * so that a search never skips a subtree with content from the publisher
+	 * @param name the full name of the content
+	 * @param publisher the publisher of the content, or null if it isn't known
+	 */
+	protected void notePublisher(ContentName name, PublisherPublicKeyDigest publisher) {
+		TreeNode node = _root;
+		int i = 0;
+		while (null != node) {
+			PublisherPublicKeyDigest [] current = node.publishers;
+			if (current != ANY_PUBLISHER && (null == publisher || !hasPublisher(current, publisher.digest()))) {
+				synchronized (node) {
+					node.publishers = addPublisher(node.publishers, publisher);
+				}
+			}
+			if (i == name.count())
+				break;
+			// If a node on the way was removed the content will fail to be added and be tried again
+			node = node.getChild(name.component(i++));
+		}
+	}
+	
+	/**
+	 * Answer name enumerations from a cache of the responses already sent when the children of
+	 * the prefix haven't changed since
+	 * @param cache the cache, or null to always list the children
+	 */
+	public void setEnumerationCache(NameEnumerationCache cache) {
+		_enumerationCache = cache;
+	}
+	
 	/**
 	 * Insert entry for the given ContentObject.
 	 * 
@@ -351,118 +767,283 @@ public class ContentTree {
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 			Log.fine(Log.FAC_REPO, "inserting content: {0}", name);
 		}
+		while (true) {
+			TreeNode node = addNodes(name, ts, ner);
+			if (null == node)
+				continue;
+			
+			// Check for duplicate content
+			for (ContentRef oldRef : node.refs()) {
+				if (isDuplicate(content, oldRef, getter))
+					return false;
+			}
+	
+			if (addRef(name, node, ref))
+				break;
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
+		}
+		return true;
+	}
+	
+	/**
+	 * Check whether content at the same full name is the same as new content. If the ref records
+	 * the publisher of its content, the content can't differ from the new content without
+	 * changing its digest, so it isn't retrieved.
+	 */
+	private boolean isDuplicate(ContentObject content, ContentRef ref, ContentGetter getter) {
+		PublisherPublicKeyDigest publisher = ref.publisher();
+		if (null != publisher)
+			return publisher.equals(content.signedInfo().getPublisherKeyID());
+		ContentObject prev = getter.get(ref);
+		return null != prev && content.equals(prev);
+	}
+	
+	/**
+	 * Insert an entry given only the full name of the content, including its digest. Used to
+	 * rebuild the index without decoding all of the content. Since the digest is part of the
+	 * name, content already at this name is taken to be a duplicate.
+	 * 
+	 * @param name full name of the content including the digest component
+	 * @param ref pointer to position of data in the file storage
+	 * @param ts last modification time of the data
+	 * @return true if there was no content at this name already
+	 */
+	public boolean insert(ContentName name, ContentRef ref, long ts) {
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+			Log.fine(Log.FAC_REPO, "inserting name: {0}", name);
+		}
+		ConcurrentHashMap<Digest, DigestEntry> digests = _digests;
+		while (true) {
+			TreeNode node = addNodes(name, ts, null);
+			if (null == node)
+				continue;
+			if (null != digests && !node.hasContent())
+				notePublisher(name, ref.publisher());
+			synchronized (node) {
+				if (node.removed)
+					continue;	// Removed after we found it, try again
+				if (node.hasContent())
+					return false;
+				node.content = ref;
+				if (null != digests)
+					digests.put(new Digest(node.component), new DigestEntry(name, node));
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Find or create the nodes for a name. Existing nodes are found without locking; a node is
+	 * only locked to add a child to it.
+	 * 
+	 * @param name the full name of the content
+	 * @param ts last modification time of the data
+	 * @param ner NameEnumerationResponse to populate if a node is added to a parent with the interest flag set
+	 * @return the node for the last component of the name, or null if a node on the way was
+	 * 		removed from the tree while we were adding to it, in which case try again
+	 */
+	protected TreeNode addNodes(ContentName name, long ts, NameEnumerationResponse ner) {
 		TreeNode node = _root; // starting point
 		assert(null != _root);
-		boolean added = false;
 		
+		int depth = 0;
 		for (byte[] component : name) {
-			synchronized(node) {
-				//Library.finest("getting node for component: "+new String(component));
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
-						Log.finest(Log.FAC_REPO, "child was null: adding here");
-					}
-					// add it
-					added = true;
-					child = new TreeNode();
-					child.component = component;
-					if (null == node.oneChild && null == node.children) {
-						// This is first and only child of current node
-						node.oneChild = child;
-					} else if (null == node.oneChild) {
-						// Multiple children already, just add this one to current node
-						node.children.put(child, child);
-					} else {
-						// Second child in current node, need to switch to list
-						node.children = new TreeMap<TreeNode, TreeNode>();
-						node.children.put(node.oneChild, node.oneChild);
-						node.children.put(child, child);
-						node.oneChild = null;
-					}
-					if (node.neSent && (node.timestamp == ts)) {
-						if (Log.isLoggable(Log.FAC_REPO, Level.WARNING)) {
-							Log.warning(Log.FAC_REPO, "WARNING - info inserted at {0} since last NE without timestamp update - could cause NE miss", 
-									name);
-						}
-					}
-					node.neSent = false;
-					node.timestamp = ts;
+			TreeNode child = node.getChild(component);
+			if (null == child) {
+				synchronized(node) {
+					if (node.removed)
+						return null;
 					
-					if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
-						//we have added something to this node and someone was interested
-						//we need to get the child names and the prefix to send back
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
+					// Somebody else may have added it since we looked
+					child = node.getChild(component);
+					if (null == child) {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
+							Log.finest(Log.FAC_REPO, "child was null: adding here");
 						}
-						ContentName prefix = name.cut(component);
-	
-						prefix = new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION);
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
-							Log.info(Log.FAC_REPO, "response name will be: {0}",
-									new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION, new CCNTime(node.timestamp)));
+						// add it
+						child = new TreeNode();
+						child.component = component;
+						node.addChild(child);
+						if (node.neSent && (node.timestamp == ts)) {
+							if (Log.isLoggable(Log.FAC_REPO, Level.WARNING)) {
+								Log.warning(Log.FAC_REPO, "WARNING - info inserted at {0} since last NE without timestamp update - could cause NE miss", 
+										name);
+							}
+							invalidateEnumeration(name.cut(depth));
 						}
+						node.neSent = false;
+						node.timestamp = ts;
+					
+						if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
+							//we have added something to this node and someone was interested
+							//we need to get the child names and the prefix to send back
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
+							}
+							ContentName prefix = name.cut(component);
 	
-						ArrayList<ContentName> names = new ArrayList<ContentName>();
-						// the parent has children we need to return
-						if (node.oneChild != null) {
-							names.add(new ContentName(node.oneChild.component));
-						} else {
-							if (node.children != null) {
-								for (TreeNode ch : node.children.keySet())
-									names.add(new ContentName(ch.component));
+							prefix = new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION);
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
+								Log.info(Log.FAC_REPO, "response name will be: {0}",
+										new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION, new CCNTime(node.timestamp)));
 							}
+	
+							ArrayList<ContentName> names = new ArrayList<ContentName>();
+							// the parent has children we need to return
+							for (TreeNode ch : node.children())
+								names.add(new ContentName(ch.component));
+							ner.setPrefix(prefix);
+							ner.setNameList(names);
+							ner.setTimestamp(new CCNTime(node.timestamp));
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "resetting interestFlag to false");
+							}
+							node.interestFlag = false;
 						}
-						ner.setPrefix(prefix);
-						ner.setNameList(names);
-						ner.setTimestamp(new CCNTime(node.timestamp));
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "resetting interestFlag to false");
-						}
-						node.interestFlag = false;
 					}
 				}
-				
-				//Library.finest("child was not null: moving down the tree");
-				node = child;
+			}
+			node = child;
+			depth++;
+		}
+		return node;
+	}
+	
+	/**
+	 * The children of a node changed without its timestamp changing, so an enumeration
+	 * response cached for its current version no longer lists all of them
+	 * @param prefix the name of the node
+	 */
+	private void invalidateEnumeration(ContentName prefix) {
+		NameEnumerationCache cache = _enumerationCache;
+		if (null != cache)
+			cache.remove(new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION));
+	}
+	
+	/**
+	 * Add content to a node
+	 * @param name the full name of the content
+	 * @param node the node for the full name of the content
+	 * @param ref the content
+	 * @return false if the node has been removed from the tree, so the content wasn't added
+	 */
+	protected boolean addRef(ContentName name, TreeNode node, ContentRef ref) {
+		ConcurrentHashMap<Digest, DigestEntry> digests = _digests;
+		if (null != digests)
+			notePublisher(name, ref.publisher());
+		synchronized (node) {
+			if (node.removed)
+				return false;
+			node.addContent(ref);
+			// Under the node's lock, so the entry can't be taken out by a remove of earlier content
+			if (null != digests)
+				digests.put(new Digest(node.component), new DigestEntry(name, node));
+		}
+		return true;
+	}
+	
+	/**
+	 * Replace the ref for some content, for example because the content has been moved. Nothing
+	 * is changed if the content has been removed in the meantime.
+	 * 
+	 * @param name the full name of the content including the digest
+	 * @param oldRef the current ref
+	 * @param newRef the ref to replace it with
+	 * @return true if oldRef was found and replaced
+	 */
+	public boolean replace(ContentName name, ContentRef oldRef, ContentRef newRef) {
+		TreeNode node = lookupNode(name, name.count());
+		if (null == node)
+			return false;
+		synchronized (node) {
+			return node.replaceContent(oldRef, newRef);
+		}
+	}
+	
+	/**
+	 * Remove content from the tree. Nodes left with neither content nor children are removed
+	 * as well, so the name is no longer enumerated.
+	 * 
+	 * @param name the full name of the content including the digest
+	 * @param ref the ref for the content
+	 * @return true if the content was found and removed
+	 */
+	public boolean remove(ContentName name, ContentRef ref) {
+		int count = name.count();
+		TreeNode [] path = new TreeNode[count + 1];
+		path[0] = _root;
+		for (int i = 0; i < count; i++) {
+			path[i + 1] = path[i].getChild(name.component(i));
+			if (null == path[i + 1])
+				return false;
+		}
+		TreeNode node = path[count];
+		ConcurrentHashMap<Digest, DigestEntry> digests = _digests;
+		synchronized (node) {
+			if (!node.removeContent(ref))
+				return false;
+			if (null != digests && !node.hasContent()) {
+				Digest digest = new Digest(node.component);
+				DigestEntry entry = digests.get(digest);
+				if (null != entry && entry.node == node)
+					digests.remove(digest, entry);
 			}
 		}
 		
-		// Check for duplicate content
-		if (!added) {
-			if (null != node.oneContent) {
-				ContentObject prev = getter.get(node.oneContent);
-				if (null != prev && content.equals(prev))
-					return false;
-			} else if (null != node.content) {
-				for (ContentRef oldRef : node.content) {
-					ContentObject prev = getter.get(oldRef);
-					if (null != prev && content.equals(prev))
-						return false;
+		// Lock parent then child, the same order as addNodes
+		long now = System.currentTimeMillis();
+		for (int i = count; i > 0; i--) {
+			TreeNode parent = path[i - 1];
+			TreeNode child = path[i];
+			synchronized (parent) {
+				synchronized (child) {
+					if (child.removed || child.hasContent() || child.hasChildren())
+						break;
+					child.removed = true;
+					parent.removeChild(child);
+					if (parent.neSent && parent.timestamp == now)
+						invalidateEnumeration(name.cut(i - 1));
+					parent.timestamp = now;
+					parent.neSent = false;
 				}
 			}
 		}
+		return true;
+	}
+	
+	/**
+	 * @param name the full name of some content including the digest
+	 * @return the refs for content with exactly this name, or null if there are none
+	 */
+	public List<ContentRef> getRefs(ContentName name) {
+		return lookup(name);
+	}
 
-		// At conclusion of this loop, node must be holding the last node for this name
-		// so we insert the ref there
-		if (null == node.oneContent && null == node.content) {
-			// This is first and only content at this leaf
-			node.oneContent = ref;
-		} else if (null == node.oneContent) {
-			// Multiple content already at this node, add this one
-			node.content.add(ref);
-		} else {
-			// Second content at current node, need to switch to list
-			node.content = new ArrayList<ContentRef>();
-			node.content.add(node.oneContent);
-			node.content.add(ref);
-			node.oneContent = null;
-		}
-		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
+	/**
+	 * @param name the name of some content not including the digest
+	 * @return the refs for all the content with this name and any digest, in digest order,
+	 * 		or null if there is none
+	 */
+	public List<ContentRef> getRefsWithAnyDigest(ContentName name) {
+		TreeNode node = lookupNode(name, name.count());
+		if (null == node)
+			return null;
+		ArrayList<ContentRef> refs = null;
+		for (TreeNode child : node.children()) {
+			Object content = child.content;
+			if (null == content)
+				continue;
+			if (null == refs)
+				refs = new ArrayList<ContentRef>(1);
+			if (content instanceof ContentRef)
+				refs.add((ContentRef)content);
+			else
+				refs.addAll(Arrays.asList((ContentRef [])content));
 		}
-		return true;
+		return refs;
 	}
 
 	/**
@@ -481,17 +1062,15 @@ public class ContentTree {
 		}
 		
 		for (byte[] component : name) {
-			synchronized(node) {
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					// Mismatch, no child for the given component so nothing under this name
-					return null;
-				}
-				node = child;
-				count--;
-				if (count < 1) {
-					break;
-				}
+			TreeNode child = node.getChild(component);
+			if (null == child) {
+				// Mismatch, no child for the given component so nothing under this name
+				return null;
+			}
+			node = child;
+			count--;
+			if (count < 1) {
+				break;
 			}
 		}
 		return node;
@@ -506,18 +1085,32 @@ public class ContentTree {
 	protected final List<ContentRef> lookup(ContentName name) {
 		TreeNode node = lookupNode(name, name.count());
 		if (null != node) {
-			if (null != node.oneContent) {
-				ArrayList<ContentRef> result = new ArrayList<ContentRef>();
-				result.add(node.oneContent);
-				return result;
-			} else {
-				return node.content;
-			}
+			ContentRef [] refs = node.refs();
+			return (refs.length > 0) ? Arrays.asList(refs) : null;
 		} else {
 			return null;	
 		}
 	}
 	
+	/**
+	 * Return the content with exactly the given name, from the digest index if the tree is indexed
+	 * 
+	 * @param name full name of the content including the digest
+	 * @return the refs for the content, or null if there are none
+	 */
+	protected final List<ContentRef> lookupDigest(ContentName name) {
+		ConcurrentHashMap<Digest, DigestEntry> digests = _digests;
+		if (null == digests || name.count() == 0)
+			return lookup(name);
+		DigestEntry entry = digests.get(new Digest(name.lastComponent()));
+		if (null == entry)
+			return null;
+		if (!entry.name.equals(name))
+			return lookup(name);
+		ContentRef [] refs = entry.node.refs();
+		return (refs.length > 0) ? Arrays.asList(refs) : null;
+	}
+	
 	/**
 	 * Dump current names to an output file for debugging
 	 * 
@@ -535,7 +1128,132 @@ public class ContentTree {
 		dumpRecurse(output, _root, "", maxNodeLen);
 	}
 	
-	// Note: this is not thread-safe against everything else going on.
+	/**
+	 * Write the whole tree - names, refs and node timestamps - so that it can be reloaded
+	 * with readTree without having to decode the content it refers to. Name enumeration
+	 * interest state is not written.
+	 * 
+	 * This may run while content is being inserted. The result includes any content inserted
+	 * before the call; content inserted during the call may or may not be included.
+	 * 
+	 * @param out stream to write to
+	 * @param serializer writes the refs
+	 * @throws IOException
+	 */
+	public void writeTree(DataOutputStream out, ContentRefSerializer serializer) throws IOException {
+		writeNode(out, _root, serializer);
+	}
+	
+	protected void writeNode(DataOutputStream out, TreeNode node, ContentRefSerializer serializer) throws IOException {
+		long timestamp = node.timestamp;
+		ContentRef [] refs = node.refs();
+		Children children = node.children();
+		if (null != node.component) {
+			out.writeInt(node.component.length);
+			out.write(node.component);
+		}
+		out.writeLong(timestamp);
+		out.writeInt(refs.length);
+		for (ContentRef ref : refs)
+			serializer.write(ref, out);
+		out.writeInt(children.size());
+		for (TreeNode child : children)
+			writeNode(out, child, serializer);
+	}
+	
+	/**
+	 * Visit all the content in the tree in name order. Like writeTree, this may run while
+	 * content is being inserted or removed.
+	 * 
+	 * @param visitor called for each piece of content
+	 */
+	public void visit(ContentVisitor visitor) {
+		visitNode(_root, new ContentName(), 0, visitor);
+	}
+	
+	protected void visitNode(TreeNode node, ContentName name, long parentTimestamp, ContentVisitor visitor) {
+		long timestamp = node.timestamp;
+		for (ContentRef ref : node.refs())
+			visitor.visit(name, ref, parentTimestamp);
+		for (TreeNode child : node.children())
+			visitNode(child, new ContentName(name, child.component), timestamp, visitor);
+	}
+	
+	/**
+	 * @param name a name in the tree
+	 * @return the components of the children of the name in order, or null if the name isn't in the tree
+	 */
+	public List<byte []> getChildComponents(ContentName name) {
+		TreeNode node = lookupNode(name, name.count());
+		if (null == node)
+			return null;
+		Children children = node.children();
+		ArrayList<byte []> components = new ArrayList<byte []>(children.size());
+		for (TreeNode child : children)
+			components.add(child.component);
+		return components;
+	}
+	
+	/**
+	 * Replace the contents of this tree with a tree written by writeTree. Should only be called
+	 * before the tree is in use.
+	 * 
+	 * @param in stream to read from
+	 * @param serializer reads the refs
+	 * @return number of refs read
+	 * @throws IOException if the data is not a valid tree
+	 */
+	public long readTree(DataInputStream in, ContentRefSerializer serializer) throws IOException {
+		TreeNode root = new TreeNode();
+		long count = readNode(in, root, serializer);
+		_root = root;
+		if (isIndexed())
+			setIndexed(true);
+		return count;
+	}
+	
+	protected long readNode(DataInputStream in, TreeNode node, ContentRefSerializer serializer) throws IOException {
+		long count = 0;
+		node.timestamp = in.readLong();
+		int nrefs = in.readInt();
+		if (nrefs < 0)
+			throw new IOException("Bad content count in tree: " + nrefs);
+		if (nrefs == 1) {
+			node.content = serializer.read(in);
+		} else if (nrefs > 1) {
+			ContentRef [] refs = new ContentRef[nrefs];
+			for (int i = 0; i < nrefs; i++)
+				refs[i] = serializer.read(in);
+			node.content = refs;
+		}
+		count += nrefs;
+		int nchildren = in.readInt();
+		if (nchildren < 0)
+			throw new IOException("Bad child count in tree: " + nchildren);
+		TreeNode [] children = (nchildren > 1) ? new TreeNode[nchildren] : null;
+		for (int i = 0; i < nchildren; i++) {
+			int length = in.readInt();
+			if (length < 0)
+				throw new IOException("Bad component length in tree: " + length);
+			byte [] component = new byte[length];
+			in.readFully(component);
+			TreeNode child = new TreeNode();
+			child.component = ComponentInterner.internComponent(component);
+			count += readNode(in, child, serializer);
+			if (nchildren == 1) {
+				node.children = child;
+			} else {
+				// Children are written in order, and have to be in order to be found
+				if (i > 0 && children[i - 1].compareTo(child) >= 0)
+					throw new IOException("Children out of order in tree");
+				children[i] = child;
+			}
+		}
+		if (null != children)
+			node.children = new Children(children, nchildren);
+		return count;
+	}
+	
 	protected void dumpRecurse(PrintStream output, TreeNode node, String indent, int maxNodeLen) {
 		String myname = null;
 		if (null == node.component) {
@@ -549,12 +1267,13 @@ public class ContentTree {
 		}
 		int mylen = myname.length();
 		output.print(myname);
-		if (null != node.oneChild) {
+		Children children = node.children();
+		if (children.size() == 1) {
 			output.print("---");
-			dumpRecurse(output, node.oneChild, String.format("%s%" + mylen + "s   ", indent, ""), maxNodeLen);
-		} else if (null != node.children) {
-			int count = 1; int last = node.children.size();
-			for (TreeNode child : node.children.values()) {
+			dumpRecurse(output, children.get(0), String.format("%s%" + mylen + "s   ", indent, ""), maxNodeLen);
+		} else if (children.size() > 1) {
+			int count = 1; int last = children.size();
+			for (TreeNode child : children) {
 				if (1 == count) {
 					// First child
 					output.print("-+-");
@@ -590,32 +1309,46 @@ public class ContentTree {
 		// for ContentObject.name() that the digest is not present) we must REMOVE the content 
 		// digest first or this test will not always be correct
 		ContentName digestFreeName = nodeName.parent();
-		Interest publisherFreeInterest = interest.clone();
-		publisherFreeInterest.publisherID(null);
+		InterestMatcher matcher = interest.matcher();
 
-		boolean initialMatch = publisherFreeInterest.matches(digestFreeName, null); 
+		// The publisher is checked against the candidate content below
+		boolean initialMatch = matcher.matchesName(digestFreeName); 
 
 		if (initialMatch) {
-			synchronized(node) {
-				if (null != node.oneContent) {
-					ContentObject cand = getter.get(node.oneContent);
-					if (interest.matches(cand)) {
-						return cand;
-					}
-				} else {
-					assert(null != node.content);
-					for (ContentRef ref : node.content) {
-						ContentObject cand = getter.get(ref);
-						if (interest.matches(cand)) {
-							return cand;
-						}
-					}
+			byte [] digest = nodeName.lastComponent();
+			for (ContentRef ref : node.refs()) {
+				ContentObject cand = match(matcher, digestFreeName, digest, ref, getter);
+				if (null != cand) {
+					return cand;
 				}
 			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Match the content for a ref. If the ref records the publisher of its content, the match is
+	 * done in memory and only matching content is retrieved.
+	 * 
+	 * @param matcher matcher for the interest
+	 * @param name name of the content without its digest
+	 * @param digest digest of the content
+	 * @param ref the candidate
+	 * @param getter getter to get actual data
+	 * @return the content if it matches, null otherwise
+	 */
+	private ContentObject match(InterestMatcher matcher, ContentName name, byte [] digest, ContentRef ref, ContentGetter getter) {
+		PublisherPublicKeyDigest publisher = ref.publisher();
+		if (null != publisher) {
+			if (!matcher.matches(name, digest, publisher)) {
+				return null;
+			}
+			return getter.get(ref);
+		}
+		ContentObject cand = getter.get(ref);
+		return (null != cand && matcher.matches(cand)) ? cand : null;
+	}
+	
 	/**
 	 * Return all names with a prefix matching the name within the interest for name enumeration.
 	 * 
@@ -626,6 +1359,10 @@ public class ContentTree {
 	 * trigger a NameEnumerationResponse when a new child is added to the prefix.  Interests attempting
 	 * to enumerate under a prefix that does not exist on the repo are dropped.
 	 * 
+	 * If there is an enumeration cache and it holds the response for the current version of the
+	 * prefix, the children aren't listed and a NameEnumerationCache.CachedResponse with the cached
+	 * segments is returned instead.
+	 * 
 	 * @param interest the interest to base the enumeration on using the rules of name enumeration
 	 * @return the name enumeration response containing the list of matching names
 	 */
@@ -673,15 +1410,16 @@ public class ContentTree {
 				return null;
 			}
 
+			ContentName enumerationPrefix = new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION);
+			NameEnumerationCache cache = _enumerationCache;
+			ContentObject [] cached = null;
 			//the parent has children we need to return
-			synchronized (parent) {		// Make sure especially that nobody changes from oneChild to children behind our back
-				if (parent.oneChild!=null) {
-					names.add(new ContentName(parent.oneChild.component));
-				} else {
-					if (parent.children!=null) {
-						for (TreeNode ch:parent.children.keySet())
-							names.add(new ContentName(ch.component));
-					}
+			synchronized (parent) {		// Make sure especially that nobody adds children behind our back
+				if (null != cache)
+					cached = cache.get(enumerationPrefix, timestamp);
+				if (null == cached) {
+					for (TreeNode ch : parent.children())
+						names.add(new ContentName(ch.component));
 				}
 				
 				if (names.size()>0) {
@@ -693,8 +1431,9 @@ public class ContentTree {
 				parent.neSent = true;
 			}
 			
-			return new NameEnumerationResponse(
-					new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION), names, timestamp);
+			if (null != cached)
+				return new NameEnumerationCache.CachedResponse(enumerationPrefix, timestamp, cached);
+			return new NameEnumerationResponse(enumerationPrefix, names, timestamp);
 		}
 		return null;
 	}
@@ -711,14 +1450,15 @@ public class ContentTree {
 		int ncc = interest.name().count();
 		if (null != addl && addl.intValue() == 0) {
 			// Query is for exact match to full name with digest, no additional components
-			List<ContentRef> found = lookup(interest.name());
+			List<ContentRef> found = lookupDigest(interest.name());
 			if (found!=null) {
+				InterestMatcher matcher = interest.matcher();
+				ContentName digestFreeName = interest.name().parent();
+				byte [] digest = interest.name().lastComponent();
 				for (ContentRef ref : found) {
-					ContentObject cand = getter.get(ref);
+					ContentObject cand = match(matcher, digestFreeName, digest, ref, getter);
 					if (null != cand) {
-						if (interest.matches(cand)) {
-							return cand;
-						}
+						return cand;
 					}
 				}
 			}
@@ -749,6 +1489,6 @@ public class ContentTree {
 	 */
 	public boolean matchContent(ContentName name) {
 		// Query is for exact match to full name with digest, no additional components
-		return (lookup(name) != null);
+		return (lookupDigest(name) != null);
 	}
 }
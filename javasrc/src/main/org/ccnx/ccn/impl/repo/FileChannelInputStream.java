@@ -0,0 +1,83 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FileChannelInputStream reads a backend repository file from a given offset
+ * using positional reads. It keeps its own position, so any number of these
+ * streams can read from the same FileChannel at once without locking and
+ * without disturbing the channel's own file pointer.
+ * 
+ * This class is intended for backend repository use and is not meant
+ * for general CCN stream use.
+ * 
+ * @see FileChannel#read(ByteBuffer, long)
+ */
+public class FileChannelInputStream extends InputStream {
+
+	protected FileChannel underlying;
+	protected long position;
+
+	/**
+	 * @param channel backend repository file
+	 * @param offset position in the file of the first byte to read
+	 */
+	public FileChannelInputStream(FileChannel channel, long offset) {
+		underlying = channel;
+		position = offset;
+	}
+	
+	/**
+	 * @return the position in the file of the next byte to be read
+	 */
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte [] b = new byte[1];
+		return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int n = underlying.read(ByteBuffer.wrap(b, off, len), position);
+		if (n > 0)
+			position += n;
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		long remaining = underlying.size() - position;
+		if (n > remaining)
+			n = Math.max(0, remaining);
+		position += n;
+		return n;
+	}
+}
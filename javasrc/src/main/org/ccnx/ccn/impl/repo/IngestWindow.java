@@ -0,0 +1,127 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+/**
+ * The window of segment interests a RepositoryDataListener keeps outstanding while it reads a
+ * stream being written to the repository, adapted to the path the stream comes over in the way
+ * TCP adapts its congestion window. The window starts at the configured pipeline size and grows
+ * by one segment for each segment received until it reaches the slow start threshold (slow
+ * start), then by one segment per window of segments received (additive increase). A timeout
+ * halves it (multiplicative decrease) and sets the threshold to the new size.
+ * 
+ * The window also keeps a smoothed round trip time and the retransmission timeout derived from
+ * it as in RFC 6298. Only segments which were asked for once give round trip time samples, as
+ * the reply to a retransmitted interest could be to either of them. Successive timeouts double
+ * the retransmission timeout until a new sample arrives.
+ * 
+ * IngestWindow is not synchronized; RepositoryDataListener uses it under its interest table lock.
+ */
+public class IngestWindow {
+	
+	public static final long INITIAL_RTO = 1000;	// in ms, until there is a sample
+	public static final long MIN_RTO = 100;
+	public static final long MAX_RTO = 10000;
+	
+	protected final int _max;
+	protected double _window;
+	protected double _threshold;
+	protected double _srtt = -1;
+	protected double _rttvar = 0;
+	protected long _rto = INITIAL_RTO;
+	protected int _timeouts = 0;
+	
+	/**
+	 * @param initial starting window
+	 * @param max largest window
+	 */
+	public IngestWindow(int initial, int max) {
+		_max = Math.max(max, 1);
+		_window = Math.max(1, Math.min(initial, _max));
+		_threshold = _max;
+	}
+	
+	/**
+	 * @return the number of segment interests which may be outstanding
+	 */
+	public int window() {
+		return (int)_window;
+	}
+	
+	/**
+	 * @return true while the window is growing exponentially
+	 */
+	public boolean slowStart() {
+		return _window < _threshold;
+	}
+	
+	/**
+	 * A segment has arrived
+	 * 
+	 * @param rtt the time in ms since the interest for the segment was expressed, or a negative
+	 * 		number if the interest was retransmitted so the time isn't a sample of the round trip
+	 */
+	public void received(long rtt) {
+		if (_window < _threshold)
+			_window = Math.min(_window + 1, _max);
+		else
+			_window = Math.min(_window + 1 / _window, _max);
+		if (rtt < 0)
+			return;
+		if (_srtt < 0) {
+			_srtt = rtt;
+			_rttvar = rtt / 2.0;
+		} else {
+			_rttvar = 0.75 * _rttvar + 0.25 * Math.abs(_srtt - rtt);
+			_srtt = 0.875 * _srtt + 0.125 * rtt;
+		}
+		_rto = Math.max(MIN_RTO, Math.min(MAX_RTO, (long)Math.ceil(_srtt + Math.max(1, 4 * _rttvar))));
+	}
+	
+	/**
+	 * A segment wasn't received within the retransmission timeout. The caller should only call
+	 * this once for a number of segments lost together.
+	 */
+	public void timedOut() {
+		_threshold = Math.max(_window / 2, 1);
+		_window = _threshold;
+		_rto = Math.min(MAX_RTO, 2 * _rto);
+		_timeouts++;
+	}
+	
+	/**
+	 * @return how long in ms to wait for a segment before asking for it again
+	 */
+	public long rto() {
+		return _rto;
+	}
+	
+	/**
+	 * @return the smoothed round trip time in ms, or -1 if there has been no sample yet
+	 */
+	public long srtt() {
+		return (_srtt < 0) ? -1 : Math.round(_srtt);
+	}
+	
+	/**
+	 * @return the number of timeouts so far
+	 */
+	public int timeouts() {
+		return _timeouts;
+	}
+}
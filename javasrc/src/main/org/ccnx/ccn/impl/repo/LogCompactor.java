@@ -0,0 +1,432 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.FileRef;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.RepoFile;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.Shard;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.MalformedContentNameStringException;
+import org.ccnx.ccn.protocol.SignedInfo.ContentType;
+
+/**
+ * Reclaims space in a LogStructRepoStore by rewriting log files which are no longer being
+ * written so that they only hold live content. Content is live if the index still refers to it
+ * - so duplicates and content removed with LogStructRepoStore.removeContent are not - and the
+ * retention policy keeps it:
+ * <ul>
+ * <li>only the newest REPO_KEEP_VERSIONS versions of versioned content are kept, if set
+ * <li>versions older than a newest version which is GONE are dropped
+ * <li>content in a namespace with a REPO_TTL is dropped once it has been stored for longer
+ * </ul>
+ * 
+ * Each pass first walks the index to find how much of each file is live, without reading the
+ * files, and then rewrites those in which at least REPO_COMPACT_GARBAGE percent of the space
+ * can be reclaimed. The live records are copied to a new file, which is synced and renamed into
+ * place before the index is switched over to it. The old file is only deleted at the start of
+ * the next pass so that gets which looked up the old refs before the switch can still read them.
+ * Reads and writes are limited to REPO_COMPACT_RATE bytes per second so that compaction doesn't
+ * take disk bandwidth away from the repository's clients.
+ * 
+ * As it deletes content for good, the repository only runs compaction when REPO_COMPACT_INTERVAL
+ * is set.
+ * 
+ * @see org.ccnx.ccn.config.SystemConfiguration#REPO_COMPACT_INTERVAL
+ */
+public class LogCompactor {
+	
+	public static final String COMPACT_FILE = "compact.tmp";
+
+	protected final LogStructRepoStore _store;
+	protected final int _keepVersions;
+	protected final int _garbagePercent;
+	protected final long _rate;
+	protected final ArrayList<ContentName> _ttlPrefixes = new ArrayList<ContentName>();
+	protected final ArrayList<Long> _ttls = new ArrayList<Long>();
+	
+	protected final ArrayList<Integer> _retired = new ArrayList<Integer>();
+	protected volatile boolean _stopped = false;
+	
+	protected long _throttleStart;
+	protected long _throttleBytes;
+	
+	// The version policy for the last versioned name looked at. The index is walked in name
+	// order so all the versions of something are looked at together.
+	protected ContentName _lastVersioned = null;
+	protected byte [] _lastCutoff = null;
+	
+	/**
+	 * Content found in the file being compacted
+	 */
+	protected static class Entry {
+		final ContentName name;
+		final FileRef ref;
+		FileRef moved = null;
+		
+		Entry(ContentName name, FileRef ref) {
+			this.name = name;
+			this.ref = ref;
+		}
+	}
+	
+	/**
+	 * @param store the store to compact
+	 * @param keepVersions number of versions of versioned content to keep, 0 for all of them
+	 * @param ttls comma separated list of prefix=seconds giving how long to keep content under
+	 * 		each prefix, the longest matching prefix applying
+	 * @param garbagePercent percentage of a file which must be reclaimable before it is rewritten
+	 * @param rate maximum bytes per second to read and write, 0 for no limit
+	 */
+	public LogCompactor(LogStructRepoStore store, int keepVersions, String ttls, int garbagePercent, long rate) {
+		_store = store;
+		_keepVersions = keepVersions;
+		_garbagePercent = garbagePercent;
+		_rate = rate;
+		if (null != ttls) {
+			for (String ttl : ttls.split(",")) {
+				ttl = ttl.trim();
+				if (ttl.length() == 0)
+					continue;
+				int equals = ttl.lastIndexOf('=');
+				try {
+					if (equals < 0)
+						throw new NumberFormatException("no time");
+					ContentName prefix = ContentName.fromURI(ttl.substring(0, equals).trim());
+					long seconds = Long.parseLong(ttl.substring(equals + 1).trim());
+					_ttlPrefixes.add(prefix);
+					_ttls.add(seconds * 1000);
+				} catch (MalformedContentNameStringException e) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository TTL {0}: {1}", ttl, e.getMessage());
+				} catch (NumberFormatException e) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository TTL {0}: {1}", ttl, e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Make one pass over the log files, rewriting those with enough space to reclaim
+	 */
+	public synchronized void compact() {
+		if (_stopped)
+			return;
+		deleteRetired();
+		for (Shard shard : _store._shards)
+			new File(shard.directory, COMPACT_FILE).delete();
+		
+		// Files which are no longer written and are completely indexed
+		final HashMap<Integer, Long> sizes = new HashMap<Integer, Long>();
+		synchronized (_store._files) {
+			for (Map.Entry<Integer, RepoFile> entry : _store._files.entrySet()) {
+				RepoFile rfile = entry.getValue();
+				if (_store.isActiveWriteFile(rfile) || _retired.contains(entry.getKey()))
+					continue;
+				synchronized (rfile) {
+					long length = rfile.file.length();
+					if (null == rfile.openFile && rfile.indexedTo >= length)
+						sizes.put(entry.getKey(), length - LogFileFormat.FILE_HEADER_SIZE);
+				}
+			}
+		}
+		if (sizes.isEmpty())
+			return;
+		
+		final HashMap<Integer, Long> live = new HashMap<Integer, Long>();
+		_lastVersioned = null;
+		_store._index.visit(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref, long ts) {
+				FileRef fref = (FileRef)ref;
+				if (!sizes.containsKey(fref.id) || dropped(name, ts))
+					return;
+				Long bytes = live.get(fref.id);
+				live.put(fref.id, ((null == bytes) ? 0 : bytes) + LogFileFormat.RECORD_HEADER_SIZE + Math.max(fref.length, 0));
+			}
+		});
+		
+		boolean compacted = false;
+		for (Map.Entry<Integer, Long> entry : sizes.entrySet()) {
+			if (_stopped)
+				break;
+			Long bytes = live.get(entry.getKey());
+			long garbage = entry.getValue() - ((null == bytes) ? 0 : bytes);
+			if (garbage > 0 && garbage * 100 >= entry.getValue() * _garbagePercent) {
+				if (compactFile(entry.getKey()))
+					compacted = true;
+			}
+		}
+		if (compacted)
+			_store.writeCheckpoint();
+	}
+	
+	/**
+	 * Stop compacting, waiting for a pass in progress to give up, and delete files retired by
+	 * the last pass
+	 */
+	public void stop() {
+		_stopped = true;
+		synchronized (this) {
+			deleteRetired();
+		}
+	}
+	
+	/**
+	 * Rewrite one file
+	 * 
+	 * @param id the file id
+	 * @return true if the file was compacted
+	 */
+	protected boolean compactFile(final int id) {
+		RepoFile rfile;
+		synchronized (_store._files) {
+			rfile = _store._files.get(id);
+		}
+		
+		// Find the content in the file by where it is. Nothing else can move it.
+		final HashMap<Long, Entry> keep = new HashMap<Long, Entry>();
+		final ArrayList<Entry> drop = new ArrayList<Entry>();
+		_lastVersioned = null;
+		_store._index.visit(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref, long ts) {
+				FileRef fref = (FileRef)ref;
+				if (fref.id != id)
+					return;
+				if (dropped(name, ts))
+					drop.add(new Entry(name, fref));
+				else
+					keep.put(fref.offset, new Entry(name, fref));
+			}
+		});
+		
+		long start = System.currentTimeMillis();
+		_throttleStart = start;
+		_throttleBytes = 0;
+		// The new file goes in the same directory as the old one, so shards keep their content
+		File tmp = new File(rfile.file.getParentFile(), COMPACT_FILE);
+		RepoFile newFile = null;
+		int newId = -1;
+		if (!keep.isEmpty()) {
+			newId = _store.nextFileId();
+			FileInputStream in = null;
+			FileOutputStream fos = null;
+			try {
+				in = new FileInputStream(rfile.file);
+				fos = new FileOutputStream(tmp);
+				BufferedOutputStream out = new BufferedOutputStream(fos, LogFileFormat.Reader.WINDOW_SIZE);
+				out.write(LogFileFormat.fileHeader());
+				long position = LogFileFormat.FILE_HEADER_SIZE;
+				LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), 0);
+				byte [] record;
+				while (null != (record = reader.next())) {
+					if (_stopped)
+						return false;
+					Entry entry = keep.get(reader.recordOffset());
+					if (null == entry) {
+						throttle(LogFileFormat.RECORD_HEADER_SIZE + record.length);
+						continue;
+					}
+					throttle(2 * (LogFileFormat.RECORD_HEADER_SIZE + record.length));
+					out.write(LogFileFormat.recordHeader(record).array());
+					position += LogFileFormat.RECORD_HEADER_SIZE;
+					entry.moved = new FileRef(newId, position, record.length, entry.ref.publisher);
+					out.write(record);
+					position += record.length;
+				}
+				out.flush();
+				fos.getFD().sync();
+				fos.close();
+				fos = null;
+				
+				File target = new File(rfile.file.getParentFile(), LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + newId);
+				if (!tmp.renameTo(target))
+					throw new IOException("Can't rename " + tmp + " to " + target);
+				newFile = new RepoFile();
+				newFile.file = target;
+				newFile.nextWritePos = position;
+				newFile.indexedTo = position;
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to compact repository file {0}: {1}", rfile.file, e.getMessage());
+				return false;
+			} finally {
+				try {
+					if (null != in)
+						in.close();
+					if (null != fos)
+						fos.close();
+				} catch (IOException e) {}
+				tmp.delete();
+			}
+			synchronized (_store._files) {
+				_store._files.put(newId, newFile);
+			}
+		}
+		
+		// Switch the index over to the new file
+		long kept = 0;
+		for (Entry entry : keep.values()) {
+			if (null == entry.moved) {
+				// The record was damaged after it was indexed so it can't be read anyway
+				Log.warning(Log.FAC_REPO, "Dropping damaged content {0} from {1}", entry.name, rfile.file);
+				drop.add(entry);
+				continue;
+			}
+			if (_store._index.replace(entry.name, entry.ref, entry.moved))
+				kept++;
+			_store.forget(entry.ref);
+		}
+		for (Entry entry : drop) {
+			_store._index.remove(entry.name, entry.ref);
+			_store._quotas.removed(entry.name);
+			_store.forget(entry.ref);
+		}
+		_retired.add(id);
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Compacted {0} into {1} in {2} ms: kept {3} records, dropped {4}, {5} bytes left of {6}", 
+					rfile.file, (null == newFile) ? "nothing" : newFile.file, System.currentTimeMillis() - start, 
+					kept, drop.size(), (null == newFile) ? 0 : newFile.indexedTo, rfile.file.length());
+		}
+		return true;
+	}
+	
+	/**
+	 * Delete the files compacted by the last pass. By now nothing should be reading them.
+	 * They're removed from the checkpoint before they are deleted, so if we stop in between
+	 * they're reindexed on restart, but as they only hold duplicates, that adds nothing.
+	 */
+	protected void deleteRetired() {
+		if (_retired.isEmpty())
+			return;
+		ArrayList<RepoFile> files = new ArrayList<RepoFile>();
+		synchronized (_store._files) {
+			for (Integer id : _retired) {
+				RepoFile rfile = _store._files.remove(id);
+				if (null != rfile)
+					files.add(rfile);
+			}
+		}
+		_retired.clear();
+		_store.writeCheckpoint();
+		for (RepoFile rfile : files) {
+			synchronized (rfile) {
+				if (null != rfile.readChannel) {
+					try {
+						rfile.readChannel.close();
+					} catch (IOException e) {}
+					rfile.readChannel = null;
+				}
+			}
+			if (!rfile.file.delete())
+				Log.warning(Log.FAC_REPO, "Unable to delete compacted repository file {0}", rfile.file);
+		}
+	}
+	
+	/**
+	 * Does the retention policy drop some content?
+	 * 
+	 * @param name the full name of the content
+	 * @param ts when it was stored
+	 */
+	protected boolean dropped(ContentName name, long ts) {
+		if (!_ttls.isEmpty()) {
+			int longest = -1;
+			long ttl = 0;
+			for (int i = 0; i < _ttlPrefixes.size(); i++) {
+				ContentName prefix = _ttlPrefixes.get(i);
+				if (prefix.count() > longest && prefix.isPrefixOf(name)) {
+					longest = prefix.count();
+					ttl = _ttls.get(i);
+				}
+			}
+			if (longest >= 0 && System.currentTimeMillis() - ts > ttl)
+				return true;
+		}
+		
+		// Versions - leave out the digest, which could look like one
+		ContentName digestFree = name.cut(name.count() - 1);
+		int v = VersioningProfile.findLastVersionComponent(digestFree);
+		if (v < 0)
+			return false;
+		ContentName versioned = digestFree.cut(v);
+		if (!versioned.equals(_lastVersioned)) {
+			_lastVersioned = versioned;
+			_lastCutoff = cutoff(versioned);
+		}
+		return null != _lastCutoff && DataUtils.compare(digestFree.component(v), _lastCutoff) < 0;
+	}
+	
+	/**
+	 * @param versioned the name of something with versions
+	 * @return the oldest version of it which is kept, or null to keep them all
+	 */
+	protected byte [] cutoff(ContentName versioned) {
+		List<byte []> children = _store._index.getChildComponents(versioned);
+		if (null == children)
+			return null;
+		ArrayList<byte []> versions = new ArrayList<byte []>();
+		for (byte [] child : children) {
+			if (VersioningProfile.isVersionComponent(child))
+				versions.add(child);
+		}
+		// Children are in component order, which for versions is oldest first
+		if (versions.size() < 2)
+			return null;
+		byte [] newest = versions.get(versions.size() - 1);
+		ContentObject latest = _store._index.get(new Interest(new ContentName(versioned, newest)), _store);
+		if (null != latest && latest.signedInfo().getType() == ContentType.GONE)
+			return newest;
+		if (_keepVersions > 0 && versions.size() > _keepVersions)
+			return versions.get(versions.size() - _keepVersions);
+		return null;
+	}
+	
+	/**
+	 * Wait if we are reading and writing faster than the rate limit
+	 * 
+	 * @param bytes bytes about to be read or written
+	 */
+	protected void throttle(long bytes) {
+		if (_rate <= 0)
+			return;
+		_throttleBytes += bytes;
+		long ahead = (_throttleBytes * 1000 / _rate) - (System.currentTimeMillis() - _throttleStart);
+		if (ahead > 0) {
+			try {
+				Thread.sleep(ahead);
+			} catch (InterruptedException e) {
+				_stopped = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+
+/**
+ * The layout of repository log files.
+ * 
+ * A log file starts with a header holding FILE_MAGIC and the format version, followed by
+ * the records. Each record is a ccnb encoded ContentObject preceded by a record header:
+ * <pre>
+ *   RECORD_MAGIC, length of the record, CRC32 of the record, CRC32 of the preceding 12 bytes
+ * </pre>
+ * all as big endian ints. The header checksum means a damaged length can't send a reader
+ * off into the middle of another record, so a reader can find the end of each record without
+ * decoding it, skip records whose contents are damaged and resynchronize on the next good
+ * header, and tell a record that was only partly written when the repository stopped (a
+ * torn tail) from one damaged in the middle of the file.
+ * 
+ * A record may be stored compressed. A compressed record starts with COMPRESSED_MARKER, a
+ * ccnb element close which no ContentObject starts with, then the codec and the length of
+ * the ContentObject as a big endian int, then the compressed ContentObject. The record
+ * header describes the record as stored; expand() gives back the ContentObject.
+ * 
+ * Log files written by repository version 1.4 and earlier are just concatenated ccnb
+ * ContentObjects. They can be converted with upgrade(). They never start with FILE_MAGIC as
+ * its first byte is a ccnb element close.
+ */
+public class LogFileFormat {
+
+	public static final byte [] FILE_MAGIC = {0, 'C', 'C', 'N', 'X', 'L', 'O', 'G'};
+	public static final int FILE_FORMAT = 1;
+	public static final int FILE_HEADER_SIZE = FILE_MAGIC.length + 4;
+	
+	public static final int RECORD_MAGIC = 0x434E5852;
+	public static final int RECORD_HEADER_SIZE = 16;
+	
+	public static final byte COMPRESSED_MARKER = 0;
+	public static final byte CODEC_DEFLATE = 1;
+	public static final int COMPRESSED_HEADER_SIZE = 6;
+	
+	// Compressors are expensive to create, so each thread keeps one
+	protected static final ThreadLocal<Deflater> _deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+	protected static final ThreadLocal<Inflater> _inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+	
+	/**
+	 * @return the header written at the start of each log file
+	 */
+	public static byte [] fileHeader() {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.put(FILE_MAGIC);
+		header.putInt(FILE_FORMAT);
+		return header.array();
+	}
+	
+	/**
+	 * @param record an encoded ContentObject
+	 * @return the header to write in front of it, ready to write
+	 */
+	public static ByteBuffer recordHeader(byte [] record) {
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		header.putInt(RECORD_MAGIC);
+		header.putInt(record.length);
+		header.putInt(crc(record, 0, record.length));
+		header.putInt(crc(header.array(), 0, RECORD_HEADER_SIZE - 4));
+		header.flip();
+		return header;
+	}
+	
+	public static int crc(byte [] data, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int)crc.getValue();
+	}
+	
+	/**
+	 * Compress an encoded ContentObject to store as a record
+	 * 
+	 * @param record the encoded ContentObject
+	 * @return the compressed record, or null if compressing it doesn't make it smaller
+	 */
+	public static byte [] compress(byte [] record) {
+		byte [] compressed = new byte[record.length];
+		if (compressed.length <= COMPRESSED_HEADER_SIZE)
+			return null;
+		compressed[0] = COMPRESSED_MARKER;
+		compressed[1] = CODEC_DEFLATE;
+		ByteBuffer.wrap(compressed, 2, 4).putInt(record.length);
+		Deflater deflater = _deflaters.get();
+		deflater.reset();
+		deflater.setInput(record);
+		deflater.finish();
+		int length = COMPRESSED_HEADER_SIZE;
+		while (!deflater.finished() && length < compressed.length)
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		if (!deflater.finished())
+			return null;
+		return Arrays.copyOf(compressed, length);
+	}
+	
+	/**
+	 * @param record a record
+	 * @return true if the record is compressed
+	 */
+	public static boolean isCompressed(byte [] record) {
+		return record.length > 0 && record[0] == COMPRESSED_MARKER;
+	}
+	
+	/**
+	 * Get the encoded ContentObject stored in a record
+	 * 
+	 * @param record the record
+	 * @return the record itself if it isn't compressed, otherwise the decompressed record
+	 * @throws ContentDecodingException if the record can't be decompressed
+	 */
+	public static byte [] expand(byte [] record) throws ContentDecodingException {
+		if (!isCompressed(record))
+			return record;
+		if (record.length < COMPRESSED_HEADER_SIZE || record[1] != CODEC_DEFLATE)
+			throw new ContentDecodingException("Unknown record compression");
+		int length = ByteBuffer.wrap(record, 2, 4).getInt();
+		if (length < 0 || length > LogIndexBuilder.MAX_RECORD_SIZE)
+			throw new ContentDecodingException("Bad compressed record length " + length);
+		byte [] expanded = new byte[length];
+		Inflater inflater = _inflaters.get();
+		inflater.reset();
+		inflater.setInput(record, COMPRESSED_HEADER_SIZE, record.length - COMPRESSED_HEADER_SIZE);
+		try {
+			int n = 0;
+			while (n < length) {
+				int inflated = inflater.inflate(expanded, n, length - n);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new ContentDecodingException("Compressed record is " + n + " bytes, not " + length);
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new ContentDecodingException("Damaged compressed record: " + e.getMessage());
+		}
+		return expanded;
+	}
+	
+	/**
+	 * @param file a repository log file
+	 * @return true if the file starts with a header in this format, false if it was written
+	 * 		by an earlier version, or not completely written
+	 * @throws IOException
+	 */
+	public static boolean isFramed(File file) throws IOException {
+		if (file.length() < FILE_HEADER_SIZE)
+			return false;
+		byte [] header = new byte[FILE_HEADER_SIZE];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.readFully(header);
+		} finally {
+			raf.close();
+		}
+		return Arrays.equals(header, fileHeader());
+	}
+	
+	/**
+	 * Convert a log file written by an earlier repository version to this format. The new
+	 * file is forced to disk before this returns.
+	 * 
+	 * @param from the log file to convert
+	 * @param to where to write the converted file
+	 * @param strict if true, fail if from doesn't consist entirely of complete ccnb elements,
+	 * 		otherwise convert everything up to the first partial or damaged element
+	 * @return the number of bytes at the end of from which weren't converted
+	 * @throws IOException
+	 */
+	public static long upgrade(File from, File to, boolean strict) throws IOException {
+		long converted = 0;
+		InputStream in = new BufferedInputStream(new FileInputStream(from), 65536);
+		try {
+			FileOutputStream fos = new FileOutputStream(to);
+			try {
+				OutputStream out = new BufferedOutputStream(fos, 65536);
+				out.write(fileHeader());
+				while (true) {
+					byte [] record;
+					try {
+						record = LogIndexBuilder.readRecord(in);
+					} catch (IOException e) {
+						if (strict)
+							throw e;
+						Log.warning(Log.FAC_REPO, "Discarding damaged data at offset {0} of {1}: {2}", converted, from, e.getMessage());
+						break;
+					}
+					if (null == record)
+						break;
+					out.write(recordHeader(record).array());
+					out.write(record);
+					converted += record.length;
+				}
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+		} finally {
+			in.close();
+		}
+		return from.length() - converted;
+	}
+	
+	/**
+	 * Reads the records of a log file in order. Records with bad checksums, and any other
+	 * damaged data, are skipped. Reads are positional so a Reader doesn't disturb other users
+	 * of the channel.
+	 */
+	public static class Reader {
+		
+		public static final int WINDOW_SIZE = 65536;
+		
+		protected final FileChannel _channel;
+		protected final long _size;
+		protected long _position;		// where to look for the next record header
+		protected long _end;			// end of the last good record
+		protected long _recordOffset = -1;
+		protected int _damaged = 0;
+		protected long _skipped = 0;
+		
+		protected final byte [] _window;
+		protected long _windowStart = 0;
+		protected int _windowLength = 0;
+		
+		/**
+		 * @param channel the log file
+		 * @param start offset of the first record to read, or 0 to read them all
+		 * @throws IOException if the file isn't in this format
+		 */
+		public Reader(FileChannel channel, long start) throws IOException {
+			this(channel, start, WINDOW_SIZE);
+		}
+		
+		/**
+		 * @param channel the log file
+		 * @param start offset of the first record to read, or 0 to read them all
+		 * @param windowSize how much of the file to read at once
+		 * @throws IOException if the file isn't in this format
+		 */
+		public Reader(FileChannel channel, long start, int windowSize) throws IOException {
+			_channel = channel;
+			_window = new byte[Math.max(windowSize, FILE_HEADER_SIZE + RECORD_HEADER_SIZE)];
+			_size = channel.size();
+			if (_size < FILE_HEADER_SIZE)
+				throw new IOException("Log file too short for a header");
+			byte [] header = new byte[FILE_HEADER_SIZE];
+			System.arraycopy(_window, window(0, FILE_HEADER_SIZE), header, 0, FILE_HEADER_SIZE);
+			if (!Arrays.equals(header, fileHeader()))
+				throw new IOException("Not a log file in format " + FILE_FORMAT);
+			_position = _end = Math.max(start, FILE_HEADER_SIZE);
+		}
+		
+		/**
+		 * @return the next good record, or null if there are no more
+		 * @throws IOException
+		 */
+		public byte [] next() throws IOException {
+			while (_position + RECORD_HEADER_SIZE <= _size) {
+				int length = header(_position);
+				if (length >= 0) {
+					long start = _position + RECORD_HEADER_SIZE;
+					if (start + length > _size)
+						break;	// Torn tail
+					byte [] record = new byte[length];
+					read(start, record);
+					if (crc(record, 0, length) == recordCrc(_position)) {
+						if (_position > _end) {
+							_damaged++;
+							_skipped += _position - _end;
+							Log.warning(Log.FAC_REPO, "Skipped {0} bytes of damaged log at offset {1}", _position - _end, _end);
+						}
+						_recordOffset = start;
+						_position = _end = start + length;
+						return record;
+					}
+				}
+				_position = findHeader(_position + 1);
+			}
+			return null;
+		}
+		
+		/**
+		 * @return the offset in the file of the record last returned by next()
+		 */
+		public long recordOffset() {
+			return _recordOffset;
+		}
+		
+		/**
+		 * @return the offset following the last good record. Once next() has returned null,
+		 * 		anything from here to the end of the file is a torn tail.
+		 */
+		public long end() {
+			return _end;
+		}
+		
+		/**
+		 * @return true if next() has returned null and the file ends with a partial or
+		 * 		damaged record
+		 */
+		public boolean tornTail() {
+			return _end < _size;
+		}
+		
+		/**
+		 * @return the number of damaged areas skipped so far, not counting a torn tail
+		 */
+		public int damaged() {
+			return _damaged;
+		}
+		
+		/**
+		 * @return the number of bytes skipped in damaged areas so far, not counting a torn tail
+		 */
+		public long skipped() {
+			return _skipped;
+		}
+		
+		/**
+		 * @return the length of the record whose header is at position, or -1 if there isn't a
+		 * 		valid record header there
+		 */
+		protected int header(long position) throws IOException {
+			int i = window(position, RECORD_HEADER_SIZE);
+			if (getInt(i) != RECORD_MAGIC || getInt(i + 12) != crc(_window, i, RECORD_HEADER_SIZE - 4))
+				return -1;
+			int length = getInt(i + 4);
+			return (length < 0 || length > LogIndexBuilder.MAX_RECORD_SIZE) ? -1 : length;
+		}
+		
+		protected int recordCrc(long position) throws IOException {
+			return getInt(window(position, RECORD_HEADER_SIZE) + 8);
+		}
+		
+		/**
+		 * @return the offset of the next valid record header at or after from, or the end of
+		 * 		the file if there isn't one
+		 */
+		protected long findHeader(long from) throws IOException {
+			byte first = (byte)(RECORD_MAGIC >>> 24);
+			for (long position = from; position + RECORD_HEADER_SIZE <= _size; position++) {
+				if (_window[window(position, RECORD_HEADER_SIZE)] == first && header(position) >= 0)
+					return position;
+			}
+			return _size;
+		}
+		
+		protected int getInt(int i) {
+			return ((_window[i] & 0xff) << 24) | ((_window[i + 1] & 0xff) << 16) 
+					| ((_window[i + 2] & 0xff) << 8) | (_window[i + 3] & 0xff);
+		}
+		
+		/**
+		 * Make sure the window holds the given range of the file
+		 * @return the index in the window of position
+		 */
+		protected int window(long position, int length) throws IOException {
+			if (position < _windowStart || position + length > _windowStart + _windowLength) {
+				_windowStart = position;
+				_windowLength = 0;
+				ByteBuffer buffer = ByteBuffer.wrap(_window);
+				while (buffer.hasRemaining()) {
+					if (_channel.read(buffer, position + buffer.position()) < 0)
+						break;
+				}
+				_windowLength = buffer.position();
+				if (_windowLength < length)
+					throw new EOFException("Log file ended early at " + (position + _windowLength));
+			}
+			return (int)(position - _windowStart);
+		}
+		
+		protected void read(long position, byte [] record) throws IOException {
+			if (record.length <= _window.length) {
+				System.arraycopy(_window, window(position, record.length), record, 0, record.length);
+				return;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			while (buffer.hasRemaining()) {
+				if (_channel.read(buffer, position + buffer.position()) < 0)
+					throw new EOFException("Log file ended early at " + (position + buffer.position()));
+			}
+		}
+	}
+}
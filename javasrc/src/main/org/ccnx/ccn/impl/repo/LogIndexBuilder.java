@@ -0,0 +1,398 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+
+/**
+ * Builds a ContentTree from repository log files using a number of threads.
+ * 
+ * Each file is read sequentially, without decoding, by a scanner which uses the record
+ * headers to find where each record ends and checks each record's CRC. Batches of records are then
+ * handed to a pool of worker threads which decode just the name and signed info of each
+ * record, decompressing it first if need be, compute its digest from the encoded bytes and
+ * insert the full name into the tree. The tree synchronizes per node, so workers insert
+ * concurrently. Large files are therefore spread across all the workers, and several files
+ * are scanned at once.
+ * 
+ * The encoded bytes are the canonical encoding of each object, so the digest and the
+ * resulting index are the same as those built by decoding and inserting each
+ * ContentObject in turn.
+ */
+public class LogIndexBuilder {
+	
+	/**
+	 * Creates the store specific reference to a record
+	 */
+	public interface RefFactory {
+		/**
+		 * @param id the id of the file holding the record
+		 * @param offset the offset of the record in the file
+		 * @param record the encoded record
+		 * @param publisher the publisher of the record
+		 * @return the reference
+		 */
+		public ContentRef ref(int id, long offset, byte [] record, PublisherPublicKeyDigest publisher);
+	}
+	
+	public static final int BATCH_RECORDS = 256;
+	public static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+	public static final int PROGRESS_INTERVAL = 10; // seconds
+	
+	protected final ContentTree _index;
+	protected final RefFactory _refFactory;
+	protected final int _threads;
+	
+	protected final AtomicLong _bytesScanned = new AtomicLong(0);
+	protected final AtomicLong _recordsIndexed = new AtomicLong(0);
+	protected final AtomicLong _duplicates = new AtomicLong(0);
+	protected final AtomicLong _errors = new AtomicLong(0);
+	protected final AtomicLong _damaged = new AtomicLong(0);
+	protected final ConcurrentHashMap<Integer, Long> _tornTails = new ConcurrentHashMap<Integer, Long>();
+	protected long _bytesTotal = 0;
+	
+	/**
+	 * @param index the tree to insert into
+	 * @param refFactory creates the refs stored in the tree
+	 * @param threads number of threads decoding records
+	 */
+	public LogIndexBuilder(ContentTree index, RefFactory refFactory, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread: " + threads);
+		_index = index;
+		_refFactory = refFactory;
+		_threads = threads;
+	}
+	
+	/**
+	 * Index a set of log files, waiting until they have all been read
+	 * 
+	 * @param files the files to index by file id
+	 * @param startOffsets for each file id, the offset of the first record to index. Files
+	 * 		without an entry are read from the start. May be null.
+	 * @return for each file id, the offset following the last record read. This is less than
+	 * 		the file length if the file ends with a partial or damaged record (see tornTails).
+	 * @throws InterruptedException
+	 */
+	public Map<Integer, Long> build(Map<Integer, File> files, Map<Integer, Long> startOffsets) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		for (Map.Entry<Integer, File> file : files.entrySet())
+			_bytesTotal += file.getValue().length() - startOffset(startOffsets, file.getKey());
+		
+		// Scanners run the batch themselves when the workers fall behind, which bounds the
+		// number of records held in memory
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(_threads, _threads, 0, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(_threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		ExecutorService scanners = Executors.newFixedThreadPool(Math.max(1, Math.min(_threads, files.size())));
+		TreeMap<Integer, Future<Long>> scans = new TreeMap<Integer, Future<Long>>();
+		try {
+			for (Map.Entry<Integer, File> file : files.entrySet())
+				scans.put(file.getKey(), scanners.submit(new Scanner(file.getKey(), file.getValue(), 
+						startOffset(startOffsets, file.getKey()), workers)));
+			scanners.shutdown();
+			while (!scanners.awaitTermination(PROGRESS_INTERVAL, TimeUnit.SECONDS))
+				logProgress(start);
+			workers.shutdown();
+			while (!workers.awaitTermination(PROGRESS_INTERVAL, TimeUnit.SECONDS))
+				logProgress(start);
+		} finally {
+			scanners.shutdownNow();
+			workers.shutdownNow();
+		}
+		
+		TreeMap<Integer, Long> indexed = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, Future<Long>> scan : scans.entrySet()) {
+			try {
+				indexed.put(scan.getKey(), scan.getValue().get());
+			} catch (ExecutionException e) {
+				Log.warning(Log.FAC_REPO, "Unable to index repository file {0}: {1}", files.get(scan.getKey()), e.getCause());
+				indexed.put(scan.getKey(), startOffset(startOffsets, scan.getKey()));
+			}
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Indexed {0} records ({1} duplicates, {2} errors, {3} damaged areas) from {4} files in {5} ms using {6} threads",
+					_recordsIndexed.get(), _duplicates.get(), _errors.get(), _damaged.get(), files.size(), 
+					System.currentTimeMillis() - start, _threads);
+		}
+		return indexed;
+	}
+	
+	/**
+	 * @return number of records inserted into the index so far
+	 */
+	public long recordsIndexed() {
+		return _recordsIndexed.get();
+	}
+	
+	/**
+	 * @return number of bytes read from the log files so far
+	 */
+	public long bytesScanned() {
+		return _bytesScanned.get();
+	}
+	
+	/**
+	 * @return for each file found to end with a partial or damaged record, the offset
+	 * 		following its last good record
+	 */
+	public Map<Integer, Long> tornTails() {
+		return _tornTails;
+	}
+	
+	protected void logProgress(long start) {
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			long scanned = _bytesScanned.get();
+			Log.info(Log.FAC_REPO, "Index rebuild: {0} records, {1} of {2} bytes ({3}%) after {4} s", _recordsIndexed.get(), 
+					scanned, _bytesTotal, (_bytesTotal == 0) ? 100 : (100 * scanned / _bytesTotal), 
+					(System.currentTimeMillis() - start) / 1000);
+		}
+	}
+	
+	protected static long startOffset(Map<Integer, Long> startOffsets, Integer id) {
+		Long offset = (null == startOffsets) ? null : startOffsets.get(id);
+		return (null == offset) ? 0 : offset.longValue();
+	}
+	
+	/**
+	 * Reads the records of one file and queues them for indexing
+	 */
+	protected class Scanner implements Callable<Long> {
+		protected final int _id;
+		protected final File _file;
+		protected final long _start;
+		protected final ExecutorService _workers;
+		
+		protected Scanner(int id, File file, long start, ExecutorService workers) {
+			_id = id;
+			_file = file;
+			_start = start;
+			_workers = workers;
+		}
+		
+		public Long call() throws IOException {
+			long ts = _file.lastModified();
+			FileInputStream in = new FileInputStream(_file);
+			try {
+				LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), _start);
+				Batch batch = new Batch(_id, ts);
+				byte [] record;
+				while (null != (record = reader.next())) {
+					batch.add(reader.recordOffset(), record);
+					_bytesScanned.addAndGet(LogFileFormat.RECORD_HEADER_SIZE + record.length);
+					if (batch.size() == BATCH_RECORDS) {
+						_workers.execute(batch);
+						batch = new Batch(_id, ts);
+					}
+				}
+				if (batch.size() > 0)
+					_workers.execute(batch);
+				_damaged.addAndGet(reader.damaged());
+				if (reader.tornTail())
+					_tornTails.put(_id, reader.end());
+				return reader.end();
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes and indexes a batch of records from one file
+	 */
+	protected class Batch implements Runnable {
+		protected final int _id;
+		protected final long _ts;
+		protected final ArrayList<byte []> _records = new ArrayList<byte []>(BATCH_RECORDS);
+		protected final long [] _offsets = new long[BATCH_RECORDS];
+		
+		protected Batch(int id, long ts) {
+			_id = id;
+			_ts = ts;
+		}
+		
+		protected void add(long offset, byte [] record) {
+			_offsets[_records.size()] = offset;
+			_records.add(record);
+		}
+		
+		protected int size() {
+			return _records.size();
+		}
+		
+		public void run() {
+			for (int i = 0; i < _records.size(); i++) {
+				byte [] record = _records.get(i);
+				try {
+					IndexFields fields = indexFields(LogFileFormat.expand(record));
+					if (_index.insert(fields.fullName, _refFactory.ref(_id, _offsets[i], record, fields.publisher), _ts))
+						_recordsIndexed.incrementAndGet();
+					else
+						_duplicates.incrementAndGet();
+				} catch (ContentDecodingException e) {
+					_errors.incrementAndGet();
+					Log.warning(Log.FAC_REPO, "Can't decode record at offset {0} in repository file {1}: {2}", _offsets[i], _id, e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The parts of a record needed to index it
+	 */
+	public static class IndexFields {
+		/**
+		 * The name with the digest of the record as the last component
+		 */
+		public ContentName fullName;
+		public PublisherPublicKeyDigest publisher;
+	}
+	
+	/**
+	 * Get the full name, including the digest, and the publisher of an encoded ContentObject
+	 * without decoding its content
+	 * 
+	 * @param record the encoded ContentObject
+	 * @return the fields
+	 * @throws ContentDecodingException
+	 */
+	public static IndexFields indexFields(byte [] record) throws ContentDecodingException {
+		BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+		decoder.beginDecoding(new ByteArrayInputStream(record));
+		decoder.readStartElement(CCNProtocolDTags.ContentObject);
+		new Signature().decode(decoder);
+		ContentName name = new ContentName();
+		name.decode(decoder);
+		SignedInfo signedInfo = new SignedInfo();
+		signedInfo.decode(decoder);
+		IndexFields fields = new IndexFields();
+		fields.fullName = new ContentName(name, CCNDigestHelper.digest(record, 0, record.length));
+		fields.publisher = signedInfo.getPublisherKeyID();
+		return fields;
+	}
+	
+	/**
+	 * Read the bytes of one complete ccnb element, following just enough of the encoding
+	 * to know where the element ends. Used to find the records in log files written before
+	 * records had headers.
+	 * 
+	 * @param in stream positioned at the start of an element
+	 * @return the encoded element, or null if the stream was at EOF
+	 * @throws IOException if the stream ends part way through the element or the
+	 * 		data isn't a valid element
+	 */
+	public static byte [] readRecord(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		byte [] buf = null;
+		int depth = 0;
+		do {
+			int b = in.read();
+			if (b < 0) {
+				if (out.size() == 0)
+					return null;
+				throw new EOFException("Record truncated after " + out.size() + " bytes");
+			}
+			out.write(b);
+			if (b == BinaryXMLCodec.XML_CLOSE) {
+				if (--depth < 0)
+					throw new IOException("Record starts with an element close");
+				continue;
+			}
+			// Type and value - leading bytes hold 7 bits of the value, the last byte has the
+			// high bit set, 4 more bits of value and the type
+			long val = 0;
+			while (0 == (b & BinaryXMLCodec.XML_TT_NO_MORE)) {
+				val = (val << BinaryXMLCodec.XML_REG_VAL_BITS) | (b & BinaryXMLCodec.XML_REG_VAL_MASK);
+				b = in.read();
+				if (b < 0)
+					throw new EOFException("Record truncated in a type and value");
+				out.write(b);
+			}
+			val = (val << BinaryXMLCodec.XML_TT_VAL_BITS) | ((b >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+			long skip;
+			switch (b & BinaryXMLCodec.XML_TT_MASK) {
+			case BinaryXMLCodec.XML_TAG:
+				depth++;
+				skip = val + 1; // tag name
+				break;
+			case BinaryXMLCodec.XML_DTAG:
+				depth++;
+				skip = 0;
+				break;
+			case BinaryXMLCodec.XML_ATTR:
+				skip = val + 1; // attribute name, value follows as UDATA
+				break;
+			case BinaryXMLCodec.XML_DATTR:
+				skip = 0;
+				break;
+			case BinaryXMLCodec.XML_BLOB:
+			case BinaryXMLCodec.XML_UDATA:
+				skip = val;
+				break;
+			default:
+				throw new IOException("Unexpected ccnb type " + (b & BinaryXMLCodec.XML_TT_MASK) + " in record");
+			}
+			if (depth == 0)
+				throw new IOException("Record doesn't start with an element");
+			if (out.size() + skip > MAX_RECORD_SIZE)
+				throw new IOException("Record larger than " + MAX_RECORD_SIZE + " bytes");
+			if (skip > 0) {
+				if (null == buf)
+					buf = new byte[8192];
+				while (skip > 0) {
+					int n = in.read(buf, 0, (int)Math.min(skip, buf.length));
+					if (n < 0)
+						throw new EOFException("Record truncated in data");
+					out.write(buf, 0, n);
+					skip -= n;
+				}
+			}
+		} while (depth > 0);
+		return out.toByteArray();
+	}
+}
@@ -18,20 +18,44 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -39,27 +63,49 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
 import org.ccnx.ccn.config.SystemConfiguration.DEBUGGING_FLAGS;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
+import org.ccnx.ccn.impl.support.ComponentInterner;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 import org.ccnx.ccn.profiles.CCNProfile;
+import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.profiles.context.ServiceDiscoveryProfile;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Interest;
 import org.ccnx.ccn.protocol.MalformedContentNameStringException;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 
 
 /**
  * Implements a log-structured RepositoryStore on a filesystem using sequential data files with an index for queries
+ * 
+ * The log files can be spread over several directories, normally on different disks, given by
+ * REPO_DIRECTORIES. Each directory is a shard with its own active log file and its own group
+ * commit, so writes to different shards go on at the same time. Content is sent to a shard by
+ * a hash of its stream name, which keeps the segments of a stream together, or to each shard in
+ * turn, as set by REPO_SHARD_POLICY. File ids are unique across all the shards and there is one
+ * index, so reads don't need to know which shard content is in. The repository root is always
+ * the first shard and holds the meta data.
+ * 
+ * Content under the prefixes given by REPO_COMPRESS is compressed as it is written, which
+ * saves disk space and reads for content such as text which compresses well. It is
+ * decompressed as it is read, so it is cached and sent as normal.
+ * 
+ * Namespaces given quotas by REPO_QUOTA are kept within them by evicting content from the index
+ * as new content is stored, and the space the evicted content used is reclaimed by compaction.
  */
 
 public class LogStructRepoStore extends RepositoryStoreBase implements RepositoryStore, ContentTree.ContentGetter {
 
-	public final static String CURRENT_VERSION = "1.4";
+	public final static String CURRENT_VERSION = "1.5";
+	// Log files from this version are converted to the current format when the repository starts
+	public final static String UPGRADABLE_VERSION = "1.4";
 		
 	public static class LogStructRepoStoreProfile implements CCNProfile {
 		public final static String META_DIR = ".meta";
@@ -67,6 +113,8 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		public final static String SPLIT_COMPONENT = "1";
 		
 		public static final String REPO_IMPORT_DIR = "import";
+		public static final String INDEX_CHECKPOINT = "index";
+		public static final String DELETED_CONTENT = "deleted";
 
 		private static String DEFAULT_LOCAL_NAME = "Repository";
 		private static String DEFAULT_GLOBAL_NAME = "/parc.com/csl/ccn/Repos";
@@ -81,6 +129,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		public static final String REPOSITORY_KEYSTORE_ALIAS = REPOSITORY_USER.toLowerCase();
 
 		public static String CONTENT_FILE_PREFIX = "repoFile";
+		public static final String UPGRADE_FILE_PREFIX = "upgrade.";
 		private static String DEBUG_TREEDUMP_FILE = "debugNamesTree";
 
 		private static String DIAG_NAMETREE = "nametree"; // Diagnostic/signal to dump name tree to debug file
@@ -93,21 +142,208 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	protected boolean _useStoredPolicy = true;
 
 	Map<Integer,RepoFile> _files;
-	RepoFile _activeWriteFile = null;
-	Integer _currentFileIndex = 0;
+	Shard [] _shards = null;
+	Integer _currentFileIndex = 0;	// guarded by _files
 	ContentTree _index;
 	
 	protected HashMap<String, String> _bulkImportInProgress = new HashMap<String, String>();
+	// Imports finished recently, guarded by _bulkImportInProgress. Interests for them may still
+	// be reexpressed after the file has gone.
+	protected static final int BULK_IMPORTS_REMEMBERED = 64;
+	protected Map<String, String> _bulkImportDone = new LinkedHashMap<String, String>() {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > BULK_IMPORTS_REMEMBERED;
+		}
+	};
+	
+	protected static final int READ_BUFFER_SIZE = 4096;
+	protected ContentCache _cache = null;
+	protected CCNEnumStats<StatsEnum> _stats = null;
+	
+	// Content under these prefixes is compressed if it is at least COMPRESS_MIN_SIZE bytes
+	// encoded. Smaller content is mostly signature and digests, which don't compress.
+	protected static final int COMPRESS_MIN_SIZE = 256;
+	protected ArrayList<ContentName> _compressPrefixes = new ArrayList<ContentName>();
+	
+	protected RepositoryQuotas _quotas = new RepositoryQuotas(null);
+	
+	// Read ahead reads regions of a log file holding the records it wants, including gaps of up
+	// to READ_AHEAD_GAP bytes between them, in reads of up to READ_AHEAD_MAX_BYTES
+	protected static final int READ_AHEAD_GAP = 16 * 1024;
+	protected static final int READ_AHEAD_MAX_BYTES = 1024 * 1024;
+	
+	// Index checkpoints
+	protected static final int CHECKPOINT_MAGIC = 0x43434e49; // "CCNI"
+	protected static final int CHECKPOINT_FORMAT = 2;
+	protected final Object _checkpointLock = new Object();
+	protected Map<Integer, Long> _lastCheckpoint = null;
+	// Quota evictions only change the index, so they need a checkpoint to outlive a restart
+	protected final AtomicBoolean _evictedSinceCheckpoint = new AtomicBoolean();
+	protected Timer _checkpointTimer = null;
+	
+	/**
+	 * When content written to the repository is forced to disk
+	 */
+	public enum SyncPolicy {
+		/** Never - the operating system writes it out in its own time */
+		NONE,
+		/** Every REPO_SYNC_INTERVAL milliseconds, with afterSync actions run once each sync is done */
+		INTERVAL,
+		/** Before each batch of writes is acknowledged */
+		BATCH;
+		
+		public static SyncPolicy fromString(String policy) {
+			try {
+				return valueOf(policy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				Log.warning(Log.FAC_REPO, "Unknown repository sync policy {0}, using NONE", policy);
+				return NONE;
+			}
+		}
+	}
+	
+	protected SyncPolicy _syncPolicy = SyncPolicy.NONE;
+	protected Timer _syncTimer = null;
+	protected final ArrayList<Runnable> _afterSync = new ArrayList<Runnable>();	// actions waiting for the next sync
+	
+	/**
+	 * How content being saved is spread over the shards
+	 */
+	public enum ShardPolicy {
+		/** By a hash of the name of the stream, so the segments of a stream are in the same shard */
+		HASH,
+		/** Each batch of content to the next shard in turn */
+		ROUNDROBIN;
+		
+		public static ShardPolicy fromString(String policy) {
+			try {
+				return valueOf(policy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				Log.warning(Log.FAC_REPO, "Unknown repository shard policy {0}, using HASH", policy);
+				return HASH;
+			}
+		}
+	}
+	
+	protected ShardPolicy _shardPolicy = ShardPolicy.HASH;
+	protected final AtomicInteger _nextShard = new AtomicInteger();
+	
+	/**
+	 * A directory of log files. Each shard appends to its own active file, and content saved
+	 * to it by concurrent callers is written together by one of them (group commit).
+	 */
+	protected static class Shard {
+		final File directory;
+		volatile RepoFile activeWriteFile = null;
+		final Object commitLock = new Object();
+		ArrayList<PendingWrite> pendingWrites = new ArrayList<PendingWrite>();	// guarded by commitLock
+		boolean committing = false;		// guarded by commitLock
+		boolean unsynced = false;		// guarded by activeWriteFile
+		
+		Shard(File directory) {
+			this.directory = directory;
+		}
+	}
+	
+	// Space reclamation
+	protected LogCompactor _compactor = null;
+	protected Timer _compactTimer = null;
+	protected final HashSet<ContentName> _deleted = new HashSet<ContentName>();	// content removed by removeContent
+	
+	protected static class PendingWrite {
+		final ContentObject [] content;
+		final byte [][] encoded;
+		final ByteBuffer [] headers;
+		ArrayList<NameEnumerationResponse> ners;
+		RepositoryException failure;
+		boolean done = false;
+		
+		PendingWrite(List<ContentObject> content) {
+			this.content = content.toArray(new ContentObject[content.size()]);
+			this.encoded = new byte[this.content.length][];
+			this.headers = new ByteBuffer[this.content.length];
+		}
+	}
 	
 	public static class RepoFile {
 		File file;
 		RandomAccessFile openFile;
 		long nextWritePos;
+		long indexedTo;		// all records before this offset are in the index
+		volatile FileChannel readChannel;	// shared by all gets, which use positional reads
 	}
 	
 	protected static class FileRef extends ContentRef {
 		int id;
 		long offset;
+		int length = -1;
+		PublisherPublicKeyDigest publisher;
+		
+		// There are few publishers, so refs share them
+		protected static final ConcurrentHashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest> _publishers = 
+				new ConcurrentHashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest>();
+		
+		protected FileRef() {}
+		
+		protected FileRef(int id, long offset, int length, PublisherPublicKeyDigest publisher) {
+			this.id = id;
+			this.offset = offset;
+			this.length = length;
+			this.publisher = intern(publisher);
+		}
+		
+		@Override
+		public PublisherPublicKeyDigest publisher() {
+			return publisher;
+		}
+		
+		@Override
+		public int length() {
+			return length;
+		}
+		
+		protected static PublisherPublicKeyDigest intern(PublisherPublicKeyDigest publisher) {
+			if (null == publisher)
+				return null;
+			PublisherPublicKeyDigest existing = _publishers.putIfAbsent(publisher, publisher);
+			return (null == existing) ? publisher : existing;
+		}
+		
+		protected static final ContentTree.ContentRefSerializer SERIALIZER = new ContentTree.ContentRefSerializer() {
+			public void write(ContentRef ref, DataOutputStream out) throws IOException {
+				FileRef fref = (FileRef)ref;
+				out.writeInt(fref.id);
+				out.writeLong(fref.offset);
+				out.writeInt(fref.length);
+				byte [] digest = (null == fref.publisher) ? null : fref.publisher.digest();
+				out.writeShort((null == digest) ? 0 : digest.length);
+				if (null != digest)
+					out.write(digest);
+			}
+			
+			public ContentRef read(DataInputStream in) throws IOException {
+				int id = in.readInt();
+				long offset = in.readLong();
+				int length = in.readInt();
+				PublisherPublicKeyDigest publisher = null;
+				int digestLength = in.readUnsignedShort();
+				if (digestLength > 0) {
+					byte [] digest = new byte[digestLength];
+					in.readFully(digest);
+					publisher = new PublisherPublicKeyDigest(digest);
+				}
+				return new FileRef(id, offset, length, publisher);
+			}
+		};
+		
+		protected static final LogIndexBuilder.RefFactory FACTORY = new LogIndexBuilder.RefFactory() {
+			public ContentRef ref(int id, long offset, byte [] record, PublisherPublicKeyDigest publisher) {
+				return new FileRef(id, offset, record.length, publisher);
+			}
+		};
 	}
 
 	/**
@@ -119,6 +355,8 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	public ContentObject getContent(Interest interest)
 			throws RepositoryException {
 		ContentObject co =  _index.get(interest, this);
+		if (null != co)
+			_quotas.accessed(co);
 		if( Log.isLoggable(Log.FAC_REPO, Level.FINE) )
 			Log.fine(Log.FAC_REPO, "Looking for: " + interest.name() + (co == null ? ": Didn't find it" : ": Found it"));
 		return co;
@@ -143,6 +381,11 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		return _index.getNamesWithPrefix(i, responseName);
 	}
 
+	@Override
+	public void setEnumerationCache(NameEnumerationCache cache) {
+		_index.setEnumerationCache(cache);
+	}
+
 	/**
 	 * Gets the current policy for this repository
 	 * @returns the policy
@@ -162,53 +405,299 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 	/**
 	 * Read the current repository file(s) for this repository and create an index for them.
+	 * If there is a usable index checkpoint, the index is loaded from it and only the records
+	 * written after the checkpoint are read.
+	 * When upgrading, files written by the previous version of the repository are converted
+	 * first. Otherwise a file without a good file header is left out of the index and left as
+	 * it is, as its records can't be read. Partial or damaged records at the end of each file
+	 * are truncated.
 	 * WARNING: multiple files are not well tested
 	 * 
+	 * @param upgrade true if the repository was written by the previous version
 	 * @return the number of files making up the repository
+	 * @throws RepositoryException if a file can't be upgraded
 	 */
-	protected Integer createIndex() {
+	protected Integer createIndex(boolean upgrade) throws RepositoryException {
 		int max = 0;
 		_index = new ContentTree();
 		assert(null != _repositoryFile);
 		assert(_repositoryFile.isDirectory());
-		String[] filenames = _repositoryFile.list();
-		for (int i = 0; i < filenames.length; i++) {
-			if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
-				String indexPart = filenames[i].substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length());
-				if (null != indexPart && indexPart.length() > 0) {
-					Integer index = Integer.parseInt(indexPart);
-					if (index > max) {
-						max = index.intValue();
+		if (null == _shards)
+			setShards(null);
+		TreeMap<Integer, File> logFiles = new TreeMap<Integer, File>();
+		for (Shard shard : _shards) {
+			String[] filenames = shard.directory.list();
+			if (null == filenames) {
+				Log.warning(Log.FAC_REPO, "Unable to list repository directory {0}", shard.directory);
+				continue;
+			}
+			for (int i = 0; i < filenames.length; i++) {
+				if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
+					String indexPart = filenames[i].substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length());
+					if (null != indexPart && indexPart.length() > 0) {
+						try {
+							Integer index = Integer.parseInt(indexPart);
+							File file = new File(shard.directory, filenames[i]);
+							if (logFiles.containsKey(index)) {
+								Log.warning(Log.FAC_REPO, "Ignoring repository file {0} which has the same id as {1}", file, logFiles.get(index));
+								continue;
+							}
+							if (index > max) {
+								max = index.intValue();
+							}
+							logFiles.put(index, file);
+						} catch (NumberFormatException e) {
+							Log.warning(Log.FAC_REPO, "Invalid file name " + filenames[i]);
+						}
 					}
-					try {
-						createIndex(filenames[i], index, false);
-					} catch (RepositoryException e) {}	// This can't happen
 				}
 			}
 		}
+		for (Iterator<File> files = logFiles.values().iterator(); files.hasNext(); ) {
+			File file = files.next();
+			if (upgrade) {
+				upgradeLogFile(file);
+			} else if (!hasFileHeader(file)) {
+				// Its id is still counted in max so it isn't reused
+				Log.warning(Log.FAC_REPO, "Ignoring repository file {0} which doesn't start with a good file header", file);
+				files.remove();
+			}
+		}
+		
+		Map<Integer, Long> checkpoint = readCheckpoint(logFiles);
+		// Index whatever the checkpoint held, then keep the indexes up to date as the logs are read
+		_index.setIndexed(SystemConfiguration.REPO_SECONDARY_INDEXES);
+		
+		int threads = SystemConfiguration.REPO_INDEX_THREADS;
+		if (threads > 1) {
+			createIndexParallel(logFiles, checkpoint, threads);
+		} else {
+			for (Map.Entry<Integer, File> entry : logFiles.entrySet()) {
+				Long start = (null == checkpoint) ? null : checkpoint.get(entry.getKey());
+				createIndex(entry.getValue(), entry.getKey(), (null == start) ? 0 : start.longValue());
+			}
+		}
 		return new Integer(max);
 	}
 	
+	/**
+	 * Set up the shards: the repository root and any other directories given
+	 * 
+	 * @param directories comma separated list of other directories to keep log files in, or null
+	 */
+	protected void setShards(String directories) {
+		ArrayList<Shard> shards = new ArrayList<Shard>();
+		shards.add(new Shard(_repositoryFile));
+		if (null != directories) {
+			for (String directory : directories.split(",")) {
+				directory = directory.trim();
+				if (directory.length() == 0)
+					continue;
+				File dir = new File(directory);
+				dir.mkdirs();
+				if (!dir.isDirectory()) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository directory {0} which can't be created", dir);
+					continue;
+				}
+				boolean duplicate = false;
+				for (Shard shard : shards) {
+					try {
+						if (shard.directory.getCanonicalFile().equals(dir.getCanonicalFile()))
+							duplicate = true;
+					} catch (IOException e) {
+						if (shard.directory.getAbsoluteFile().equals(dir.getAbsoluteFile()))
+							duplicate = true;
+					}
+				}
+				if (duplicate) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository directory {0} which is given more than once", dir);
+					continue;
+				}
+				shards.add(new Shard(dir));
+			}
+		}
+		_shards = shards.toArray(new Shard[shards.size()]);
+		if (_shards.length > 1 && Log.isLoggable(Log.FAC_REPO, Level.INFO))
+			Log.info(Log.FAC_REPO, "Repository log files are spread over {0} directories", _shards.length);
+	}
+	
+	/**
+	 * Open the file each shard appends to, which is the newest file in its directory or a new
+	 * file if there are none. A shard whose file can't be opened isn't written to, though any
+	 * content already in it can still be read.
+	 */
+	protected void openWriteFiles() {
+		ArrayList<Shard> open = new ArrayList<Shard>();
+		for (Shard shard : _shards) {
+			RepoFile rfile = null;
+			synchronized (_files) {
+				int newest = 0;
+				for (Map.Entry<Integer, RepoFile> entry : _files.entrySet()) {
+					if (entry.getKey() > newest && shard.directory.equals(entry.getValue().file.getParentFile())) {
+						newest = entry.getKey();
+						rfile = entry.getValue();
+					}
+				}
+			}
+			try {
+				if (null == rfile) {
+					int id = nextFileId();	// the index of a file we will actually write
+					rfile = new RepoFile();
+					rfile.file = new File(shard.directory, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+					rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+					rfile.openFile.write(LogFileFormat.fileHeader());
+					rfile.nextWritePos = LogFileFormat.FILE_HEADER_SIZE;
+					rfile.indexedTo = LogFileFormat.FILE_HEADER_SIZE;
+					synchronized (_files) {
+						_files.put(id, rfile);
+					}
+				} else {
+					long cursize = rfile.file.length();
+					rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+					rfile.nextWritePos = cursize;
+				}
+				shard.activeWriteFile = rfile;
+				open.add(shard);
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Error opening content output file {0}: {1}", rfile.file, e.getMessage());
+			}
+		}
+		if (!open.isEmpty())
+			_shards = open.toArray(new Shard[open.size()]);
+	}
+	
+	/**
+	 * @param file a repository file
+	 * @return true if a shard is appending to the file
+	 */
+	protected boolean isActiveWriteFile(RepoFile file) {
+		for (Shard shard : _shards) {
+			if (shard.activeWriteFile == file)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @param file a log file
+	 * @return true if the file starts with a header in the current format
+	 */
+	protected boolean hasFileHeader(File file) {
+		try {
+			return LogFileFormat.isFramed(file);
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to read the header of {0}: {1}", file, e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Convert a log file written before records had headers to the current format. The converted
+	 * file is written alongside and then renamed over the original, so an upgrade interrupted
+	 * part way through is simply redone.
+	 * 
+	 * @param file the log file
+	 * @throws RepositoryException if the file can't be converted
+	 */
+	protected void upgradeLogFile(File file) throws RepositoryException {
+		try {
+			if (LogFileFormat.isFramed(file))
+				return;
+			File upgraded = new File(file.getParentFile(), LogStructRepoStoreProfile.UPGRADE_FILE_PREFIX + file.getName());
+			long start = System.currentTimeMillis();
+			long discarded = LogFileFormat.upgrade(file, upgraded, false);
+			if (!upgraded.renameTo(file))
+				throw new IOException("Can't rename " + upgraded + " to " + file);
+			Log.warning(Log.FAC_REPO, "Upgraded repository file {0} to the version {1} format in {2} ms, discarding {3} damaged bytes", 
+					file, CURRENT_VERSION, System.currentTimeMillis() - start, discarded);
+		} catch (IOException e) {
+			throw new RepositoryException("Unable to upgrade repository file " + file + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Cut a partial or damaged record off the end of a log file. This is normally left by a
+	 * write which was interrupted when the repository stopped, and would otherwise hide any
+	 * records written after it.
+	 * 
+	 * @param file the log file
+	 * @param end the offset following the last good record
+	 */
+	protected void truncateTornTail(File file, long end) {
+		Log.warning(Log.FAC_REPO, "Truncating {0} bytes of partial or damaged records from the end of {1}", file.length() - end, file);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(end);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to truncate {0}: {1}", file, e.getMessage());
+		}
+	}
+	
+	/**
+	 * Index the repository files using a LogIndexBuilder, which reads several files at once and
+	 * decodes and inserts records on multiple threads. The files are registered before indexing
+	 * starts so that gets for records already in the index can be satisfied; they are opened
+	 * on first use.
+	 * 
+	 * @param logFiles the files by file id
+	 * @param checkpoint offsets already covered by the index checkpoint, or null
+	 * @param threads number of threads to use
+	 */
+	protected void createIndexParallel(Map<Integer, File> logFiles, Map<Integer, Long> checkpoint, int threads) {
+		TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+		synchronized (_files) {
+			for (Map.Entry<Integer, File> entry : logFiles.entrySet()) {
+				RepoFile rfile = new RepoFile();
+				rfile.file = entry.getValue();
+				Long start = (null == checkpoint) ? null : checkpoint.get(entry.getKey());
+				rfile.indexedTo = (null == start) ? 0 : start.longValue();
+				_files.put(entry.getKey(), rfile);
+				files.put(entry.getKey(), rfile.file);
+			}
+		}
+		LogIndexBuilder builder = new LogIndexBuilder(_index, FileRef.FACTORY, threads);
+		try {
+			Map<Integer, Long> indexed = builder.build(files, checkpoint);
+			synchronized (_files) {
+				for (Map.Entry<Integer, Long> entry : indexed.entrySet()) {
+					RepoFile rfile = _files.get(entry.getKey());
+					synchronized (rfile) {
+						rfile.indexedTo = entry.getValue();
+					}
+				}
+			}
+			for (Map.Entry<Integer, Long> entry : builder.tornTails().entrySet())
+				truncateTornTail(files.get(entry.getKey()), entry.getValue());
+		} catch (InterruptedException e) {
+			// Leave indexedTo at the checkpoint so the next checkpoint can't claim records we
+			// may not have indexed
+			Log.warning(Log.FAC_REPO, "Interrupted while creating index");
+			Thread.currentThread().interrupt();
+		}
+	}
+	
 	/**
 	 * Create index from specific file. For now we will allow errors during the initial index creation,
-	 * assuming that we want to keep trying if there's an error in the existing index files. If an import
-	 * file has an error though we want to abort. The issue of handling corrupt data in the repo in general
-	 * ought to be revisited.
+	 * assuming that we want to keep trying if there's an error in the existing index files: damaged
+	 * records are skipped and a partial record at the end of the file is truncated.
 	 * 
 	 * Because index creation can now be done while the repo is actively doing file searches, care must be
 	 * taken to synchronize events correctly.
 	 * 
-	 * @param fileName
+	 * @param file
 	 * @param index
-	 * @param fromImport - this is an "import" file.
-	 * @throws RepositoryException 
+	 * @param startOffset - offset of the first record not already in the index
 	 */
-	private void createIndex(String fileName, Integer index, boolean fromImport) throws RepositoryException {
+	private void createIndex(File file, Integer index, long startOffset) {
+		String fileName = file.getName();
 		try {
 			RepoFile rfile = new RepoFile();
-			rfile.file = new File(_repositoryFile,fileName);
-			rfile.openFile = new RandomAccessFile(rfile.file, "r");
-			InputStream is = new BufferedInputStream(new RandomAccessInputStream(rfile.openFile),8192);
+			rfile.file = file;
+			rfile.indexedTo = startOffset;
 			
 			if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 				Log.fine(Log.FAC_REPO, "Creating index for {0}", fileName);
@@ -218,55 +707,39 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			// index, a lookup to this file can occur. If the object is inserted, even if all objects
 			// from the file are not yet inserted, a read of the file for the already inserted object
 			// should be OK. By doing it this way, we avoid having to stall all gets while a bulk import
-			// (which could be arbitrarily long) is in progress
-			
+			// (which could be arbitrarily long) is in progress. Gets read with their own channel, so
+			// they don't disturb the reads here.
 			synchronized (_files) {
 				_files.put(index, rfile);
 			}
 			
-			// Its true that its "OK" for someone to be reading the nodes as we are creating them
-			// but now we have to be careful to keep our filepointer correct, since it could be modified
-			// by a reader. The seek to a new spot in get is synchronized under the "RepoFile", so we
-			// keep track of where our pointer was also synchronized under the RepoFile so we can restore
-			// it to where it was in the case someone was reading one of our previously created nodes
-			// while the index creation is in progress.
-			long nextOffset = 0;
-			while (true) {
-				FileRef ref = new FileRef();
-				ContentObject tmp = new ContentObject();
-				synchronized (rfile) {
-					ref.id = index.intValue();
-					ref.offset = nextOffset;
-					rfile.openFile.seek(nextOffset);	// In case a get changed this in the meantime
-					if(ref.offset > 0)
-						ref.offset = ref.offset - is.available();
+			long ts = rfile.file.lastModified();
+			FileInputStream in = new FileInputStream(rfile.file);
+			LogFileFormat.Reader reader;
+			try {
+				reader = new LogFileFormat.Reader(in.getChannel(), startOffset);
+				byte [] record;
+				while (null != (record = reader.next())) {
+					ContentObject tmp;
 					try {
-						if (rfile.openFile.getFilePointer()<rfile.openFile.length() || is.available()!=0) {
-							tmp.decode(is);
-							nextOffset = rfile.openFile.getFilePointer();
-						}
-						else{
-							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-								Log.info(Log.FAC_REPO, "at the end of the file");
-							}
-							rfile.openFile.close();
-							rfile.openFile = null;
-							break;
-						}
-	
+						tmp = ContentObject.fromWire(LogFileFormat.expand(record));
 					} catch (ContentDecodingException e) {
-						// Failed to decode, must be end of this one
-						//added check for end of file above
-						rfile.openFile.close();
-						rfile.openFile = null;
-						if (fromImport)
-							throw new RepositoryException(e.getMessage());
-						Log.logStackTrace(Level.WARNING, e);
-						e.printStackTrace();
-						break;
+						Log.warning(Log.FAC_REPO, "Can't decode record at offset {0} in {1}: {2}", reader.recordOffset(), fileName, e.getMessage());
+						continue;
+					}
+					FileRef ref = new FileRef(index.intValue(), reader.recordOffset(), record.length, tmp.signedInfo().getPublisherKeyID());
+					_index.insert(tmp, ref, ts, this, null);
+					synchronized (rfile) {
+						rfile.indexedTo = reader.end();
 					}
 				}
-				_index.insert(tmp, ref, rfile.file.lastModified(), this, null);
+			} finally {
+				in.close();
+			}
+			if (reader.tornTail())
+				truncateTornTail(rfile.file, reader.end());
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+				Log.info(Log.FAC_REPO, "at the end of the file");
 			}
 		} catch (NumberFormatException e) {
 			// Not valid file
@@ -378,36 +851,83 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 		// Internal initialization
 		_files = new HashMap<Integer, RepoFile>();
-		_currentFileIndex = createIndex();
+		setShards(SystemConfiguration.REPO_DIRECTORIES);
+		_shardPolicy = ShardPolicy.fromString(SystemConfiguration.REPO_SHARD_POLICY);
+		setCompressed(SystemConfiguration.REPO_COMPRESS);
+		if (SystemConfiguration.REPO_CACHE_SIZE > 0)
+			_cache = new ContentCache(SystemConfiguration.REPO_CACHE_SIZE, 
+					(SystemConfiguration.REPO_READ_AHEAD > 0) ? SystemConfiguration.REPO_CACHE_SIZE / 8 : 0);
 		
-		try {
-			if (_currentFileIndex == 0) {
-				_currentFileIndex = 1; // the index of a file we will actually write
-				RepoFile rfile = new RepoFile();
-				rfile.file = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX+"1");
-				rfile.openFile = new RandomAccessFile(rfile.file, "rw");
-				rfile.nextWritePos = 0;
-				_files.put(new Integer(_currentFileIndex), rfile);
-				_activeWriteFile = rfile;
-			} else {
-				RepoFile rfile = _files.get(new Integer(_currentFileIndex));
-				long cursize = rfile.file.length();
-				rfile.openFile = new RandomAccessFile(rfile.file, "rw");
-				rfile.nextWritePos = cursize;
-				_activeWriteFile = rfile;
-			}
-			
-		} catch (FileNotFoundException e) {
-			Log.warning(Log.FAC_REPO, "Error opening content output file index " + _currentFileIndex);
+		// Check the version before reading the log files, which are upgraded if they are from
+		// the previous version
+		String version = checkFile(LogStructRepoStoreProfile.VERSION, CURRENT_VERSION, false);
+		boolean upgrade = false;
+		if (version != null && !version.trim().equals(CURRENT_VERSION)) {
+			if (!version.trim().equals(UPGRADABLE_VERSION))
+				throw new RepositoryException("Bad repository version: " + version);
+			upgrade = true;
+		}
+		long indexStart = System.currentTimeMillis();
+		_currentFileIndex = createIndex(upgrade);
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Created repository index in {0} ms", System.currentTimeMillis() - indexStart);
+		}
+		loadDeleted();
+		loadQuotas(SystemConfiguration.REPO_QUOTA);
+		ComponentInterner interner = ComponentInterner.getDefault();
+		if (null != interner && Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Name component interning after index creation: hit rate {0}\n{1}",
+					interner.hitRate(), interner.getStats());
+		}
+		
+		openWriteFiles();
+		if (upgrade)
+			checkFile(LogStructRepoStoreProfile.VERSION, CURRENT_VERSION, true);
+		
+		// Save what we just indexed, then keep the checkpoint up to date
+		_syncPolicy = SyncPolicy.fromString(SystemConfiguration.REPO_SYNC_POLICY);
+		if (_syncPolicy == SyncPolicy.INTERVAL && SystemConfiguration.REPO_SYNC_INTERVAL <= 0) {
+			// Nothing would ever sync, so the afterSync actions would never run
+			Log.warning(Log.FAC_REPO, "Repository sync interval {0} is not positive, syncing each batch", SystemConfiguration.REPO_SYNC_INTERVAL);
+			_syncPolicy = SyncPolicy.BATCH;
+		}
+		if (_syncPolicy == SyncPolicy.INTERVAL) {
+			_syncTimer = new Timer("Repository sync", true);
+			_syncTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					sync();
+				}
+			}, SystemConfiguration.REPO_SYNC_INTERVAL, SystemConfiguration.REPO_SYNC_INTERVAL);
+		}
+		
+		writeCheckpoint();
+		if (SystemConfiguration.REPO_CHECKPOINT_INTERVAL > 0) {
+			long period = SystemConfiguration.REPO_CHECKPOINT_INTERVAL * 1000L;
+			_checkpointTimer = new Timer("Repository index checkpoint", true);
+			_checkpointTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					writeCheckpoint();
+				}
+			}, period, period);
+		}
+		if (SystemConfiguration.REPO_COMPACT_INTERVAL > 0) {
+			long period = SystemConfiguration.REPO_COMPACT_INTERVAL * 1000L;
+			_compactor = new LogCompactor(this, SystemConfiguration.REPO_KEEP_VERSIONS, SystemConfiguration.REPO_TTL, 
+					SystemConfiguration.REPO_COMPACT_GARBAGE, SystemConfiguration.REPO_COMPACT_RATE);
+			_compactTimer = new Timer("Repository compaction", true);
+			_compactTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					_compactor.compact();
+				}
+			}, period, period);
 		}
 			
 		// Verify stored policy info
 		// TODO - we shouldn't do this if the user has specified a policy file which already has
 		// this information
-		String version = checkFile(LogStructRepoStoreProfile.VERSION, CURRENT_VERSION, false);
-		if (version != null && !version.trim().equals(CURRENT_VERSION))
-			throw new RepositoryException("Bad repository version: " + version);
-
 		String checkName = checkFile(LogStructRepoStoreProfile.REPO_LOCALNAME, localName, nameFromArgs);
 		localName = checkName != null ? checkName : localName;
 		pxml.setLocalName(localName);		
@@ -472,38 +992,633 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @returns NameEnumerationResponse if this satisfies an outstanding NameEnumeration request
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException {
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>(1);
+		batch.add(content);
+		ArrayList<NameEnumerationResponse> ners = saveContent(batch);
+		return (null == ners) ? null : ners.get(0);
+	}
+	
+	/**
+	 * Save a number of pieces of content. The content is split between the shards by the shard
+	 * policy, and the part for each shard is saved with save(Shard, List).
+	 * 
+	 * @param content the content to save
+	 * @throws RepositoryException if the content can not be written or encoded
+	 * @returns for each piece of content, a NameEnumerationResponse if it satisfies an outstanding
+	 * 		NameEnumeration request
+	 */
+	@Override
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		Shard [] shards = _shards;
+		if (null == shards) {
+			Log.warning(Log.FAC_REPO, "Tried to save: {0} objects, before repo initialization", content.size());
+			return null;
+		}
+		if (shards.length == 1)
+			return save(shards[0], content);
+		if (_shardPolicy == ShardPolicy.ROUNDROBIN)
+			return save(shards[(_nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length], content);
+		
+		int [] shardOf = new int[content.size()];
+		for (int i = 0; i < shardOf.length; i++)
+			shardOf[i] = shardFor(content.get(i).name(), shards.length);
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		for (int i = 0; i < shardOf.length; i++)
+			ners.add(null);
+		for (int shard = 0; shard < shards.length; shard++) {
+			ArrayList<ContentObject> part = new ArrayList<ContentObject>();
+			for (int i = 0; i < shardOf.length; i++) {
+				if (shardOf[i] == shard)
+					part.add(content.get(i));
+			}
+			if (part.isEmpty())
+				continue;
+			ArrayList<NameEnumerationResponse> partNers = save(shards[shard], part);
+			if (null == partNers)
+				return null;
+			int j = 0;
+			for (int i = 0; i < shardOf.length; i++) {
+				if (shardOf[i] == shard)
+					ners.set(i, partNers.get(j++));
+			}
+		}
+		return ners;
+	}
+	
+	/**
+	 * Set the namespaces in which content is compressed
+	 * 
+	 * @param prefixes comma separated list of prefixes, or null for none
+	 */
+	protected void setCompressed(String prefixes) {
+		ArrayList<ContentName> compress = new ArrayList<ContentName>();
+		if (null != prefixes) {
+			for (String prefix : prefixes.split(",")) {
+				prefix = prefix.trim();
+				if (prefix.length() == 0)
+					continue;
+				try {
+					compress.add(ContentName.fromURI(prefix));
+				} catch (MalformedContentNameStringException e) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository compression prefix {0}: {1}", prefix, e.getMessage());
+				}
+			}
+		}
+		_compressPrefixes = compress;
+	}
+	
+	/**
+	 * @param name the name of some content
+	 * @return true if the content is compressed when it is written
+	 */
+	protected boolean isCompressed(ContentName name) {
+		for (ContentName prefix : _compressPrefixes) {
+			if (prefix.isPrefixOf(name))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Compress an encoded ContentObject if that makes it smaller, counting the time taken
+	 * and how much smaller it is
+	 * 
+	 * @param encoded the encoded ContentObject
+	 * @return the record to write
+	 */
+	protected byte [] compress(byte [] encoded) {
+		long start = System.nanoTime();
+		byte [] compressed = LogFileFormat.compress(encoded);
+		CCNEnumStats<StatsEnum> stats = _stats;
+		if (null != stats) {
+			stats.addSample(StatsEnum.RecordCompressTime, (System.nanoTime() - start) / 1000);
+			if (null == compressed) {
+				stats.increment(StatsEnum.RecordsNotCompressible);
+			} else {
+				stats.increment(StatsEnum.RecordsCompressed);
+				stats.addSample(StatsEnum.RecordCompressRatio, compressed.length * 100L / encoded.length);
+			}
+		}
+		return (null == compressed) ? encoded : compressed;
+	}
+	
+	/**
+	 * Get the encoded ContentObject from a record read from a log file, counting the time
+	 * taken if it has to be decompressed
+	 * 
+	 * @param record the record
+	 * @return the encoded ContentObject
+	 * @throws ContentDecodingException if the record can't be decompressed
+	 */
+	protected byte [] expand(byte [] record) throws ContentDecodingException {
+		if (!LogFileFormat.isCompressed(record))
+			return record;
+		long start = System.nanoTime();
+		byte [] expanded = LogFileFormat.expand(record);
+		CCNEnumStats<StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.addSample(StatsEnum.RecordExpandTime, (System.nanoTime() - start) / 1000);
+		return expanded;
+	}
+	
+	/**
+	 * Choose the shard for content by a hash of the name of its stream, so all the segments of
+	 * a stream are in the same shard and can be read ahead together
+	 * 
+	 * @param name the name of the content
+	 * @param shards the number of shards
+	 * @return the index of the shard
+	 */
+	protected static int shardFor(ContentName name, int shards) {
+		ContentName stream = SegmentationProfile.isSegment(name) ? SegmentationProfile.segmentRoot(name) : name;
+		return (stream.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+	
+	/**
+	 * Save content to a shard. Content saved to a shard by concurrent callers is written to its
+	 * log together (group commit): one caller writes everything that is waiting with a single
+	 * write, forces it to disk if the sync policy is BATCH, and then indexes it, while the others
+	 * wait. Under NONE and BATCH the batch has reached the durability point of the sync policy
+	 * when this returns; under INTERVAL it has once the actions given to afterSync run.
+	 * 
+	 * @param shard the shard to write to
+	 * @param content the content to save
+	 * @throws RepositoryException if the content can not be written or encoded
+	 * @returns for each piece of content, a NameEnumerationResponse if it satisfies an outstanding
+	 * 		NameEnumeration request
+	 */
+	protected ArrayList<NameEnumerationResponse> save(Shard shard, List<ContentObject> content) throws RepositoryException {
 		// Make sure content is within allowable nameSpace
-		if (null == _activeWriteFile) {
-			Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", content.name());
+		if (null == shard.activeWriteFile) {
+			Log.warning(Log.FAC_REPO, "Tried to save: {0} objects, presumably after repo shutdown", content.size());
 			return null;
 		}
-		try {	
-			NameEnumerationResponse ner = new NameEnumerationResponse();
-			synchronized(_activeWriteFile) {
-				assert(null != _activeWriteFile.openFile);
-				FileRef ref = new FileRef();
-				ref.id = Integer.parseInt(_activeWriteFile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
-				ref.offset = _activeWriteFile.nextWritePos;
-				_activeWriteFile.openFile.seek(_activeWriteFile.nextWritePos);
-				OutputStream os = new RandomAccessOutputStream(_activeWriteFile.openFile);
-				content.encode(os);
-				_activeWriteFile.nextWritePos = _activeWriteFile.openFile.getFilePointer();
-				_index.insert(content, ref, System.currentTimeMillis(), this, ner);
-				if (ner==null || ner.getPrefix()==null) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
+		// Encode and checksum outside of any lock so that concurrent callers do it in parallel
+		PendingWrite write = new PendingWrite(content);
+		try {
+			for (int i = 0; i < write.content.length; i++) {
+				write.encoded[i] = write.content[i].encode();
+				if (write.encoded[i].length >= COMPRESS_MIN_SIZE && isCompressed(write.content[i].name()))
+					write.encoded[i] = compress(write.encoded[i]);
+				write.headers[i] = LogFileFormat.recordHeader(write.encoded[i]);
+			}
+		} catch (ContentEncodingException e) {
+			throw new RepositoryException("Failed to encode content: " + e.getMessage());
+		}
+		
+		ArrayList<PendingWrite> batch = null;
+		boolean interrupted = false;
+		synchronized (shard.commitLock) {
+			shard.pendingWrites.add(write);
+			while (!write.done) {
+				if (!shard.committing) {
+					// Our turn to write everything which is waiting
+					shard.committing = true;
+					batch = shard.pendingWrites;
+					shard.pendingWrites = new ArrayList<PendingWrite>();
+					break;
+				}
+				try {
+					shard.commitLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (null != batch) {
+			RepositoryException failure = null;
+			try {
+				commit(shard, batch);
+			} catch (RepositoryException e) {
+				failure = e;
+			} finally {
+				synchronized (shard.commitLock) {
+					for (PendingWrite pw : batch) {
+						pw.failure = failure;
+						pw.done = true;
 					}
+					shard.committing = false;
+					shard.commitLock.notifyAll();
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (null != write.failure)
+			throw write.failure;
+		enforceQuotas();
+		return write.ners;
+	}
+	
+	/**
+	 * Write a batch of content to the active file of a shard with one write, force it to disk if
+	 * the sync policy says to, then index it.
+	 */
+	protected void commit(Shard shard, ArrayList<PendingWrite> batch) throws RepositoryException {
+		int records = 0;
+		for (PendingWrite pw : batch)
+			records += pw.encoded.length;
+		ByteBuffer [] buffers = new ByteBuffer[2 * records];
+		int i = 0;
+		for (PendingWrite pw : batch) {
+			for (int j = 0; j < pw.encoded.length; j++) {
+				buffers[i++] = pw.headers[j];
+				buffers[i++] = ByteBuffer.wrap(pw.encoded[j]);
+			}
+		}
+		
+		RepoFile file = shard.activeWriteFile;
+		if (null == file)
+			throw new RepositoryException("Repository has been shut down");
+		synchronized (file) {
+			if (null == file.openFile)
+				throw new RepositoryException("Repository has been shut down");
+			int id = Integer.parseInt(file.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
+			long start = file.nextWritePos;
+			try {
+				FileChannel channel = file.openFile.getChannel();
+				channel.position(start);
+				long remaining = 0;
+				for (ByteBuffer buffer : buffers)
+					remaining += buffer.remaining();
+				while (remaining > 0)
+					remaining -= channel.write(buffers);
+				if (_syncPolicy == SyncPolicy.BATCH) {
+					channel.force(false);
 				} else {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+					shard.unsynced = true;
+				}
+			} catch (IOException e) {
+				// Anything written is overwritten by the next batch
+				throw new RepositoryException("Failed to write content: " + e.getMessage());
+			}
+			
+			long offset = start;
+			long now = System.currentTimeMillis();
+			for (PendingWrite pw : batch) {
+				pw.ners = new ArrayList<NameEnumerationResponse>(pw.content.length);
+				for (int j = 0; j < pw.content.length; j++) {
+					ContentObject co = pw.content[j];
+					int length = pw.encoded[j].length;
+					offset += LogFileFormat.RECORD_HEADER_SIZE;
+					FileRef ref = new FileRef(id, offset, length, co.signedInfo().getPublisherKeyID());
+					NameEnumerationResponse ner = new NameEnumerationResponse();
+					if (_index.insert(co, ref, now, this, ner)) {
+						committed(ref, co);
+						undelete(co);
+						if (null != _quotas.quotaFor(co.name()))
+							_quotas.stored(co.fullName(), LogFileFormat.RECORD_HEADER_SIZE + length, now);
+					}
+					offset += length;
+					if (ner.getPrefix()==null) {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+							Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
+						}
+					} else {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+							Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+						}
+					}
+					pw.ners.add(ner);
+				}
+			}
+			file.nextWritePos = offset;
+			file.indexedTo = offset;
+			if (offset >= SystemConfiguration.REPO_LOG_FILE_SIZE)
+				rollover(shard, file);
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+			Log.finer(Log.FAC_REPO, "Wrote {0} objects from {1} callers in one batch", records, batch.size());
+		}
+	}
+	
+	/**
+	 * Start writing to a new file in a shard once its active file is full, so that the files
+	 * before it can be compacted. If the new file can't be created we carry on with the old one.
+	 * 
+	 * @param shard the shard
+	 * @param file the active file of the shard, which the caller has locked
+	 */
+	protected void rollover(Shard shard, RepoFile file) {
+		int id = nextFileId();
+		RepoFile rfile = new RepoFile();
+		rfile.file = new File(shard.directory, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+		try {
+			rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+			rfile.openFile.write(LogFileFormat.fileHeader());
+			rfile.nextWritePos = LogFileFormat.FILE_HEADER_SIZE;
+			rfile.indexedTo = LogFileFormat.FILE_HEADER_SIZE;
+			
+			// Nothing tracks whether the old file is synced once we move on
+			if (shard.unsynced)
+				file.openFile.getChannel().force(false);
+			file.openFile.close();
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to start new repository file {0}: {1}", rfile.file, e.getMessage());
+			if (null != rfile.openFile) {
+				try {
+					rfile.openFile.close();
+				} catch (IOException e1) {}
+			}
+			rfile.file.delete();
+			return;
+		}
+		file.openFile = null;
+		shard.unsynced = false;
+		synchronized (_files) {
+			_files.put(id, rfile);
+		}
+		shard.activeWriteFile = rfile;
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Repository file {0} is full at {1} bytes, now writing {2}", file.file, file.nextWritePos, rfile.file);
+		}
+	}
+	
+	/**
+	 * @return the id for a new repository file
+	 */
+	protected int nextFileId() {
+		synchronized (_files) {
+			return ++_currentFileIndex;
+		}
+	}
+	
+	/**
+	 * Remove content from the repository. It is no longer returned by gets or name enumeration, and
+	 * the space it takes is reclaimed when its log file is compacted. The removal is recorded so that
+	 * it still holds if the index has to be rebuilt from the log files, until the same content is 
+	 * saved again.
+	 * 
+	 * @param name the full name of the content including the digest
+	 * @return true if the content was in the repository
+	 * @throws RepositoryException if the removal can't be recorded
+	 */
+	public boolean removeContent(ContentName name) throws RepositoryException {
+		synchronized (_deleted) {
+			if (_deleted.add(name)) {
+				File deleted = new File(_repositoryMeta, LogStructRepoStoreProfile.DELETED_CONTENT);
+				FileOutputStream fos = null;
+				try {
+					fos = new FileOutputStream(deleted, true);
+					fos.write((name.toURIString() + "\n").getBytes("UTF-8"));
+					fos.getFD().sync();
+				} catch (IOException e) {
+					_deleted.remove(name);
+					throw new RepositoryException("Unable to record removal of " + name + ": " + e.getMessage());
+				} finally {
+					if (null != fos) {
+						try {
+							fos.close();
+						} catch (IOException e) {}
+					}
+				}
+			}
+		}
+		return removeFromIndex(name);
+	}
+	
+	/**
+	 * Take all content with a name out of the index and the cache
+	 * 
+	 * @param name the full name of the content including the digest
+	 * @return true if there was any
+	 */
+	protected boolean removeFromIndex(ContentName name) {
+		_quotas.removed(name);
+		List<ContentRef> refs = _index.getRefs(name);
+		if (null == refs)
+			return false;
+		boolean removed = false;
+		for (ContentRef ref : refs) {
+			if (_index.remove(name, ref))
+				removed = true;
+			forget(ref);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Called for each new piece of content once it has been written and is in the index
+	 * 
+	 * @param ref the index's ref for the content
+	 * @param co the content
+	 */
+	protected void committed(FileRef ref, ContentObject co) {}
+	
+	/**
+	 * Drop anything held in memory for content which has been taken out of the index
+	 * 
+	 * @param ref the ref the index had for the content
+	 */
+	protected void forget(ContentRef ref) {
+		if (null != _cache)
+			_cache.remove(ref);
+	}
+	
+	/**
+	 * Set up the namespace quotas, count the content already in the index against them and
+	 * evict any which is over quota
+	 * 
+	 * @param quotas comma separated list of prefix=bytes[:eviction]
+	 * @see RepositoryQuotas
+	 */
+	protected void loadQuotas(String quotas) {
+		final RepositoryQuotas loading = new RepositoryQuotas(quotas);
+		if (loading.isEmpty()) {
+			_quotas = loading;
+			return;
+		}
+		_index.visit(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref, long ts) {
+				loading.stored(name, LogFileFormat.RECORD_HEADER_SIZE + Math.max(((FileRef)ref).length, 0), ts);
+			}
+		});
+		_quotas = loading;
+		enforceQuotas();
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Repository quotas:\n{0}", _quotas.status());
+		}
+	}
+	
+	/**
+	 * Evict content from the namespaces which are over their quota
+	 */
+	protected void enforceQuotas() {
+		if (_quotas.isEmpty())
+			return;
+		ArrayList<Long> sizes = new ArrayList<Long>();
+		List<ContentName> evicted = _quotas.evict(sizes);
+		if (null == evicted)
+			return;
+		long bytes = 0;
+		for (int i = 0; i < evicted.size(); i++) {
+			if (removeFromIndex(evicted.get(i)))
+				bytes += sizes.get(i);
+		}
+		_evictedSinceCheckpoint.set(true);
+		CCNEnumStats<StatsEnum> stats = _stats;
+		if (null != stats) {
+			stats.increment(StatsEnum.QuotaEvictions, evicted.size());
+			stats.increment(StatsEnum.QuotaEvictedBytes, (int)Math.min(bytes, Integer.MAX_VALUE));
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+			Log.fine(Log.FAC_REPO, "Evicted {0} objects, {1} bytes, from namespaces over quota", evicted.size(), bytes);
+		}
+	}
+	
+	/**
+	 * @return the namespace quotas
+	 */
+	public RepositoryQuotas getQuotas() {
+		return _quotas;
+	}
+	
+	/**
+	 * Read the list of removed content and take it out of the index, which may have been rebuilt 
+	 * from log files still holding it
+	 */
+	protected void loadDeleted() {
+		File deleted = new File(_repositoryMeta, LogStructRepoStoreProfile.DELETED_CONTENT);
+		if (!deleted.exists())
+			return;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(deleted), "UTF-8"));
+			String line;
+			synchronized (_deleted) {
+				while (null != (line = reader.readLine())) {
+					if (line.trim().length() == 0)
+						continue;
+					try {
+						ContentName name = ContentName.fromURI(line.trim());
+						_deleted.add(name);
+						removeFromIndex(name);
+					} catch (MalformedContentNameStringException e) {
+						Log.warning(Log.FAC_REPO, "Ignoring bad name {0} in {1}", line, deleted);
 					}
 				}
-				return ner;
 			}
-		} catch (ContentEncodingException e) {
-			throw new RepositoryException("Failed to encode content: " + e.getMessage());
 		} catch (IOException e) {
-			throw new RepositoryException("Failed to write content: " + e.getMessage());
+			Log.warning(Log.FAC_REPO, "Unable to read removed content from {0}: {1}", deleted, e.getMessage());
+		} finally {
+			if (null != reader) {
+				try {
+					reader.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Content which was removed has been saved again, so stop removing it
+	 * 
+	 * @param content the content
+	 */
+	protected void undelete(ContentObject content) {
+		synchronized (_deleted) {
+			if (_deleted.isEmpty() || !_deleted.remove(content.fullName()))
+				return;
+			File deleted = new File(_repositoryMeta, LogStructRepoStoreProfile.DELETED_CONTENT);
+			File tmp = new File(_repositoryMeta, LogStructRepoStoreProfile.DELETED_CONTENT + ".tmp");
+			FileOutputStream fos = null;
+			try {
+				fos = new FileOutputStream(tmp);
+				Writer writer = new OutputStreamWriter(new BufferedOutputStream(fos), "UTF-8");
+				for (ContentName name : _deleted)
+					writer.write(name.toURIString() + "\n");
+				writer.flush();
+				fos.getFD().sync();
+				fos.close();
+				fos = null;
+				if (!tmp.renameTo(deleted)) {
+					deleted.delete();
+					if (!tmp.renameTo(deleted))
+						throw new IOException("Can't rename " + tmp + " to " + deleted);
+				}
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to update removed content in {0}: {1}", deleted, e.getMessage());
+			} finally {
+				if (null != fos) {
+					try {
+						fos.close();
+					} catch (IOException e) {}
+					tmp.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Run an action once all the content saved so far has reached the durability point of the
+	 * sync policy. Under INTERVAL that is after the next sync, which runs the action on the sync
+	 * timer's thread, so writers can go on saving content meanwhile. Otherwise it is now.
+	 * Actions still waiting when a sync fails wait for the next one, and those still waiting
+	 * when the repository shuts down without managing to sync are dropped.
+	 */
+	@Override
+	public void afterSync(Runnable action) {
+		if (_syncPolicy != SyncPolicy.INTERVAL) {
+			action.run();
+			return;
+		}
+		synchronized (_afterSync) {
+			_afterSync.add(action);
+		}
+	}
+	
+	/**
+	 * Force content written to the active files to disk, if there is any which hasn't been,
+	 * then run the afterSync actions given before we started
+	 */
+	protected void sync() {
+		Shard [] shards = _shards;
+		if (null == shards)
+			return;
+		ArrayList<Runnable> actions;
+		synchronized (_afterSync) {
+			actions = new ArrayList<Runnable>(_afterSync);
+			_afterSync.clear();
+		}
+		boolean synced = true;
+		for (Shard shard : shards) {
+			if (!sync(shard))
+				synced = false;
+		}
+		if (!synced) {
+			synchronized (_afterSync) {
+				_afterSync.addAll(0, actions);
+			}
+			return;
+		}
+		for (Runnable action : actions) {
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				Log.warning(Log.FAC_REPO, "Error running action after repository sync: {0}", e.getMessage());
+				Log.logStackTrace(Level.WARNING, e);
+			}
+		}
+	}
+	
+	/**
+	 * Force content written to the active file of a shard to disk, if there is any which hasn't been
+	 * @return false if it couldn't be
+	 */
+	protected boolean sync(Shard shard) {
+		RepoFile file = shard.activeWriteFile;
+		if (null == file)
+			return true;
+		synchronized (file) {
+			if (!shard.unsynced || null == file.openFile)
+				return true;
+			try {
+				file.openFile.getChannel().force(false);
+				shard.unsynced = false;
+				return true;
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to sync repository file {0}: {1}", file.file, e.getMessage());
+				return false;
+			}
 		}
 	}
 
@@ -525,22 +1640,310 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			}
 			if (null == file)
 				return null;
-			synchronized (file) {
-				if (null == file.openFile) {
-					file.openFile = new RandomAccessFile(file.file, "r");
-				}
-				file.openFile.seek(fref.offset);
-				ContentObject content = new ContentObject();
-				InputStream is = new BufferedInputStream(new RandomAccessInputStream(file.openFile), 8192);
-				content.decode(is);
+			ContentCache cache = _cache;
+			ContentObject content = (null == cache) ? null : cache.get(fref);
+			if (null != content)
 				return content;
+			FileChannel channel = readChannel(file);
+			try {
+				content = read(channel, fref);
+			} catch (IOException e) {
+				// A reader interrupted part way through a read closes the channel for all readers,
+				// so if that happened to us, reopen it and try again
+				if (channel.isOpen() || Thread.currentThread().isInterrupted())
+					throw e;
+				content = read(readChannel(file), fref);
 			}
+			if (null != cache)
+				cache.put(fref, content);
+			return content;
 		} catch (Exception e) {
 			Log.warning(Log.FAC_REPO, "Can't get content: " + e);
 			return null;
 		}
 	}
 	
+	/**
+	 * Read and decode the content for a ref. If the length of the record is known exactly that
+	 * much is read, and the content keeps its encoding so that it can be sent without being
+	 * encoded again.
+	 */
+	protected ContentObject read(FileChannel channel, FileRef fref) throws IOException {
+		if (fref.length > 0) {
+			ByteBuffer record = ByteBuffer.allocate(fref.length);
+			while (record.hasRemaining()) {
+				if (channel.read(record, fref.offset + record.position()) < 0)
+					throw new EOFException("Record at " + fref.offset + " truncated");
+			}
+			return ContentObject.fromWire(expand(record.array()));
+		}
+		ContentObject content = new ContentObject();
+		content.decode(new BufferedInputStream(new FileChannelInputStream(channel, fref.offset), READ_BUFFER_SIZE));
+		return content;
+	}
+	
+	/**
+	 * Count cache hits and compression in a repository server's statistics
+	 * @param stats the statistics to count in, or null to stop counting
+	 */
+	public void setStats(CCNEnumStats<StatsEnum> stats) {
+		_stats = stats;
+		if (null != _cache)
+			_cache.setStats(stats);
+	}
+	
+	/**
+	 * @return the cache of recently read content, or null if there isn't one
+	 */
+	public ContentCache getContentCache() {
+		return _cache;
+	}
+	
+	/**
+	 * Read segments of a stream into the cache ahead of their being asked for. The segments of
+	 * a stream are usually close together in a log file, so the records for them are read with
+	 * as few reads as possible. Segments which are already cached are skipped, and reading stops
+	 * at the first segment which isn't in the repository.
+	 * 
+	 * @param stream name of the stream without a segment number
+	 * @param first first segment to read
+	 * @param count number of segments to read
+	 * @return number of records read
+	 */
+	public int readAhead(ContentName stream, long first, int count) {
+		ContentCache cache = _cache;
+		if (null == cache || !cache.readsAhead())
+			return 0;
+		
+		// The records to read in each file, by where they are
+		TreeMap<Integer, TreeMap<Long, FileRef>> wanted = new TreeMap<Integer, TreeMap<Long, FileRef>>();
+		for (long segment = first; segment < first + count; segment++) {
+			List<ContentRef> refs = _index.getRefsWithAnyDigest(SegmentationProfile.segmentName(stream, segment));
+			if (null == refs)
+				break;
+			for (ContentRef ref : refs) {
+				FileRef fref = (FileRef)ref;
+				if (fref.length <= 0 || cache.contains(fref))
+					continue;
+				TreeMap<Long, FileRef> inFile = wanted.get(fref.id);
+				if (null == inFile) {
+					inFile = new TreeMap<Long, FileRef>();
+					wanted.put(fref.id, inFile);
+				}
+				inFile.put(fref.offset, fref);
+			}
+		}
+		
+		int read = 0;
+		for (Map.Entry<Integer, TreeMap<Long, FileRef>> entry : wanted.entrySet()) {
+			RepoFile file;
+			synchronized (_files) {
+				file = _files.get(entry.getKey());
+			}
+			if (null == file)
+				continue;	// compacted in the meantime
+			ArrayList<FileRef> frefs = new ArrayList<FileRef>(entry.getValue().values());
+			try {
+				FileChannel channel = readChannel(file);
+				int start = 0;
+				while (start < frefs.size()) {
+					// Take in following records while they are close enough
+					long regionStart = frefs.get(start).offset;
+					long regionEnd = regionStart + frefs.get(start).length;
+					int end = start + 1;
+					while (end < frefs.size()) {
+						FileRef next = frefs.get(end);
+						if (next.offset - regionEnd > READ_AHEAD_GAP || next.offset + next.length - regionStart > READ_AHEAD_MAX_BYTES)
+							break;
+						regionEnd = next.offset + next.length;
+						end++;
+					}
+					ByteBuffer region = ByteBuffer.allocate((int)(regionEnd - regionStart));
+					while (region.hasRemaining()) {
+						if (channel.read(region, regionStart + region.position()) < 0)
+							throw new EOFException("Records at " + regionStart + " truncated");
+					}
+					for (int i = start; i < end; i++) {
+						FileRef fref = frefs.get(i);
+						int offset = (int)(fref.offset - regionStart);
+						cache.readAhead(fref, ContentObject.fromWire(expand(Arrays.copyOfRange(region.array(), offset, offset + fref.length))));
+						read++;
+					}
+					start = end;
+				}
+			} catch (IOException e) {
+				// Only an optimization, the content will be read again when it is asked for
+				Log.warning(Log.FAC_REPO, "Can't read ahead in {0} for {1}: {2}", file.file.getName(), stream, e.getMessage());
+			}
+		}
+		return read;
+	}
+	
+	/**
+	 * Get the channel used to read content from a repository file, opening it if necessary.
+	 * Reads on the channel are all positional so it is never locked while reading.
+	 * 
+	 * @param file the repository file
+	 * @return the channel
+	 * @throws IOException if the file can't be opened
+	 */
+	protected FileChannel readChannel(RepoFile file) throws IOException {
+		FileChannel channel = file.readChannel;
+		if (null != channel && channel.isOpen())
+			return channel;
+		synchronized (file) {
+			if (null == file.readChannel || !file.readChannel.isOpen()) {
+				if (null != file.readChannel && Log.isLoggable(Log.FAC_REPO, Level.FINE))
+					Log.fine(Log.FAC_REPO, "Reopening closed read channel for {0}", file.file);
+				file.readChannel = new FileInputStream(file.file).getChannel();
+			}
+			return file.readChannel;
+		}
+	}
+	
+	/**
+	 * Write the index to the checkpoint file in the meta directory, together with how far
+	 * each repository file had been indexed, so that on restart only content written since
+	 * then needs to be read. Nothing is written if nothing has been indexed or evicted since
+	 * the last checkpoint. The checkpoint is written to a temporary file and renamed into place so
+	 * an interrupted write leaves the previous checkpoint intact.
+	 * 
+	 * @return true if a checkpoint was written
+	 */
+	protected boolean writeCheckpoint() {
+		// The checkpoint mustn't refer to content which could be lost in a crash
+		sync();
+		synchronized (_checkpointLock) {
+			if (null == _index || null == _files)
+				return false;
+			
+			// Everything before these positions is already in the index, so it will be in the
+			// tree we write. Anything after them is read again on restart.
+			TreeMap<Integer, Long> positions = new TreeMap<Integer, Long>();
+			ArrayList<Map.Entry<Integer, RepoFile>> files;
+			synchronized (_files) {
+				files = new ArrayList<Map.Entry<Integer, RepoFile>>(_files.entrySet());
+			}
+			for (Map.Entry<Integer, RepoFile> entry : files) {
+				synchronized (entry.getValue()) {
+					positions.put(entry.getKey(), entry.getValue().indexedTo);
+				}
+			}
+			boolean evicted = _evictedSinceCheckpoint.getAndSet(false);
+			if (positions.equals(_lastCheckpoint) && !evicted)
+				return false;
+			
+			long start = System.currentTimeMillis();
+			File checkpoint = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT);
+			File tmp = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT + ".tmp");
+			FileOutputStream fos = null;
+			try {
+				fos = new FileOutputStream(tmp);
+				CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, 65536), new CRC32());
+				DataOutputStream dos = new DataOutputStream(cos);
+				dos.writeInt(CHECKPOINT_MAGIC);
+				dos.writeInt(CHECKPOINT_FORMAT);
+				dos.writeUTF(CURRENT_VERSION);
+				dos.writeInt(positions.size());
+				for (Map.Entry<Integer, Long> position : positions.entrySet()) {
+					dos.writeInt(position.getKey());
+					dos.writeLong(position.getValue());
+				}
+				_index.writeTree(dos, FileRef.SERIALIZER);
+				dos.writeLong(cos.getChecksum().getValue());
+				dos.flush();
+				fos.getFD().sync();
+				fos.close();
+				fos = null;
+				if (!tmp.renameTo(checkpoint)) {
+					// Some platforms won't rename over an existing file
+					checkpoint.delete();
+					if (!tmp.renameTo(checkpoint))
+						throw new IOException("Can't rename " + tmp + " to " + checkpoint);
+				}
+				_lastCheckpoint = positions;
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+					Log.info(Log.FAC_REPO, "Wrote index checkpoint {0} ({1} bytes) in {2} ms", checkpoint, 
+							checkpoint.length(), System.currentTimeMillis() - start);
+				}
+				return true;
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to write index checkpoint {0}: {1}", checkpoint, e.getMessage());
+				if (evicted)
+					_evictedSinceCheckpoint.set(true);
+				return false;
+			} finally {
+				if (null != fos) {
+					try {
+						fos.close();
+					} catch (IOException e) {}
+					tmp.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Load the index from the checkpoint file if there is a valid one. The checkpoint is not
+	 * used if it is corrupt, was written by a different version, or refers to repository files
+	 * which no longer exist or are shorter than they were when it was written.
+	 * 
+	 * @param logFiles the repository files by file id
+	 * @return the offset up to which each repository file is covered by the checkpoint, or null
+	 * 	if there was no usable checkpoint
+	 */
+	protected Map<Integer, Long> readCheckpoint(Map<Integer, File> logFiles) {
+		File checkpoint = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT);
+		if (!checkpoint.exists())
+			return null;
+		long start = System.currentTimeMillis();
+		DataInputStream dis = null;
+		try {
+			CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(new FileInputStream(checkpoint), 65536), new CRC32());
+			dis = new DataInputStream(cis);
+			if (dis.readInt() != CHECKPOINT_MAGIC || dis.readInt() != CHECKPOINT_FORMAT || !CURRENT_VERSION.equals(dis.readUTF())) {
+				Log.warning(Log.FAC_REPO, "Ignoring index checkpoint {0} from a different repository version", checkpoint);
+				return null;
+			}
+			TreeMap<Integer, Long> positions = new TreeMap<Integer, Long>();
+			int nfiles = dis.readInt();
+			for (int i = 0; i < nfiles; i++) {
+				int id = dis.readInt();
+				long position = dis.readLong();
+				File file = logFiles.get(id);
+				if (null == file || file.length() < position) {
+					Log.warning(Log.FAC_REPO, "Ignoring index checkpoint {0}: {1} is missing or shorter than expected", checkpoint, 
+							(null == file) ? LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id : file);
+					return null;
+				}
+				positions.put(id, position);
+			}
+			ContentTree index = new ContentTree();
+			long count = index.readTree(dis, FileRef.SERIALIZER);
+			long checksum = cis.getChecksum().getValue();
+			if (dis.readLong() != checksum) {
+				Log.warning(Log.FAC_REPO, "Ignoring corrupt index checkpoint {0}", checkpoint);
+				return null;
+			}
+			_index = index;
+			_lastCheckpoint = positions;
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+				Log.info(Log.FAC_REPO, "Loaded {0} index entries from checkpoint {1} in {2} ms", count, checkpoint, 
+						System.currentTimeMillis() - start);
+			}
+			return positions;
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Ignoring unreadable index checkpoint {0}: {1}", checkpoint, e.getMessage());
+			return null;
+		} finally {
+			if (null != dis) {
+				try {
+					dis.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+	
 	/**
 	 * Check/write files that contain meta data for the repo
 	 * @throws RepositoryException
@@ -636,13 +2039,50 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			KeyManager.closeDefaultKeyManager();
 		}
 		
-		if (null != _activeWriteFile && null != _activeWriteFile.openFile) {
-			try {
-				synchronized (_activeWriteFile) {
-					_activeWriteFile.openFile.close();
-					_activeWriteFile.openFile = null;
+		if (null != _checkpointTimer) {
+			_checkpointTimer.cancel();
+			_checkpointTimer = null;
+		}
+		
+		if (null != _syncTimer) {
+			_syncTimer.cancel();
+			_syncTimer = null;
+		}
+		
+		if (null != _compactTimer) {
+			_compactTimer.cancel();
+			_compactTimer = null;
+			_compactor.stop();
+		}
+		
+		sync();
+		if (null != _shards) {
+			for (Shard shard : _shards) {
+				RepoFile file = shard.activeWriteFile;
+				if (null != file && null != file.openFile) {
+					try {
+						synchronized (file) {
+							file.openFile.close();
+							file.openFile = null;
+						}
+					} catch (IOException e) {}
+				}
+			}
+		}
+		writeCheckpoint();
+		if (null != _files) {
+			synchronized (_files) {
+				for (RepoFile rfile : _files.values()) {
+					synchronized (rfile) {
+						if (null != rfile.readChannel) {
+							try {
+								rfile.readChannel.close();
+							} catch (IOException e) {}
+							rfile.readChannel = null;
+						}
+					}
 				}
-			} catch (IOException e) {}
+			}
 		}
 		if (SystemConfiguration.checkDebugFlag(DEBUGGING_FLAGS.REPO_EXITDUMP)) {
 			Log.warning(Log.FAC_REPO, "Debug flag ({0}) is set: dumping nametree now (on shutdown)", DEBUGGING_FLAGS.REPO_EXITDUMP.toString());
@@ -651,40 +2091,53 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	}
 
 	public Object getStatus(String type) {
-		return type.equals(RepositoryStore.REPO_SIMPLE_STATUS_REQUEST) 
-				? ((null == _activeWriteFile.openFile) ? null : "running") : null;
+		if (type.equals(RepositoryStore.REPO_QUOTA_STATUS_REQUEST))
+			return _quotas.status();
+		if (!type.equals(RepositoryStore.REPO_SIMPLE_STATUS_REQUEST))
+			return null;
+		RepoFile file = (null == _shards) ? null : _shards[0].activeWriteFile;
+		return (null == file || null == file.openFile) ? null : "running";
 	}
 
-	synchronized public boolean bulkImport(String name) throws RepositoryException {
+	/**
+	 * Import a file of content from the import directory. The file is read and decoded in
+	 * parallel by a BulkImporter and saved like any other content, so imports don't hold up
+	 * each other or other writes. The file is deleted once it has been imported.
+	 * 
+	 * @param name the name of the file in the import directory
+	 * @return false if the file is already being imported, or has just been
+	 * @throws RepositoryException if the file doesn't exist or couldn't all be imported
+	 */
+	public boolean bulkImport(String name) throws RepositoryException {
 		if (name.contains(UserConfiguration.FILE_SEP))
 			throw new RepositoryException("Bulk import data can not contain pathnames");
 		File file;
 		synchronized (_bulkImportInProgress) {
+			// Is this due to a reexpressed interest for bulk import already in progress?
+			if (_bulkImportInProgress.containsKey(name))
+				return false;
 			file = new File(_repositoryRoot + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.REPO_IMPORT_DIR + UserConfiguration.FILE_SEP + name);
-			if (!file.exists()) {		
-				// Is this due to a reexpressed interest for bulk import already in progress?
-				if (_bulkImportInProgress.containsKey(name))
-						return false;		
+			if (!file.exists()) {
+				if (_bulkImportDone.containsKey(name))
+					return false;
 				throw new RepositoryException("File does not exist: " + file);
 			}
-			
+			_bulkImportDone.remove(name);
 			_bulkImportInProgress.put(name, name);
 		}
-		_currentFileIndex++;
-		File repoFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex);
-		if (!file.renameTo(repoFile))
-			throw new RepositoryException("Can not rename file: " + file);
+		boolean imported = false;
 		try {
-			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex, _currentFileIndex, true);
-		} catch (RepositoryException re) {
-			// The seemingly logical thing to do would be to verify the data for errors first and then submit it if it
-			// was OK. But that would require 2 passes through the data in the mainline case in which the data is good
-			// so instead we rename the file back if its bad.
-			repoFile.renameTo(file);
-			_bulkImportInProgress.remove(name);
-			throw re;
-		}
-		_bulkImportInProgress.remove(name);
+			new BulkImporter(this, SystemConfiguration.REPO_IMPORT_THREADS).importFile(file);
+			imported = true;
+			if (!file.delete())
+				Log.warning(Log.FAC_REPO, "Unable to delete imported file {0}", file);
+		} finally {
+			synchronized (_bulkImportInProgress) {
+				_bulkImportInProgress.remove(name);
+				if (imported)
+					_bulkImportDone.put(name, name);
+			}
+		}
 		return true;
 	}
 }
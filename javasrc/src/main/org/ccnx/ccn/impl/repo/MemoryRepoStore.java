@@ -23,11 +23,13 @@ import java.util.ArrayList;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.ConfigurationException;
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Interest;
 import org.ccnx.ccn.protocol.MalformedContentNameStringException;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 
 /**
  * MemoryRepoStore is a transient, in-memory store for applications that 
@@ -46,6 +48,11 @@ public class MemoryRepoStore extends RepositoryStoreBase implements RepositorySt
 		public MemRef(ContentObject content) {
 			co = content;
 		}
+		
+		@Override
+		public PublisherPublicKeyDigest publisher() {
+			return (null == co.signedInfo()) ? null : co.signedInfo().getPublisherKeyID();
+		}
 	}
 	
 	public MemoryRepoStore(ContentName namespace) {
@@ -74,6 +81,7 @@ public class MemoryRepoStore extends RepositoryStoreBase implements RepositorySt
 			throw new RepositoryException("Attempt to re-initialize " + this.getClass().getName());
 		}
 		_index = new ContentTree();
+		_index.setIndexed(SystemConfiguration.REPO_SECONDARY_INDEXES);
 		if (null != _namespace) {
 			ArrayList<ContentName> ns = new ArrayList<ContentName>();
 			ns.add(_namespace);
@@ -123,6 +131,11 @@ public class MemoryRepoStore extends RepositoryStoreBase implements RepositorySt
 		return _index.getNamesWithPrefix(i, responseName);
 	}
 
+	@Override
+	public void setEnumerationCache(NameEnumerationCache cache) {
+		_index.setEnumerationCache(cache);
+	}
+
     public void shutDown() {
     	// no-op
     }
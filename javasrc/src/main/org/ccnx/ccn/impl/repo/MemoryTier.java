@@ -0,0 +1,193 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * The memory tier of a TieredRepoStore: content held in memory by the ContentRef the store's
+ * index has for it, so that it is read without going to disk. Content enters the tier when it
+ * is written and when it is read from disk, and is demoted - simply dropped, as it is already
+ * on disk - oldest first when the tier is over its size, or once it has been in the tier for
+ * longer than the maximum age without being read.
+ * 
+ * Reads of content in the tier don't lock anything. Content which is still being read when it
+ * is half way to the maximum age goes back to the end of the line.
+ * 
+ * @see TieredRepoStore
+ */
+public class MemoryTier {
+	
+	protected static class Entry {
+		final ContentRef _ref;
+		final ContentObject _content;
+		final int _size;
+		final long _since;
+		
+		Entry(ContentRef ref, ContentObject content, int size, long since) {
+			_ref = ref;
+			_content = content;
+			_size = size;
+			_since = since;
+		}
+	}
+	
+	protected final long _maxBytes;
+	protected final long _maxAge;
+	protected final ConcurrentHashMap<ContentRef, Entry> _entries = new ConcurrentHashMap<ContentRef, Entry>();
+	// Entries in the order they came in. Entries which have been replaced or removed are 
+	// skipped when they reach the front.
+	protected final ArrayDeque<Entry> _order = new ArrayDeque<Entry>();
+	protected long _bytes = 0;	// guarded by _order
+	protected CCNEnumStats<RepositoryServer.StatsEnum> _stats = null;
+	
+	/**
+	 * @param maxBytes maximum total size of the content in the tier
+	 * @param maxAge time in milliseconds content stays in the tier without being read
+	 */
+	public MemoryTier(long maxBytes, long maxAge) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Memory tier size must be positive: " + maxBytes);
+		if (maxAge <= 0)
+			throw new IllegalArgumentException("Memory tier age must be positive: " + maxAge);
+		_maxBytes = maxBytes;
+		_maxAge = maxAge;
+	}
+	
+	/**
+	 * Count hits, misses and demotions in a repository server's statistics
+	 * @param stats the statistics to count in, or null to stop counting
+	 */
+	public void setStats(CCNEnumStats<RepositoryServer.StatsEnum> stats) {
+		_stats = stats;
+	}
+	
+	/**
+	 * @param ref the index's ref for some content
+	 * @return the content if it is in the tier, or null
+	 */
+	public ContentObject get(ContentRef ref) {
+		Entry entry = _entries.get(ref);
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment((null == entry) ? RepositoryServer.StatsEnum.MemoryTierMisses : RepositoryServer.StatsEnum.MemoryTierHits);
+		if (null == entry)
+			return null;
+		long now = System.currentTimeMillis();
+		if (now - entry._since > _maxAge / 2)
+			put(ref, entry._content, entry._size, now);
+		return entry._content;
+	}
+	
+	/**
+	 * @param ref the index's ref for some content
+	 * @return true if the content is in the tier, without counting it as a read
+	 */
+	public boolean contains(ContentRef ref) {
+		return _entries.containsKey(ref);
+	}
+	
+	/**
+	 * Put content into the tier, demoting whatever is now too old or doesn't fit
+	 * @param ref the index's ref for the content
+	 * @param co the content
+	 * @param size the size of the content
+	 */
+	public void put(ContentRef ref, ContentObject co, int size) {
+		put(ref, co, size, System.currentTimeMillis());
+	}
+	
+	protected void put(ContentRef ref, ContentObject co, int size, long now) {
+		if (size > _maxBytes)
+			return;
+		Entry entry = new Entry(ref, co, size, now);
+		synchronized (_order) {
+			Entry old = _entries.put(ref, entry);
+			if (null != old)
+				_bytes -= old._size;
+			_order.addLast(entry);
+			_bytes += size;
+			demote(now);
+		}
+	}
+	
+	/**
+	 * Take content out of the tier, for example because it has been removed from the store
+	 * @param ref the index's ref for the content
+	 */
+	public void remove(ContentRef ref) {
+		synchronized (_order) {
+			Entry entry = _entries.remove(ref);
+			if (null != entry)
+				_bytes -= entry._size;
+		}
+	}
+	
+	/**
+	 * Demote content which has been in the tier too long without being read, or which doesn't fit
+	 * @param now the current time
+	 * @return number of pieces of content demoted
+	 */
+	public int demote(long now) {
+		int demoted = 0;
+		synchronized (_order) {
+			while (!_order.isEmpty()) {
+				Entry head = _order.peekFirst();
+				if (_entries.get(head._ref) == head) {
+					if (_bytes <= _maxBytes && now - head._since <= _maxAge)
+						break;
+					_entries.remove(head._ref);
+					_bytes -= head._size;
+					demoted++;
+				}
+				_order.pollFirst();
+			}
+		}
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats && demoted > 0)
+			stats.increment(RepositoryServer.StatsEnum.MemoryTierDemotions, demoted);
+		return demoted;
+	}
+	
+	/**
+	 * @return total size of the content in the tier
+	 */
+	public long size() {
+		synchronized (_order) {
+			return _bytes;
+		}
+	}
+	
+	/**
+	 * @return the maximum total size of the content in the tier
+	 */
+	public long maxSize() {
+		return _maxBytes;
+	}
+	
+	/**
+	 * @return number of pieces of content in the tier
+	 */
+	public int count() {
+		return _entries.size();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.impl.CCNFlowControl;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * A cache of the name enumeration responses the repository has sent, kept as the signed
+ * segments that were put to the network, so that an enumeration of a prefix whose children
+ * haven't changed can be answered again without listing, encoding and signing the children.
+ * 
+ * Responses are keyed by the enumeration prefix (the prefix with the enumeration marker) and
+ * the version of the response, which is the timestamp ContentTree keeps for the prefix. Adding
+ * or removing a child changes the timestamp, so a cached response is never sent for a version
+ * it wasn't made for and old versions are simply replaced. A large set of children is
+ * segmented when the response is saved and all of the segments are kept.
+ * 
+ * The number of prefixes cached is bounded; the least recently used is dropped.
+ */
+public class NameEnumerationCache {
+
+	/**
+	 * A response from ContentTree for a version which is in the cache. It has no names, only
+	 * the segments to send.
+	 */
+	public static class CachedResponse extends NameEnumerationResponse {
+		protected final ContentObject [] _segments;
+
+		public CachedResponse(ContentName prefix, CCNTime version, ContentObject [] segments) {
+			super(prefix, new ArrayList<ContentName>(0), version);
+			_segments = segments;
+		}
+
+		public ContentObject [] getSegments() {
+			return _segments;
+		}
+	}
+
+	/**
+	 * Flow controller which keeps the segments of a response as they are put, so they can
+	 * be cached. Flow control is disabled, as it is for all repository enumeration responses.
+	 */
+	public static class Recorder extends CCNFlowControl {
+		protected final ArrayList<ContentObject> _segments = new ArrayList<ContentObject>();
+
+		public Recorder(CCNHandle handle) throws IOException {
+			super(handle);
+			disable();
+		}
+
+		@Override
+		public ContentObject put(ContentObject co) throws IOException {
+			ContentObject result = super.put(co);
+			synchronized (_segments) {
+				_segments.add(co);
+			}
+			return result;
+		}
+
+		public ContentObject [] getSegments() {
+			synchronized (_segments) {
+				return _segments.toArray(new ContentObject[_segments.size()]);
+			}
+		}
+	}
+
+	protected static class CachedEntry {
+		final CCNTime _version;
+		final ContentObject [] _segments;
+
+		CachedEntry(CCNTime version, ContentObject [] segments) {
+			_version = version;
+			_segments = segments;
+		}
+	}
+
+	protected final int _maxPrefixes;
+	protected final LinkedHashMap<ContentName, CachedEntry> _responses;
+	protected CCNEnumStats<RepositoryServer.StatsEnum> _stats = null;
+
+	/**
+	 * @param maxPrefixes maximum number of prefixes to keep a response for
+	 */
+	public NameEnumerationCache(int maxPrefixes) {
+		_maxPrefixes = maxPrefixes;
+		_responses = new LinkedHashMap<ContentName, CachedEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ContentName, CachedEntry> eldest) {
+				return size() > _maxPrefixes;
+			}
+		};
+	}
+
+	public void setStats(CCNEnumStats<RepositoryServer.StatsEnum> stats) {
+		_stats = stats;
+	}
+
+	/**
+	 * @param prefix the enumeration prefix, ending with the enumeration marker
+	 * @param version the version of the response which would be sent now
+	 * @return the segments of the response for this version, or null if it isn't cached
+	 */
+	public synchronized ContentObject [] get(ContentName prefix, CCNTime version) {
+		CachedEntry entry = _responses.get(prefix);
+		if (null == entry || !entry._version.equals(version)) {
+			if (null != _stats)
+				_stats.increment(RepositoryServer.StatsEnum.EnumerationCacheMisses);
+			return null;
+		}
+		if (null != _stats)
+			_stats.increment(RepositoryServer.StatsEnum.EnumerationCacheHits);
+		return entry._segments;
+	}
+
+	/**
+	 * Keep the segments of a response which has been sent, replacing any earlier version.
+	 * @param prefix the enumeration prefix, ending with the enumeration marker
+	 * @param version the version of the response
+	 * @param segments the signed segments of the response
+	 */
+	public synchronized void put(ContentName prefix, CCNTime version, ContentObject [] segments) {
+		if (null == version || null == segments || segments.length == 0)
+			return;
+		CachedEntry entry = _responses.get(prefix);
+		if (null != entry && entry._version.after(version))
+			return;
+		_responses.put(prefix, new CachedEntry(version, segments));
+	}
+
+	public synchronized void remove(ContentName prefix) {
+		_responses.remove(prefix);
+	}
+
+	public synchronized int size() {
+		return _responses.size();
+	}
+}
@@ -182,6 +182,9 @@ public class RepositoryDaemon extends Daemon {
 				} else if (args[i].equals("-bb")) {
 					// Following is for upper half performance testing for writes
 					_repo = new BitBucketRepository();
+				} else if (args[i].equals("-tiered")) {
+					// Log store with recently written and read content kept in memory
+					_repo = new TieredRepoStore();
 				} else if(args[i].equals("-singlefile")) {
 					// This is a reference to an old repo type that no longer exists
 					System.out.println("-singlefile no longer supported");
@@ -213,7 +216,7 @@ public class RepositoryDaemon extends Daemon {
 			// Without parsing args, we don't know which repo impl we will get, so show the default 
 			// impl usage and allow for differences 
 			String msg = "usage: " + this.getClass().getName() + " -start -root <repository_root> | -stop <pid> | -interactive | -signal <signal> <pid>" +
-			" [-log <level>] [-repoLog <level>] [-policy <policy_file>] [-local <local_name>] [-global <global_prefix>] [-bb]";
+			" [-log <level>] [-repoLog <level>] [-policy <policy_file>] [-local <local_name>] [-global <global_prefix>] [-bb] [-tiered]";
 			System.out.println(msg);
 			Log.severe(Log.FAC_REPO, msg);
 		} catch (Exception e) {
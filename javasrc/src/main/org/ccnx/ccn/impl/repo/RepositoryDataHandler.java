@@ -18,6 +18,7 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
@@ -39,15 +40,30 @@ import org.ccnx.ccn.protocol.Interest;
 public class RepositoryDataHandler implements Runnable {
 	public static final int THROTTLE_TOP = 2000;
 	public static final int THROTTLE_BOTTOM = 1800;
+	public static final int MAX_BATCH = 100;	// most objects saved together
 
 	private final RepositoryServer _server;
 	private final Queue<ContentObject> _queue = new ConcurrentLinkedQueue<ContentObject>();
+	private final Queue<SavedBatch> _synced = new ConcurrentLinkedQueue<SavedBatch>();	// saved and ready to acknowledge
 	private final InterestTable<ContentName> _pendingKeyChecks = new InterestTable<ContentName>();
 	private boolean _shutdown = false;
 	private boolean _shutdownComplete = false;
 	protected int _currentQueueSize;
 	protected boolean _throttled = false;
 
+	/**
+	 * Content saved together, with the store's name enumeration responses for it
+	 */
+	private static class SavedBatch {
+		final ArrayList<ContentObject> content;
+		final ArrayList<NameEnumerationResponse> ners;
+		
+		SavedBatch(ArrayList<ContentObject> content, ArrayList<NameEnumerationResponse> ners) {
+			this.content = content;
+			this.ners = ners;
+		}
+	}
+
 	public RepositoryDataHandler(RepositoryServer server) {
 		_server = server;
 	}
@@ -59,7 +75,13 @@ public class RepositoryDataHandler implements Runnable {
 			_server.setThrottle(true);
 		}
 		_queue.add(co);
-		_queue.notify();
+		wake();
+	}
+	
+	private void wake() {
+		synchronized (_queue) {
+			_queue.notify();
+		}
 	}
 
 	public void addKeyCheck(ContentName target) {
@@ -71,6 +93,10 @@ public class RepositoryDataHandler implements Runnable {
 	 * The thread also checks for policy updates which may reset the repository's
 	 * namespace and sends "early" nameEnumerationResponses when requested by the
 	 * store.
+	 * 
+	 * Saved content is acknowledged, by sending those responses and checking for its
+	 * keys, once the store has made it durable. Stores which sync on an interval tell us
+	 * when that is, and we go on saving more content meanwhile.
 	 *
 	 * @see RepositoryStore
 	 */
@@ -78,6 +104,7 @@ public class RepositoryDataHandler implements Runnable {
 		while (!_shutdownComplete) {
 			ContentObject co = null;
 			do {
+				acknowledge();
 				co = _queue.poll();
 				if (null == co) {
 					if (_shutdown) {
@@ -87,57 +114,93 @@ public class RepositoryDataHandler implements Runnable {
 						}
 						return;
 					}
-					try {
-						_queue.wait(SystemConfiguration.MEDIUM_TIMEOUT);
-					} catch (InterruptedException e) {}
+					synchronized (_queue) {
+						if (_queue.isEmpty() && _synced.isEmpty()) {
+							try {
+								_queue.wait(SystemConfiguration.MEDIUM_TIMEOUT);
+							} catch (InterruptedException e) {}
+						}
+					}
 				}
 			} while (null == co);
-			_currentQueueSize--;
+			
+			// Save everything that has arrived together so the store can write it in one go
+			ArrayList<ContentObject> batch = new ArrayList<ContentObject>();
+			batch.add(co);
+			while (batch.size() < MAX_BATCH && null != (co = _queue.poll()))
+				batch.add(co);
+			_currentQueueSize -= batch.size();
 			if (_throttled && _currentQueueSize < THROTTLE_BOTTOM) {
 				_throttled = false;
 				_server.setThrottle(false);
 			}
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+				for (ContentObject saving : batch)
+					Log.finer(Log.FAC_REPO, "Saving content in: " + saving.toString());
+			}
+			final SavedBatch saved;
 			try {
-				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-					Log.finer(Log.FAC_REPO, "Saving content in: " + co.toString());
-				}
-
-				NameEnumerationResponse ner = _server.getRepository().saveContent(co);
-				if (!_shutdown) {
-					if (ner!=null && ner.hasNames()) {
-						_server.sendEnumerationResponse(ner);
-					}
+				saved = new SavedBatch(batch, _server.getRepository().saveContent(batch));
+			} catch (Exception e) {
+				e.printStackTrace();
+				Log.logStackTrace(Level.WARNING, e);
+				continue;
+			}
+			_server.getRepository().afterSync(new Runnable() {
+				public void run() {
+					_synced.add(saved);
+					wake();
 				}
-
-				// When a write or some syncs are first requested we don't know what key data
-				// was being used because this is in the ContentObject which of course we didn't
-				// have yet. Bbut we need this data to make sure the key is saved along with the file.
-				// Now we can find the key data and check if we have it already or need to get it
-				// too. Also the key locator that we dont have yet could have been a link. We
-				// didn't know that either. If it was we have to get the data it points to.
-				//
-				// Also we have to check for more locators associated with our new object
-				// and the objects pointed to by the links.
-				Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
-				if (null != entry) {
-					ContentName nameToCheck = entry.value();
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-						Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
+			});
+		}
+	}
+	
+	/**
+	 * Acknowledge the content which is ready to be
+	 */
+	private void acknowledge() {
+		SavedBatch saved;
+		while (null != (saved = _synced.poll())) {
+			for (int i = 0; i < saved.content.size(); i++) {
+				ContentObject co = saved.content.get(i);
+				try {
+					NameEnumerationResponse ner = (null == saved.ners) ? null : saved.ners.get(i);
+					if (!_shutdown) {
+						if (ner!=null && ner.hasNames()) {
+							_server.sendEnumerationResponse(ner);
+						}
 					}
-					ContentName linkCheck = _server.getLinkedKeyTarget(co);
-					if (null != linkCheck) {
+	
+					// When a write or some syncs are first requested we don't know what key data
+					// was being used because this is in the ContentObject which of course we didn't
+					// have yet. Bbut we need this data to make sure the key is saved along with the file.
+					// Now we can find the key data and check if we have it already or need to get it
+					// too. Also the key locator that we dont have yet could have been a link. We
+					// didn't know that either. If it was we have to get the data it points to.
+					//
+					// Also we have to check for more locators associated with our new object
+					// and the objects pointed to by the links.
+					Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
+					if (null != entry) {
+						ContentName nameToCheck = entry.value();
 						if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-							Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
+							Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
+						}
+						ContentName linkCheck = _server.getLinkedKeyTarget(co);
+						if (null != linkCheck) {
+							if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+								Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
+							}
+							Interest linkInterest = new Interest(linkCheck);
+							_server.doSync(linkInterest, linkInterest);
+							syncKeysForObject(co, linkCheck);
 						}
-						Interest linkInterest = new Interest(linkCheck);
-						_server.doSync(linkInterest, linkInterest);
-						syncKeysForObject(co, linkCheck);
+						syncKeysForObject(co, nameToCheck);
 					}
-					syncKeysForObject(co, nameToCheck);
+				} catch (Exception e) {
+					e.printStackTrace();
+					Log.logStackTrace(Level.WARNING, e);
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
-				Log.logStackTrace(Level.WARNING, e);
 			}
 		}
 	}
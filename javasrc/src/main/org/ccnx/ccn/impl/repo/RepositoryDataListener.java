@@ -19,11 +19,14 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNContentHandler;
 import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.InterestTable;
 import org.ccnx.ccn.impl.InterestTable.Entry;
 import org.ccnx.ccn.impl.support.Log;
@@ -38,6 +41,10 @@ import org.ccnx.ccn.protocol.Interest;
  * by interfacing with the RepositoryStore and to generate interests for data following the
  * received data in an input stream. RepositoryDataListeners are destroyed after the stream
  * which triggered their creation has been fully read.
+ * 
+ * The number of segments asked for ahead of those received is set by an IngestWindow, which
+ * grows it while segments arrive and shrinks it when they time out. Segments which aren't
+ * received within the window's retransmission timeout are asked for again.
  */
 
 public class RepositoryDataListener implements CCNContentHandler {
@@ -57,6 +64,28 @@ public class RepositoryDataListener implements CCNContentHandler {
 
 	protected boolean _throttled = false;
 	protected Interest _restartInterest = null;
+	
+	private final IngestWindow _window;
+	private final HashMap<Long, Outstanding> _outstanding = new HashMap<Long, Outstanding>();	// segments asked for but not received
+	private long _lastTimeout = 0;		// when the window was last shrunk
+	private final long _start;
+	private long _bytes = 0;
+	private long _segments = 0;
+	private boolean _reported = false;
+	
+	/**
+	 * A segment interest which hasn't been answered yet
+	 */
+	private static class Outstanding {
+		final Interest interest;
+		long sent;
+		boolean retransmitted = false;
+		
+		Outstanding(Interest interest, long sent) {
+			this.interest = interest;
+			this.sent = sent;
+		}
+	}
 
 	/**
 	 * @param origInterest	interest to be used to identify this listener to filter out subsequent duplicate or overlapping
@@ -69,6 +98,8 @@ public class RepositoryDataListener implements CCNContentHandler {
 		_server = server;
 		_handle = server.getHandle();
 		_timer = System.currentTimeMillis();
+		_start = _timer;
+		_window = new IngestWindow(server.getWindowSize(), SystemConfiguration.REPO_WINDOW_MAX);
 		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
 			Log.info(Log.FAC_REPO, "Starting up repository listener on original interest: {0} interest {1}", origInterest, interest);
 		}
@@ -124,6 +155,8 @@ public class RepositoryDataListener implements CCNContentHandler {
     calculateInterests: synchronized (_interests) {
 			long largestSegmentNumberRequested = getLargestSegmentNumber();
 			_interests.remove(interest, null);
+			received(co, _timer);
+			checkTimeouts(_timer);
 
 			// Compute next interests to ask for and ask for them
 			// Note that this should only ask for 1 interest except for the first time through this code when it
@@ -132,7 +165,7 @@ public class RepositoryDataListener implements CCNContentHandler {
 				Log.finest(Log.FAC_REPO, "Largest segment number requested is {0}", largestSegmentNumberRequested);
 			}
 
-			int remainingWindow = _server.getWindowSize() - _interests.size();
+			int remainingWindow = _window.window() - _interests.size();
 
 			// Make sure we don't go past prospective last block.
 			if (_finalSegmentNumber >= 0 && _finalSegmentNumber < (largestSegmentNumberRequested + remainingWindow)) {
@@ -142,6 +175,8 @@ public class RepositoryDataListener implements CCNContentHandler {
 				// If we're confident about the final block ID, cancel previous extra interests
 				if (isFinalSegment) {
 					cancelHigherInterests(_finalSegmentNumber);
+					if (_outstanding.isEmpty())
+						report(_timer);
                     break calculateInterests; // exit the synchronized block and process the data
 				}
 			}
@@ -175,6 +210,8 @@ public class RepositoryDataListener implements CCNContentHandler {
 		try {
 			_handle.expressInterest(interest, this);
 			_interests.add(interest, null);
+			if (SegmentationProfile.isSegment(interest.name()))
+				_outstanding.put(SegmentationProfile.getSegmentNumber(interest.name()), new Outstanding(interest, System.currentTimeMillis()));
 			_server._stats.increment(RepositoryServer.StatsEnum.HandleContentExpressInterest);
 
 		} catch (IOException e) {
@@ -198,6 +235,83 @@ public class RepositoryDataListener implements CCNContentHandler {
 		}
 	}
 
+	/**
+	 * Open the window for a segment which has arrived, and report on the stream if it was the last
+	 * one outstanding at the end of it. Must be called with _interests locked.
+	 * 
+	 * @param co the segment
+	 * @param now the time it arrived
+	 */
+	private void received(ContentObject co, long now) {
+		_bytes += co.contentLength();
+		_segments++;
+		if (!SegmentationProfile.isSegment(co.name()))
+			return;
+		// The server asks for the first segment, so we don't know when it was asked for
+		Outstanding outstanding = _outstanding.remove(SegmentationProfile.getSegmentNumber(co.name()));
+		if (null != outstanding)
+			_window.received(outstanding.retransmitted ? -1 : now - outstanding.sent);
+		if (_finalSegmentNumber >= 0 && _largestSegmentNumberReceived >= _finalSegmentNumber && _outstanding.isEmpty())
+			report(now);
+	}
+	
+	/**
+	 * Ask again for segments which have been outstanding for longer than the retransmission
+	 * timeout. The window is shrunk once for all the segments found, and not again until another
+	 * timeout has passed, so a burst of losses only shrinks it once.
+	 */
+	public void checkTimeouts() {
+		synchronized (_interests) {
+			checkTimeouts(System.currentTimeMillis());
+		}
+	}
+	
+	private void checkTimeouts(long now) {
+		long rto = _window.rto();
+		for (Map.Entry<Long, Outstanding> entry : _outstanding.entrySet()) {
+			Outstanding outstanding = entry.getValue();
+			if (now - outstanding.sent <= rto)
+				continue;
+			if (now - _lastTimeout > rto) {
+				_window.timedOut();
+				_lastTimeout = now;
+				_server._stats.increment(RepositoryServer.StatsEnum.IngestWindowDecreases);
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+					Log.fine(Log.FAC_REPO, "Segment {0} timed out, window now {1} rto {2} ms", entry.getKey(), _window.window(), _window.rto());
+				}
+			}
+			_handle.cancelInterest(outstanding.interest, this);
+			try {
+				_handle.expressInterest(outstanding.interest, this);
+				_server._stats.increment(RepositoryServer.StatsEnum.IngestRetransmissions);
+			} catch (IOException e) {
+				_server._stats.increment(RepositoryServer.StatsEnum.HandleContentExpressInterestErrors);
+				Log.logStackTrace(Level.WARNING, e);
+			}
+			outstanding.sent = now;
+			outstanding.retransmitted = true;
+		}
+	}
+	
+	/**
+	 * Record how fast the stream was read and the window it was read with. Only done once
+	 * for a stream, when it is finished or when the listener is torn down.
+	 */
+	private void report(long now) {
+		if (_reported)
+			return;
+		_reported = true;
+		long throughput = _bytes * 1000 / Math.max(now - _start, 1);
+		_server._stats.addSample(RepositoryServer.StatsEnum.IngestThroughput, throughput);
+		_server._stats.addSample(RepositoryServer.StatsEnum.IngestWindow, _window.window());
+		if (_window.srtt() >= 0)
+			_server._stats.addSample(RepositoryServer.StatsEnum.IngestRoundTrip, _window.srtt());
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Read {0}: {1} segments, {2} bytes in {3} ms ({4} bytes/s), window {5}, rtt {6} ms, {7} timeouts",
+					_origInterest.name(), _segments, _bytes, now - _start, throughput, _window.window(), _window.srtt(), _window.timeouts());
+		}
+	}
+	
 	/**
 	 * Allow subclasses to override data handling behavior
 	 * @param co
@@ -251,6 +365,7 @@ public class RepositoryDataListener implements CCNContentHandler {
 				_server._stats.increment(RepositoryServer.StatsEnum.HandleContentCancelInterest);
 				_handle.cancelInterest(entry.interest(), _handler);
 				it.remove();
+				_outstanding.remove(value);
 			}
 		}
 	}
@@ -285,9 +400,13 @@ public class RepositoryDataListener implements CCNContentHandler {
 	 * Called on listener teardown.
 	 */
 	public void cancelInterests() {
-		for (Entry<Object> entry : _interests.values()) {
-			_server._stats.increment(RepositoryServer.StatsEnum.HandleContentCancelInterest);
-			_handle.cancelInterest(entry.interest(), this);
+		synchronized (_interests) {
+			for (Entry<Object> entry : _interests.values()) {
+				_server._stats.increment(RepositoryServer.StatsEnum.HandleContentCancelInterest);
+				_handle.cancelInterest(entry.interest(), this);
+			}
+			_outstanding.clear();
+			report(_timer);
 		}
 	}
 
@@ -19,16 +19,18 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.CCNInterestHandler;
 import org.ccnx.ccn.config.SystemConfiguration;
-import org.ccnx.ccn.impl.QueuedContentHandler;
 import org.ccnx.ccn.impl.repo.RepositoryInfo.RepositoryInfoObject;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 import org.ccnx.ccn.profiles.CommandMarker;
+import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
 import org.ccnx.ccn.profiles.repo.RepositoryOperations;
 import org.ccnx.ccn.protocol.ContentName;
@@ -38,27 +40,70 @@ import org.ccnx.ccn.protocol.Interest;
 
 /**
  * Handles interests matching the repository's namespace.
+ * 
+ * Interests are handed to a RepositoryRequestScheduler, which processes data reads, write
+ * commands and name enumerations on separate bounded pools of threads.
+ * 
+ * When segments of a stream are being asked for in order, as CCNInputStream does, the
+ * following REPO_READ_AHEAD segments are read into the repository cache ahead of the
+ * interests for them, so that reading a large stream reads the disk in order rather than
+ * one segment at a time.
+ * 
+ * Reading ahead and bulk imports are run by the scheduler too, on lanes of their own, so that
+ * a long import doesn't hold up the other write commands and neither can start threads
+ * without bound.
  *
  * @see RepositoryServer
+ * @see RepositoryRequestScheduler
  * @see RepositoryFlowControl
  * @see RepositoryDataListener
  */
 
-public class RepositoryInterestHandler extends QueuedContentHandler<Interest> implements Runnable, CCNInterestHandler {
+public class RepositoryInterestHandler implements CCNInterestHandler, RepositoryRequestScheduler.Processor {
 	private final RepositoryServer _server;
 	private final CCNHandle _handle;
-	private boolean _shutdown = false;
+	private final RepositoryRequestScheduler _scheduler;
+	
+	// Streams being read, by the name of the stream without the segment number
+	protected static final int READ_AHEAD_STREAMS = 256;
+	protected final int _readAhead;
+	protected final Map<ContentName, StreamPosition> _streams = 
+			new LinkedHashMap<ContentName, StreamPosition>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ContentName, StreamPosition> eldest) {
+					return size() > READ_AHEAD_STREAMS;
+				}
+			};
+	
+	protected static class StreamPosition {
+		long last;		// highest segment sent
+		long readTo;	// last segment read ahead
+		
+		StreamPosition(long segment) {
+			last = segment;
+			readTo = segment;
+		}
+	}
 
 	public RepositoryInterestHandler(RepositoryServer server) {
 		_server = server;
 		_handle = server.getHandle();
+		_scheduler = new RepositoryRequestScheduler(this, server._stats, SystemConfiguration.REPO_DATA_THREADS, 
+				SystemConfiguration.REPO_WRITE_THREADS, SystemConfiguration.REPO_ENUM_THREADS, 
+				SystemConfiguration.REPO_READ_AHEAD_THREADS, SystemConfiguration.REPO_IMPORTS, 
+				SystemConfiguration.REPO_REQUEST_QUEUE);
+		RepositoryStore repo = server.getRepository();
+		_readAhead = (repo instanceof LogStructRepoStore && null != ((LogStructRepoStore)repo).getContentCache()) 
+				? SystemConfiguration.REPO_READ_AHEAD : 0;
 	}
 
 	public boolean handleInterest(Interest interest) {
 		_server._stats.increment(RepositoryServer.StatsEnum.HandleInterest);
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINEST))
 			Log.finest(Log.FAC_REPO, "Queueing interest: {0}", interest.name());
-		add(interest);
+		_scheduler.add(interest);
 		return true;		// In the repository we never want to service an interest again
 	}
 
@@ -67,8 +112,8 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 	 * Interests can be to start a write or a name enumeration request.
 	 * If the interest has no special purpose, its assumed that it's to actually read data from
 	 * the repository and the request is sent to the RepositoryStore to be processed.
+	 * This is called by the scheduler's worker threads.
 	 */
-	@Override
 	public void process(Interest interest) {
 
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
@@ -114,6 +159,8 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINEST))
 					Log.finest(Log.FAC_REPO, "Satisfying interest: {0} with content {1}", interest, content.name());
 				_handle.put(content);
+				if (_readAhead > 0)
+					checkReadAhead(content.name());
 			} else {
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
 					Log.fine(Log.FAC_REPO, "Unsatisfied interest: {0}", interest);
@@ -125,10 +172,6 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 		}
 	}
 
-	protected boolean _checkShutdown() {
-		return _shutdown;
-	}
-
 	protected boolean allowGenerated(Interest interest) {
 		if (null != interest.answerOriginKind() && (interest.answerOriginKind() & Interest.ANSWER_GENERATED) == 0)
 			return false;	// Request to not answer
@@ -294,58 +337,114 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 	 * @throws IOException
 	 * @throws ContentEncodingException
 	 */
-	private void addBulkDataToRepo(Interest interest) throws ContentEncodingException, IOException {
+	private void addBulkDataToRepo(final Interest interest) throws ContentEncodingException, IOException {
 		int i = CommandMarker.COMMAND_MARKER_REPO_ADD_FILE.findMarker(interest.name());
 		if (i >= 0) {
-			String[] args = CommandMarker.getArguments(interest.name().component(i));
-			String result = "OK";
+			final String[] args = CommandMarker.getArguments(interest.name().component(i));
 			if (null != args && args.length > 0) {
-				try {
-					if (!_server.getRepository().bulkImport(args[0]))
-						return;		// reexpression - ignore
-				} catch (RepositoryException e) {
-					Log.warning(Log.FAC_REPO, "Bulk import error : " + e.getMessage());
-					result = e.getMessage();
-				}
-				RepositoryInfoObject rio = _server.getRepository().getRepoInfo(interest.name(), result, null);
-				rio.save(interest);
+				_scheduler.add(RepositoryRequestScheduler.Lane.IMPORT, new Runnable() {
+					public void run() {
+						String result = "OK";
+						try {
+							if (!_server.getRepository().bulkImport(args[0]))
+								return;		// reexpression - ignore
+						} catch (RepositoryException e) {
+							Log.warning(Log.FAC_REPO, "Bulk import error : " + e.getMessage());
+							result = e.getMessage();
+						}
+						try {
+							RepositoryInfoObject rio = _server.getRepository().getRepoInfo(interest.name(), result, null);
+							rio.save(interest);
+						} catch (IOException e) {
+							Log.warning(Log.FAC_REPO, "Unable to reply to bulk import of {0}: {1}", args[0], e.getMessage());
+						}
+					}
+				});
 			}
 		}
 	}
 
 	/**
-	 * Handle name enumeration requests.  NE responses can potentially take a long time so don't hog the queue - dispatch
-	 * these separately.
-	 *
-	 * @param interest
+	 * If content just sent continues a stream which is being read in order, read the next segments
+	 * ahead of the interests for them. Pipelined interests don't always arrive in order, so a
+	 * segment a little ahead of the last one sent counts as being in order. Once a stream is
+	 * being read ahead, more is read each time the stream gets halfway through what has been read
+	 * ahead, so that the reads are large.
+	 * 
+	 * @param name name of the content sent
 	 */
-	public void nameEnumeratorResponse(Interest interest) {
-		SystemConfiguration._systemThreadpool.execute(new NEResponse(interest));
+	protected void checkReadAhead(ContentName name) {
+		if (!SegmentationProfile.isSegment(name))
+			return;
+		long segment = SegmentationProfile.getSegmentNumber(name);
+		ContentName stream = SegmentationProfile.segmentRoot(name);
+		long first;
+		int count;
+		synchronized (_streams) {
+			StreamPosition position = _streams.get(stream);
+			if (null == position) {
+				_streams.put(stream, new StreamPosition(segment));
+				return;
+			}
+			if (segment <= position.last) {
+				if (segment + _readAhead < position.last)
+					_streams.put(stream, new StreamPosition(segment));	// gone back, start again
+				return;
+			}
+			if (segment > position.last + _readAhead) {
+				_streams.put(stream, new StreamPosition(segment));		// skipped ahead
+				return;
+			}
+			position.last = segment;
+			if (segment + _readAhead / 2 < position.readTo)
+				return;
+			first = Math.max(segment, position.readTo) + 1;
+			count = (int)(segment + _readAhead + 1 - first);
+			position.readTo = segment + _readAhead;
+		}
+		if (count > 0)
+			_scheduler.add(RepositoryRequestScheduler.Lane.READ_AHEAD, new ReadAhead(stream, first, count));
 	}
-
-	protected class NEResponse implements Runnable {
-		protected Interest _interest;
-
-		protected NEResponse(Interest interest) {
-			_interest = interest;
+	
+	protected class ReadAhead implements Runnable {
+		protected final ContentName _stream;
+		protected final long _first;
+		protected final int _count;
+		
+		protected ReadAhead(ContentName stream, long first, int count) {
+			_stream = stream;
+			_first = first;
+			_count = count;
 		}
-
+		
 		public void run() {
-			NameEnumerationResponse ner = _server.getRepository().getNamesWithPrefix(_interest, _server.getResponseName());
+			int read = ((LogStructRepoStore)_server.getRepository()).readAhead(_stream, _first, _count);
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
+				Log.finer(Log.FAC_REPO, "Read ahead {0} records from segment {1} of {2}", read, _first, _stream);
+		}
+	}
 
-			if (ner!=null && ner.hasNames()) {
-				_server.sendEnumerationResponse(ner);
-				_server._stats.increment(RepositoryServer.StatsEnum.HandleInterestNameEnumResponses);
-				if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
-					Log.fine(Log.FAC_REPO, "sending back name enumeration response {0}", ner.getPrefix());
-			} else {
-				if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
-					Log.fine(Log.FAC_REPO, "we are not sending back a response to the name enumeration interest (interest.name() = {0})", _interest.name());
-			}
+	/**
+	 * Handle name enumeration requests.  NE responses can potentially take a long time, so these
+	 * are run by the scheduler's name enumeration workers rather than those reading data.
+	 *
+	 * @param interest
+	 */
+	public void nameEnumeratorResponse(Interest interest) {
+		NameEnumerationResponse ner = _server.getRepository().getNamesWithPrefix(interest, _server.getResponseName());
+
+		if (ner!=null && ner.hasNames()) {
+			_server.sendEnumerationResponse(ner);
+			_server._stats.increment(RepositoryServer.StatsEnum.HandleInterestNameEnumResponses);
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "sending back name enumeration response {0}", ner.getPrefix());
+		} else {
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "we are not sending back a response to the name enumeration interest (interest.name() = {0})", interest.name());
 		}
 	}
 
 	public void shutdown() {
-		_shutdown = true;
+		_scheduler.shutdown();
 	}
 }
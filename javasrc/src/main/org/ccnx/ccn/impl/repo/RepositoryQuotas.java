@@ -0,0 +1,289 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.MalformedContentNameStringException;
+
+/**
+ * Byte quotas for parts of the repository namespace, for repositories which act as a cache
+ * for some namespaces. Each quota covers the content under a prefix, content belonging to the
+ * quota with the longest matching prefix. The store tells the quotas about content as it is
+ * stored, read and removed, and when a namespace goes over its quota the quotas pick the content
+ * to evict from it:
+ * <ul>
+ * <li>LRU evicts the content which was read or stored longest ago
+ * <li>OLDEST evicts the oldest versions first, and unversioned content in the order it was stored
+ * <li>TTL evicts content in the order it was stored, which is the order REPO_TTL would drop it
+ * </ul>
+ * 
+ * The quotas only decide what to evict. The store takes evicted content out of its index, and
+ * the space it used is reclaimed when the log holding it is compacted. Evictions are not
+ * recorded anywhere else, so they last over a restart once the next index checkpoint has been
+ * written. If the repository stops before that, or its index has to be rebuilt from the logs,
+ * evicted content which is still in the logs comes back, and is evicted again by the quotas
+ * when the repository starts. The read history is not kept either, so LRU then evicts in the
+ * order the content was stored, which may not pick the same content. The sizes counted are
+ * the sizes of the records in the log, so they include compression and record headers.
+ * 
+ * @see org.ccnx.ccn.config.SystemConfiguration#REPO_QUOTA
+ */
+public class RepositoryQuotas {
+	
+	public enum Eviction {
+		LRU, OLDEST, TTL;
+		
+		public static Eviction fromString(String eviction) {
+			for (Eviction e : values()) {
+				if (e.name().equalsIgnoreCase(eviction.trim()))
+					return e;
+			}
+			throw new IllegalArgumentException("Unknown eviction policy " + eviction);
+		}
+	}
+	
+	/**
+	 * Content counted against a quota
+	 */
+	protected static class Entry {
+		final ContentName name;
+		final long size;
+		final long sequence;
+		long order;
+		
+		Entry(ContentName name, long size, long order, long sequence) {
+			this.name = name;
+			this.size = size;
+			this.order = order;
+			this.sequence = sequence;
+		}
+	}
+	
+	// Eviction order, with entries added at the same time in the order they were added
+	protected static final Comparator<Entry> EVICTION_ORDER = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			if (e1.order != e2.order)
+				return (e1.order < e2.order) ? -1 : 1;
+			return (e1.sequence < e2.sequence) ? -1 : ((e1.sequence == e2.sequence) ? 0 : 1);
+		}
+	};
+	
+	public static class Quota {
+		protected final ContentName _prefix;
+		protected final long _limit;
+		protected final Eviction _eviction;
+		protected final HashMap<ContentName, Entry> _entries = new HashMap<ContentName, Entry>();
+		protected final TreeSet<Entry> _order = new TreeSet<Entry>(EVICTION_ORDER);
+		protected long _used = 0;
+		protected long _evicted = 0;
+		
+		protected Quota(ContentName prefix, long limit, Eviction eviction) {
+			_prefix = prefix;
+			_limit = limit;
+			_eviction = eviction;
+		}
+		
+		public ContentName prefix() { return _prefix; }
+		public long limit() { return _limit; }
+		public Eviction eviction() { return _eviction; }
+	}
+	
+	protected final ArrayList<Quota> _quotas = new ArrayList<Quota>();
+	protected final boolean _lru;
+	protected long _sequence = 0;
+	
+	/**
+	 * @param quotas comma separated list of prefix=bytes or prefix=bytes:eviction, where eviction
+	 * 		is lru (the default), oldest or ttl
+	 */
+	public RepositoryQuotas(String quotas) {
+		boolean lru = false;
+		if (null != quotas) {
+			for (String quota : quotas.split(",")) {
+				quota = quota.trim();
+				if (quota.length() == 0)
+					continue;
+				int equals = quota.lastIndexOf('=');
+				try {
+					if (equals < 0)
+						throw new IllegalArgumentException("no size");
+					ContentName prefix = ContentName.fromURI(quota.substring(0, equals).trim());
+					String limit = quota.substring(equals + 1).trim();
+					Eviction eviction = Eviction.LRU;
+					int colon = limit.indexOf(':');
+					if (colon >= 0) {
+						eviction = Eviction.fromString(limit.substring(colon + 1));
+						limit = limit.substring(0, colon).trim();
+					}
+					_quotas.add(new Quota(prefix, Long.parseLong(limit), eviction));
+					if (eviction == Eviction.LRU)
+						lru = true;
+				} catch (MalformedContentNameStringException e) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository quota {0}: {1}", quota, e.getMessage());
+				} catch (IllegalArgumentException e) {
+					Log.warning(Log.FAC_REPO, "Ignoring repository quota {0}: {1}", quota, e.getMessage());
+				}
+			}
+		}
+		_lru = lru;
+	}
+	
+	/**
+	 * @return true if there are no quotas
+	 */
+	public boolean isEmpty() {
+		return _quotas.isEmpty();
+	}
+	
+	/**
+	 * @param name the name of some content, with or without its digest
+	 * @return the quota which covers the content, or null if none does
+	 */
+	public Quota quotaFor(ContentName name) {
+		Quota longest = null;
+		for (Quota quota : _quotas) {
+			if ((null == longest || quota._prefix.count() > longest._prefix.count()) && quota._prefix.isPrefixOf(name))
+				longest = quota;
+		}
+		return longest;
+	}
+	
+	/**
+	 * Count content which has been stored
+	 * 
+	 * @param name the full name of the content including the digest
+	 * @param size the size of the content in the log
+	 * @param ts when the content was stored
+	 */
+	public synchronized void stored(ContentName name, long size, long ts) {
+		Quota quota = quotaFor(name);
+		if (null == quota || quota._entries.containsKey(name))
+			return;
+		long order = ts;
+		if (quota._eviction == Eviction.OLDEST) {
+			ContentName digestFree = name.cut(name.count() - 1);
+			int v = VersioningProfile.findLastVersionComponent(digestFree);
+			if (v >= 0)
+				order = VersioningProfile.getVersionComponentAsTimestamp(digestFree.component(v)).getTime();
+		}
+		Entry entry = new Entry(name, size, order, _sequence++);
+		quota._entries.put(name, entry);
+		quota._order.add(entry);
+		quota._used += size;
+	}
+	
+	/**
+	 * Note that content has been read, which keeps it from being evicted from a quota with
+	 * LRU eviction
+	 * 
+	 * @param content the content
+	 */
+	public void accessed(ContentObject content) {
+		if (!_lru)
+			return;
+		Quota quota = quotaFor(content.name());
+		if (null == quota || quota._eviction != Eviction.LRU)
+			return;
+		ContentName name = content.fullName();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Entry entry = quota._entries.get(name);
+			if (null == entry || entry.order == now)
+				return;
+			quota._order.remove(entry);
+			entry.order = now;
+			quota._order.add(entry);
+		}
+	}
+	
+	/**
+	 * Stop counting content which has been removed
+	 * 
+	 * @param name the full name of the content including the digest
+	 */
+	public synchronized void removed(ContentName name) {
+		Quota quota = quotaFor(name);
+		if (null == quota)
+			return;
+		Entry entry = quota._entries.remove(name);
+		if (null == entry)
+			return;
+		quota._order.remove(entry);
+		quota._used -= entry.size;
+	}
+	
+	/**
+	 * Pick content to evict from the namespaces which are over their quota, and stop counting
+	 * it
+	 * 
+	 * @param sizes if not null, the sizes of the evicted content are added to this
+	 * @return the full names of the content to evict
+	 */
+	public synchronized List<ContentName> evict(List<Long> sizes) {
+		ArrayList<ContentName> evicted = null;
+		for (Quota quota : _quotas) {
+			while (quota._used > quota._limit && !quota._order.isEmpty()) {
+				Entry entry = quota._order.pollFirst();
+				quota._entries.remove(entry.name);
+				quota._used -= entry.size;
+				quota._evicted += entry.size;
+				if (null == evicted)
+					evicted = new ArrayList<ContentName>();
+				evicted.add(entry.name);
+				if (null != sizes)
+					sizes.add(entry.size);
+			}
+		}
+		return evicted;
+	}
+	
+	/**
+	 * @param prefix the prefix of a quota
+	 * @return the bytes counted against the quota, or -1 if there is no quota with that prefix
+	 */
+	public synchronized long used(ContentName prefix) {
+		for (Quota quota : _quotas) {
+			if (quota._prefix.equals(prefix))
+				return quota._used;
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return one line for each quota giving its prefix, eviction policy, limit, the bytes
+	 * 		counted against it and the bytes evicted from it
+	 */
+	public synchronized String status() {
+		StringBuilder status = new StringBuilder();
+		for (Quota quota : _quotas) {
+			status.append(quota._prefix).append(' ').append(quota._eviction.name().toLowerCase())
+				.append(" used ").append(quota._used).append(" of ").append(quota._limit)
+				.append(" evicted ").append(quota._evicted).append(" items ").append(quota._entries.size()).append('\n');
+		}
+		return status.toString();
+	}
+}
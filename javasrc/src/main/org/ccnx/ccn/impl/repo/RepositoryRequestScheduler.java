@@ -0,0 +1,297 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.CommandMarker;
+import org.ccnx.ccn.profiles.repo.RepositoryOperations;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * Schedules the interests received by the repository onto separate pools of worker threads
+ * for data reads, write commands and name enumeration, so that a burst of one kind of
+ * request can't hold up the others. In particular a storm of name enumerations, which
+ * can each take a long time, can't starve data reads.
+ * 
+ * Each pool has its own bounded queue. When a queue is full further requests for it are
+ * shed, and a request which has waited longer than its interest lifetime is dropped
+ * without being processed, as ccnd will have timed out the interest and nobody is waiting
+ * for the answer any more. In both cases the requester will express the interest again
+ * if it still wants it. The time each request waits in its queue and the time taken to
+ * process it are kept in the repository statistics for each queue.
+ * 
+ * The repository's own background jobs, reading ahead of streams and bulk imports, are
+ * queued on lanes of their own in the same way, so that they can't create threads without
+ * bound either. They have no interest lifetime, so they are never dropped as expired.
+ * 
+ * @see RepositoryInterestHandler
+ */
+public class RepositoryRequestScheduler {
+	
+	/**
+	 * Default lifetime of an interest which doesn't give one, in milliseconds
+	 */
+	public static final long DEFAULT_INTEREST_LIFETIME = 4000;
+	
+	protected static final int WORKER_LIFE = 10;	// seconds an idle worker is kept
+	
+	/**
+	 * Processes requests taken from the queues
+	 */
+	public interface Processor {
+		public void process(Interest interest);
+	}
+	
+	/**
+	 * The kinds of request, each of which has its own queue and workers
+	 */
+	public enum Lane {
+		DATA ("data", StatsEnum.RequestDataShed, StatsEnum.RequestDataExpired, 
+				StatsEnum.RequestDataWait, StatsEnum.RequestDataService),
+		WRITE ("write", StatsEnum.RequestWriteShed, StatsEnum.RequestWriteExpired, 
+				StatsEnum.RequestWriteWait, StatsEnum.RequestWriteService),
+		ENUMERATION ("enumeration", StatsEnum.RequestEnumerationShed, StatsEnum.RequestEnumerationExpired, 
+				StatsEnum.RequestEnumerationWait, StatsEnum.RequestEnumerationService),
+		READ_AHEAD ("read ahead", StatsEnum.RequestReadAheadShed, null, 
+				StatsEnum.RequestReadAheadWait, StatsEnum.RequestReadAheadService),
+		IMPORT ("import", StatsEnum.RequestImportShed, null, 
+				StatsEnum.RequestImportWait, StatsEnum.RequestImportService);
+		
+		protected final String _name;
+		protected final StatsEnum _shed;
+		protected final StatsEnum _expired;
+		protected final StatsEnum _wait;
+		protected final StatsEnum _service;
+		
+		Lane(String name, StatsEnum shed, StatsEnum expired, StatsEnum wait, StatsEnum service) {
+			_name = name;
+			_shed = shed;
+			_expired = expired;
+			_wait = wait;
+			_service = service;
+		}
+		
+		/**
+		 * @param interest an interest for the repository
+		 * @return the kind of request the interest is
+		 */
+		public static Lane of(Interest interest) {
+			if (interest.name().componentStartsWith(CommandMarker.COMMAND_PREFIX)) {
+				if (RepositoryOperations.isNameEnumerationOperation(interest))
+					return ENUMERATION;
+				if (RepositoryOperations.isStartWriteOperation(interest) 
+						|| RepositoryOperations.isCheckedWriteOperation(interest)
+						|| RepositoryOperations.isBulkImportOperation(interest))
+					return WRITE;
+			}
+			return DATA;
+		}
+	}
+	
+	protected final Processor _processor;
+	protected final CCNEnumStats<StatsEnum> _stats;
+	protected final ThreadPoolExecutor [] _workers = new ThreadPoolExecutor[Lane.values().length];
+	
+	/**
+	 * Schedule with one thread each for reading ahead and bulk imports
+	 * @param processor processes the requests
+	 * @param stats statistics to count shed and expired requests and time requests in
+	 * @param dataWorkers number of threads reading data
+	 * @param writeWorkers number of threads handling write commands
+	 * @param enumerationWorkers number of threads answering name enumerations
+	 * @param queueSize maximum number of requests waiting for each kind of worker
+	 */
+	public RepositoryRequestScheduler(Processor processor, CCNEnumStats<StatsEnum> stats, 
+			int dataWorkers, int writeWorkers, int enumerationWorkers, int queueSize) {
+		this(processor, stats, dataWorkers, writeWorkers, enumerationWorkers, 1, 1, queueSize);
+	}
+	
+	/**
+	 * @param processor processes the requests
+	 * @param stats statistics to count shed and expired requests and time requests in
+	 * @param dataWorkers number of threads reading data
+	 * @param writeWorkers number of threads handling write commands
+	 * @param enumerationWorkers number of threads answering name enumerations
+	 * @param readAheadWorkers number of threads reading ahead of streams
+	 * @param importWorkers number of threads running bulk imports
+	 * @param queueSize maximum number of requests waiting for each kind of worker
+	 */
+	public RepositoryRequestScheduler(Processor processor, CCNEnumStats<StatsEnum> stats, 
+			int dataWorkers, int writeWorkers, int enumerationWorkers, int readAheadWorkers, 
+			int importWorkers, int queueSize) {
+		if (dataWorkers < 1 || writeWorkers < 1 || enumerationWorkers < 1 || readAheadWorkers < 1 
+				|| importWorkers < 1 || queueSize < 1)
+			throw new IllegalArgumentException("Repository request workers and queue size must be positive");
+		_processor = processor;
+		_stats = stats;
+		_workers[Lane.DATA.ordinal()] = workers(Lane.DATA, dataWorkers, queueSize);
+		_workers[Lane.WRITE.ordinal()] = workers(Lane.WRITE, writeWorkers, queueSize);
+		_workers[Lane.ENUMERATION.ordinal()] = workers(Lane.ENUMERATION, enumerationWorkers, queueSize);
+		_workers[Lane.READ_AHEAD.ordinal()] = workers(Lane.READ_AHEAD, readAheadWorkers, queueSize);
+		_workers[Lane.IMPORT.ordinal()] = workers(Lane.IMPORT, importWorkers, queueSize);
+	}
+	
+	protected static ThreadPoolExecutor workers(final Lane lane, int threads, int queueSize) {
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, WORKER_LIFE, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					final AtomicInteger _count = new AtomicInteger();
+					
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Repository " + lane._name + " worker " + _count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		workers.allowCoreThreadTimeOut(true);
+		return workers;
+	}
+	
+	/**
+	 * Queue an interest for the workers for its kind of request
+	 * @param interest the interest
+	 * @return false if the interest was shed
+	 */
+	public boolean add(Interest interest) {
+		return add(Lane.of(interest), interest);
+	}
+	
+	/**
+	 * Queue an interest for the given workers
+	 * @param lane the workers to handle the interest
+	 * @param interest the interest
+	 * @return false if the interest was shed because the queue is full or shut down
+	 */
+	public boolean add(Lane lane, Interest interest) {
+		try {
+			_workers[lane.ordinal()].execute(new Request(lane, interest));
+			return true;
+		} catch (RejectedExecutionException e) {
+			_stats.increment(lane._shed);
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "Shed {0} request, queue full: {1}", lane._name, interest.name());
+			return false;
+		}
+	}
+	
+	/**
+	 * Queue a job of the repository's own for the given workers
+	 * @param lane the workers to run the job
+	 * @param job the job
+	 * @return false if the job was shed because the queue is full or shut down
+	 */
+	public boolean add(Lane lane, Runnable job) {
+		try {
+			_workers[lane.ordinal()].execute(new Job(lane, job));
+			return true;
+		} catch (RejectedExecutionException e) {
+			_stats.increment(lane._shed);
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "Shed {0} job, queue full", lane._name);
+			return false;
+		}
+	}
+	
+	/**
+	 * @param lane a kind of request
+	 * @return the number of requests of that kind waiting for a worker
+	 */
+	public int queued(Lane lane) {
+		return _workers[lane.ordinal()].getQueue().size();
+	}
+	
+	/**
+	 * Stop taking requests. Requests being processed are finished, queued requests are dropped.
+	 */
+	public void shutdown() {
+		for (ThreadPoolExecutor workers : _workers) {
+			workers.shutdown();
+			workers.getQueue().clear();
+		}
+	}
+	
+	/**
+	 * @param interest an interest
+	 * @return how long the interest is outstanding for in milliseconds
+	 */
+	public static long lifetime(Interest interest) {
+		byte [] lifetime = interest.interestLifetime();
+		if (null == lifetime || lifetime.length == 0)
+			return DEFAULT_INTEREST_LIFETIME;
+		// The lifetime is an unsigned big-endian number of 1/4096ths of a second
+		long units = 0;
+		for (byte b : lifetime)
+			units = (units << 8) | (b & 0xff);
+		return units * 1000 / 4096;
+	}
+	
+	protected class Request implements Runnable {
+		protected final Lane _lane;
+		protected final Interest _interest;
+		protected final long _queued = System.nanoTime();
+		
+		protected Request(Lane lane, Interest interest) {
+			_lane = lane;
+			_interest = interest;
+		}
+		
+		public void run() {
+			long started = System.nanoTime();
+			long waited = started - _queued;
+			_stats.addSample(_lane._wait, waited / 1000);
+			if (waited / 1000000 > lifetime(_interest)) {
+				_stats.increment(_lane._expired);
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+					Log.fine(Log.FAC_REPO, "Dropping expired {0} request: {1}", _lane._name, _interest.name());
+				return;
+			}
+			_processor.process(_interest);
+			_stats.addSample(_lane._service, (System.nanoTime() - started) / 1000);
+		}
+	}
+	
+	protected class Job implements Runnable {
+		protected final Lane _lane;
+		protected final Runnable _job;
+		protected final long _queued = System.nanoTime();
+		
+		protected Job(Lane lane, Runnable job) {
+			_lane = lane;
+			_job = job;
+		}
+		
+		public void run() {
+			long started = System.nanoTime();
+			_stats.addSample(_lane._wait, (started - _queued) / 1000);
+			try {
+				_job.run();
+			} finally {
+				_stats.addSample(_lane._service, (System.nanoTime() - started) / 1000);
+			}
+		}
+	}
+}
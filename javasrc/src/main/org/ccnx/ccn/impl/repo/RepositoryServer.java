@@ -85,6 +85,7 @@ public class RepositoryServer implements CCNStatistics {
 	private final int _ephemeralFreshness = FRESHNESS;
 	private final RepositoryDataHandler _dataHandler;
 	private ContentName _responseName = null;
+	private NameEnumerationCache _enumerationCache = null;
 
 	public static final int PERIOD = 2000; // period for interest timeout check in ms.
 	public static final int THREAD_LIFE = 8;	// in seconds
@@ -112,7 +113,8 @@ public class RepositoryServer implements CCNStatistics {
 						if ((currentTime - listener.getTimer()) > SystemConfiguration.MAX_TIMEOUT) {
 							listener.cancelInterests();
 							iterator.remove();
-						}
+						} else
+							listener.checkTimeouts();
 					}
 				}
 
@@ -159,12 +161,20 @@ public class RepositoryServer implements CCNStatistics {
 	 */
 	public RepositoryServer(RepositoryStore repo) throws IOException {
 			_repo = repo;
+			if (repo instanceof LogStructRepoStore)
+				((LogStructRepoStore)repo).setStats(_stats);
 			_handle = repo.getHandle();
 			_writer = new CCNWriter(_handle);
 			_iHandler = new RepositoryInterestHandler(this);
 
 			_responseName = KeyProfile.keyName(null, _handle.keyManager().getDefaultKeyID());
 
+			if (SystemConfiguration.REPO_ENUMERATION_CACHE > 0) {
+				_enumerationCache = new NameEnumerationCache(SystemConfiguration.REPO_ENUMERATION_CACHE);
+				_enumerationCache.setStats(_stats);
+				repo.setEnumerationCache(_enumerationCache);
+			}
+
 			 // At some point we may want to refactor the code to
 			 // write repository info back in a stream.  But for now
 			 // we're just doing a simple put and the writer could be
@@ -262,9 +272,9 @@ public class RepositoryServer implements CCNStatistics {
 			}
 		}
 
+		_iHandler.shutdown();
 		_dataHandler.shutdown();
 		_repo.shutDown();
-		_iHandler.shutdown();
 
 		// This closes our handle....
 		_handle = null;
@@ -429,6 +439,18 @@ public class RepositoryServer implements CCNStatistics {
 	 * @return void
 	 */
 	public void sendEnumerationResponse(NameEnumerationResponse ner){
+		if (ner instanceof NameEnumerationCache.CachedResponse) {
+			// Children haven't changed since this version was sent, so send the same segments again
+			try {
+				for (ContentObject segment : ((NameEnumerationCache.CachedResponse)ner).getSegments())
+					_handle.put(segment);
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
+					Log.finer(Log.FAC_REPO, "resent cached names for prefix: {0}", ner.getPrefix());
+			} catch (IOException e) {
+				Log.logException("error resending cached name enumeration response (prefix = "+ner.getPrefix()+")", e);
+			}
+			return;
+		}
 		if(ner!=null && ner.getPrefix()!=null && ner.hasNames()){
 			NameEnumerationResponseMessageObject neResponseObject = null;
 			try{
@@ -444,11 +466,19 @@ public class RepositoryServer implements CCNStatistics {
 					if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
 						Log.info(Log.FAC_REPO, "node.timestamp was null!!!");
 				NameEnumerationResponseMessage nem = ner.getNamesForResponse();
-				neResponseObject = new NameEnumerationResponseMessageObject(ner.getPrefix().append(_responseName), nem, _handle);
 				// TODO this is only temporary until flow control issues can
 				// be worked out here
-				neResponseObject.disableFlowControl();
+				NameEnumerationCache.Recorder recorder = null;
+				if (null != _enumerationCache && null != ner.getTimestamp()) {
+					recorder = new NameEnumerationCache.Recorder(_handle);
+					neResponseObject = new NameEnumerationResponseMessageObject(ner.getPrefix().append(_responseName), nem, recorder);
+				} else {
+					neResponseObject = new NameEnumerationResponseMessageObject(ner.getPrefix().append(_responseName), nem, _handle);
+					neResponseObject.disableFlowControl();
+				}
 				neResponseObject.save(ner.getTimestamp());
+				if (null != recorder)
+					_enumerationCache.put(ner.getPrefix(), ner.getTimestamp(), recorder.getSegments());
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
 					Log.finer(Log.FAC_REPO, "saved collection object: {0}", neResponseObject.getVersionedName());
 				return;
@@ -677,11 +707,59 @@ public class RepositoryServer implements CCNStatistics {
 		HandleInterestStartWriteExpressInterest ("responses", "Number of expressInterests created for StartWrite"),
 		HandleInterestNameEnumResponses ("responses", "Number of responses sent for Name Enums"),
 
+		RequestDataShed ("interests", "Number of data requests shed because their queue was full"),
+		RequestDataExpired ("interests", "Number of data requests dropped after waiting longer than their lifetime"),
+		RequestDataWait ("microseconds", "Time data requests waited for a worker"),
+		RequestDataService ("microseconds", "Time taken to process data requests"),
+		RequestWriteShed ("interests", "Number of write command requests shed because their queue was full"),
+		RequestWriteExpired ("interests", "Number of write command requests dropped after waiting longer than their lifetime"),
+		RequestWriteWait ("microseconds", "Time write command requests waited for a worker"),
+		RequestWriteService ("microseconds", "Time taken to process write command requests"),
+		RequestEnumerationShed ("interests", "Number of name enumeration requests shed because their queue was full"),
+		RequestEnumerationExpired ("interests", "Number of name enumeration requests dropped after waiting longer than their lifetime"),
+		RequestEnumerationWait ("microseconds", "Time name enumeration requests waited for a worker"),
+		RequestEnumerationService ("microseconds", "Time taken to process name enumeration requests"),
+		RequestReadAheadShed ("streams", "Number of read aheads shed because their queue was full"),
+		RequestReadAheadWait ("microseconds", "Time read aheads waited for a worker"),
+		RequestReadAheadService ("microseconds", "Time taken to read ahead"),
+		RequestImportShed ("imports", "Number of bulk imports shed because their queue was full"),
+		RequestImportWait ("microseconds", "Time bulk imports waited for a worker"),
+		RequestImportService ("microseconds", "Time taken by bulk imports"),
+
 		HandleContent ("objects", "Calls to ResponsitoryDataListener.handleContent()"),
 		HandleContentHandleData ("objects", "Calls to handleData in RepositoryDataListener"),
 		HandleContentExpressInterest ("interests", "Number of interests expressed in handleContent()"),
 		HandleContentCancelInterest ("interests", "Number of interests cancelled"),
 		HandleContentExpressInterestErrors ("errors", "Number of errors expressing interests in handleContent()"),
+		IngestRetransmissions ("interests", "Segment interests expressed again after timing out"),
+		IngestWindowDecreases ("timeouts", "Number of times a stream's window of segment interests was halved after a timeout"),
+		IngestThroughput ("bytes/second", "Rate at which streams were read into the repository"),
+		IngestWindow ("interests", "Window of segment interests at the end of streams read into the repository"),
+		IngestRoundTrip ("milliseconds", "Smoothed round trip time of segment interests at the end of streams read into the repository"),
+
+		ContentCacheHits ("objects", "Content served from the repository cache"),
+		ContentCacheMisses ("objects", "Content not in the repository cache"),
+		ContentCacheEvictions ("objects", "Content evicted from the repository cache"),
+		ContentCacheRejections ("objects", "Content not admitted to the repository cache as it was less popular than the content it would evict"),
+		ContentCacheReadAheads ("objects", "Content read into the repository cache ahead of being asked for"),
+		ContentCacheReadAheadHits ("objects", "Content served from the repository cache after being read ahead"),
+		ContentCacheReadAheadsDropped ("objects", "Content read ahead which was dropped from the repository cache before it was asked for"),
+
+		RecordsCompressed ("records", "Records compressed as they were written to the repository log"),
+		RecordsNotCompressible ("records", "Records in compressed namespaces written uncompressed as compressing didn't make them smaller"),
+		RecordCompressRatio ("percent", "Size of compressed records as a percentage of their uncompressed size"),
+		RecordCompressTime ("microseconds", "Time taken to compress a record"),
+		RecordExpandTime ("microseconds", "Time taken to decompress a record"),
+
+		QuotaEvictions ("objects", "Content evicted from namespaces over their quota"),
+		QuotaEvictedBytes ("bytes", "Bytes of content evicted from namespaces over their quota"),
+
+		EnumerationCacheHits ("responses", "Name enumeration responses sent again from the cache of signed responses"),
+		EnumerationCacheMisses ("responses", "Name enumeration responses listed, encoded and signed as they weren't cached"),
+
+		MemoryTierHits ("objects", "Content read from the repository's memory tier"),
+		MemoryTierMisses ("objects", "Content read from disk as it wasn't in the repository's memory tier"),
+		MemoryTierDemotions ("objects", "Content dropped from the repository's memory tier as it was too old or didn't fit"),
 ;
 
 
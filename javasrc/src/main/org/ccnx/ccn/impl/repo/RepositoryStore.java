@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -51,6 +52,7 @@ public interface RepositoryStore {
 	public static final String REPO_LOGGING = "repo";
 	
 	public static final String REPO_SIMPLE_STATUS_REQUEST = "simpleStatus";
+	public static final String REPO_QUOTA_STATUS_REQUEST = "quotaStatus";
 		
 	/**
 	 * Initialize the repository
@@ -94,6 +96,21 @@ public interface RepositoryStore {
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
 	
+	/**
+	 * Save a number of pieces of content in the repository, as saveContent(ContentObject) does
+	 * for each of them. Stores may write them all together.
+	 * @param content
+	 * @return the NameEnumerationResponse for each piece of content, in order
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException;
+	
+	/**
+	 * Run an action once all the content saved so far is as durable as the store makes it.
+	 * Stores which don't defer forcing content to stable storage run it straight away.
+	 * @param action the action, which may be run on another thread
+	 */
+	public void afterSync(Runnable action);
+	
 	/**
 	 * Return the matching content if it exists
 	 * @param interest Interest to match
@@ -156,6 +173,14 @@ public interface RepositoryStore {
 	 */
     public NameEnumerationResponse getNamesWithPrefix(Interest i, ContentName responseName);
     
+    /**
+     * Answer name enumeration requests from a cache of the responses already sent
+     * when the names under the prefix haven't changed since. Stores which don't
+     * support this ignore it.
+     * @param cache the cache, or null for none
+     */
+    public void setEnumerationCache(NameEnumerationCache cache);
+    
     /**
      * Hook to shutdown the store (close files for example)
      */
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
@@ -202,6 +203,13 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	}
 
 	public abstract NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
+	
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		for (ContentObject co : content)
+			ners.add(saveContent(co));
+		return ners;
+	}
 
 	public void setPolicy(Policy policy) {
 		_policy = policy;
@@ -215,6 +223,12 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 		return _policy.getLocalName();
 	}
 
+	public void setEnumerationCache(NameEnumerationCache cache) {}
+	
+	public void afterSync(Runnable action) {
+		action.run();
+	}
+
 	public void shutDown() {
 		Log.info(Log.FAC_REPO, "RespositoryStoreBase.shutdown()");
 		if( null != _handle )
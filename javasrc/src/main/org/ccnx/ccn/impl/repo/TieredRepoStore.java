@@ -0,0 +1,110 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * A LogStructRepoStore with a memory tier over its log files, combining the persistence of
+ * the log store with the read speed of MemoryRepoStore. Content is written through to the
+ * log files as usual and also kept in the memory tier, so content which has just been
+ * published - usually the content most asked for - is answered without reading the disk.
+ * Content read from disk is put in the memory tier as well.
+ * 
+ * Like MemoryRepoStore holding content in its refs, the tiers share the one ContentTree: the
+ * memory tier holds content by the ref the index has for it on disk, so demoting content from
+ * memory is only a matter of dropping it.
+ * 
+ * The content cache of the log store still holds content read from disk and read ahead, so
+ * with a memory tier it can be made smaller.
+ * 
+ * @see MemoryTier
+ */
+public class TieredRepoStore extends LogStructRepoStore {
+	
+	protected final MemoryTier _tier;
+	
+	/**
+	 * Memory tier of the size and age given by the system configuration
+	 */
+	public TieredRepoStore() {
+		this(SystemConfiguration.REPO_MEMORY_TIER_SIZE, SystemConfiguration.REPO_MEMORY_TIER_AGE);
+	}
+	
+	/**
+	 * @param maxBytes maximum total size of the content in the memory tier
+	 * @param maxAge time in milliseconds content stays in the memory tier without being read
+	 */
+	public TieredRepoStore(long maxBytes, long maxAge) {
+		_tier = new MemoryTier(maxBytes, maxAge);
+	}
+	
+	/**
+	 * @return the content from the memory tier if it is there, otherwise from disk
+	 */
+	@Override
+	public ContentObject get(ContentRef ref) {
+		ContentObject content = _tier.get(ref);
+		if (null != content)
+			return content;
+		content = super.get(ref);
+		if (null != content)
+			_tier.put(ref, content, sizeOf(ref, content));
+		return content;
+	}
+	
+	@Override
+	protected void committed(FileRef ref, ContentObject co) {
+		_tier.put(ref, co, sizeOf(ref, co));
+	}
+	
+	@Override
+	protected void forget(ContentRef ref) {
+		super.forget(ref);
+		_tier.remove(ref);
+	}
+	
+	@Override
+	public void setStats(CCNEnumStats<StatsEnum> stats) {
+		super.setStats(stats);
+		_tier.setStats(stats);
+	}
+	
+	/**
+	 * @return the memory tier
+	 */
+	public MemoryTier getMemoryTier() {
+		return _tier;
+	}
+	
+	/**
+	 * @return the size the content counts for in the memory tier: the length of its record if
+	 * 		the ref knows it, otherwise the length of its encoding or failing that its content
+	 */
+	protected static int sizeOf(ContentRef ref, ContentObject co) {
+		if (ref.length() > 0)
+			return ref.length();
+		byte [] encoded = co.wireEncoding();
+		if (null != encoded)
+			return encoded.length;
+		return (null == co.content()) ? 0 : co.content().length;
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.support;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+
+/**
+ * A bounded table used to share the byte arrays of frequently repeated name components
+ * (command markers, version and segment markers, common prefixes) between decoded names.
+ *
+ * The table is direct mapped - each component hashes to exactly one slot and a miss simply
+ * replaces whatever was there before - so it never grows beyond its initial size, needs no
+ * locking and costs one hash and at most one array comparison per lookup.
+ *
+ * Interning is off by default. It is enabled by setting SystemConfiguration.NAME_INTERN_SIZE
+ * (org.ccnx.name.intern.size or CCNX_NAME_INTERN_SIZE) to the number of table slots wanted.
+ * Since ContentName exposes its internal components, code which modifies the byte arrays it
+ * gets back from a name (which it never should) will corrupt other names when interning is on.
+ */
+public class ComponentInterner implements CCNStatistics {
+
+	/**
+	 * Components longer than this are assumed to be unique (digests, signatures, data) and
+	 * are never interned.
+	 */
+	public static final int MAX_INTERN_LENGTH = 64;
+
+	protected static volatile ComponentInterner _defaultInterner = null;
+	protected static volatile boolean _defaultChecked = false;
+
+	protected final AtomicReferenceArray<byte []> _table;
+	protected final int _mask;
+
+	/**
+	 * @param size number of slots in the table. Rounded up to a power of 2.
+	 */
+	public ComponentInterner(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Intern table size must be positive: " + size);
+		int slots = Integer.highestOneBit(size);
+		if (slots < size)
+			slots <<= 1;
+		_table = new AtomicReferenceArray<byte []>(slots);
+		_mask = slots - 1;
+	}
+
+	/**
+	 * Get the shared interner configured by SystemConfiguration.NAME_INTERN_SIZE
+	 * @return the interner or null if interning is disabled
+	 */
+	public static synchronized ComponentInterner getDefault() {
+		if (!_defaultChecked) {
+			if (SystemConfiguration.NAME_INTERN_SIZE > 0)
+				_defaultInterner = new ComponentInterner(SystemConfiguration.NAME_INTERN_SIZE);
+			_defaultChecked = true;
+		}
+		return _defaultInterner;
+	}
+
+	/**
+	 * Replace the shared interner. Mainly for testing.
+	 * @param interner the new interner or null to turn interning off
+	 */
+	public static synchronized void setDefault(ComponentInterner interner) {
+		_defaultInterner = interner;
+		_defaultChecked = true;
+	}
+
+	/**
+	 * Intern a component with the shared interner if interning is enabled
+	 * @param component the component
+	 * @return a byte array equal to component, possibly shared with other names
+	 */
+	public static byte [] internComponent(byte [] component) {
+		ComponentInterner interner = _defaultInterner;
+		if (null == interner) {
+			if (_defaultChecked)
+				return component;
+			interner = getDefault();
+			if (null == interner)
+				return component;
+		}
+		return interner.intern(component);
+	}
+
+	/**
+	 * Return the shared copy of a component. The component passed in must not be
+	 * modified after this call since it may become the shared copy.
+	 * @param component the component
+	 * @return an equal byte array, which is the argument itself on a miss
+	 */
+	public byte [] intern(byte [] component) {
+		if (null == component || component.length > MAX_INTERN_LENGTH) {
+			_stats.increment(StatsEnum.Skipped);
+			return component;
+		}
+		_stats.increment(StatsEnum.Lookups);
+		int slot = hash(component) & _mask;
+		byte [] existing = _table.get(slot);
+		if (null != existing) {
+			if (existing == component) {
+				_stats.increment(StatsEnum.Hits);
+				return existing;
+			}
+			if (Arrays.equals(existing, component)) {
+				_stats.increment(StatsEnum.Hits);
+				_stats.increment(StatsEnum.BytesSaved, component.length);
+				return existing;
+			}
+			_stats.increment(StatsEnum.Replacements);
+		}
+		_table.set(slot, component);
+		return component;
+	}
+
+	/**
+	 * @return number of slots in the table
+	 */
+	public int size() {
+		return _table.length();
+	}
+
+	/**
+	 * Empty the table. Previously interned arrays are still shared by the names that hold them.
+	 */
+	public void clear() {
+		for (int i = 0; i < _table.length(); i++)
+			_table.set(i, null);
+	}
+
+	/**
+	 * @return fraction of lookups which found a shared copy
+	 */
+	public double hitRate() {
+		long lookups = _stats.getCounter(StatsEnum.Lookups.toString());
+		return lookups == 0 ? 0.0 : (double)_stats.getCounter(StatsEnum.Hits.toString()) / lookups;
+	}
+
+	/**
+	 * Spread the bits of Arrays.hashCode so that components differing only in their
+	 * last byte (segment and version numbers) land in different slots
+	 */
+	protected static int hash(byte [] component) {
+		int h = Arrays.hashCode(component);
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Lookups);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Lookups ("components", "Number of components looked up in the intern table"),
+		Hits ("components", "Number of lookups which found a shared copy"),
+		Replacements ("components", "Number of shared copies replaced by a colliding component"),
+		Skipped ("components", "Number of components too long to intern"),
+		BytesSaved ("bytes", "Bytes of component data shared instead of duplicated"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
@@ -51,6 +51,11 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
 	private byte [] _bloom = new byte[1024];
 	private int _size = 0;
 	
+	// Hash state after the seed and the mask for bit indices, which only change when
+	// the seed or size of the filter do. Recomputed in the constructor and in decode.
+	private long _seedState;
+	private int _mask;
+	
 	/**
 	 * Constructor
 	 * @param estimatedMembers The performance of the bloom filter can be improved by accurately
@@ -77,6 +82,7 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
             _nHash = 2;           
         if (_nHash > 32)
             _nHash = 32;
+        setup();
 	}
 	
 	/**
@@ -102,16 +108,26 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
 	public void insert(byte [] key) {
 		if (_size < 0)
 			throw new IllegalArgumentException("Can't reuse bloomfilter from the network");
-		long s = computeSeed();
-		for (int i = 0; i < key.length; i++) 
-			s = nextHash(s, key[i] + 1);
-		long m = (8*_bloom.length - 1) & ((1 << _lgBits) - 1);
+		insertKey(key);
+	}
+	
+	/**
+	 * Insert a number of keys
+	 * @param keys the keys to exclude
+	 */
+	public void insert(byte [][] keys) {
+		if (_size < 0)
+			throw new IllegalArgumentException("Can't reuse bloomfilter from the network");
+		for (byte [] key : keys)
+			insertKey(key);
+	}
+	
+	private void insertKey(byte [] key) {
+		long s = hashKey(_seedState, key);
 		for (int i = 0; i < _nHash; i++) {
-			 s = nextHash(s, 0);
-		     long h = s & m;
-		     if ((_bloom[(int)(h >> 3)] & (1 << (h & 7))) == 0) {
-		    	 _bloom[(int)(h >> 3)] |= (1 << (h & 7));
-		     }
+			s = nextHash(s, 0);
+			int h = (int)s & _mask;
+			_bloom[h >> 3] |= (1 << (h & 7));
 		}
 		_size++;
 	}
@@ -124,19 +140,28 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
 	 * @return false if not set
 	 */
 	public boolean match(byte [] key) {
-		int m = ((8*_bloom.length) - 1) & ((1 << _lgBits) - 1);
-		long s = computeSeed();
-		for (int k = 0; k < key.length; k++)
-			s = nextHash(s, key[k] + 1);
+		long s = hashKey(_seedState, key);
 		for (int i = 0; i < _nHash; i++) {
 			s = nextHash(s, 0);
-			long h = s & m;
-			if (0 == (_bloom[(int)h >> 3] & (1 << (h & 7))))
+			int h = (int)s & _mask;
+			if (0 == (_bloom[h >> 3] & (1 << (h & 7))))
 				return false;
 		}
 		return true;
 	}
 	
+	/**
+	 * Test a number of keys against the filter
+	 * @param keys keys to test
+	 * @return an array with the result of match for each key
+	 */
+	public boolean [] match(byte [][] keys) {
+		boolean [] results = new boolean[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			results[i] = match(keys[i]);
+		return results;
+	}
+	
 	/**
 	 * Returns the value given on creation by estimatedMembers 
 	 * @see BloomFilter.BloomFilter
@@ -156,14 +181,29 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
 		return outSeed;
 	}
 	
-	private long nextHash(long s, int u) {
-		long k = 13; // Michael's comment: use this many bits of feedback shift output
+	private static long nextHash(long s, int u) {
+		final int k = 13; // Michael's comment: use this many bits of feedback shift output
 	    long b = s & ((1 << k) - 1);
 	    // Michael's comment: fsr primitive polynomial (modulo 2) x**31 + x**13 + 1
 	    s = ((s >> k) ^ (b << (31 - k)) ^ (b << (13 - k))) + u;
 	    return(s & 0x7FFFFFFF);
 	}
 	
+	/**
+	 * Run the key through the feedback shift register. Note that the key bytes are signed,
+	 * which has to be kept for compatibility with filters built by other implementations.
+	 */
+	private static long hashKey(long s, byte [] key) {
+		for (int i = 0; i < key.length; i++)
+			s = nextHash(s, key[i] + 1);
+		return s;
+	}
+	
+	private void setup() {
+		_seedState = computeSeed();
+		_mask = ((8*_bloom.length) - 1) & ((1 << _lgBits) - 1);
+	}
+	
 	private int usedBits() {
 		return 1 << (_lgBits - 3);
 	}
@@ -193,6 +233,7 @@ public class BloomFilter extends Exclude.Filler implements Comparable<BloomFilte
 			Log.warning("Unexpected result in decoding BloomFilter: expecting " + usedBits() + " bytes, got " + i);
 		}
 		_size = -1;
+		setup();
 	}
 	
 	@Override
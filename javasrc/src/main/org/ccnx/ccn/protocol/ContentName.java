@@ -28,6 +28,7 @@ import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncoder;
+import org.ccnx.ccn.impl.support.ComponentInterner;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -439,7 +440,7 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 				try {
 					byte[] component = Component.parseURI(parts[i]);
 					if (null != component) {
-						comps.add(component);
+						comps.add(ComponentInterner.internComponent(component));
 					}
 				} catch (Component.DotDot c) {
 					// Need to strip "parent"
@@ -845,7 +846,7 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 		ArrayList<byte []> components = new ArrayList<byte []>(6);
 
 		while (decoder.peekStartElement(CCNProtocolDTags.Component))
-			components.add(decoder.readBinaryElement(CCNProtocolDTags.Component));
+			components.add(ComponentInterner.internComponent(decoder.readBinaryElement(CCNProtocolDTags.Component)));
 
 		decoder.readEndElement();
 		_components = components.toArray(new byte[components.size()][]);
@@ -20,6 +20,7 @@ package org.ccnx.ccn.protocol;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -72,6 +73,12 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	protected byte [] _digest = null;
 	protected Signature _signature; 
 	
+	/**
+	 * The encoding this object was decoded from, if it was created by fromWire().
+	 * Lets the object be written out again without encoding it.
+	 */
+	protected byte [] _wireEncoding = null;
+	
 	/**
 	 * We don't specify a required publisher, and right now we don't enforce
 	 * that publisherID is the digest of the key used to sign (which could actually
@@ -310,6 +317,28 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	}
 
 	public ContentObject() {} // for use by decoders
+	
+	/**
+	 * Decode a ContentObject and keep its encoding, so that when it is encoded again in the
+	 * binary encoding, or its digest is calculated, the original encoding is used. Intended
+	 * for stores which send out the same objects many times.
+	 * @param encoded the binary encoding of the object. Must not be modified afterwards.
+	 * @return the decoded object
+	 * @throws ContentDecodingException
+	 */
+	public static ContentObject fromWire(byte [] encoded) throws ContentDecodingException {
+		ContentObject co = new ContentObject();
+		co.decode(encoded, BinaryXMLCodec.CODEC_NAME);
+		co._wireEncoding = encoded;
+		return co;
+	}
+	
+	/**
+	 * @return the encoding this object was created from by fromWire(), or null. Must not be modified.
+	 */
+	public byte [] wireEncoding() {
+		return _wireEncoding;
+	}
 
 	public ContentObject clone() {
 		// Constructor will clone the _content, signedInfo and signature are immutable types.
@@ -362,6 +391,7 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 */
 	public void decode(XMLDecoder decoder) throws ContentDecodingException {
 		decoder.readStartElement(getElementLabel());
+		_wireEncoding = null;
 
 		_signature = new Signature();
 		_signature.decode(decoder);
@@ -395,6 +425,23 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 
 		encoder.writeEndElement();   		
 	}
+	
+	/**
+	 * Write the original encoding if we have it and the binary encoding is wanted.
+	 */
+	@Override
+	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
+		if (null != _wireEncoding && 
+				BinaryXMLCodec.CODEC_NAME.equals((null == codec) ? XMLCodecFactory.getDefaultCodecName() : codec)) {
+			try {
+				ostream.write(_wireEncoding);
+			} catch (IOException e) {
+				throw new ContentEncodingException(e.getMessage());
+			}
+			return;
+		}
+		super.encode(ostream, codec);
+	}
 
 	@Override
 	public long getElementLabel() { return CCNProtocolDTags.ContentObject; }
@@ -462,6 +509,7 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 				Log.fine(Log.FAC_SIGNING, "Setting signature to null on content object: " + name());
 		}
 		_signature = signature;
+		_wireEncoding = null;
 	}
 
 	public void sign(Key signingKey) throws InvalidKeyException, SignatureException {
@@ -771,6 +819,8 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 * Encode this object and calculate the digest.
 	 */
 	protected byte[] calcDigest() {
+		if (null != _wireEncoding)
+			return CCNDigestHelper.digest(_wireEncoding);
 		MessageDigest md;
 		try {
 			md = MessageDigest.getInstance(CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM);
@@ -17,16 +17,19 @@
 
 package org.ccnx.ccn.protocol;
 
+import java.io.ByteArrayOutputStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import org.ccnx.ccn.impl.encoding.BinaryXMLEncoder;
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncoder;
 import org.ccnx.ccn.impl.support.ByteArrayCompare;
+import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 
@@ -70,7 +73,68 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		public abstract boolean match(byte [] component);
 	}
 
-	protected ArrayList<Element> _values = new ArrayList<Element>();
+	/**
+	 * An immutable, sorted view of the elements of an Exclude filter. Every change to the filter
+	 * publishes a new Snapshot, so matching never needs a lock and can binary search the component
+	 * elements rather than walking the whole list.
+	 */
+	protected static final class Snapshot {
+		protected final Element [] _elements;
+		// The component elements, in order
+		protected final byte [][] _components;
+		// _fillers[i] is the filler immediately preceding _components[i] (or null), and the final
+		// entry is the filler following the last component
+		protected final Filler [] _fillers;
+		// Bloom filters can be modified after they are added, so we don't cache those
+		protected final boolean _cacheable;
+		protected volatile byte [] _encoded = null;
+
+		protected Snapshot(Element [] elements) {
+			_elements = elements;
+			int count = 0;
+			boolean cacheable = true;
+			for (Element ee : elements) {
+				if (ee instanceof ExcludeComponent)
+					count++;
+				else if (!(ee instanceof ExcludeAny))
+					cacheable = false;
+			}
+			_cacheable = cacheable;
+			_components = new byte[count][];
+			_fillers = new Filler[count + 1];
+			int i = 0;
+			for (Element ee : elements) {
+				if (ee instanceof ExcludeComponent)
+					_components[i++] = ((ExcludeComponent)ee).body;
+				else
+					_fillers[i] = (Filler)ee;
+			}
+		}
+
+		/**
+		 * @return the ccnb encoding of the complete Exclude element
+		 */
+		protected byte [] encoded() throws ContentEncodingException {
+			byte [] encoded = _encoded;
+			if (null == encoded) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				BinaryXMLEncoder encoder = new BinaryXMLEncoder();
+				encoder.beginEncoding(baos);
+				encoder.writeStartElement(CCNProtocolDTags.Exclude);
+				for (Element element : _elements)
+					element.encode(encoder);
+				encoder.writeEndElement();
+				encoder.endEncoding();
+				encoded = baos.toByteArray();
+				_encoded = encoded;
+			}
+			return encoded;
+		}
+	}
+
+	protected static final Snapshot EMPTY = new Snapshot(new Element[0]);
+
+	protected volatile Snapshot _snapshot = EMPTY;
 	
 	/**
 	 * @param values Must be a list of ExcludeElements - Components must be in increasing order
@@ -96,7 +160,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 				throw new InvalidParameterException("bloom filters or anys are not allowed to follow each other");
 			last = ee;
 		}			
-		_values.addAll(values);
+		_snapshot = new Snapshot(values.toArray(new Element[values.size()]));
 	}
 
 	/**
@@ -109,9 +173,11 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		if (omissions == null || omissions.length == 0)
 			throw new IllegalArgumentException("No omissions");
 		Arrays.sort(omissions, new ByteArrayCompare());
-		for (byte[] omission : omissions) {
-			_values.add(new ExcludeComponent(omission));
+		Element [] elements = new Element[omissions.length];
+		for (int i = 0; i < omissions.length; i++) {
+			elements[i] = new ExcludeComponent(omissions[i]);
 		}
+		_snapshot = new Snapshot(elements);
 	}
 
 	public Exclude() {} // for use by decoders
@@ -125,10 +191,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		if ( component == null)
 			return null;
 		Exclude ef = new Exclude();
-		synchronized (ef._values) {
-			ef._values.add(new ExcludeAny());
-			ef._values.add(new ExcludeComponent(component));
-		}
+		ef._snapshot = new Snapshot(new Element[] {new ExcludeAny(), new ExcludeComponent(component)});
 		return ef;
 	}
 
@@ -144,40 +207,37 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 	}
 	
 	/**
+	 * Binary search for the component among the component elements of the filter, then
+	 * check the filler (if any) covering the gap it falls into.
 	 * @param component - A name component
 	 * @return true if this component would be excluded by the exclude filter
 	 */
 	public boolean match(byte [] component) {
-		Filler lastFiller = null;
-		synchronized (_values) {
-			for (Element ee : _values) {
-				if (ee instanceof ExcludeComponent) {
-					ExcludeComponent ec = (ExcludeComponent) ee;
-					int res = ec.compareTo(component);
-					if (res == 0) {
-						// we exactly matched a component in the filter
-						return true;
-					} else if (res > 0) {
-						// we reached a component in the filter that is lexicographically after than the one
-						// we're looking for so check if there was a filler between the last component
-						// we saw and this one.
-						return lastFiller != null && lastFiller.match(component);
-					}
-					lastFiller = null;
-				} else {
-					// The element is not a component - so track what filler it was.
-					lastFiller = (Filler) ee;
-				}
-			}
+		Snapshot snapshot = _snapshot;
+		byte [][] components = snapshot._components;
+		int low = 0;
+		int high = components.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int res = DataUtils.compare(components[mid], component);
+			if (res < 0)
+				low = mid + 1;
+			else if (res > 0)
+				high = mid - 1;
+			else
+				// we exactly matched a component in the filter
+				return true;
 		}
-		return lastFiller != null && lastFiller.match(component);
+		// low is now the index of the first component in the filter that is after the one we're
+		// looking for, so check if there was a filler between it and the component before it.
+		Filler filler = snapshot._fillers[low];
+		return filler != null && filler.match(component);
 	}
 
 	/**
-	 * Return a new Exclude filter that is a copy of this one with 
-	 * the supplied omissions added.
+	 * Add the supplied omissions to this Exclude filter. The omissions are sorted and
+	 * merged with the existing elements in a single pass.
 	 * @param omissions name components to be excluded.
-	 * @return new Exclude filter object or null in case of error
 	 */
 	public void add(byte omissions[][] ) {
 		if (omissions == null || omissions.length == 0)
@@ -185,55 +245,56 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 
 		Arrays.sort(omissions, new ByteArrayCompare());
 
-		/*
-		 * i is an outer loop on the omissions list
-		 * j is an inner loop on the ExcludeEntries
-		 */
-		int i = 0, j = 0;
-		byte [] omission;
-		Element ee;
-		Filler lastFiller = null;
-		synchronized (_values) {
-			for(;i<omissions.length && j<_values.size();) {
-				omission = omissions[i];
-				ee = _values.get(j);
+		synchronized (this) {
+			Element [] elements = _snapshot._elements;
+			ArrayList<Element> merged = new ArrayList<Element>(elements.length + (2 * omissions.length));
+			/*
+			 * i is the next omission to add, each existing element is visited once
+			 */
+			int i = 0;
+			Filler lastFiller = null;
+			for (Element ee : elements) {
 				if (ee instanceof ExcludeComponent) {
 					ExcludeComponent ec = (ExcludeComponent) ee;
-					int res = ec.compareTo(omission);
-					if (res > 0) {
-						// we reached a component in the filter that is lexigraphically after than the one
-						// we're looking for.
-						if (lastFiller != null && lastFiller.match(omission)) {
-							// the filler already matches the component, no need to add it!
-							i++;
-							continue;
-						}
-						// no bloom or the bloom does not match - so add the component explicitly
-						_values.add(j, new ExcludeComponent(omission));
-						j++; // skip the component we just added
-						if (lastFiller != null) {
-							// there was a non matching bloom, so copy it to ensure same values get excluded
-							// TODO: should this be a clone()?
-							_values.add(j, lastFiller);
-							j++; // skip the bloom we just added
-						}
-						i++;
-						continue;
-					} else if (res == 0) {
-						// we matched a component already in the filter, so no need to add one in, just skip it.
-						i++;
-						continue;
-					}
+					// add in all omissions lexicographically before this component
+					for (; i < omissions.length && ec.compareTo(omissions[i]) > 0; i++)
+						addOmission(merged, omissions, i, lastFiller);
+					// skip omissions matching a component already in the filter
+					for (; i < omissions.length && ec.compareTo(omissions[i]) == 0; i++)
+						;
 					lastFiller = null;
 				} else
 					lastFiller = (Filler) ee;
-				j++;
+				merged.add(ee);
 			}
 			// if we have values still to add, then add them to the end of the list
-			for(;i<omissions.length;i++) {
-				omission = omissions[i];
-				_values.add(new ExcludeComponent(omission));
-			}
+			for (; i < omissions.length; i++)
+				addOmission(merged, omissions, i, lastFiller);
+			_snapshot = new Snapshot(merged.toArray(new Element[merged.size()]));
+		}
+	}
+
+	/**
+	 * Add a single omission to a list being merged
+	 * @param merged the elements so far
+	 * @param omissions the sorted omissions
+	 * @param i index of the omission to add
+	 * @param lastFiller filler covering the gap the omission falls into, or null
+	 */
+	private static void addOmission(ArrayList<Element> merged, byte [][] omissions, int i, Filler lastFiller) {
+		byte [] omission = omissions[i];
+		if (i > 0 && DataUtils.compare(omissions[i - 1], omission) == 0)
+			return; // duplicate
+		if (lastFiller != null && lastFiller.match(omission)) {
+			// the filler already matches the component, no need to add it!
+			return;
+		}
+		// no bloom or the bloom does not match - so add the component explicitly
+		merged.add(new ExcludeComponent(omission));
+		if (lastFiller != null) {
+			// there was a non matching bloom, so copy it to ensure same values get excluded
+			// TODO: should this be a clone()?
+			merged.add(lastFiller);
 		}
 	}
 	
@@ -248,10 +309,11 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 			return;
 
 		Filler lastFiller = null;
-		synchronized (_values) {
+		synchronized (this) {
+			Element [] elements = _snapshot._elements;
 			int res = -2;
 			int removes = 0;
-			for (Element ee : _values) {
+			for (Element ee : elements) {
 				if (ee instanceof ExcludeComponent) {
 					ExcludeComponent ec = (ExcludeComponent) ee;
 					res = ec.compareTo(component);
@@ -264,30 +326,24 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 				}
 				removes++;
 			}
-			for (int i = 0; i < removes; i++)
-				_values.remove(0);
+			ArrayList<Element> values = new ArrayList<Element>(elements.length - removes + 3);
 			if (res == 0) {
 				// we exactly matched a component already in the filter
 				// prefix it with an Any element, and we're done.
-				_values.add(0, new ExcludeAny());
+				values.add(new ExcludeAny());
+			} else if (lastFiller instanceof ExcludeAny) {
+				values.add(new ExcludeAny());
 			} else {
-	
-				if (lastFiller == null) {
-					// there was no filler, so prefix the list with an Any and the component, and we're done
-					_values.add(0, new ExcludeAny());
-					_values.add(1, new ExcludeComponent(component));
-					return;
-				}
-				if (lastFiller instanceof ExcludeAny) {
-					_values.add(0, new ExcludeAny());
-					return;
-				}
-				_values.add(0, new ExcludeAny());
-				_values.add(1, new ExcludeComponent(component));
-				_values.add(2, lastFiller);
+				// prefix the list with an Any and the component, followed by the filler if there was one
+				values.add(new ExcludeAny());
+				values.add(new ExcludeComponent(component));
+				if (lastFiller != null)
+					values.add(lastFiller);
 			}
+			for (int i = removes; i < elements.length; i++)
+				values.add(elements[i]);
+			_snapshot = new Snapshot(values.toArray(new Element[values.size()]));
 		}
-		return;		
 	}
 
 	/**
@@ -295,44 +351,54 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 	 * @return true if exclude has no elements
 	 */
 	public boolean empty() {
-		synchronized (_values) {
-			return _values.isEmpty();
-		}
+		return _snapshot._elements.length == 0;
 	}
 
 	public void decode(XMLDecoder decoder) throws ContentDecodingException {
 		decoder.readStartElement(getElementLabel());
 		
-		synchronized (_values) {
-			boolean component;
-			boolean any = false;
-			while ((component = decoder.peekStartElement(CCNProtocolDTags.Component)) || 
-					(any = decoder.peekStartElement(CCNProtocolDTags.Any)) ||
-						decoder.peekStartElement(CCNProtocolDTags.Bloom)) {
-				@SuppressWarnings("deprecation")
-				Element ee = component?new ExcludeComponent(): any ? new ExcludeAny() : new BloomFilter();
-				ee.decode(decoder);
-				_values.add(ee);
-			}
-			decoder.readEndElement();
+		ArrayList<Element> values = new ArrayList<Element>();
+		boolean component;
+		boolean any = false;
+		while ((component = decoder.peekStartElement(CCNProtocolDTags.Component)) || 
+				(any = decoder.peekStartElement(CCNProtocolDTags.Any)) ||
+					decoder.peekStartElement(CCNProtocolDTags.Bloom)) {
+			@SuppressWarnings("deprecation")
+			Element ee = component?new ExcludeComponent(): any ? new ExcludeAny() : new BloomFilter();
+			ee.decode(decoder);
+			values.add(ee);
+		}
+		decoder.readEndElement();
+
+		synchronized (this) {
+			Element [] elements = _snapshot._elements;
+			if (elements.length > 0)
+				values.addAll(0, Arrays.asList(elements));
+			_snapshot = new Snapshot(values.toArray(new Element[values.size()]));
 		}
 	}
 
+	/**
+	 * The binary encoding of a filter without Bloom filters is cached, since the same Exclude
+	 * is typically encoded every time its Interest is expressed or reexpressed.
+	 */
 	public void encode(XMLEncoder encoder) throws ContentEncodingException {
 		if (!validate()) {
 			throw new ContentEncodingException("Cannot encode " + this.getClass().getName() + ": field values missing.");
 		}
+		Snapshot snapshot = _snapshot;
 		// if everything is null, output nothing
-		if (empty())
+		if (snapshot._elements.length == 0)
 			return;
 		
-		encoder.writeStartElement(getElementLabel());
-
-		synchronized (_values) {
-			for (Element element : _values)
-				element.encode(encoder);
+		if (snapshot._cacheable && encoder instanceof BinaryXMLEncoder) {
+			((BinaryXMLEncoder)encoder).writeEncoded(snapshot.encoded());
+			return;
 		}
 
+		encoder.writeStartElement(getElementLabel());
+		for (Element element : snapshot._elements)
+			element.encode(encoder);
 		encoder.writeEndElement();
 	}
 
@@ -352,9 +418,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		if (!empty()) {
 			if (o.empty())
 				return 1;
-			synchronized (_values) {
-				result = _values.size() - o._values.size();
-			}
+			result = size() - o.size();
 			// TODO: need a better definition of ordering between exclude filters
 			// it's definitely an error to report they are the same just based on length
 			// but first - is this ever used?
@@ -372,13 +436,11 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		if (getClass() != obj.getClass())
 			return false;
 		Exclude other = (Exclude) obj;
-		synchronized (_values) {
-			return _values.equals(other._values);
-		}
+		return Arrays.equals(_snapshot._elements, other._snapshot._elements);
 	}
 	
 	public int hashCode() {
-		return _values.hashCode();
+		return Arrays.hashCode(_snapshot._elements);
 	}
 
 	/**
@@ -386,35 +448,29 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 	 * @return number of elements
 	 */
 	public int size() {
-		synchronized (_values) {
-			return _values.size();
-		}
+		return _snapshot._elements.length;
 	}
 	
 	/**
 	 * DEBUGGING ONLY -- may need to be removed.
 	 */
 	public Element value(int i) {
-		synchronized(_values) {
-			return _values.get(i);
-		}
+		return _snapshot._elements[i];
 	}
 
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
 		boolean first = true;
-		synchronized (_values) {
-			for (Element ee : _values) {
-				if (first)
-					first = false;
-				else
-					sb.append(",");
-				if (ee instanceof ExcludeComponent) {
-					ExcludeComponent ec = (ExcludeComponent) ee;
-					sb.append(Component.printURI(ec.body));
-				} else {
-					sb.append("B");
-				}
+		for (Element ee : _snapshot._elements) {
+			if (first)
+				first = false;
+			else
+				sb.append(",");
+			if (ee instanceof ExcludeComponent) {
+				ExcludeComponent ec = (ExcludeComponent) ee;
+				sb.append(Component.printURI(ec.body));
+			} else {
+				sb.append("B");
 			}
 		}
 		return sb.toString();
@@ -75,6 +75,9 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	protected byte[] _interestLifetime = null;		// For now we don't have the ability to set an interest lifetime
 	protected byte[] _nonce;
 
+	// Built on demand and discarded whenever a field used in matching changes
+	protected InterestMatcher _matcher = null;
+
 	public long userTime;
 	
 	/**
@@ -113,19 +116,19 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	public Interest() {} // for use by decoders
 
 	public ContentName name() { return _name; }
-	public void name(ContentName name) { _name = name; }
+	public void name(ContentName name) { _name = name; _matcher = null; }
 	
 	public Integer maxSuffixComponents() { return _maxSuffixComponents; }
-	public void maxSuffixComponents(Integer maxSuffixComponents) { _maxSuffixComponents = maxSuffixComponents; }
+	public void maxSuffixComponents(Integer maxSuffixComponents) { _maxSuffixComponents = maxSuffixComponents; _matcher = null; }
 	
 	public Integer minSuffixComponents() { return _minSuffixComponents; }
-	public void minSuffixComponents(Integer minSuffixComponents) { _minSuffixComponents = minSuffixComponents; }
+	public void minSuffixComponents(Integer minSuffixComponents) { _minSuffixComponents = minSuffixComponents; _matcher = null; }
 	
 	public PublisherID publisherID() { return _publisher; }
-	public void publisherID(PublisherID publisherID) { _publisher = publisherID; }
+	public void publisherID(PublisherID publisherID) { _publisher = publisherID; _matcher = null; }
 	
 	public Exclude exclude() { return _exclude; }
-	public void exclude(Exclude exclude) { _exclude = exclude; }
+	public void exclude(Exclude exclude) { _exclude = exclude; _matcher = null; }
 	
 	public Integer childSelector() { return _childSelector;}
 	public void childSelector(int childSelector) { _childSelector = childSelector; }
@@ -158,6 +161,19 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	 */
 	public byte[] nonce() { return _nonce; }
 
+	/**
+	 * Get the precomputed matcher for this Interest, for use when testing many candidates.
+	 * @return the matcher, rebuilt if this Interest has changed since it was last requested
+	 */
+	public InterestMatcher matcher() {
+		InterestMatcher matcher = _matcher;
+		if (null == matcher) {
+			matcher = new InterestMatcher(this);
+			_matcher = matcher;
+		}
+		return matcher;
+	}
+
 	/**
 	 * Determine whether a piece of content matches the Interest
 	 * @param test
@@ -190,32 +206,17 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	
 	/**
 	 * Determine whether a piece of content matches this Interest.
-	 * Note: this computes the digest for the ContentObject, to know the full name. This is
-	 * computationally expensive.
+	 * Note: this computes the digest for the ContentObject when the match depends on the full
+	 * name. This is computationally expensive.
 	 * @see Interest#matches(ContentName, PublisherPublicKeyDigest)
-	 * TODO: compute digests once when ContentObjects are received into the machine, and pass them
-	 * around with the ContentObjects.
+	 * @see InterestMatcher
 	 * 
 	 * @param co - ContentObject
 	 * @param resultPublisherKeyID
 	 * @return true if the content & publisherID match the Interest
 	 */
 	public boolean matches(ContentObject co, PublisherPublicKeyDigest resultPublisherKeyID) {
-		if (null == name() || null == co)
-			return false; // null name() should not happen, null arg can
-		// to get interest that matches everything, should
-		// use / (ROOT)
-		boolean digest = co.name().count()+1 == name().count();
-		
-		if (co.name().count() == name().count() && (exclude() != null && !exclude().empty())) {
-			//the interest does not have a digest in the name, but it does have at least one excluded
-			digest = true;
-		}
-		ContentName name = digest ? co.fullName() : co.name();
-		if (isPrefixOf(name)) {
-			return internalMatch(name, digest, resultPublisherKeyID);
-		}
-		return false;
+		return matcher().matches(co, resultPublisherKeyID);
 	}
 	
 	// TODO We need to beef this up to deal with the more complex interest specs.
@@ -462,6 +463,7 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	public void decode(XMLDecoder decoder) throws ContentDecodingException {
 		decoder.readStartElement(getElementLabel());
 
+		_matcher = null;
 		_name = new ContentName();
 		_name.decode(decoder);
 		
@@ -0,0 +1,217 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.protocol;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.TrustManager;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * A precomputed form of an Interest used to test many candidates against the same Interest.
+ *
+ * Interest.matches(ContentObject) builds the full name of the candidate (including its digest),
+ * tests the prefix and works out the suffix bounds each time it is called. An InterestMatcher
+ * does that work once: it holds the Interest's components, its suffix bounds as plain ints,
+ * its Exclude filter and the publisher key digest it requires, and then evaluates candidates
+ * without allocating. The digest of a candidate is only computed when the match actually depends
+ * on it.
+ *
+ * The matcher reflects the Interest at the time it was built, except that changes made to the
+ * Interest's Exclude filter are seen. Use Interest.matcher() to get a matcher which is rebuilt
+ * when the Interest is changed.
+ *
+ * @see Interest#matcher()
+ */
+public final class InterestMatcher {
+
+	protected final Interest _interest;
+	protected final byte [][] _prefix;
+	protected final int _prefixCount;
+	protected final int _minSuffixComponents;
+	protected final int _maxSuffixComponents;
+	protected final Exclude _exclude;
+	protected final PublisherID _publisher;
+	// digest of the required publisher key when the publisher is a key, or null
+	protected final byte [] _publisherDigest;
+
+	public InterestMatcher(Interest interest) {
+		_interest = interest;
+		ContentName name = interest.name();
+		_prefixCount = (null == name) ? -1 : name.count();
+		_prefix = new byte[Math.max(_prefixCount, 0)][];
+		for (int i = 0; i < _prefix.length; i++)
+			_prefix[i] = name.component(i);
+		_minSuffixComponents = (null == interest.minSuffixComponents()) ? Integer.MIN_VALUE : interest.minSuffixComponents();
+		_maxSuffixComponents = (null == interest.maxSuffixComponents()) ? Integer.MAX_VALUE : interest.maxSuffixComponents();
+		_exclude = interest.exclude();
+		_publisher = interest.publisherID();
+		_publisherDigest = (null != _publisher && _publisher.type() == PublisherID.PublisherType.KEY) ? _publisher.id() : null;
+	}
+
+	/**
+	 * @return the Interest this matcher was built from
+	 */
+	public Interest interest() {
+		return _interest;
+	}
+
+	/**
+	 * @return the number of components in the name of the Interest
+	 */
+	public int prefixCount() {
+		return _prefixCount;
+	}
+
+	/**
+	 * Same result as Interest.matches(ContentObject)
+	 * @param co candidate content
+	 * @return true if the content matches the Interest
+	 */
+	public boolean matches(ContentObject co) {
+		if (null == co)
+			return false;
+		return matches(co, (null != co.signedInfo()) ? co.signedInfo().getPublisherKeyID() : null);
+	}
+
+	/**
+	 * Same result as Interest.matches(ContentObject, PublisherPublicKeyDigest)
+	 * @param co candidate content
+	 * @param resultPublisherKeyID publisher of the content
+	 * @return true if the content matches the Interest
+	 */
+	public boolean matches(ContentObject co, PublisherPublicKeyDigest resultPublisherKeyID) {
+		if (null == co)
+			return false; // null arg can happen
+		return matches(co.name(), null, co, resultPublisherKeyID);
+	}
+
+	/**
+	 * Same result as Interest.matches(ContentObject, PublisherPublicKeyDigest) for content with
+	 * the given name, digest and publisher, when the content itself isn't available
+	 * @param name name of the content without its digest component
+	 * @param digest digest of the content
+	 * @param resultPublisherKeyID publisher of the content
+	 * @return true if the content matches the Interest
+	 */
+	public boolean matches(ContentName name, byte [] digest, PublisherPublicKeyDigest resultPublisherKeyID) {
+		if (null == name || null == digest)
+			return false;
+		return matches(name, digest, null, resultPublisherKeyID);
+	}
+
+	/**
+	 * @param coName name of the content
+	 * @param digest digest of the content, or null to get it from co when it is needed
+	 * @param co the content, or null if digest is given
+	 */
+	protected boolean matches(ContentName coName, byte [] digest, ContentObject co, PublisherPublicKeyDigest resultPublisherKeyID) {
+		if (_prefixCount < 0)
+			return false; // null name() should not happen
+		int count = coName.count();
+		// The digest is logically part of the name if the Interest names it, or if the Interest
+		// has an exclude filter which would apply to it
+		boolean useDigest = (count + 1 == _prefixCount) ||
+				(count == _prefixCount && null != _exclude && !_exclude.empty());
+		int nameCount = useDigest ? count + 1 : count;
+		if (nameCount < _prefixCount)
+			return false;
+		if (!suffixMatch(count + 1 - _prefixCount))
+			return false;
+
+		// Check the prefix starting from the end since that's where names most often differ
+		for (int i = _prefixCount - 1; i >= 0; i--) {
+			byte [] component = (i < count) ? coName.component(i) : ((null != digest) ? digest : co.digest());
+			if (!Arrays.equals(_prefix[i], component))
+				return false;
+		}
+		if (null != _exclude) {
+			byte [] component = (_prefixCount < count) ? coName.component(_prefixCount)
+					: (useDigest && _prefixCount == count) ? ((null != digest) ? digest : co.digest()) : null;
+			if (_exclude.match(component)) {
+				if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+					Log.finest(Log.FAC_ENCODING, "Interest match failed. {0} has been excluded", coName);
+				return false;
+			}
+		}
+		return publisherMatch(resultPublisherKeyID);
+	}
+
+	/**
+	 * Same result as Interest.matches(ContentName, PublisherPublicKeyDigest) except that the
+	 * publisher is not checked.
+	 * @param name name of content without its digest component
+	 * @return true if a content object with this name could match the Interest
+	 */
+	public boolean matchesName(ContentName name) {
+		if (_prefixCount < 0 || null == name)
+			return false;
+		int count = name.count();
+		if (count < _prefixCount)
+			return false;
+		if (!suffixMatch(count + 1 - _prefixCount))
+			return false;
+		for (int i = _prefixCount - 1; i >= 0; i--) {
+			if (!Arrays.equals(_prefix[i], name.component(i)))
+				return false;
+		}
+		if (null != _exclude && _exclude.match(name.component(_prefixCount)))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Check the number of components following the prefix
+	 * @param lengthDiff number of components after the prefix, including the digest
+	 * @return true if within the Interest's suffix bounds
+	 */
+	public boolean suffixMatch(int lengthDiff) {
+		if (lengthDiff > _maxSuffixComponents) {
+			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINE))
+				Log.fine(Log.FAC_ENCODING, "Interest match failed: {0} more than the {1} components expected after {2}", lengthDiff, _maxSuffixComponents, _interest.name());
+			return false;
+		}
+		if (lengthDiff < _minSuffixComponents) {
+			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINE))
+				Log.fine(Log.FAC_ENCODING, "Interest match failed: {0} less than the {1} components expected after {2}", lengthDiff, _minSuffixComponents, _interest.name());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check the publisher of a candidate
+	 * @param resultPublisherKeyID the publisher of the candidate, may be null
+	 * @return true if the Interest doesn't restrict the publisher or the publisher matches
+	 */
+	public boolean publisherMatch(PublisherPublicKeyDigest resultPublisherKeyID) {
+		if (null == _publisher)
+			return true;
+		if (null == resultPublisherKeyID) {
+			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+				Log.finest(Log.FAC_ENCODING, "Interest match failed, target doesn't specify a publisherID and we require a particular one.");
+			return false;
+		}
+		if (null != _publisherDigest && Arrays.equals(_publisherDigest, resultPublisherKeyID.digest()))
+			return true;
+		// Should this be more general?
+		// TODO DKS handle issuer
+		return TrustManager.getTrustManager().matchesRole(_publisher, resultPublisherKeyID);
+	}
+}
@@ -20,9 +20,16 @@ import java.io.IOException;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.io.CCNAbstractInputStream;
 import org.ccnx.ccn.io.content.CCNNetworkObject;
 import org.ccnx.ccn.profiles.repo.RepositoryControl;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.SignedInfo.ContentType;
 import org.junit.Assert;
 
 /**
@@ -76,4 +83,31 @@ public class TestUtils {
 		if (!ok)
 			Assert.fail("Couldn't sync stream: " + stream.getBaseName());
 	}
+
+	/**
+	 * Build a data ContentObject with a made up publisher and signature, for tests which don't
+	 * use a key manager or verify what they read.
+	 *
+	 * @param name
+	 * @param content
+	 * @return the object
+	 */
+	public static ContentObject fakeSignedObject(ContentName name, byte [] content) {
+		return fakeSignedObject(name, content, "publisher");
+	}
+
+	/**
+	 * Build a data ContentObject with a made up signature and a publisher derived from a name,
+	 * so that objects built with the same publisher name have the same publisher.
+	 *
+	 * @param name
+	 * @param content
+	 * @param publisherName
+	 * @return the object
+	 */
+	public static ContentObject fakeSignedObject(ContentName name, byte [] content, String publisherName) {
+		PublisherPublicKeyDigest publisher = new PublisherPublicKeyDigest(CCNDigestHelper.digest(publisherName.getBytes()));
+		return new ContentObject(name, new SignedInfo(publisher, ContentType.DATA, null), content,
+				new Signature("fake signature".getBytes()));
+	}
 }
@@ -0,0 +1,88 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl.support;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.protocol.ContentName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ComponentInternerTest {
+
+	@After
+	public void tearDown() {
+		ComponentInterner.setDefault(null);
+	}
+
+	@Test
+	public void testIntern() throws Exception {
+		ComponentInterner interner = new ComponentInterner(100);
+		Assert.assertEquals(128, interner.size());
+
+		byte [] a = "segment".getBytes();
+		byte [] b = "segment".getBytes();
+		Assert.assertSame(a, interner.intern(a));
+		Assert.assertSame(a, interner.intern(b));
+		Assert.assertEquals(2, interner.getStats().getCounter("Lookups"));
+		Assert.assertEquals(1, interner.getStats().getCounter("Hits"));
+		Assert.assertEquals(b.length, interner.getStats().getCounter("BytesSaved"));
+		Assert.assertEquals(0.5, interner.hitRate(), 0.0);
+
+		byte [] big = new byte[ComponentInterner.MAX_INTERN_LENGTH + 1];
+		Assert.assertSame(big, interner.intern(big));
+		Assert.assertNotSame(big, interner.intern(big.clone()));
+		Assert.assertEquals(2, interner.getStats().getCounter("Skipped"));
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		ComponentInterner interner = new ComponentInterner(4);
+		for (int i = 0; i < 1000; i++)
+			interner.intern(DataUtils.unsignedLongToByteArray(i));
+		Assert.assertEquals(4, interner.size());
+		for (int i = 0; i < 1000; i++) {
+			byte [] c = DataUtils.unsignedLongToByteArray(i);
+			Assert.assertArrayEquals(c, interner.intern(c));
+		}
+	}
+
+	@Test
+	public void testDecodedNamesShareComponents() throws Exception {
+		ComponentInterner.setDefault(new ComponentInterner(1024));
+		ContentName name = ContentName.fromURI("/test/interning/%FD%01/%00%02");
+		byte [] encoded = name.encode(BinaryXMLCodec.CODEC_NAME);
+
+		ContentName n1 = new ContentName();
+		n1.decode(encoded, BinaryXMLCodec.CODEC_NAME);
+		ContentName n2 = new ContentName();
+		n2.decode(encoded, BinaryXMLCodec.CODEC_NAME);
+		Assert.assertEquals(name, n1);
+		Assert.assertEquals(n1, n2);
+		for (int i = 0; i < name.count(); i++) {
+			Assert.assertSame(name.component(i), n1.component(i));
+			Assert.assertSame(n1.component(i), n2.component(i));
+		}
+
+		ComponentInterner.setDefault(null);
+		ContentName n3 = new ContentName();
+		n3.decode(encoded, BinaryXMLCodec.CODEC_NAME);
+		Assert.assertEquals(name, n3);
+		Assert.assertNotSame(name.component(0), n3.component(0));
+	}
+}
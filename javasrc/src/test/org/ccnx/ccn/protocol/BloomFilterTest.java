@@ -0,0 +1,187 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLEncoder;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check that BloomFilter builds exactly the same bits as the original reference algorithm,
+ * so filters stay compatible on the wire, for random seeds, sizes and keys.
+ */
+@SuppressWarnings("deprecation")
+public class BloomFilterTest {
+
+	static final int ROUNDS = 200;
+
+	/**
+	 * The original algorithm, kept here as the reference
+	 */
+	static class ReferenceBloom {
+		int lgBits;
+		int nHash;
+		short [] seed = new short[4];
+		byte [] bloom = new byte[1024];
+
+		ReferenceBloom(int estimatedMembers, byte [] seedBytes) {
+			for (int i = 0; i < seedBytes.length; i++)
+				seed[i] = (short)((seedBytes[i]) & 0xff);
+			lgBits = 13;
+			while (lgBits > 3 && (1 << lgBits) > estimatedMembers * 12)
+				lgBits--;
+			nHash = (9 << lgBits) / (13 * estimatedMembers + 1);
+			if (nHash < 2)
+				nHash = 2;
+			if (nHash > 32)
+				nHash = 32;
+		}
+
+		void insert(byte [] key) {
+			long s = computeSeed();
+			for (int i = 0; i < key.length; i++)
+				s = nextHash(s, key[i] + 1);
+			long m = (8*bloom.length - 1) & ((1 << lgBits) - 1);
+			for (int i = 0; i < nHash; i++) {
+				s = nextHash(s, 0);
+				long h = s & m;
+				if ((bloom[(int)(h >> 3)] & (1 << (h & 7))) == 0)
+					bloom[(int)(h >> 3)] |= (1 << (h & 7));
+			}
+		}
+
+		boolean match(byte [] key) {
+			int m = ((8*bloom.length) - 1) & ((1 << lgBits) - 1);
+			long s = computeSeed();
+			for (int k = 0; k < key.length; k++)
+				s = nextHash(s, key[k] + 1);
+			for (int i = 0; i < nHash; i++) {
+				s = nextHash(s, 0);
+				long h = s & m;
+				if (0 == (bloom[(int)h >> 3] & (1 << (h & 7))))
+					return false;
+			}
+			return true;
+		}
+
+		long nextHash(long s, int u) {
+			long k = 13;
+			long b = s & ((1 << k) - 1);
+			s = ((s >> k) ^ (b << (31 - k)) ^ (b << (13 - k))) + u;
+			return(s & 0x7FFFFFFF);
+		}
+
+		long computeSeed() {
+			long u = ((seed[0]) << 24) |((seed[1]) << 16) |((seed[2]) << 8) | (seed[3]);
+			return u & 0x7FFFFFFF;
+		}
+
+		byte [] encode() throws Exception {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			baos.write((byte)lgBits);
+			baos.write((byte)nHash);
+			baos.write('A');
+			baos.write(0);
+			for (int i = 0; i < seed.length; i++)
+				baos.write((byte)seed[i]);
+			baos.write(bloom, 0, 1 << (lgBits - 3));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			BinaryXMLEncoder encoder = new BinaryXMLEncoder();
+			encoder.beginEncoding(out);
+			encoder.writeElement(CCNProtocolDTags.Bloom, baos.toByteArray());
+			encoder.endEncoding();
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	public void testSameBitsAsReference() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSameBitsAsReference");
+
+		Random random = new Random(1234);
+		for (int round = 0; round < ROUNDS; round++) {
+			byte [] seed = new byte[4];
+			random.nextBytes(seed);
+			int members = 1 + random.nextInt(2000);
+			BloomFilter bf = new BloomFilter(members, seed);
+			ReferenceBloom ref = new ReferenceBloom(members, seed);
+
+			byte [][] keys = randomKeys(random, random.nextInt(members + 1));
+			if (random.nextBoolean()) {
+				bf.insert(keys);
+			} else {
+				for (byte [] key : keys)
+					bf.insert(key);
+			}
+			for (byte [] key : keys)
+				ref.insert(key);
+			Assert.assertEquals(keys.length, bf.size());
+			Assert.assertArrayEquals("round " + round, ref.encode(), bf.encode());
+
+			byte [][] probes = randomKeys(random, 50);
+			boolean [] results = bf.match(probes);
+			for (int i = 0; i < probes.length; i++) {
+				Assert.assertEquals(ref.match(probes[i]), bf.match(probes[i]));
+				Assert.assertEquals(ref.match(probes[i]), results[i]);
+			}
+			for (boolean result : bf.match(keys))
+				Assert.assertTrue(result);
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testSameBitsAsReference");
+	}
+
+	@Test
+	public void testDecodedFilter() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDecodedFilter");
+
+		Random random = new Random(5678);
+		BloomFilter bf = new BloomFilter(100, BloomFilter.createSeed());
+		byte [][] keys = randomKeys(random, 100);
+		bf.insert(keys);
+
+		BloomFilter decoded = new BloomFilter();
+		decoded.decode(bf.encode());
+		Assert.assertEquals(bf, decoded);
+		byte [][] probes = randomKeys(random, 500);
+		for (int i = 0; i < probes.length; i++)
+			Assert.assertEquals(bf.match(probes[i]), decoded.match(probes[i]));
+		for (boolean result : decoded.match(keys))
+			Assert.assertTrue(result);
+		try {
+			decoded.insert(keys);
+			Assert.fail("Insert into a decoded filter succeeded");
+		} catch (IllegalArgumentException iae) {}
+
+		Log.info(Log.FAC_TEST, "Completed testDecodedFilter");
+	}
+
+	static byte [][] randomKeys(Random random, int count) {
+		byte [][] keys = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			keys[i] = new byte[random.nextInt(20)];
+			random.nextBytes(keys[i]);
+		}
+		return keys;
+	}
+}
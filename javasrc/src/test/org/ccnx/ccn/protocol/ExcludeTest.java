@@ -20,7 +20,10 @@ package org.ccnx.ccn.protocol;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
+import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -242,4 +245,87 @@ public class ExcludeTest {
 		
 		Log.info(Log.FAC_TEST, "Completed testEncodeDecode");
 	}
+
+	@Test
+	public void testAddAfterTrailingFiller() {
+		Log.info(Log.FAC_TEST, "Starting testAddAfterTrailingFiller");
+
+		al.add(c1);
+		al.add(any);
+		ef = new Exclude(al);
+		ef.add(new byte[][] { b06, b3 });
+		assertEquals(2, ef.size());
+		assertTrue(ef.match(b3));
+		assertTrue(ef.match(b06));
+		assertTrue(ef.match(b000));
+		assertFalse(ef.match(b0));
+
+		al.clear();
+		al.add(c1);
+		al.add(bloom);
+		ef = new Exclude(al);
+		ef.add(new byte[][] { b000, b06, b06 });
+		assertTrue(ef.match(b3));
+		assertTrue(ef.match(b06));
+		assertTrue(ef.match(b000));
+		assertFalse(ef.match(b0));
+		assertEquals(6, ef.size());
+
+		Log.info(Log.FAC_TEST, "Completed testAddAfterTrailingFiller");
+	}
+
+	@Test
+	public void testBulkAdd() {
+		Log.info(Log.FAC_TEST, "Starting testBulkAdd");
+
+		Random rand = new Random(1234);
+		ef = Exclude.uptoFactory(b06);
+		ArrayList<byte []> added = new ArrayList<byte []>();
+		for (int round = 0; round < 10; round++) {
+			byte [][] omissions = new byte[50][];
+			for (int i = 0; i < omissions.length; i++) {
+				omissions[i] = new byte[1 + rand.nextInt(3)];
+				rand.nextBytes(omissions[i]);
+				added.add(omissions[i]);
+			}
+			ef.add(omissions);
+		}
+		for (byte [] omission : added)
+			assertTrue(ef.match(omission));
+		assertTrue(ef.match(b1));
+		assertFalse(ef.match("0000".getBytes()));
+
+		// components must still be in order
+		byte [] last = null;
+		for (int i = 0; i < ef.size(); i++) {
+			if (ef.value(i) instanceof ExcludeComponent) {
+				byte [] c = ((ExcludeComponent)ef.value(i)).getComponent();
+				if (null != last)
+					assertTrue(DataUtils.compare(last, c) < 0);
+				last = c;
+			}
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testBulkAdd");
+	}
+
+	@Test
+	public void testCachedEncoding() throws ContentEncodingException, ContentDecodingException {
+		Log.info(Log.FAC_TEST, "Starting testCachedEncoding");
+
+		ef = new Exclude(array);
+		byte [] first = ef.encode();
+		assertArrayEquals(first, ef.encode());
+		ef.excludeUpto(b0);
+		byte [] second = ef.encode();
+		assertFalse(Arrays.equals(first, second));
+		Exclude ef2 = new Exclude();
+		ef2.decode(second);
+		assertEquals(ef, ef2);
+		assertTrue(ef2.match(b0));
+		assertTrue(ef2.match(b1));
+		assertFalse(ef2.match(b3));
+
+		Log.info(Log.FAC_TEST, "Completed testCachedEncoding");
+	}
 }
@@ -0,0 +1,149 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.protocol;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that the precomputed matcher of an Interest agrees with its prefix, suffix, digest,
+ * exclude and publisher restrictions.
+ */
+public class InterestMatcherTest {
+
+	static PublisherPublicKeyDigest publisher;
+	static ContentName prefix;
+	static ContentObject co;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		prefix = ContentName.fromURI("/test/matcher");
+		co = TestUtils.fakeSignedObject(new ContentName(prefix, "data", "seg0"), "some content".getBytes());
+		publisher = co.signedInfo().getPublisherKeyID();
+	}
+
+	@Test
+	public void testPrefixAndSuffix() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testPrefixAndSuffix");
+
+		Assert.assertTrue(new Interest(prefix).matches(co));
+		Assert.assertTrue(new Interest(co.name()).matches(co));
+		Assert.assertFalse(new Interest(new ContentName(prefix, "other")).matches(co));
+		Assert.assertFalse(new Interest(new ContentName(co.name(), "longer", "still")).matches(co));
+
+		Interest interest = new Interest(prefix);
+		interest.maxSuffixComponents(2);
+		Assert.assertFalse(interest.matches(co));
+		interest.maxSuffixComponents(3);
+		Assert.assertTrue(interest.matches(co));
+		interest.minSuffixComponents(4);
+		Assert.assertFalse(interest.matches(co));
+
+		Log.info(Log.FAC_TEST, "Completed testPrefixAndSuffix");
+	}
+
+	@Test
+	public void testDigest() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDigest");
+
+		Interest exact = new Interest(co.fullName());
+		exact.maxSuffixComponents(0);
+		Assert.assertTrue(exact.matches(co));
+		Assert.assertTrue(new Interest(co.fullName()).matches(co));
+
+		byte [] wrongDigest = co.digest().clone();
+		wrongDigest[0]++;
+		Assert.assertFalse(new Interest(new ContentName(co.name(), wrongDigest)).matches(co));
+
+		// Excluding the digest of the object only works when the Interest names the whole object
+		Interest excluded = new Interest(co.name());
+		excluded.exclude(new Exclude(new byte [][]{co.digest()}));
+		Assert.assertFalse(excluded.matches(co));
+		excluded.exclude(new Exclude(new byte [][]{wrongDigest}));
+		Assert.assertTrue(excluded.matches(co));
+
+		Log.info(Log.FAC_TEST, "Completed testDigest");
+	}
+
+	@Test
+	public void testExcludeAndPublisher() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testExcludeAndPublisher");
+
+		Interest interest = new Interest(prefix, publisher);
+		InterestMatcher matcher = interest.matcher();
+		Assert.assertSame(matcher, interest.matcher());
+		Assert.assertTrue(matcher.matches(co));
+		Assert.assertFalse(matcher.matches(co, null));
+		Assert.assertFalse(matcher.matches(null));
+
+		interest.exclude(new Exclude(new byte [][]{"data".getBytes()}));
+		Assert.assertNotSame(matcher, interest.matcher());
+		Assert.assertFalse(interest.matches(co));
+		Assert.assertFalse(interest.matcher().matchesName(co.name()));
+		Assert.assertEquals(interest.matches(co.name(), null), interest.matcher().matchesName(co.name()));
+
+		interest.exclude().add(new byte [][]{"aaa".getBytes()});
+		Assert.assertFalse(interest.matches(co));
+		interest.exclude(null);
+		Assert.assertTrue(interest.matches(co));
+
+		Log.info(Log.FAC_TEST, "Completed testExcludeAndPublisher");
+	}
+
+	@Test
+	public void testMatchesName() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testMatchesName");
+
+		ContentName [] names = new ContentName[]{prefix, co.name(), new ContentName(prefix, "data"),
+				new ContentName(prefix, "zzz", "yyy"), ContentName.fromURI("/test")};
+		Interest interest = new Interest(prefix);
+		for (int max = -1; max < 4; max++) {
+			interest.maxSuffixComponents(max < 0 ? null : max);
+			for (ContentName name : names)
+				Assert.assertEquals(name + " max " + max, interest.matches(name, null), interest.matcher().matchesName(name));
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testMatchesName");
+	}
+
+	@Test
+	public void testMatchesWithoutContent() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testMatchesWithoutContent");
+
+		PublisherPublicKeyDigest other = new PublisherPublicKeyDigest(CCNDigestHelper.digest("other".getBytes()));
+		Interest [] interests = new Interest[]{new Interest(prefix), new Interest(prefix, publisher),
+				new Interest(prefix, other), new Interest(co.fullName()), new Interest(co.name()),
+				new Interest(new ContentName(prefix, "zzz"))};
+		interests[4].exclude(new Exclude(new byte [][]{co.digest()}));
+		for (Interest interest : interests) {
+			for (int max = -1; max < 4; max++) {
+				interest.maxSuffixComponents(max < 0 ? null : max);
+				InterestMatcher matcher = interest.matcher();
+				Assert.assertEquals(interest + " max " + max, matcher.matches(co),
+						matcher.matches(co.name(), co.digest(), co.signedInfo().getPublisherKeyID()));
+			}
+		}
+		Assert.assertFalse(new Interest(prefix).matcher().matches(co.name(), null, publisher));
+
+		Log.info(Log.FAC_TEST, "Completed testMatchesWithoutContent");
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.config.UserConfiguration;
+import org.ccnx.ccn.impl.repo.BulkImporter;
+import org.ccnx.ccn.impl.repo.LogFileFormat;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.RepositoryException;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test importing files of content, framed or not, into a store which only records what it is
+ * asked to save.
+ */
+public class BulkImporterTest {
+
+	static final int RECORDS = BulkImporter.BATCH_RECORDS * 3 + 11;
+
+	/**
+	 * Collects the content saved instead of writing it. Saves wait for release once blocked
+	 * has been counted down.
+	 */
+	static class Store extends LogStructRepoStore {
+		final HashSet<ContentObject> saved = new HashSet<ContentObject>();
+		final CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = null;
+
+		Store(File root) {
+			_repositoryRoot = root.getPath();
+		}
+
+		@Override
+		public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+			if (null != release) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RepositoryException("Interrupted");
+				}
+			}
+			synchronized (saved) {
+				saved.addAll(content);
+			}
+			return new ArrayList<NameEnumerationResponse>();
+		}
+	}
+
+	File _root;
+	File _importDir;
+
+	@Before
+	public void setUp() throws Exception {
+		_root = File.createTempFile("BulkImporterTest", "");
+		_root.delete();
+		_importDir = new File(_root, LogStructRepoStoreProfile.REPO_IMPORT_DIR);
+		Assert.assertTrue(_importDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DataUtils.deleteDirectory(_root);
+	}
+
+	/**
+	 * Write records to an import file
+	 * @param framed write a log file with record headers rather than bare ContentObjects
+	 * @param garbage if not negative, write a record which isn't a ContentObject before this one
+	 */
+	ArrayList<ContentObject> write(File file, boolean framed, int garbage) throws Exception {
+		ArrayList<ContentObject> objects = new ArrayList<ContentObject>();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			if (framed)
+				out.write(LogFileFormat.fileHeader());
+			for (int i = 0; i < RECORDS; i++) {
+				if (i == garbage) {
+					byte [] record = "not a content object".getBytes();
+					out.write(LogFileFormat.recordHeader(record).array());
+					out.write(record);
+				}
+				ContentObject object = LogIndexBuilderTest.object("/test/import/" + (i % 7) + "/" + i, i);
+				objects.add(object);
+				if (framed)
+					LogIndexBuilderTest.write(out, object);
+				else
+					object.encode(out);
+			}
+		} finally {
+			out.close();
+		}
+		return objects;
+	}
+
+	@Test
+	public void testFramed() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testFramed");
+
+		File file = new File(_importDir, "framed");
+		ArrayList<ContentObject> objects = write(file, true, -1);
+		Store store = new Store(_root);
+		Assert.assertEquals(RECORDS, new BulkImporter(store, 3).importFile(file));
+		Assert.assertEquals(new HashSet<ContentObject>(objects), store.saved);
+
+		Log.info(Log.FAC_TEST, "Completed testFramed");
+	}
+
+	@Test
+	public void testUnframed() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testUnframed");
+
+		File file = new File(_importDir, "unframed");
+		ArrayList<ContentObject> objects = write(file, false, -1);
+		Store store = new Store(_root);
+		Assert.assertEquals(RECORDS, new BulkImporter(store, 3).importFile(file));
+		Assert.assertEquals(new HashSet<ContentObject>(objects), store.saved);
+
+		Log.info(Log.FAC_TEST, "Completed testUnframed");
+	}
+
+	@Test
+	public void testUndecodable() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testUndecodable");
+
+		File file = new File(_importDir, "undecodable");
+		ArrayList<ContentObject> objects = write(file, true, RECORDS / 2);
+		Store store = new Store(_root);
+		try {
+			store.bulkImport(file.getName());
+			Assert.fail("Imported a file with a record which can't be decoded");
+		} catch (RepositoryException e) {}
+
+		// Everything else is imported, but the file is kept
+		Assert.assertEquals(new HashSet<ContentObject>(objects), store.saved);
+		Assert.assertTrue(file.exists());
+
+		Log.info(Log.FAC_TEST, "Completed testUndecodable");
+	}
+
+	@Test
+	public void testInProgress() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testInProgress");
+
+		final File file = new File(_importDir, "slow");
+		ArrayList<ContentObject> objects = write(file, true, -1);
+		final Store store = new Store(_root);
+		store.release = new CountDownLatch(1);
+		final ArrayList<Object> results = new ArrayList<Object>();
+		Thread importer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					results.add(store.bulkImport(file.getName()));
+				} catch (RepositoryException e) {
+					results.add(e);
+				}
+			}
+		};
+		importer.start();
+		Assert.assertTrue(store.blocked.await(5, TimeUnit.SECONDS));
+
+		// A reexpressed interest for the import is ignored while it runs, and once it is done
+		Assert.assertFalse(store.bulkImport(file.getName()));
+		store.release.countDown();
+		importer.join(10000);
+		Assert.assertFalse(importer.isAlive());
+		Assert.assertEquals(Boolean.TRUE, results.get(0));
+		Assert.assertEquals(new HashSet<ContentObject>(objects), store.saved);
+		Assert.assertFalse(file.exists());
+		Assert.assertFalse(store.bulkImport(file.getName()));
+
+		// A file which was never imported is an error
+		try {
+			store.bulkImport("missing");
+			Assert.fail("Imported a file which doesn't exist");
+		} catch (RepositoryException e) {}
+		try {
+			store.bulkImport("sub" + UserConfiguration.FILE_SEP + "file");
+			Assert.fail("Imported a path name");
+		} catch (RepositoryException e) {}
+
+		Log.info(Log.FAC_TEST, "Completed testInProgress");
+	}
+}
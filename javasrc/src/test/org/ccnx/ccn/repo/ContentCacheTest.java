@@ -0,0 +1,193 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.ByteArrayOutputStream;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.encoding.TextXMLCodec;
+import org.ccnx.ccn.impl.repo.ContentCache;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Exercise the repository content cache: keeping wire encodings, staying within its size
+ * bound, resisting scans and holding read ahead content.
+ */
+public class ContentCacheTest {
+	
+	static final int OBJECTS = 2000;
+	static final int CONTENT_SIZE = 1000;
+	
+	static class Ref extends ContentRef {}
+	
+	static ContentObject [] objects = new ContentObject[OBJECTS];
+	static Ref [] refs = new Ref[OBJECTS];
+	static int encodedSize;
+	
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		for (int i = 0; i < OBJECTS; i++) {
+			ContentObject co = TestUtils.fakeSignedObject(ContentName.fromURI("/test/cache/" + i), new byte[CONTENT_SIZE]);
+			objects[i] = ContentObject.fromWire(co.encode());
+			refs[i] = new Ref();
+		}
+		encodedSize = objects[0].wireEncoding().length;
+	}
+	
+	@Test
+	public void testWireEncoding() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testWireEncoding");
+		
+		ContentObject co = objects[0];
+		ContentObject decoded = new ContentObject();
+		decoded.decode(co.wireEncoding());
+		Assert.assertNull(decoded.wireEncoding());
+		Assert.assertEquals(decoded, co);
+		Assert.assertArrayEquals(decoded.encode(), co.encode());
+		Assert.assertArrayEquals(decoded.digest(), co.digest());
+		Assert.assertArrayEquals(decoded.encode(TextXMLCodec.codecName()), co.encode(TextXMLCodec.codecName()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		co.encode(out);
+		Assert.assertArrayEquals(co.wireEncoding(), out.toByteArray());
+		
+		Log.info(Log.FAC_TEST, "Completed testWireEncoding");
+	}
+	
+	@Test
+	public void testBounded() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBounded");
+		
+		ContentCache cache = new ContentCache(100L * encodedSize);
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		cache.setStats(stats);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < OBJECTS; i++) {
+				if (null == cache.get(refs[i]))
+					cache.put(refs[i], objects[i]);
+				else
+					Assert.assertSame(objects[i], cache.get(refs[i]));
+				Assert.assertTrue(cache.size() <= cache.maxSize());
+			}
+		}
+		Assert.assertTrue(stats.getCounter("ContentCacheMisses") > 0);
+		Assert.assertTrue(stats.getCounter("ContentCacheRejections") + stats.getCounter("ContentCacheEvictions") > 0);
+		
+		cache.remove(refs[0]);
+		Assert.assertNull(cache.get(refs[0]));
+		
+		// Objects without their wire encoding aren't cached
+		ContentObject co = new ContentObject();
+		co.decode(objects[1].wireEncoding());
+		Ref ref = new Ref();
+		cache.put(ref, co);
+		Assert.assertNull(cache.get(ref));
+		
+		Log.info(Log.FAC_TEST, "Completed testBounded");
+	}
+	
+	@Test
+	public void testScanResistance() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testScanResistance");
+		
+		int hot = 50;
+		ContentCache cache = new ContentCache(100L * encodedSize);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < hot; i++) {
+				if (null == cache.get(refs[i]))
+					cache.put(refs[i], objects[i]);
+			}
+		}
+		// A scan through everything else reads each object once
+		for (int i = hot; i < OBJECTS; i++) {
+			if (null == cache.get(refs[i]))
+				cache.put(refs[i], objects[i]);
+		}
+		int hits = 0;
+		for (int i = 0; i < hot; i++) {
+			if (null != cache.get(refs[i]))
+				hits++;
+		}
+		Assert.assertTrue("only " + hits + " hot objects still cached", hits >= hot * 9 / 10);
+		
+		Log.info(Log.FAC_TEST, "Completed testScanResistance");
+	}
+	
+	@Test
+	public void testReadAhead() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testReadAhead");
+		
+		int hot = 50;
+		ContentCache cache = new ContentCache(120L * encodedSize, 20L * encodedSize);
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		cache.setStats(stats);
+		Assert.assertTrue(cache.readsAhead());
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < hot; i++) {
+				if (null == cache.get(refs[i]))
+					cache.put(refs[i], objects[i]);
+			}
+		}
+		
+		// Read through everything else, 10 objects ahead of asking for them
+		for (int i = hot; i < hot + 10; i++)
+			cache.readAhead(refs[i], objects[i]);
+		for (int i = hot; i < OBJECTS; i++) {
+			Assert.assertTrue(cache.contains(refs[i]));
+			Assert.assertSame(objects[i], cache.get(refs[i]));
+			if (i + 10 < OBJECTS)
+				cache.readAhead(refs[i + 10], objects[i + 10]);
+			Assert.assertTrue(cache.size() <= cache.maxSize());
+		}
+		Assert.assertEquals(OBJECTS - hot, stats.getCounter("ContentCacheReadAheads"));
+		Assert.assertEquals(OBJECTS - hot, stats.getCounter("ContentCacheReadAheadHits"));
+		Assert.assertEquals(0, stats.getCounter("ContentCacheReadAheadsDropped"));
+		int hits = 0;
+		for (int i = 0; i < hot; i++) {
+			if (null != cache.get(refs[i]))
+				hits++;
+		}
+		Assert.assertTrue("only " + hits + " hot objects still cached", hits >= hot * 9 / 10);
+		
+		// Content read ahead too far is dropped, and content already cached isn't read ahead again
+		Ref [] ahead = new Ref[40];
+		for (int i = 0; i < ahead.length; i++) {
+			ahead[i] = new Ref();
+			cache.readAhead(ahead[i], objects[i]);
+		}
+		Assert.assertTrue(stats.getCounter("ContentCacheReadAheadsDropped") >= 20);
+		Assert.assertFalse(cache.contains(ahead[0]));
+		Assert.assertTrue(cache.contains(ahead[39]));
+		cache.remove(ahead[39]);
+		Assert.assertFalse(cache.contains(ahead[39]));
+		Assert.assertNull(cache.get(ahead[39]));
+		long readAheads = stats.getCounter("ContentCacheReadAheads");
+		cache.readAhead(refs[0], objects[0]);
+		Assert.assertEquals(readAheads, stats.getCounter("ContentCacheReadAheads"));
+		Assert.assertFalse(new ContentCache(100L * encodedSize).readsAhead());
+		
+		Log.info(Log.FAC_TEST, "Completed testReadAhead");
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.ContentTree.ContentGetter;
+import org.ccnx.ccn.impl.repo.NameEnumerationCache;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.CommandMarker;
+import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherID;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test ContentTree lookups, name enumeration and secondary indexes against content held in a
+ * map rather than on disk.
+ */
+public class ContentTreeTest {
+	
+	static final int CHILDREN = 300;
+	static final int WRITERS = 3;
+	static final int READERS = 3;
+	static final int ROUNDS = 10;
+	
+	static class ObjectRef extends ContentRef {
+		final ContentObject object;
+		ObjectRef(ContentObject object) { this.object = object; }
+	}
+	
+	static final ContentGetter GETTER = new ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return ((ObjectRef)ref).object;
+		}
+	};
+	
+	static final ContentTree.ContentRefSerializer SERIALIZER = new ContentTree.ContentRefSerializer() {
+		public void write(ContentRef ref, DataOutputStream out) throws IOException {
+			byte [] encoded = ((ObjectRef)ref).object.encode();
+			out.writeInt(encoded.length);
+			out.write(encoded);
+		}
+		
+		public ContentRef read(DataInputStream in) throws IOException {
+			byte [] encoded = new byte[in.readInt()];
+			in.readFully(encoded);
+			return new ObjectRef(ContentObject.fromWire(encoded));
+		}
+	};
+	
+	static class PublishedRef extends ObjectRef {
+		PublishedRef(ContentObject object) { super(object); }
+		
+		@Override
+		public PublisherPublicKeyDigest publisher() {
+			return object.signedInfo().getPublisherKeyID();
+		}
+	}
+	
+	static ContentObject object(ContentName name, String content) throws Exception {
+		return object(name, content, "publisher");
+	}
+	
+	static ContentObject object(ContentName name, String content, String publisherName) throws Exception {
+		return TestUtils.fakeSignedObject(name, content.getBytes(), publisherName);
+	}
+	
+	@Test
+	public void testManyChildren() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testManyChildren");
+		
+		// Insert children in random order, so they are added all over the sorted children
+		ContentName prefix = ContentName.fromURI("/test/tree");
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < CHILDREN; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(1234));
+		ContentTree tree = new ContentTree();
+		ContentObject [] objects = new ContentObject[CHILDREN];
+		for (int i : order) {
+			objects[i] = object(new ContentName(prefix, String.format("child%04d", i)), "content " + i);
+			Assert.assertTrue(tree.insert(objects[i], new ObjectRef(objects[i]), i, GETTER, null));
+		}
+		Assert.assertFalse(tree.insert(objects[7], new ObjectRef(objects[7]), 0, GETTER, null));
+		checkChildren(tree, prefix, objects);
+		
+		// Interests for each child exactly, and for the next one along
+		for (int i = 0; i < CHILDREN; i++) {
+			Assert.assertEquals(objects[i], tree.get(new Interest(objects[i].name()), GETTER));
+			Interest next = Interest.next(objects[i].name(), prefix.count(), null);
+			Assert.assertEquals((i + 1 < CHILDREN) ? objects[i + 1] : null, tree.get(next, GETTER));
+		}
+		
+		// Writing and reading the tree back keeps the order
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeTree(new DataOutputStream(out), SERIALIZER);
+		ContentTree copy = new ContentTree();
+		Assert.assertEquals(CHILDREN, copy.readTree(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), SERIALIZER));
+		checkChildren(copy, prefix, objects);
+		
+		// Remove every other child, and then all of them
+		for (int i = 0; i < CHILDREN; i += 2)
+			Assert.assertTrue(tree.remove(objects[i].fullName(), tree.getRefs(objects[i].fullName()).get(0)));
+		for (int i = 0; i < CHILDREN; i++)
+			Assert.assertEquals((i % 2 == 0) ? null : objects[i], tree.get(new Interest(objects[i].name()), GETTER));
+		Assert.assertEquals(objects[CHILDREN - 1], tree.get(Interest.last(prefix, prefix.count(), null), GETTER));
+		for (int i = 1; i < CHILDREN; i += 2)
+			Assert.assertTrue(tree.remove(objects[i].fullName(), tree.getRefs(objects[i].fullName()).get(0)));
+		Assert.assertNull(tree.get(new Interest(prefix), GETTER));
+		Assert.assertNull(tree.getChildComponents(prefix));
+		
+		Log.info(Log.FAC_TEST, "Completed testManyChildren");
+	}
+	
+	@Test
+	public void testSeveralRefs() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSeveralRefs");
+		
+		ContentTree tree = new ContentTree();
+		ContentObject object = object(ContentName.fromURI("/test/tree/refs"), "content");
+		ObjectRef [] refs = new ObjectRef[3];
+		for (int i = 0; i < refs.length; i++) {
+			refs[i] = new ObjectRef(object);
+			Assert.assertEquals(i == 0, tree.insert(object.fullName(), refs[i], 0));
+		}
+		// Only the full content check lets several refs share a name
+		ContentTree.ContentGetter never = new ContentGetter() {
+			public ContentObject get(ContentRef ref) {
+				return null;
+			}
+		};
+		Assert.assertTrue(tree.insert(object, refs[1], 0, never, null));
+		Assert.assertTrue(tree.insert(object, refs[2], 0, never, null));
+		Assert.assertEquals(3, tree.getRefs(object.fullName()).size());
+		
+		ObjectRef moved = new ObjectRef(object);
+		Assert.assertTrue(tree.replace(object.fullName(), refs[1], moved));
+		Assert.assertFalse(tree.replace(object.fullName(), refs[1], moved));
+		Assert.assertTrue(tree.remove(object.fullName(), refs[0]));
+		Assert.assertTrue(tree.remove(object.fullName(), refs[2]));
+		List<ContentRef> left = tree.getRefs(object.fullName());
+		Assert.assertEquals(1, left.size());
+		Assert.assertSame(moved, left.get(0));
+		Assert.assertEquals(object, tree.get(new Interest(object.name()), GETTER));
+		
+		Log.info(Log.FAC_TEST, "Completed testSeveralRefs");
+	}
+	
+	@Test
+	public void testEnumerationCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testEnumerationCache");
+		
+		ContentName prefix = ContentName.fromURI("/test/tree/enumerate");
+		ContentName enumeration = new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION);
+		ContentTree tree = new ContentTree();
+		NameEnumerationCache cache = new NameEnumerationCache(2);
+		tree.setEnumerationCache(cache);
+		ContentObject [] objects = new ContentObject[4];
+		for (int i = 0; i < objects.length; i++)
+			objects[i] = object(new ContentName(prefix, "child" + i), "content " + i);
+		Assert.assertTrue(tree.insert(objects[0], new ObjectRef(objects[0]), 1000, GETTER, null));
+		Assert.assertTrue(tree.insert(objects[1], new ObjectRef(objects[1]), 2000, GETTER, null));
+		
+		// Nothing is cached yet, so the names are listed
+		NameEnumerationResponse ner = tree.getNamesWithPrefix(new Interest(enumeration), prefix);
+		Assert.assertFalse(ner instanceof NameEnumerationCache.CachedResponse);
+		Assert.assertEquals(enumeration, ner.getPrefix());
+		Assert.assertEquals(2, ner.getNames().size());
+		
+		// Once the response is cached it is used until the children change. Any objects
+		// will do as the segments of the response.
+		ContentObject [] segments = new ContentObject[]{objects[0], objects[1]};
+		cache.put(ner.getPrefix(), ner.getTimestamp(), segments);
+		CCNTime version = ner.getTimestamp();
+		ner = tree.getNamesWithPrefix(new Interest(enumeration), prefix);
+		Assert.assertTrue(ner instanceof NameEnumerationCache.CachedResponse);
+		Assert.assertSame(segments, ((NameEnumerationCache.CachedResponse)ner).getSegments());
+		Assert.assertEquals(version, ner.getTimestamp());
+		
+		Assert.assertTrue(tree.insert(objects[2], new ObjectRef(objects[2]), 3000, GETTER, null));
+		ner = tree.getNamesWithPrefix(new Interest(enumeration), prefix);
+		Assert.assertFalse(ner instanceof NameEnumerationCache.CachedResponse);
+		Assert.assertEquals(3, ner.getNames().size());
+		Assert.assertTrue(ner.getTimestamp().after(version));
+		
+		// An older version doesn't replace a newer one
+		cache.put(ner.getPrefix(), ner.getTimestamp(), segments);
+		cache.put(ner.getPrefix(), version, new ContentObject[]{objects[2]});
+		Assert.assertSame(segments, cache.get(enumeration, ner.getTimestamp()));
+		Assert.assertNull(cache.get(enumeration, version));
+		
+		// A child added without the timestamp moving on still makes the cached response out of date
+		Assert.assertTrue(tree.getNamesWithPrefix(new Interest(enumeration), prefix) instanceof NameEnumerationCache.CachedResponse);
+		Assert.assertTrue(tree.insert(objects[3], new ObjectRef(objects[3]), 3000, GETTER, null));
+		ner = tree.getNamesWithPrefix(new Interest(enumeration), prefix);
+		Assert.assertFalse(ner instanceof NameEnumerationCache.CachedResponse);
+		Assert.assertEquals(4, ner.getNames().size());
+		
+		// The least recently used prefix is dropped
+		cache.put(enumeration, ner.getTimestamp(), segments);
+		cache.put(new ContentName(objects[0].name(), CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION), version, segments);
+		Assert.assertNotNull(cache.get(enumeration, ner.getTimestamp()));
+		cache.put(new ContentName(objects[1].name(), CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION), version, segments);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNotNull(cache.get(enumeration, ner.getTimestamp()));
+		Assert.assertNull(cache.get(new ContentName(objects[0].name(), CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION), version));
+		
+		Log.info(Log.FAC_TEST, "Completed testEnumerationCache");
+	}
+	
+	/**
+	 * The digest and publisher indexes must never change which content is found
+	 */
+	@Test
+	public void testIndexes() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testIndexes");
+		
+		ContentName prefix = ContentName.fromURI("/test/tree/indexes");
+		String [] publishers = new String[]{"alice", "bob", "carol"};
+		Random random = new Random(4321);
+		ContentObject [] objects = new ContentObject[200];
+		for (int i = 0; i < objects.length; i++) {
+			// Each branch is mostly one publisher's, with a few objects from the others
+			int branch = random.nextInt(6);
+			String publisher = publishers[(random.nextInt(10) == 0) ? random.nextInt(publishers.length) : branch % publishers.length];
+			objects[i] = object(new ContentName(prefix, "branch" + branch, "item" + random.nextInt(20)), "content " + i, publisher);
+		}
+		
+		ContentTree plain = new ContentTree();
+		ContentTree indexed = new ContentTree();
+		indexed.setIndexed(true);
+		ContentTree later = new ContentTree();
+		for (ContentObject object : objects) {
+			plain.insert(object, new PublishedRef(object), 0, GETTER, null);
+			indexed.insert(object, new PublishedRef(object), 0, GETTER, null);
+			later.insert(object, new PublishedRef(object), 0, GETTER, null);
+		}
+		later.setIndexed(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		indexed.writeTree(new DataOutputStream(out), SERIALIZER);
+		ContentTree copy = new ContentTree();
+		copy.setIndexed(true);
+		copy.readTree(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), SERIALIZER);
+		Assert.assertTrue(copy.isIndexed());
+		
+		ArrayList<Interest> interests = new ArrayList<Interest>();
+		for (ContentObject object : objects) {
+			Interest exact = new Interest(object.fullName());
+			exact.maxSuffixComponents(0);
+			interests.add(exact);
+			interests.add(new Interest(object.fullName()));
+		}
+		// The right digest under the wrong name
+		Interest moved = new Interest(new ContentName(prefix, "branch9", "item0", objects[0].digest()));
+		moved.maxSuffixComponents(0);
+		interests.add(moved);
+		ContentName [] prefixes = new ContentName[]{prefix, new ContentName(prefix, "branch1"), 
+				new ContentName(prefix, "branch4", "item3"), ContentName.fromURI("/test")};
+		for (ContentName name : prefixes) {
+			interests.add(Interest.last(name, null, null));
+			for (String publisher : new String[]{"alice", "bob", "carol", "nobody"}) {
+				PublisherPublicKeyDigest key = new PublisherPublicKeyDigest(CCNDigestHelper.digest(publisher.getBytes()));
+				interests.add(new Interest(name, key));
+				Interest last = Interest.last(name, null, null);
+				last.publisherID(new PublisherID(key));
+				interests.add(last);
+			}
+		}
+		checkSameResults(plain, interests, indexed, later, copy);
+		
+		// Removing content takes it out of the digest index
+		for (int i = 0; i < objects.length; i += 3) {
+			for (ContentTree tree : new ContentTree[]{plain, indexed}) {
+				List<ContentRef> refs = tree.getRefs(objects[i].fullName());
+				if (null != refs)
+					Assert.assertTrue(tree.remove(objects[i].fullName(), refs.get(0)));
+			}
+		}
+		for (int i = 0; i < objects.length; i++)
+			Assert.assertEquals(plain.matchContent(objects[i].fullName()), indexed.matchContent(objects[i].fullName()));
+		checkSameResults(plain, interests, indexed);
+		
+		Log.info(Log.FAC_TEST, "Completed testIndexes");
+	}
+	
+	void checkSameResults(ContentTree expected, List<Interest> interests, ContentTree ... trees) {
+		for (Interest interest : interests) {
+			ContentObject result = expected.get(interest, GETTER);
+			for (ContentTree tree : trees)
+				Assert.assertEquals(interest.toString(), result, tree.get(interest, GETTER));
+		}
+	}
+	
+	/**
+	 * Readers don't lock the tree, so check that they always see consistent children while
+	 * other threads are adding and removing children all over the same node
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentReaders");
+		
+		final ContentName prefix = ContentName.fromURI("/test/tree/concurrent");
+		final ContentTree tree = new ContentTree();
+		final ContentObject [] stable = new ContentObject[CHILDREN];
+		for (int i = 0; i < CHILDREN; i++) {
+			stable[i] = object(new ContentName(prefix, String.format("c%04d-s0", i)), "stable " + i);
+			tree.insert(stable[i], new ObjectRef(stable[i]), 0, GETTER, null);
+		}
+		
+		// Writer names sort between the stable names, but never after the last one. Shorter
+		// components sort first, so all the names are the same length.
+		final ContentObject [][] added = new ContentObject[WRITERS][CHILDREN - 1];
+		for (int w = 0; w < WRITERS; w++)
+			for (int i = 0; i < CHILDREN - 1; i++)
+				added[w][i] = object(new ContentName(prefix, String.format("c%04d-w%d", i, w)), "added " + i);
+		
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Interest first = new Interest(prefix);
+		final Interest last = Interest.last(prefix, prefix.count(), null);
+		ArrayList<Thread> writers = new ArrayList<Thread>();
+		ArrayList<Thread> readers = new ArrayList<Thread>();
+		for (int w = 0; w < WRITERS; w++) {
+			final ContentObject [] mine = added[w];
+			writers.add(new Thread() {
+				public void run() {
+					try {
+						for (int round = 0; round < ROUNDS; round++) {
+							for (ContentObject object : mine)
+								Assert.assertTrue(tree.insert(object, new ObjectRef(object), round, GETTER, null));
+							for (ContentObject object : mine)
+								Assert.assertTrue(tree.remove(object.fullName(), tree.getRefs(object.fullName()).get(0)));
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+		for (int r = 0; r < READERS; r++) {
+			readers.add(new Thread() {
+				public void run() {
+					try {
+						Random random = new Random();
+						while (null == failure.get() && !isInterrupted()) {
+							int i = random.nextInt(CHILDREN);
+							Assert.assertEquals(stable[i], tree.get(new Interest(stable[i].name()), GETTER));
+							Assert.assertEquals(stable[0], tree.get(first, GETTER));
+							Assert.assertEquals(stable[CHILDREN - 1], tree.get(last, GETTER));
+							List<byte []> components = tree.getChildComponents(prefix);
+							for (int c = 1; c < components.size(); c++)
+								Assert.assertTrue(DataUtils.compare(components.get(c - 1), components.get(c)) < 0);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+		for (Thread thread : readers)
+			thread.start();
+		for (Thread thread : writers)
+			thread.start();
+		for (Thread thread : writers)
+			thread.join();
+		for (Thread thread : readers) {
+			thread.interrupt();
+			thread.join();
+		}
+		if (null != failure.get())
+			throw new AssertionError(failure.get());
+		checkChildren(tree, prefix, stable);
+		
+		Log.info(Log.FAC_TEST, "Completed testConcurrentReaders");
+	}
+	
+	void checkChildren(ContentTree tree, ContentName prefix, ContentObject [] objects) throws Exception {
+		List<byte []> components = tree.getChildComponents(prefix);
+		Assert.assertEquals(objects.length, components.size());
+		for (int i = 0; i < objects.length; i++)
+			Assert.assertArrayEquals(objects[i].name().lastComponent(), components.get(i));
+		Assert.assertEquals(objects[0], tree.get(new Interest(prefix), GETTER));
+		Assert.assertEquals(objects[objects.length - 1], tree.get(Interest.last(prefix, prefix.count(), null), GETTER));
+		
+		NameEnumerationResponse ner = tree.getNamesWithPrefix(
+				new Interest(new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION)), prefix);
+		Assert.assertNotNull(ner);
+		Assert.assertEquals(objects.length, ner.getNames().size());
+		for (int i = 0; i < objects.length; i++)
+			Assert.assertArrayEquals(objects[i].name().lastComponent(), ner.getNames().get(i).component(0));
+	}
+}
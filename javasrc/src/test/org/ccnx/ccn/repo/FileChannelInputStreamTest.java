@@ -0,0 +1,164 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.ccnx.ccn.impl.repo.FileChannelInputStream;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that streams over one FileChannel read and skip from their own positions, including
+ * while the file is being appended to.
+ */
+public class FileChannelInputStreamTest {
+
+	static final int LENGTH = 10000;
+
+	File _file;
+	FileInputStream _in;
+	FileChannel _channel;
+
+	static byte value(long position) {
+		return (byte)(position * 31);
+	}
+
+	static void append(FileOutputStream out, long from, int length) throws Exception {
+		byte [] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = value(from + i);
+		out.write(data);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		_file = File.createTempFile("FileChannelInputStreamTest", "");
+		FileOutputStream out = new FileOutputStream(_file);
+		append(out, 0, LENGTH);
+		out.close();
+		_in = new FileInputStream(_file);
+		_channel = _in.getChannel();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		_in.close();
+		_file.delete();
+	}
+
+	@Test
+	public void testReadAndSkip() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testReadAndSkip");
+
+		FileChannelInputStream first = new FileChannelInputStream(_channel, 0);
+		FileChannelInputStream second = new FileChannelInputStream(_channel, 5000);
+
+		// Interleaved reads don't disturb each other or the channel's own position
+		byte [] buffer = new byte[100];
+		Assert.assertEquals(100, first.read(buffer, 0, 100));
+		Assert.assertEquals(value(99), buffer[99]);
+		Assert.assertEquals(value(5000) & 0xff, second.read());
+		Assert.assertEquals(value(100) & 0xff, first.read());
+		Assert.assertEquals(50, second.read(buffer, 10, 50));
+		Assert.assertEquals(value(5001), buffer[10]);
+		Assert.assertEquals(101, first.position());
+		Assert.assertEquals(5051, second.position());
+		Assert.assertEquals(0, _channel.position());
+		Assert.assertEquals(0, first.read(buffer, 0, 0));
+
+		Assert.assertEquals(0, first.skip(-5));
+		Assert.assertEquals(899, first.skip(899));
+		Assert.assertEquals(value(1000) & 0xff, first.read());
+
+		// Skipping stops at the end of the file, where reads return -1
+		Assert.assertEquals(LENGTH - 5051, second.skip(LENGTH));
+		Assert.assertEquals(LENGTH, second.position());
+		Assert.assertEquals(0, second.skip(1));
+		Assert.assertEquals(-1, second.read());
+		Assert.assertEquals(-1, second.read(buffer, 0, buffer.length));
+
+		Log.info(Log.FAC_TEST, "Completed testReadAndSkip");
+	}
+
+	@Test
+	public void testConcurrentReadsWhileAppending() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentReadsWhileAppending");
+
+		final ArrayList<String> failures = new ArrayList<String>();
+		Thread [] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			final int offset = t * 1000;
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int pass = 0; pass < 20; pass++) {
+							FileChannelInputStream in = new FileChannelInputStream(_channel, offset);
+							byte [] buffer = new byte[777];
+							long position = in.position();
+							int n;
+							while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+								for (int i = 0; i < n; i++) {
+									if (buffer[i] != value(position + i))
+										throw new Exception("Wrong byte at " + (position + i));
+								}
+								position += n;
+							}
+							if (position < LENGTH)
+								throw new Exception("Stopped reading at " + position);
+						}
+					} catch (Exception e) {
+						synchronized (failures) {
+							failures.add(e.getMessage());
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+
+		FileOutputStream out = new FileOutputStream(_file, true);
+		try {
+			for (int i = 0; i < 50; i++)
+				append(out, LENGTH + i * 1000, 1000);
+		} finally {
+			out.close();
+		}
+		for (Thread reader : readers) {
+			reader.join(10000);
+			Assert.assertFalse(reader.isAlive());
+		}
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+
+		// Everything appended can be read through the channel opened before it was written
+		FileChannelInputStream in = new FileChannelInputStream(_channel, LENGTH + 49 * 1000);
+		Assert.assertEquals(999, in.skip(999));
+		Assert.assertEquals(value(LENGTH + 49 * 1000 + 999) & 0xff, in.read());
+		Assert.assertEquals(-1, in.read());
+
+		Log.info(Log.FAC_TEST, "Completed testConcurrentReadsWhileAppending");
+	}
+}
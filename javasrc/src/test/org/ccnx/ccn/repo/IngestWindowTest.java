@@ -0,0 +1,104 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import org.ccnx.ccn.impl.repo.IngestWindow;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check how the repository's window of segment interests opens as segments arrive, closes on
+ * timeouts, and how it estimates the round trip time.
+ */
+public class IngestWindowTest {
+	
+	@Test
+	public void testGrowth() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testGrowth");
+		
+		IngestWindow window = new IngestWindow(4, 32);
+		Assert.assertEquals(4, window.window());
+		Assert.assertTrue(window.slowStart());
+		
+		// Slow start doubles the window each round trip
+		for (int i = 0; i < 4; i++)
+			window.received(10);
+		Assert.assertEquals(8, window.window());
+		for (int i = 0; i < 100; i++)
+			window.received(10);
+		Assert.assertEquals(32, window.window());
+		
+		window.timedOut();
+		Assert.assertEquals(16, window.window());
+		Assert.assertFalse(window.slowStart());
+		
+		// Additive increase opens it by one a window of segments
+		for (int i = 0; i < 16; i++)
+			window.received(10);
+		Assert.assertEquals(16, window.window());
+		window.received(10);
+		Assert.assertEquals(17, window.window());
+		for (int i = 0; i < 17; i++)
+			window.received(10);
+		Assert.assertEquals(18, window.window());
+		
+		for (int i = 0; i < 10; i++)
+			window.timedOut();
+		Assert.assertEquals(1, window.window());
+		Assert.assertEquals(11, window.timeouts());
+		Assert.assertEquals(1, new IngestWindow(0, 0).window());
+		
+		Log.info(Log.FAC_TEST, "Completed testGrowth");
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testRoundTrip");
+		
+		IngestWindow window = new IngestWindow(4, 32);
+		Assert.assertEquals(-1, window.srtt());
+		Assert.assertEquals(IngestWindow.INITIAL_RTO, window.rto());
+		
+		window.received(200);
+		Assert.assertEquals(200, window.srtt());
+		Assert.assertEquals(600, window.rto());
+		for (int i = 0; i < 50; i++)
+			window.received(200);
+		Assert.assertEquals(200, window.srtt());
+		Assert.assertTrue(window.rto() < 250);
+		
+		// Retransmitted segments aren't samples
+		window.received(-1);
+		Assert.assertEquals(200, window.srtt());
+		
+		long rto = window.rto();
+		window.timedOut();
+		Assert.assertEquals(2 * rto, window.rto());
+		for (int i = 0; i < 10; i++)
+			window.timedOut();
+		Assert.assertEquals(IngestWindow.MAX_RTO, window.rto());
+		window.received(200);
+		Assert.assertTrue(window.rto() < 300);
+		
+		window.received(0);
+		Assert.assertTrue(window.rto() >= IngestWindow.MIN_RTO);
+		
+		Log.info(Log.FAC_TEST, "Completed testRoundTrip");
+	}
+}
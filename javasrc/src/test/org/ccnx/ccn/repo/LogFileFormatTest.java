@@ -0,0 +1,200 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.repo.LogFileFormat;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the framed log file format: skipping damaged records, upgrading unframed logs and
+ * compressing records.
+ */
+public class LogFileFormatTest {
+	
+	static final int RECORDS = 20;
+	
+	@Test
+	public void testDamagedRecords() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDamagedRecords");
+		
+		File file = File.createTempFile("LogFileFormatTest", "");
+		try {
+			ContentObject [] objects = new ContentObject[RECORDS];
+			long [] offsets = new long[RECORDS];
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(LogFileFormat.fileHeader());
+			for (int i = 0; i < RECORDS; i++) {
+				objects[i] = LogIndexBuilderTest.object("/test/format/" + i, i);
+				offsets[i] = file.length() + LogFileFormat.RECORD_HEADER_SIZE;
+				LogIndexBuilderTest.write(out, objects[i]);
+			}
+			long length = file.length();
+			ByteArrayOutputStream partial = new ByteArrayOutputStream();
+			LogIndexBuilderTest.write(partial, LogIndexBuilderTest.object("/test/format/partial", 0));
+			out.write(partial.toByteArray(), 0, partial.size() - 3);
+			out.close();
+			
+			// Damage the contents of record 3, the length of record 7 and overwrite the header of record 12
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(offsets[3] + 10);
+			raf.write(raf.read() ^ 0xff);
+			raf.seek(offsets[7] - LogFileFormat.RECORD_HEADER_SIZE + 6);
+			raf.write(raf.read() ^ 0x01);
+			raf.seek(offsets[12] - LogFileFormat.RECORD_HEADER_SIZE);
+			raf.writeInt(LogFileFormat.RECORD_MAGIC);
+			raf.writeInt(LogFileFormat.RECORD_MAGIC);
+			raf.close();
+			
+			ArrayList<Integer> found = new ArrayList<Integer>();
+			FileInputStream in = new FileInputStream(file);
+			try {
+				LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), 0);
+				byte [] record;
+				while (null != (record = reader.next())) {
+					int i = found.size() + ((found.size() >= 3) ? 1 : 0) + ((found.size() >= 6) ? 1 : 0) + ((found.size() >= 10) ? 1 : 0);
+					Assert.assertEquals(offsets[i], reader.recordOffset());
+					Assert.assertArrayEquals(objects[i].encode(), record);
+					found.add(i);
+				}
+				Assert.assertEquals(RECORDS - 3, found.size());
+				Assert.assertEquals(3, reader.damaged());
+				Assert.assertTrue(reader.tornTail());
+				Assert.assertEquals(length, reader.end());
+				
+				// Starting from an offset
+				reader = new LogFileFormat.Reader(in.getChannel(), offsets[18] - LogFileFormat.RECORD_HEADER_SIZE);
+				Assert.assertArrayEquals(objects[18].encode(), reader.next());
+				Assert.assertArrayEquals(objects[19].encode(), reader.next());
+				Assert.assertNull(reader.next());
+				Assert.assertEquals(0, reader.damaged());
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testDamagedRecords");
+	}
+	
+	@Test
+	public void testUpgrade() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testUpgrade");
+		
+		File legacy = File.createTempFile("LogFileFormatTest", "");
+		File upgraded = File.createTempFile("LogFileFormatTest", "");
+		try {
+			ContentObject [] objects = new ContentObject[RECORDS];
+			FileOutputStream out = new FileOutputStream(legacy);
+			for (int i = 0; i < RECORDS; i++) {
+				objects[i] = LogIndexBuilderTest.object("/test/upgrade/" + i, i);
+				objects[i].encode(out);
+			}
+			out.write(LogIndexBuilderTest.object("/test/upgrade/partial", 0).encode(), 0, 20);
+			out.close();
+			Assert.assertFalse(LogFileFormat.isFramed(legacy));
+			
+			try {
+				LogFileFormat.upgrade(legacy, upgraded, true);
+				Assert.fail("Strict upgrade accepted a partial record");
+			} catch (IOException e) {}
+			Assert.assertEquals(20, LogFileFormat.upgrade(legacy, upgraded, false));
+			Assert.assertTrue(LogFileFormat.isFramed(upgraded));
+			
+			FileInputStream in = new FileInputStream(upgraded);
+			try {
+				LogFileFormat.Reader reader = new LogFileFormat.Reader(in.getChannel(), 0);
+				for (ContentObject object : objects)
+					Assert.assertEquals(object, ContentObject.fromWire(reader.next()));
+				Assert.assertNull(reader.next());
+				Assert.assertFalse(reader.tornTail());
+				Assert.assertEquals(0, reader.damaged());
+			} finally {
+				in.close();
+			}
+			
+			in = new FileInputStream(legacy);
+			try {
+				new LogFileFormat.Reader(in.getChannel(), 0);
+				Assert.fail("Read a file without a header");
+			} catch (IOException e) {
+			} finally {
+				in.close();
+			}
+		} finally {
+			legacy.delete();
+			upgraded.delete();
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testUpgrade");
+	}
+	
+	@Test
+	public void testCompression() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testCompression");
+		
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			text.append("line " + i + " of some text which compresses well\n");
+		ContentObject object = TestUtils.fakeSignedObject(ContentName.fromURI("/test/format/text"), text.toString().getBytes());
+		byte [] encoded = object.encode();
+		Assert.assertFalse(LogFileFormat.isCompressed(encoded));
+		Assert.assertSame(encoded, LogFileFormat.expand(encoded));
+		
+		byte [] compressed = LogFileFormat.compress(encoded);
+		Assert.assertNotNull(compressed);
+		Assert.assertTrue(compressed.length < encoded.length / 4);
+		Assert.assertTrue(LogFileFormat.isCompressed(compressed));
+		Assert.assertEquals(object, ContentObject.fromWire(LogFileFormat.expand(compressed)));
+		
+		// Content which doesn't compress is written as it is
+		byte [] random = new byte[2000];
+		new Random(1).nextBytes(random);
+		ContentObject incompressible = TestUtils.fakeSignedObject(ContentName.fromURI("/test/format/random"), random);
+		Assert.assertNull(LogFileFormat.compress(incompressible.encode()));
+		
+		compressed[compressed.length / 2] ^= 0xff;
+		try {
+			LogFileFormat.expand(compressed);
+			Assert.fail("Expanded a damaged record");
+		} catch (ContentDecodingException e) {
+		}
+		try {
+			LogFileFormat.expand(new byte [] {LogFileFormat.COMPRESSED_MARKER, 99, 0, 0, 0, 1, 0});
+			Assert.fail("Expanded a record with an unknown codec");
+		} catch (ContentDecodingException e) {
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testCompression");
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.LogFileFormat;
+import org.ccnx.ccn.impl.repo.LogIndexBuilder;
+import org.ccnx.ccn.impl.repo.ContentTree.ContentGetter;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test framing records in log files and rebuilding an index from several files in parallel.
+ */
+public class LogIndexBuilderTest {
+	
+	static final int FILES = 3;
+	static final int RECORDS = 500;
+	
+	static class OffsetRef extends ContentRef {
+		int id;
+		long offset;
+	}
+	
+	static final LogIndexBuilder.RefFactory FACTORY = new LogIndexBuilder.RefFactory() {
+		public ContentRef ref(int id, long offset, byte [] record, PublisherPublicKeyDigest publisher) {
+			OffsetRef ref = new OffsetRef();
+			ref.id = id;
+			ref.offset = offset;
+			return ref;
+		}
+	};
+	
+	static ContentObject object(String name, int i) throws Exception {
+		return TestUtils.fakeSignedObject(ContentName.fromURI(name), ("content " + i).getBytes());
+	}
+	
+	@Test
+	public void testReadRecord() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testReadRecord");
+		
+		ContentObject [] objects = new ContentObject[10];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = object("/test/records/" + i, i);
+			objects[i].encode(out);
+		}
+		byte [] encoded = out.toByteArray();
+		
+		ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+		for (ContentObject object : objects) {
+			byte [] record = LogIndexBuilder.readRecord(in);
+			ContentObject decoded = new ContentObject();
+			decoded.decode(record);
+			Assert.assertEquals(object, decoded);
+			LogIndexBuilder.IndexFields fields = LogIndexBuilder.indexFields(record);
+			Assert.assertEquals(object.fullName(), fields.fullName);
+			Assert.assertEquals(object.signedInfo().getPublisherKeyID(), fields.publisher);
+		}
+		Assert.assertNull(LogIndexBuilder.readRecord(in));
+		
+		in = new ByteArrayInputStream(encoded, 0, encoded.length - 5);
+		for (int i = 0; i < objects.length - 1; i++)
+			Assert.assertNotNull(LogIndexBuilder.readRecord(in));
+		try {
+			LogIndexBuilder.readRecord(in);
+			Assert.fail("Read a truncated record");
+		} catch (EOFException e) {}
+		
+		Log.info(Log.FAC_TEST, "Completed testReadRecord");
+	}
+	
+	@Test
+	public void testBuild() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBuild");
+		
+		File dir = File.createTempFile("LogIndexBuilderTest", "");
+		dir.delete();
+		dir.mkdir();
+		final HashMap<OffsetRef, ContentObject> written = new HashMap<OffsetRef, ContentObject>();
+		TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+		TreeMap<Integer, Long> lengths = new TreeMap<Integer, Long>();
+		ContentObject [][] objects = new ContentObject[FILES + 1][RECORDS];
+		try {
+			for (int id = 1; id <= FILES; id++) {
+				File file = new File(dir, "repoFile" + id);
+				FileOutputStream out = new FileOutputStream(file);
+				out.write(LogFileFormat.fileHeader());
+				for (int i = 0; i < RECORDS; i++) {
+					objects[id][i] = object("/test/build/" + (i % 17) + "/" + id + "/" + i, i);
+					write(out, objects[id][i]);
+				}
+				// Duplicate of a record from the first file
+				write(out, objects[1][0]);
+				lengths.put(id, file.length());
+				if (id == FILES) {
+					ByteArrayOutputStream partial = new ByteArrayOutputStream();
+					write(partial, object("/test/build/partial", 0));
+					out.write(partial.toByteArray(), 0, partial.size() / 2);
+				}
+				out.close();
+				files.put(id, file);
+			}
+			
+			ContentTree tree = new ContentTree();
+			LogIndexBuilder builder = new LogIndexBuilder(tree, new LogIndexBuilder.RefFactory() {
+				public ContentRef ref(int id, long offset, byte [] record, PublisherPublicKeyDigest publisher) {
+					OffsetRef ref = (OffsetRef)FACTORY.ref(id, offset, record, publisher);
+					ContentObject object = new ContentObject();
+					try {
+						object.decode(record);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					synchronized (written) {
+						written.put(ref, object);
+					}
+					return ref;
+				}
+			}, 4);
+			Map<Integer, Long> indexed = builder.build(files, null);
+			Assert.assertEquals(lengths, indexed);
+			Assert.assertEquals(1, builder.tornTails().size());
+			Assert.assertEquals(lengths.get(FILES), builder.tornTails().get(FILES));
+			
+			ContentGetter getter = new ContentGetter() {
+				public ContentObject get(ContentRef ref) {
+					synchronized (written) {
+						return written.get(ref);
+					}
+				}
+			};
+			for (int id = 1; id <= FILES; id++) {
+				for (int i = 0; i < RECORDS; i++) {
+					Interest exact = new Interest(objects[id][i].fullName());
+					exact.maxSuffixComponents(0);
+					Assert.assertEquals(objects[id][i], tree.get(exact, getter));
+				}
+			}
+			Assert.assertNull(tree.get(new Interest(ContentName.fromURI("/test/build/partial")), getter));
+			Assert.assertEquals(FILES * RECORDS, written.size() - FILES);
+			
+			// Starting part way through a file only indexes the rest of it
+			tree = new ContentTree();
+			TreeMap<Integer, Long> start = new TreeMap<Integer, Long>();
+			start.put(1, lengths.get(1));
+			TreeMap<Integer, File> first = new TreeMap<Integer, File>();
+			first.put(1, files.get(1));
+			builder = new LogIndexBuilder(tree, FACTORY, 2);
+			Assert.assertEquals(lengths.get(1), builder.build(first, start).get(1));
+			Assert.assertEquals(0, builder.recordsIndexed());
+		} finally {
+			for (File file : files.values())
+				file.delete();
+			dir.delete();
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testBuild");
+	}
+	
+	static void write(OutputStream out, ContentObject object) throws Exception {
+		byte [] record = object.encode();
+		out.write(LogFileFormat.recordHeader(record).array());
+		out.write(record);
+	}
+}
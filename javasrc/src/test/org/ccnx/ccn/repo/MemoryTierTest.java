@@ -0,0 +1,117 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+
+package org.ccnx.ccn.repo;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.MemoryTier;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that the memory tier of the tiered repository demotes content once it is over its size
+ * or the content is older than the maximum age.
+ */
+public class MemoryTierTest {
+	
+	static final int OBJECTS = 100;
+	static final int SIZE = 1000;
+	
+	static class Ref extends ContentRef {}
+	
+	static ContentObject [] objects = new ContentObject[OBJECTS];
+	static Ref [] refs = new Ref[OBJECTS];
+	
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		for (int i = 0; i < OBJECTS; i++) {
+			objects[i] = TestUtils.fakeSignedObject(ContentName.fromURI("/test/tier/" + i), new byte[SIZE]);
+			refs[i] = new Ref();
+		}
+	}
+	
+	@Test
+	public void testSize() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSize");
+		
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		MemoryTier tier = new MemoryTier(10 * SIZE, 60000);
+		tier.setStats(stats);
+		for (int i = 0; i < OBJECTS; i++) {
+			tier.put(refs[i], objects[i], SIZE);
+			Assert.assertTrue(tier.size() <= tier.maxSize());
+		}
+		
+		// The most recent content is kept, the oldest demoted
+		Assert.assertEquals(10, tier.count());
+		Assert.assertEquals(10 * SIZE, tier.size());
+		for (int i = 0; i < OBJECTS; i++)
+			Assert.assertEquals((i >= OBJECTS - 10) ? objects[i] : null, tier.get(refs[i]));
+		Assert.assertEquals(10, stats.getCounter("MemoryTierHits"));
+		Assert.assertEquals(OBJECTS - 10, stats.getCounter("MemoryTierMisses"));
+		Assert.assertEquals(OBJECTS - 10, stats.getCounter("MemoryTierDemotions"));
+		
+		// Putting content again doesn't count it twice
+		tier.put(refs[OBJECTS - 1], objects[OBJECTS - 1], SIZE);
+		Assert.assertEquals(10 * SIZE, tier.size());
+		Assert.assertTrue(tier.contains(refs[OBJECTS - 10]));
+		
+		tier.remove(refs[OBJECTS - 1]);
+		Assert.assertFalse(tier.contains(refs[OBJECTS - 1]));
+		Assert.assertEquals(9 * SIZE, tier.size());
+		
+		// Content bigger than the whole tier is never held
+		tier.put(refs[0], objects[0], 11 * SIZE);
+		Assert.assertFalse(tier.contains(refs[0]));
+		Assert.assertEquals(9, tier.count());
+		
+		Log.info(Log.FAC_TEST, "Completed testSize");
+	}
+	
+	@Test
+	public void testAge() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testAge");
+		
+		long maxAge = 400;
+		MemoryTier tier = new MemoryTier(OBJECTS * SIZE, maxAge);
+		for (int i = 0; i < 10; i++)
+			tier.put(refs[i], objects[i], SIZE);
+		Assert.assertEquals(0, tier.demote(System.currentTimeMillis()));
+		
+		// Content read after half the age goes back to the end of the line
+		Thread.sleep(maxAge * 3 / 4);
+		Assert.assertEquals(objects[0], tier.get(refs[0]));
+		Assert.assertEquals(9, tier.demote(System.currentTimeMillis() + maxAge / 2));
+		Assert.assertTrue(tier.contains(refs[0]));
+		Assert.assertEquals(1, tier.count());
+		Assert.assertEquals(SIZE, tier.size());
+		
+		Assert.assertEquals(1, tier.demote(System.currentTimeMillis() + maxAge + 1));
+		Assert.assertEquals(0, tier.count());
+		Assert.assertEquals(0, tier.size());
+		
+		Log.info(Log.FAC_TEST, "Completed testAge");
+	}
+}
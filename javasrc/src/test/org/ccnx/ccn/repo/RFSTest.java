@@ -20,13 +20,24 @@ package org.ccnx.ccn.repo;
 import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.LogCompactor;
+import org.ccnx.ccn.impl.repo.LogFileFormat;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.MemoryTier;
 import org.ccnx.ccn.impl.repo.RepositoryException;
 import org.ccnx.ccn.impl.repo.RepositoryStore;
+import org.ccnx.ccn.impl.repo.TieredRepoStore;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
@@ -125,6 +136,509 @@ public class RFSTest extends RepoTestBase {
 		Log.info(Log.FAC_TEST, "Completed testBulkImport");
 	}
 	
+	@Test
+	public void testIndexCheckpoint() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testIndexCheckpoint");
+
+		DataUtils.deleteDirectory(new File(_fileTestDir3));
+		RepositoryStore repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		ContentName name1 = ContentName.fromNative("/repoTest/testCheckpoint/one");
+		repo.saveContent(ContentObject.buildContentObject(name1, "Before checkpoint".getBytes()));
+		repo.shutDown();
+		File checkpoint = new File(_fileTestDir3 + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+				LogStructRepoStoreProfile.INDEX_CHECKPOINT);
+		Assert.assertTrue(checkpoint.exists());
+		
+		// Content written after the checkpoint has to be found by reading the log
+		repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "Before checkpoint");
+		ContentName name2 = ContentName.fromNative("/repoTest/testCheckpoint/two");
+		repo.saveContent(ContentObject.buildContentObject(name2, "After checkpoint".getBytes()));
+		RepositoryStore repo2 = new LogStructRepoStore();
+		repo2.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		checkData(repo2, name1, "Before checkpoint");
+		checkData(repo2, name2, "After checkpoint");
+		repo2.shutDown();
+		repo.shutDown();
+		
+		// A damaged checkpoint must be ignored
+		RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw");
+		raf.seek(raf.length() / 2);
+		int b = raf.read();
+		raf.seek(raf.length() / 2);
+		raf.write(~b);
+		raf.close();
+		repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "Before checkpoint");
+		checkData(repo, name2, "After checkpoint");
+		repo.shutDown();
+		
+		Log.info(Log.FAC_TEST, "Completed testIndexCheckpoint");
+	}
+	
+	@Test
+	public void testDamagedFileHeader() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDamagedFileHeader");
+
+		DataUtils.deleteDirectory(new File(_fileTestDir3));
+		RepositoryStore repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		ContentName name1 = ContentName.fromNative("/repoTest/testDamagedFileHeader/one");
+		repo.saveContent(ContentObject.buildContentObject(name1, "Before damage".getBytes()));
+		repo.shutDown();
+		
+		// A file from this version whose header is damaged isn't read, and isn't rewritten either
+		File logFile = new File(_fileTestDir3, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "1");
+		long length = logFile.length();
+		RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+		raf.seek(1);
+		int b = raf.read();
+		raf.seek(1);
+		raf.write(~b);
+		raf.close();
+		repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		Assert.assertNull(repo.getContent(new Interest(name1)));
+		ContentName name2 = ContentName.fromNative("/repoTest/testDamagedFileHeader/two");
+		repo.saveContent(ContentObject.buildContentObject(name2, "After damage".getBytes()));
+		checkData(repo, name2, "After damage");
+		repo.shutDown();
+		Assert.assertEquals(length, logFile.length());
+		
+		// So repairing the header brings its content back
+		raf = new RandomAccessFile(logFile, "rw");
+		raf.seek(1);
+		raf.write(b);
+		raf.close();
+		repo = new LogStructRepoStore();
+		repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "Before damage");
+		checkData(repo, name2, "After damage");
+		repo.shutDown();
+		
+		Log.info(Log.FAC_TEST, "Completed testDamagedFileHeader");
+	}
+	
+	@Test
+	public void testCompaction() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testCompaction");
+
+		DataUtils.deleteDirectory(new File(_fileTestDir3));
+		long logFileSize = SystemConfiguration.REPO_LOG_FILE_SIZE;
+		SystemConfiguration.REPO_LOG_FILE_SIZE = 1024;	// so the content below is spread over several files
+		try {
+			LogStructRepoStore repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ContentName base = ContentName.fromNative("/repoTest/testCompaction/versioned");
+			ContentName [] versions = new ContentName[5];
+			for (int i = 0; i < versions.length; i++) {
+				versions[i] = VersioningProfile.addVersion(base, i + 1);
+				repo.saveContent(ContentObject.buildContentObject(versions[i], ("version " + i).getBytes()));
+			}
+			ContentName removed = ContentName.fromNative("/repoTest/testCompaction/removed");
+			ContentObject removedContent = ContentObject.buildContentObject(removed, "Removed".getBytes());
+			repo.saveContent(removedContent);
+			for (int i = 0; i < 10; i++)
+				repo.saveContent(ContentObject.buildContentObject(new ContentName(base.parent(), "filler" + i), new byte[200]));
+			Assert.assertTrue(repo.removeContent(removedContent.fullName()));
+			Assert.assertNull(repo.getContent(new Interest(removed)));
+			
+			// Keep 2 versions. The second pass deletes the files rewritten by the first.
+			LogCompactor compactor = new LogCompactor(repo, 2, null, 1, 0);
+			compactor.compact();
+			compactor.compact();
+			checkCompacted(repo, versions, removed);
+			repo.shutDown();
+			
+			// Rebuilding the index from the log files mustn't bring anything back
+			Assert.assertTrue(new File(_fileTestDir3 + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+					LogStructRepoStoreProfile.INDEX_CHECKPOINT).delete());
+			repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			checkCompacted(repo, versions, removed);
+			
+			// Saving removed content again brings it back
+			repo.saveContent(removedContent);
+			checkData(repo, removed, "Removed");
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_LOG_FILE_SIZE = logFileSize;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testCompaction");
+	}
+	
+	@Test
+	public void testTieredCompaction() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testTieredCompaction");
+
+		DataUtils.deleteDirectory(new File(_fileTestDir3));
+		long logFileSize = SystemConfiguration.REPO_LOG_FILE_SIZE;
+		SystemConfiguration.REPO_LOG_FILE_SIZE = 1024;	// so the content below is spread over several files
+		try {
+			final HashMap<ContentName, ContentRef> refs = new HashMap<ContentName, ContentRef>();
+			TieredRepoStore repo = new TieredRepoStore() {
+				@Override
+				protected void committed(FileRef ref, ContentObject co) {
+					super.committed(ref, co);
+					synchronized (refs) {
+						refs.put(co.name(), ref);
+					}
+				}
+			};
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ContentName base = ContentName.fromNative("/repoTest/testTieredCompaction/versioned");
+			ContentName [] versions = new ContentName[5];
+			for (int i = 0; i < versions.length; i++) {
+				versions[i] = VersioningProfile.addVersion(base, i + 1);
+				repo.saveContent(ContentObject.buildContentObject(versions[i], ("version " + i).getBytes()));
+			}
+			for (int i = 0; i < 10; i++)
+				repo.saveContent(ContentObject.buildContentObject(new ContentName(base.parent(), "filler" + i), new byte[200]));
+			MemoryTier tier = repo.getMemoryTier();
+			for (ContentName version : versions)
+				Assert.assertTrue(tier.contains(refs.get(version)));
+			
+			// The versions the compactor drops are no longer held in the memory tier
+			LogCompactor compactor = new LogCompactor(repo, 2, null, 1, 0);
+			compactor.compact();
+			for (int i = 0; i < versions.length - 2; i++) {
+				Assert.assertFalse(tier.contains(refs.get(versions[i])));
+				Assert.assertNull(repo.getContent(new Interest(versions[i])));
+			}
+			for (int i = versions.length - 2; i < versions.length; i++)
+				checkData(repo, versions[i], "version " + i);
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_LOG_FILE_SIZE = logFileSize;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testTieredCompaction");
+	}
+	
+	@Test
+	public void testShards() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testShards");
+
+		String directories = SystemConfiguration.REPO_DIRECTORIES;
+		String shardPolicy = SystemConfiguration.REPO_SHARD_POLICY;
+		File [] dirs = new File[]{new File(_fileTestDir3), new File(_fileTestDir3 + "a"), new File(_fileTestDir3 + "b")};
+		try {
+			for (String policy : new String[]{"hash", "roundrobin"}) {
+				for (File dir : dirs)
+					DataUtils.deleteDirectory(dir);
+				SystemConfiguration.REPO_DIRECTORIES = dirs[1].getPath() + "," + dirs[2].getPath();
+				SystemConfiguration.REPO_SHARD_POLICY = policy;
+				RepositoryStore repo = new LogStructRepoStore();
+				repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+				ContentName [] names = new ContentName[30];
+				for (int i = 0; i < names.length; i++) {
+					names[i] = ContentName.fromNative("/repoTest/testShards/" + policy + "/stream" + i);
+					repo.saveContent(ContentObject.buildContentObject(names[i], ("content " + i).getBytes()));
+				}
+				repo.shutDown();
+				
+				// Each directory has content in its own log files, and no two files have the same id
+				HashSet<String> files = new HashSet<String>();
+				for (File dir : dirs) {
+					long written = 0;
+					for (File file : dir.listFiles()) {
+						if (!file.getName().startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX))
+							continue;
+						Assert.assertTrue(file.getName() + " is in more than one directory", files.add(file.getName()));
+						written += file.length() - LogFileFormat.FILE_HEADER_SIZE;
+					}
+					Assert.assertTrue("No content in " + dir, written > 0);
+				}
+				
+				// Everything is found again from the checkpoint, and by reading every directory
+				repo = new LogStructRepoStore();
+				repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+				for (int i = 0; i < names.length; i++)
+					checkData(repo, names[i], "content " + i);
+				repo.shutDown();
+				Assert.assertTrue(new File(_fileTestDir3 + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+						LogStructRepoStoreProfile.INDEX_CHECKPOINT).delete());
+				repo = new LogStructRepoStore();
+				repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+				for (int i = 0; i < names.length; i++)
+					checkData(repo, names[i], "content " + i);
+				repo.shutDown();
+			}
+		} finally {
+			SystemConfiguration.REPO_DIRECTORIES = directories;
+			SystemConfiguration.REPO_SHARD_POLICY = shardPolicy;
+			for (int i = 1; i < dirs.length; i++)
+				DataUtils.deleteDirectory(dirs[i]);
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testShards");
+	}
+	
+	@Test
+	public void testSyncPolicies() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSyncPolicies");
+
+		String syncPolicy = SystemConfiguration.REPO_SYNC_POLICY;
+		int syncInterval = SystemConfiguration.REPO_SYNC_INTERVAL;
+		try {
+			SystemConfiguration.REPO_SYNC_INTERVAL = 200;
+			for (String policy : new String[]{"none", "batch", "interval"}) {
+				DataUtils.deleteDirectory(new File(_fileTestDir3));
+				SystemConfiguration.REPO_SYNC_POLICY = policy;
+				RepositoryStore repo = new LogStructRepoStore();
+				repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+				ContentName base = ContentName.fromNative("/repoTest/testSyncPolicies/" + policy);
+				ArrayList<ContentName> saved = new ArrayList<ContentName>();
+				ArrayList<Exception> failures = new ArrayList<Exception>();
+				AtomicInteger acknowledged = new AtomicInteger();
+				joinSavers(startSavers(repo, base, 4, 25, saved, acknowledged, failures));
+				Assert.assertTrue(failures.toString(), failures.isEmpty());
+				Assert.assertEquals(100, saved.size());
+				
+				// Under interval the sync timer acknowledges the saves, otherwise they already are
+				long end = System.currentTimeMillis() + 10000;
+				while (acknowledged.get() < saved.size() && System.currentTimeMillis() < end)
+					Thread.sleep(50);
+				Assert.assertEquals(saved.size(), acknowledged.get());
+				for (ContentName name : saved)
+					checkData(repo, name, name.toURIString());
+				repo.shutDown();
+				
+				repo = new LogStructRepoStore();
+				repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+				for (ContentName name : saved)
+					checkData(repo, name, name.toURIString());
+				repo.shutDown();
+			}
+		} finally {
+			SystemConfiguration.REPO_SYNC_POLICY = syncPolicy;
+			SystemConfiguration.REPO_SYNC_INTERVAL = syncInterval;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testSyncPolicies");
+	}
+	
+	@Test
+	public void testShutdownWithSavesWaiting() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testShutdownWithSavesWaiting");
+
+		String syncPolicy = SystemConfiguration.REPO_SYNC_POLICY;
+		int syncInterval = SystemConfiguration.REPO_SYNC_INTERVAL;
+		try {
+			DataUtils.deleteDirectory(new File(_fileTestDir3));
+			SystemConfiguration.REPO_SYNC_POLICY = "interval";
+			SystemConfiguration.REPO_SYNC_INTERVAL = 600000;	// so only the shutdown syncs
+			RepositoryStore repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ContentName base = ContentName.fromNative("/repoTest/testShutdownWithSavesWaiting");
+			ArrayList<ContentName> saved = new ArrayList<ContentName>();
+			ArrayList<Exception> failures = new ArrayList<Exception>();
+			AtomicInteger acknowledged = new AtomicInteger();
+			
+			// Saves don't wait for the sync, their acknowledgements do
+			joinSavers(startSavers(repo, new ContentName(base, "before"), 4, 25, saved, acknowledged, failures));
+			Assert.assertTrue(failures.toString(), failures.isEmpty());
+			Assert.assertEquals(100, saved.size());
+			Assert.assertEquals(0, acknowledged.get());
+			
+			// Savers still going when the repository shuts down fail rather than hang, and the
+			// sync on shutdown acknowledges everything saved before it
+			Thread [] savers = startSavers(repo, new ContentName(base, "during"), 4, Integer.MAX_VALUE, saved, acknowledged, failures);
+			Thread.sleep(500);
+			repo.shutDown();
+			joinSavers(savers);
+			Assert.assertEquals(savers.length, failures.size());
+			Assert.assertTrue(acknowledged.get() >= 100);
+			
+			SystemConfiguration.REPO_SYNC_POLICY = "none";
+			repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			for (ContentName name : saved)
+				checkData(repo, name, name.toURIString());
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_SYNC_POLICY = syncPolicy;
+			SystemConfiguration.REPO_SYNC_INTERVAL = syncInterval;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testShutdownWithSavesWaiting");
+	}
+	
+	@Test
+	public void testQuotaEvictionCheckpoint() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testQuotaEvictionCheckpoint");
+
+		String quota = SystemConfiguration.REPO_QUOTA;
+		try {
+			DataUtils.deleteDirectory(new File(_fileTestDir3));
+			SystemConfiguration.REPO_QUOTA = "";
+			RepositoryStore repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ContentName base = ContentName.fromNative("/repoTest/testQuotaEvictionCheckpoint");
+			ContentName [] names = new ContentName[50];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = new ContentName(base, Integer.toString(i));
+				repo.saveContent(ContentObject.buildContentObject(names[i], names[i].toURIString().getBytes()));
+			}
+			repo.shutDown();
+			
+			// Evicting on start changes the index but none of the log files
+			SystemConfiguration.REPO_QUOTA = base.toURIString() + "=4000";
+			repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ArrayList<ContentName> kept = new ArrayList<ContentName>();
+			for (ContentName name : names) {
+				if (null != repo.getContent(new Interest(name)))
+					kept.add(name);
+			}
+			Assert.assertTrue(kept.size() > 0 && kept.size() < names.length);
+			repo.shutDown();
+			
+			// The evicted content stays gone without the quota
+			SystemConfiguration.REPO_QUOTA = "";
+			repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			for (ContentName name : names)
+				Assert.assertEquals(kept.contains(name), null != repo.getContent(new Interest(name)));
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_QUOTA = quota;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testQuotaEvictionCheckpoint");
+	}
+	
+	@Test
+	public void testParallelGets() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testParallelGets");
+
+		long cacheSize = SystemConfiguration.REPO_CACHE_SIZE;
+		try {
+			DataUtils.deleteDirectory(new File(_fileTestDir3));
+			SystemConfiguration.REPO_CACHE_SIZE = 0;		// so that every get reads the log
+			final RepositoryStore repo = new LogStructRepoStore();
+			repo.initialize(_fileTestDir3, null, _repoName, _globalPrefix, null, null);
+			ContentName base = ContentName.fromNative("/repoTest/testParallelGets");
+			final ArrayList<ContentName> saved = new ArrayList<ContentName>();
+			final ArrayList<Exception> failures = new ArrayList<Exception>();
+			AtomicInteger acknowledged = new AtomicInteger();
+			joinSavers(startSavers(repo, new ContentName(base, "before"), 1, 50, saved, acknowledged, failures));
+			
+			// Read what has been saved, from the file being appended to, while more is saved
+			Thread [] savers = startSavers(repo, new ContentName(base, "during"), 2, 100, saved, acknowledged, failures);
+			final AtomicInteger running = new AtomicInteger(savers.length);
+			Thread [] getters = new Thread[4];
+			for (int t = 0; t < getters.length; t++) {
+				final int first = t;
+				getters[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for (int i = first; ; i += 7) {
+								ContentName name;
+								synchronized (saved) {
+									if (running.get() == 0 && i >= 4 * saved.size())
+										return;
+									name = saved.get(i % saved.size());
+								}
+								ContentObject content = repo.getContent(new Interest(name));
+								if (null == content || !name.toURIString().equals(new String(content.content())))
+									throw new Exception("Wrong content for " + name + ": " + content);
+							}
+						} catch (Exception e) {
+							synchronized (failures) {
+								failures.add(e);
+							}
+						}
+					}
+				};
+				getters[t].start();
+			}
+			joinSavers(savers);
+			running.set(0);
+			joinSavers(getters);
+			Assert.assertTrue(failures.toString(), failures.isEmpty());
+			Assert.assertEquals(250, saved.size());
+			
+			// A reader interrupted in a read closes the channel for all readers of the file,
+			// and the next get has to open it again
+			Thread interrupted = new Thread() {
+				@Override
+				public void run() {
+					interrupt();
+					try {
+						repo.getContent(new Interest(saved.get(0)));
+					} catch (RepositoryException e) {}
+				}
+			};
+			interrupted.start();
+			interrupted.join();
+			for (ContentName name : saved)
+				checkData(repo, name, name.toURIString());
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_CACHE_SIZE = cacheSize;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testParallelGets");
+	}
+	
+	/**
+	 * Start threads which each save content under their own name, one piece at a time, and
+	 * count each piece as acknowledged when the repository runs its afterSync action
+	 */
+	private Thread [] startSavers(final RepositoryStore repo, ContentName base, int threads, final int count, 
+			final ArrayList<ContentName> saved, final AtomicInteger acknowledged, final ArrayList<Exception> failures) {
+		Thread [] savers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final ContentName stream = new ContentName(base, "saver" + t);
+			savers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++) {
+							ContentName name = new ContentName(stream, "item" + i);
+							repo.saveContent(ContentObject.buildContentObject(name, name.toURIString().getBytes()));
+							synchronized (saved) {
+								saved.add(name);
+							}
+							repo.afterSync(new Runnable() {
+								public void run() {
+									acknowledged.incrementAndGet();
+								}
+							});
+						}
+					} catch (Exception e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			};
+			savers[t].start();
+		}
+		return savers;
+	}
+	
+	private void joinSavers(Thread [] savers) throws InterruptedException {
+		for (Thread saver : savers) {
+			saver.join(60000);
+			Assert.assertFalse(saver.getName() + " didn't finish", saver.isAlive());
+		}
+	}
+	
+	private void checkCompacted(RepositoryStore repo, ContentName [] versions, ContentName removed) throws RepositoryException {
+		for (int i = 0; i < versions.length - 2; i++)
+			Assert.assertNull(repo.getContent(new Interest(versions[i])));
+		for (int i = versions.length - 2; i < versions.length; i++)
+			checkData(repo, versions[i], "version " + i);
+		Assert.assertNull(repo.getContent(new Interest(removed)));
+	}
+	
 	/**
 	 * Tests policy file parsing
 	 */
@@ -0,0 +1,126 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ccnx.ccn.TestUtils;
+import org.ccnx.ccn.impl.repo.RepositoryQuotas;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check quota parsing and which content each eviction policy picks when a namespace is over
+ * its quota.
+ */
+public class RepositoryQuotasTest {
+	
+	static ContentObject object(ContentName name) throws Exception {
+		return TestUtils.fakeSignedObject(name, name.toString().getBytes());
+	}
+	
+	@Test
+	public void testParse() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testParse");
+		
+		RepositoryQuotas quotas = new RepositoryQuotas(" /a=100, /a/b=50:oldest,/c=10:TTL,/d,/e=x,/f=1:random");
+		Assert.assertFalse(quotas.isEmpty());
+		Assert.assertEquals(RepositoryQuotas.Eviction.LRU, quotas.quotaFor(ContentName.fromURI("/a/c")).eviction());
+		Assert.assertEquals(100, quotas.quotaFor(ContentName.fromURI("/a/c")).limit());
+		Assert.assertEquals(ContentName.fromURI("/a/b"), quotas.quotaFor(ContentName.fromURI("/a/b/c")).prefix());
+		Assert.assertEquals(RepositoryQuotas.Eviction.TTL, quotas.quotaFor(ContentName.fromURI("/c")).eviction());
+		Assert.assertNull(quotas.quotaFor(ContentName.fromURI("/d/1")));
+		Assert.assertNull(quotas.quotaFor(ContentName.fromURI("/e/1")));
+		Assert.assertNull(quotas.quotaFor(ContentName.fromURI("/f/1")));
+		Assert.assertNull(quotas.quotaFor(ContentName.fromURI("/")));
+		Assert.assertTrue(new RepositoryQuotas("").isEmpty());
+		Assert.assertTrue(new RepositoryQuotas(null).isEmpty());
+		
+		Log.info(Log.FAC_TEST, "Completed testParse");
+	}
+	
+	@Test
+	public void testLRU() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testLRU");
+		
+		RepositoryQuotas quotas = new RepositoryQuotas("/lru=300");
+		ContentObject [] objects = new ContentObject[4];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = object(ContentName.fromURI("/lru/" + i));
+			quotas.stored(objects[i].fullName(), 100, i);
+		}
+		quotas.stored(objects[0].fullName(), 100, 10);
+		quotas.stored(object(ContentName.fromURI("/other")).fullName(), 1000, 0);
+		Assert.assertEquals(400, quotas.used(ContentName.fromURI("/lru")));
+		
+		// Reading the oldest keeps it
+		quotas.accessed(objects[0]);
+		ArrayList<Long> sizes = new ArrayList<Long>();
+		List<ContentName> evicted = quotas.evict(sizes);
+		Assert.assertEquals(1, evicted.size());
+		Assert.assertEquals(objects[1].fullName(), evicted.get(0));
+		Assert.assertEquals(100, sizes.get(0).longValue());
+		Assert.assertEquals(300, quotas.used(ContentName.fromURI("/lru")));
+		Assert.assertNull(quotas.evict(null));
+		
+		quotas.removed(objects[2].fullName());
+		quotas.removed(objects[2].fullName());
+		Assert.assertEquals(200, quotas.used(ContentName.fromURI("/lru")));
+		
+		Log.info(Log.FAC_TEST, "Completed testLRU");
+	}
+	
+	@Test
+	public void testOldestAndTTL() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testOldestAndTTL");
+		
+		RepositoryQuotas quotas = new RepositoryQuotas("/v=200:oldest,/t=200:ttl");
+		ContentName base = ContentName.fromURI("/v/doc");
+		ContentObject newer = object(new ContentName(base, new CCNTime(2000000)));
+		ContentObject older = object(new ContentName(base, new CCNTime(1000000)));
+		ContentObject unversioned = object(ContentName.fromURI("/v/plain"));
+		quotas.stored(newer.fullName(), 100, 10);
+		quotas.stored(older.fullName(), 100, 20);
+		quotas.stored(unversioned.fullName(), 100, 3000000);
+		quotas.accessed(older);
+		List<ContentName> evicted = quotas.evict(null);
+		Assert.assertEquals(1, evicted.size());
+		Assert.assertEquals(older.fullName(), evicted.get(0));
+		
+		ContentObject first = object(ContentName.fromURI("/t/first"));
+		ContentObject second = object(ContentName.fromURI("/t/second"));
+		ContentObject third = object(ContentName.fromURI("/t/third"));
+		quotas.stored(first.fullName(), 100, 1);
+		quotas.stored(second.fullName(), 100, 2);
+		quotas.accessed(first);
+		quotas.stored(third.fullName(), 150, 3);
+		evicted = quotas.evict(null);
+		Assert.assertEquals(2, evicted.size());
+		Assert.assertEquals(first.fullName(), evicted.get(0));
+		Assert.assertEquals(second.fullName(), evicted.get(1));
+		Assert.assertEquals(150, quotas.used(ContentName.fromURI("/t")));
+		Assert.assertTrue(quotas.status().contains("evicted 200"));
+		
+		Log.info(Log.FAC_TEST, "Completed testOldestAndTTL");
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.RepositoryRequestScheduler;
+import org.ccnx.ccn.impl.repo.RepositoryRequestScheduler.Lane;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.CommandMarker;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.Interest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the request scheduler classifies, sheds and expires requests per lane, and that
+ * one busy lane doesn't hold up the others.
+ */
+public class RepositoryRequestSchedulerTest {
+	
+	/**
+	 * Holds up interests under /block until released, and counts down processed for the rest
+	 */
+	static class Processor implements RepositoryRequestScheduler.Processor {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch processed;
+		
+		Processor(int count) {
+			processed = new CountDownLatch(count);
+		}
+		
+		public void process(Interest interest) {
+			try {
+				if (interest.name().stringComponent(0).equals("block"))
+					release.await();
+				else
+					processed.countDown();
+			} catch (InterruptedException e) {}
+		}
+	}
+	
+	static Interest interest(String uri) throws Exception {
+		return new Interest(ContentName.fromURI(uri));
+	}
+	
+	@Test
+	public void testLanes() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testLanes");
+		
+		ContentName prefix = ContentName.fromURI("/test/scheduler");
+		Assert.assertEquals(Lane.DATA, Lane.of(new Interest(prefix)));
+		Assert.assertEquals(Lane.ENUMERATION, Lane.of(new Interest(
+				new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes()))));
+		Assert.assertEquals(Lane.WRITE, Lane.of(new Interest(
+				new ContentName(prefix, CommandMarker.COMMAND_MARKER_REPO_START_WRITE.getBytes(), "nonce"))));
+		
+		Interest interest = new Interest(prefix);
+		Assert.assertEquals(RepositoryRequestScheduler.DEFAULT_INTEREST_LIFETIME, RepositoryRequestScheduler.lifetime(interest));
+		interest.interestLifetime(new byte[]{0x20, 0x00});
+		Assert.assertEquals(2000, RepositoryRequestScheduler.lifetime(interest));
+		
+		Log.info(Log.FAC_TEST, "Completed testLanes");
+	}
+	
+	@Test
+	public void testEnumerationDoesNotStarveData() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testEnumerationDoesNotStarveData");
+		
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		Processor processor = new Processor(4);
+		RepositoryRequestScheduler scheduler = new RepositoryRequestScheduler(processor, stats, 1, 1, 1, 4);
+		
+		// One enumeration being processed and a full queue behind it
+		for (int i = 0; i < 5; i++)
+			Assert.assertTrue(scheduler.add(Lane.ENUMERATION, interest("/block/" + i)));
+		Assert.assertFalse(scheduler.add(Lane.ENUMERATION, interest("/block/shed")));
+		Assert.assertEquals(1, stats.getCounter("RequestEnumerationShed"));
+		
+		// Data is still read while the enumerations wait
+		for (int i = 0; i < 4; i++)
+			Assert.assertTrue(scheduler.add(Lane.DATA, interest("/data/" + i)));
+		Assert.assertTrue(processor.processed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(4, scheduler.queued(Lane.ENUMERATION));
+		Assert.assertEquals(0, stats.getCounter("RequestDataShed"));
+		Assert.assertTrue(stats.isAveragingCounter("RequestDataWait"));
+		
+		processor.release.countDown();
+		scheduler.shutdown();
+		
+		Log.info(Log.FAC_TEST, "Completed testEnumerationDoesNotStarveData");
+	}
+	
+	@Test
+	public void testExpired() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testExpired");
+		
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		Processor processor = new Processor(1);
+		RepositoryRequestScheduler scheduler = new RepositoryRequestScheduler(processor, stats, 1, 1, 1, 10);
+		
+		Assert.assertTrue(scheduler.add(Lane.DATA, interest("/block")));
+		Interest expiring = interest("/data/expiring");
+		expiring.interestLifetime(new byte[]{0x10});		// 4ms
+		Assert.assertTrue(scheduler.add(Lane.DATA, expiring));
+		Assert.assertTrue(scheduler.add(Lane.DATA, interest("/data/default")));
+		Thread.sleep(100);
+		processor.release.countDown();
+		
+		// Only the interest with the default lifetime is processed
+		Assert.assertTrue(processor.processed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, stats.getCounter("RequestDataExpired"));
+		scheduler.shutdown();
+		
+		Log.info(Log.FAC_TEST, "Completed testExpired");
+	}
+	
+	@Test
+	public void testJobLanes() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testJobLanes");
+		
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		RepositoryRequestScheduler scheduler = new RepositoryRequestScheduler(new Processor(1), stats, 1, 1, 1, 1, 1, 2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		Runnable job = new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+				done.countDown();
+			}
+		};
+		
+		// One job running and two queued fill the read ahead lane, whatever arrives after is shed
+		for (int i = 0; i < 3; i++)
+			Assert.assertTrue(scheduler.add(Lane.READ_AHEAD, job));
+		Assert.assertFalse(scheduler.add(Lane.READ_AHEAD, job));
+		Assert.assertEquals(1, stats.getCounter("RequestReadAheadShed"));
+		
+		// Imports have their own thread, so still run
+		Assert.assertTrue(scheduler.add(Lane.IMPORT, new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}));
+		release.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(0, stats.getCounter("RequestImportShed"));
+		Assert.assertTrue(stats.isAveragingCounter("RequestReadAheadWait"));
+		scheduler.shutdown();
+		
+		Log.info(Log.FAC_TEST, "Completed testJobLanes");
+	}
+}